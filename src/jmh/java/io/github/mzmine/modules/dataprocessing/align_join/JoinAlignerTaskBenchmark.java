@@ -0,0 +1,186 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.align_join;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Timeout;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Range;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.MZmineProject;
+import io.github.mzmine.datamodel.PeakList;
+import io.github.mzmine.datamodel.PeakListRow;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimpleFeature;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.main.impl.MZmineConfigurationImpl;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.parametertypes.selectors.PeakListsSelection;
+import io.github.mzmine.parameters.parametertypes.selectors.PeakListsSelectionType;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.taskcontrol.TaskStatus;
+
+/**
+ * Aligns feature lists of the same compounds in many samples with JoinAlignerTask, looking up the
+ * candidate rows in the aligned feature list through its m/z-RT index or through a linear scan
+ * over all its rows, as the feature lists did before the index was added. The rows are scored on
+ * one thread, so only the lookup differs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Timeout(time = 6, timeUnit = TimeUnit.HOURS)
+public class JoinAlignerTaskBenchmark {
+
+  @Param({"20000"})
+  public int numRows;
+
+  @Param({"200"})
+  public int numSamples;
+
+  @Param({"index", "linearScan"})
+  public String rowLookup;
+
+  private PeakList peakLists[];
+
+  /**
+   * Range queries of SimplePeakList before the m/z-RT index
+   */
+  private static class LinearScanPeakList extends SimplePeakList {
+
+    LinearScanPeakList(String name, RawDataFile dataFiles[]) {
+      super(name, dataFiles);
+    }
+
+    @Override
+    public PeakListRow[] getRowsInsideScanAndMZRange(Range<Double> rtRange,
+        Range<Double> mzRange) {
+      Vector<PeakListRow> rowsInside = new Vector<PeakListRow>();
+
+      for (PeakListRow row : getRows()) {
+        if (rtRange.contains(row.getAverageRT()) && mzRange.contains(row.getAverageMZ()))
+          rowsInside.add(row);
+      }
+
+      return rowsInside.toArray(new PeakListRow[0]);
+    }
+  }
+
+  @Setup
+  public void createPeakLists() throws Exception {
+    // The parameters need the number formats of the configuration
+    final Field configuration = MZmineCore.class.getDeclaredField("configuration");
+    configuration.setAccessible(true);
+    if (configuration.get(null) == null)
+      configuration.set(null, new MZmineConfigurationImpl());
+
+    final Random random = new Random(1);
+
+    final double compoundMz[] = new double[numRows];
+    final double compoundRt[] = new double[numRows];
+    for (int r = 0; r < numRows; r++) {
+      compoundMz[r] = 100.0 + 900.0 * random.nextDouble();
+      compoundRt[r] = 60.0 * random.nextDouble();
+    }
+
+    // The features only need their m/z and RT, so they share everything else
+    final int scanNumbers[] = {1};
+    final DataPoint dataPoints[] = {new SimpleDataPoint(0, 1)};
+    final Range<Double> range = Range.singleton(1.0);
+
+    // Each sample has all compounds, a few ppm and seconds off
+    peakLists = new PeakList[numSamples];
+    for (int s = 0; s < numSamples; s++) {
+      final RawDataFile dataFile = new RawDataFileImpl("sample " + s);
+      final SimplePeakList peakList = new SimplePeakList("sample " + s, dataFile);
+      for (int r = 0; r < numRows; r++) {
+        final double mz = compoundMz[r] * (1 + 2e-6 * random.nextGaussian());
+        final double rt = compoundRt[r] + 0.02 * random.nextGaussian();
+        final SimplePeakListRow row = new SimplePeakListRow(r + 1);
+        row.addPeak(dataFile, new SimpleFeature(dataFile, mz, rt, 1, 1, scanNumbers, dataPoints,
+            FeatureStatus.DETECTED, 1, -1, new int[0], range, range, range));
+        peakList.addRow(row);
+      }
+      peakLists[s] = peakList;
+    }
+  }
+
+  @Benchmark
+  public PeakList align() {
+    final ParameterSet parameters = new JoinAlignerParameters().cloneParameterSet();
+    final PeakListsSelection selection = new PeakListsSelection();
+    selection.setSelectionType(PeakListsSelectionType.SPECIFIC_PEAKLISTS);
+    selection.setSpecificPeakLists(peakLists);
+    parameters.getParameter(JoinAlignerParameters.peakLists).setValue(selection);
+    parameters.getParameter(JoinAlignerParameters.peakListName).setValue("aligned");
+    parameters.getParameter(JoinAlignerParameters.MZTolerance).setValue(new MZTolerance(0.001, 10));
+    parameters.getParameter(JoinAlignerParameters.MZWeight).setValue(1.0);
+    parameters.getParameter(JoinAlignerParameters.RTTolerance)
+        .setValue(new RTTolerance(true, 0.2));
+    parameters.getParameter(JoinAlignerParameters.RTWeight).setValue(1.0);
+    parameters.getParameter(JoinAlignerParameters.SameChargeRequired).setValue(false);
+    parameters.getParameter(JoinAlignerParameters.SameIDRequired).setValue(false);
+    parameters.getParameter(JoinAlignerParameters.compareIsotopePattern).setValue(false);
+    parameters.getParameter(JoinAlignerParameters.compareSpectraSimilarity).setValue(false);
+    parameters.getParameter(JoinAlignerParameters.parallel).setValue(false);
+
+    // The aligned feature list is added to a project that ignores it
+    final MZmineProject project = (MZmineProject) Proxy.newProxyInstance(
+        MZmineProject.class.getClassLoader(), new Class<?>[] {MZmineProject.class},
+        (proxy, method, args) -> null);
+
+    final PeakList aligned[] = new PeakList[1];
+    final JoinAlignerTask task = new JoinAlignerTask(project, parameters, (name, dataFiles) -> {
+      aligned[0] = rowLookup.equals("index") ? new SimplePeakList(name, dataFiles)
+          : new LinearScanPeakList(name, dataFiles);
+      return aligned[0];
+    });
+    task.run();
+    if (task.getStatus() != TaskStatus.FINISHED)
+      throw new IllegalStateException(task.getErrorMessage());
+    return aligned[0];
+  }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.featdet_chromatogrambuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Range;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Builds the chromatograms of a synthetic raw data file with HighestDataPointConnector, from
+ * DataPoint arrays and from reused primitive arrays, and with the previous implementation, which
+ * compared every m/z peak with every open chromatogram. The number of m/z traces sets the number
+ * of chromatograms open at the same time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HighestDataPointConnectorBenchmark {
+
+  private static final int NUM_SCANS = 300;
+  private static final double MINIMUM_TIME_SPAN = 0.05;
+  private static final double MINIMUM_HEIGHT = 0.0;
+
+  @Param({"100", "1000", "5000"})
+  public int numTraces;
+
+  private final MZTolerance mzTolerance = new MZTolerance(0.001, 5.0);
+
+  private RawDataFileImpl file;
+  private RawDataFile dataFile;
+  private int scanNumbers[];
+  private DataPoint scans[][];
+  private double mzValues[][], intensityValues[][];
+
+  @Setup
+  public void createScans() throws IOException {
+    final Random random = new Random(42);
+    file = new RawDataFileImpl("connector-benchmark");
+    scanNumbers = new int[NUM_SCANS];
+    scans = new DataPoint[NUM_SCANS][];
+    mzValues = new double[NUM_SCANS][];
+    intensityValues = new double[NUM_SCANS][];
+
+    final double traceMz[] = new double[numTraces];
+    final double traceApex[] = new double[numTraces];
+    for (int t = 0; t < numTraces; t++) {
+      traceMz[t] = 100 + 900 * random.nextDouble();
+      traceApex[t] = NUM_SCANS * random.nextDouble();
+    }
+
+    // Gaussian peaks along the traces plus noise peaks
+    for (int s = 0; s < NUM_SCANS; s++) {
+      final List<DataPoint> dataPoints = new ArrayList<>();
+      for (int t = 0; t < numTraces; t++) {
+        final double intensity =
+            Math.round(1e4 * Math.exp(-0.5 * Math.pow((s - traceApex[t]) / 6.0, 2)));
+        if (intensity >= 10)
+          dataPoints.add(new SimpleDataPoint(traceMz[t] + 0.0005 * random.nextGaussian(),
+              intensity));
+      }
+      for (int n = 0; n < 200; n++)
+        dataPoints.add(new SimpleDataPoint(100 + 900 * random.nextDouble(),
+            Math.round(5 + 100 * random.nextDouble())));
+      dataPoints.sort((a, b) -> Double.compare(a.getMZ(), b.getMZ()));
+
+      scanNumbers[s] = s + 1;
+      scans[s] = dataPoints.toArray(new DataPoint[0]);
+      mzValues[s] = new double[scans[s].length];
+      intensityValues[s] = new double[scans[s].length];
+      for (int i = 0; i < scans[s].length; i++) {
+        mzValues[s][i] = scans[s][i].getMZ();
+        intensityValues[s][i] = scans[s][i].getIntensity();
+      }
+      file.addScan(new SimpleScan(file, s + 1, 1, 0.01 * s, 0, 0, new int[0], scans[s],
+          MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "", Range.closed(100.0, 1000.0)));
+    }
+    dataFile = file.finishWriting();
+  }
+
+  @TearDown
+  public void close() {
+    file.close();
+  }
+
+  @Benchmark
+  public Chromatogram[] dataPoints() {
+    final HighestDataPointConnector connector = new HighestDataPointConnector(dataFile,
+        scanNumbers, MINIMUM_TIME_SPAN, MINIMUM_HEIGHT, mzTolerance);
+    for (int s = 0; s < NUM_SCANS; s++)
+      connector.addScan(scanNumbers[s], scans[s]);
+    return connector.finishChromatograms();
+  }
+
+  @Benchmark
+  public Chromatogram[] primitiveValues() {
+    final HighestDataPointConnector connector = new HighestDataPointConnector(dataFile,
+        scanNumbers, MINIMUM_TIME_SPAN, MINIMUM_HEIGHT, mzTolerance);
+    for (int s = 0; s < NUM_SCANS; s++)
+      connector.addScan(scanNumbers[s], mzValues[s], intensityValues[s], mzValues[s].length);
+    return connector.finishChromatograms();
+  }
+
+  @Benchmark
+  public Chromatogram[] previous() {
+    final HighestDataPointConnectorTest.ReferenceConnector connector =
+        new HighestDataPointConnectorTest.ReferenceConnector(dataFile, scanNumbers, mzTolerance,
+            MINIMUM_TIME_SPAN, MINIMUM_HEIGHT);
+    // The previous implementation sorts the scan in place
+    for (int s = 0; s < NUM_SCANS; s++)
+      connector.addScan(scanNumbers[s], scans[s].clone());
+    return connector.finishChromatograms();
+  }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.project.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads random records of a data points file on 1 to 8 threads at once, through the
+ * MappedDataPointsReader and through a RandomAccessFile shared under a lock, as RawDataFileImpl did
+ * before the reader was added. Both decode the floats of each record. The scores are the average
+ * time of one read, so they drop with the number of threads as long as the reads scale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MappedDataPointsReaderBenchmark {
+
+  private static final int NUM_RECORDS = 4096;
+  private static final int NUM_DATA_POINTS = 2000;
+  private static final int RECORD_SIZE = NUM_DATA_POINTS * 2 * 4;
+  private static final int NUM_READS = 16384;
+
+  @Param({"1", "2", "4", "8"})
+  public int threads;
+
+  private File file;
+  private RandomAccessFile raf;
+  private MappedDataPointsReader reader;
+  private ExecutorService executor;
+  private int records[];
+
+  // buffer of the synchronized reads
+  private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+
+  @Setup
+  public void writeFile() throws IOException {
+    file = File.createTempFile("mzmine", ".benchmark");
+    raf = new RandomAccessFile(file, "rw");
+    final Random random = new Random(1);
+    final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    for (int r = 0; r < NUM_RECORDS; r++) {
+      record.clear();
+      for (int i = 0; i < 2 * NUM_DATA_POINTS; i++)
+        record.putFloat(1e6f * random.nextFloat());
+      raf.write(record.array());
+    }
+    reader = new MappedDataPointsReader(raf.getChannel());
+    executor = Executors.newFixedThreadPool(threads);
+
+    records = new int[NUM_READS];
+    for (int i = 0; i < NUM_READS; i++)
+      records[i] = random.nextInt(NUM_RECORDS);
+  }
+
+  @TearDown
+  public void deleteFile() throws IOException {
+    executor.shutdown();
+    reader.close();
+    raf.close();
+    file.delete();
+  }
+
+  private interface RecordReader {
+    double sumOfRecord(long offset) throws IOException;
+  }
+
+  private static double sum(ByteBuffer record) {
+    double sum = 0;
+    for (int p = 0; p < 2 * NUM_DATA_POINTS; p++)
+      sum += record.getFloat();
+    return sum;
+  }
+
+  /**
+   * Reads all records on the threads, each thread a part of them
+   */
+  private double readRecords(RecordReader recordReader) throws Exception {
+    final List<Future<Double>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final int from = NUM_READS * t / threads, to = NUM_READS * (t + 1) / threads;
+      futures.add(executor.submit((Callable<Double>) () -> {
+        double sum = 0;
+        for (int i = from; i < to; i++)
+          sum += recordReader.sumOfRecord((long) records[i] * RECORD_SIZE);
+        return sum;
+      }));
+    }
+    double sum = 0;
+    for (Future<Double> future : futures)
+      sum += future.get();
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_READS)
+  public double mapped() throws Exception {
+    return readRecords(offset -> sum(reader.read(offset, RECORD_SIZE)));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_READS)
+  public double synchronizedRandomAccessFile() throws Exception {
+    return readRecords(offset -> {
+      // The record is decoded under the lock, as by the previous synchronized read method
+      synchronized (this) {
+        buffer.clear();
+        raf.seek(offset);
+        raf.readFully(buffer.array(), 0, RECORD_SIZE);
+        return sum(buffer);
+      }
+    });
+  }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.project.impl;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+
+/**
+ * Reads all stored spectra of a raw data file, as DataPoint objects and into reused primitive
+ * arrays. The spectra are read either from the data points file or from the SpectraCache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RawDataFileImplBenchmark {
+
+  private static final int NUM_SPECTRA = 500;
+  private static final int NUM_DATA_POINTS = 2000;
+
+  // 0 reads every spectrum from the data points file
+  @Param({"0", "268435456"})
+  public long spectraCacheSize;
+
+  private RawDataFileImpl dataFile;
+  private int storageIDs[];
+
+  // reused by the primitive accessors
+  private double mzValues[] = new double[0], intensityValues[] = new double[0];
+  private float floatIntensityValues[] = new float[0];
+
+  @Setup
+  public void storeSpectra() throws IOException {
+    SpectraCache.setMaximumSize(spectraCacheSize);
+    final Random random = new Random(1);
+    dataFile = new RawDataFileImpl("benchmark");
+    storageIDs = new int[NUM_SPECTRA];
+    for (int s = 0; s < NUM_SPECTRA; s++) {
+      final DataPoint dataPoints[] = new DataPoint[NUM_DATA_POINTS];
+      for (int i = 0; i < NUM_DATA_POINTS; i++)
+        dataPoints[i] = new SimpleDataPoint(100.0 + 0.45 * i + 0.01 * random.nextDouble(),
+            1e6 * random.nextDouble());
+      storageIDs[s] = dataFile.storeDataPoints(dataPoints);
+    }
+  }
+
+  @TearDown
+  public void close() {
+    dataFile.close();
+  }
+
+  @Benchmark
+  public double dataPoints() throws IOException {
+    double sum = 0;
+    for (int id : storageIDs) {
+      for (DataPoint dp : dataFile.readDataPoints(id))
+        sum += dp.getMZ() * dp.getIntensity();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double primitiveValues() throws IOException {
+    double sum = 0;
+    for (int id : storageIDs) {
+      mzValues = dataFile.readMzValues(id, mzValues);
+      intensityValues = dataFile.readIntensityValues(id, intensityValues);
+      for (int i = 0; i < NUM_DATA_POINTS; i++)
+        sum += mzValues[i] * intensityValues[i];
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double dataPointsTIC() throws IOException {
+    double tic = 0;
+    for (int id : storageIDs) {
+      for (DataPoint dp : dataFile.readDataPoints(id))
+        tic += dp.getIntensity();
+    }
+    return tic;
+  }
+
+  @Benchmark
+  public double floatIntensityValuesTIC() throws IOException {
+    double tic = 0;
+    for (int id : storageIDs) {
+      floatIntensityValues = dataFile.readFloatIntensityValues(id, floatIntensityValues);
+      for (int i = 0; i < NUM_DATA_POINTS; i++)
+        tic += floatIntensityValues[i];
+    }
+    return tic;
+  }
+
+}
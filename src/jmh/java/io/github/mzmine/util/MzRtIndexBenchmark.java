@@ -0,0 +1,118 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.Range;
+
+/**
+ * Range queries by m/z and RT around existing items, as done by the gap filler and the aligners,
+ * answered by MzRtIndex and by a linear scan over all items, as the feature lists did before the
+ * index was added. Also measures building the index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MzRtIndexBenchmark {
+
+  private static final int NUM_QUERIES = 1000;
+
+  @Param({"1000", "10000", "100000"})
+  public int numItems;
+
+  private static class Item {
+    final double mz, rt;
+
+    Item(double mz, double rt) {
+      this.mz = mz;
+      this.rt = rt;
+    }
+  }
+
+  private List<Item> items;
+  private MzRtIndex<Item> index;
+  private List<Range<Double>> mzRanges, rtRanges;
+
+  @Setup
+  public void createItems() {
+    final Random random = new Random(1);
+    items = new ArrayList<>(numItems);
+    for (int i = 0; i < numItems; i++)
+      items.add(new Item(100.0 + 900.0 * random.nextDouble(), 60.0 * random.nextDouble()));
+    index = new MzRtIndex<>(items, item -> item.mz, item -> item.rt);
+
+    // 10 ppm and 0.2 min around randomly chosen items
+    mzRanges = new ArrayList<>(NUM_QUERIES);
+    rtRanges = new ArrayList<>(NUM_QUERIES);
+    for (int q = 0; q < NUM_QUERIES; q++) {
+      final Item item = items.get(random.nextInt(numItems));
+      final double mzTolerance = item.mz * 10e-6;
+      mzRanges.add(Range.closed(item.mz - mzTolerance, item.mz + mzTolerance));
+      rtRanges.add(Range.closed(item.rt - 0.2, item.rt + 0.2));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_QUERIES)
+  public void index(Blackhole blackhole) {
+    for (int q = 0; q < NUM_QUERIES; q++)
+      blackhole.consume(index.getItemsInside(mzRanges.get(q), rtRanges.get(q)));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_QUERIES)
+  public void linearScan(Blackhole blackhole) {
+    for (int q = 0; q < NUM_QUERIES; q++) {
+      final Range<Double> mzRange = mzRanges.get(q), rtRange = rtRanges.get(q);
+      final List<Item> result = new ArrayList<>();
+      for (Item item : items) {
+        if (mzRange.contains(item.mz) && rtRange.contains(item.rt))
+          result.add(item);
+      }
+      blackhole.consume(result);
+    }
+  }
+
+  @Benchmark
+  public void buildIndex(Blackhole blackhole) {
+    blackhole.consume(new MzRtIndex<>(items, item -> item.mz, item -> item.rt));
+  }
+
+}
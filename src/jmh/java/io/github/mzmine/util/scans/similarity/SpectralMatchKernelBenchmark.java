@@ -0,0 +1,96 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.scans.similarity;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.util.scans.similarity.impl.cosine.WeightedCosineSpectralSimilarity;
+import io.github.mzmine.util.scans.similarity.impl.cosine.WeightedCosineSpectralSimilarityParameters;
+
+/**
+ * Weighted cosine similarity of every query spectrum with every library spectrum, as in a spectral
+ * library search. One operation is 10^6 pairwise comparisons, computed by SpectralMatchKernel or
+ * by the previous implementation on top of ScanAlignment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SpectralMatchKernelBenchmark {
+
+  private static final int NUM_SPECTRA = 1000;
+
+  private final MZTolerance mzTol = new MZTolerance(0.005, 10.0);
+  private final WeightedCosineSpectralSimilarity function = new WeightedCosineSpectralSimilarity();
+  private final ParameterSet parameters = new WeightedCosineSpectralSimilarityParameters();
+
+  private DataPoint library[][], queries[][];
+
+  @Setup
+  public void createSpectra() {
+    // Each query is derived from one library spectrum and unrelated to all others
+    final Random random = new Random(1);
+    library = new DataPoint[NUM_SPECTRA][];
+    queries = new DataPoint[NUM_SPECTRA][];
+    for (int i = 0; i < NUM_SPECTRA; i++) {
+      library[i] = SpectralMatchKernelTest.randomSpectrum(random);
+      queries[i] = SpectralMatchKernelTest.randomQuery(random, library[i]);
+    }
+  }
+
+  @Benchmark
+  public void kernel(Blackhole blackhole) {
+    for (DataPoint query[] : queries)
+      for (DataPoint entry[] : library)
+        blackhole.consume(function.getSimilarity(parameters, mzTol, 0, entry, query));
+  }
+
+  @Benchmark
+  public void previous(Blackhole blackhole) {
+    final Weights weights =
+        parameters.getParameter(WeightedCosineSpectralSimilarityParameters.weight).getValue();
+    final double minCos =
+        parameters.getParameter(WeightedCosineSpectralSimilarityParameters.minCosine).getValue();
+    final boolean removeUnmatched = parameters
+        .getParameter(WeightedCosineSpectralSimilarityParameters.removeUnmatched).getValue();
+    for (DataPoint query[] : queries)
+      for (DataPoint entry[] : library)
+        blackhole.consume(SpectralMatchKernelTest.previousWeightedCosine(weights,
+            removeUnmatched, minCos, mzTol, entry, query));
+  }
+
+}
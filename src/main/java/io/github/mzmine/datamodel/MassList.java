@@ -19,6 +19,7 @@
 package io.github.mzmine.datamodel;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * This class represent detected masses (ions) in one mass spectrum. Each ion is represented by a
@@ -35,4 +36,39 @@ public interface MassList {
   @Nonnull
   public DataPoint[] getDataPoints();
 
+  /**
+   * @return Number of m/z and intensity data points
+   */
+  public default int getNumberOfDataPoints() {
+    return getDataPoints().length;
+  }
+
+  /**
+   * Copies the m/z values of all data points into the given array, see
+   * {@link MassSpectrum#getMzValues(double[])}.
+   */
+  @Nonnull
+  public default double[] getMzValues(@Nullable double[] dst) {
+    DataPoint dataPoints[] = getDataPoints();
+    if ((dst == null) || (dst.length < dataPoints.length))
+      dst = new double[dataPoints.length];
+    for (int i = 0; i < dataPoints.length; i++)
+      dst[i] = dataPoints[i].getMZ();
+    return dst;
+  }
+
+  /**
+   * Copies the intensity values of all data points into the given array, see
+   * {@link MassSpectrum#getIntensityValues(double[])}.
+   */
+  @Nonnull
+  public default double[] getIntensityValues(@Nullable double[] dst) {
+    DataPoint dataPoints[] = getDataPoints();
+    if ((dst == null) || (dst.length < dataPoints.length))
+      dst = new double[dataPoints.length];
+    for (int i = 0; i < dataPoints.length; i++)
+      dst[i] = dataPoints[i].getIntensity();
+    return dst;
+  }
+
 }
@@ -95,4 +95,56 @@ public interface MassSpectrum {
   @Nonnull
   public DataPoint[] getDataPointsOverIntensity(double intensity);
 
+  /**
+   * Copies the m/z values of all data points, sorted in m/z order, into the given array. If the
+   * array is null or shorter than getNumberOfDataPoints(), a new array is allocated. Modules which
+   * process many spectra should pass the same array again to avoid creating DataPoint objects.
+   *
+   * @param dst array to fill, may be null
+   * @return the filled array, which may be longer than the number of data points
+   */
+  @Nonnull
+  public default double[] getMzValues(@Nullable double[] dst) {
+    DataPoint dataPoints[] = getDataPoints();
+    if ((dst == null) || (dst.length < dataPoints.length))
+      dst = new double[dataPoints.length];
+    for (int i = 0; i < dataPoints.length; i++)
+      dst[i] = dataPoints[i].getMZ();
+    return dst;
+  }
+
+  /**
+   * Copies the intensity values of all data points, sorted in m/z order, into the given array. If
+   * the array is null or shorter than getNumberOfDataPoints(), a new array is allocated.
+   *
+   * @param dst array to fill, may be null
+   * @return the filled array, which may be longer than the number of data points
+   */
+  @Nonnull
+  public default double[] getIntensityValues(@Nullable double[] dst) {
+    DataPoint dataPoints[] = getDataPoints();
+    if ((dst == null) || (dst.length < dataPoints.length))
+      dst = new double[dataPoints.length];
+    for (int i = 0; i < dataPoints.length; i++)
+      dst[i] = dataPoints[i].getIntensity();
+    return dst;
+  }
+
+  /**
+   * Same as {@link #getIntensityValues(double[])}, for consumers which keep intensities as float
+   * values. Spectra stored as float values copy them without conversion.
+   *
+   * @param dst array to fill, may be null
+   * @return the filled array, which may be longer than the number of data points
+   */
+  @Nonnull
+  public default float[] getFloatIntensityValues(@Nullable float[] dst) {
+    DataPoint dataPoints[] = getDataPoints();
+    if ((dst == null) || (dst.length < dataPoints.length))
+      dst = new float[dataPoints.length];
+    for (int i = 0; i < dataPoints.length; i++)
+      dst[i] = (float) dataPoints[i].getIntensity();
+    return dst;
+  }
+
 }
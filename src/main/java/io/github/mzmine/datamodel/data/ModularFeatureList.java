@@ -8,6 +8,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.Nonnull;
@@ -19,7 +20,13 @@ import io.github.mzmine.datamodel.data.types.FeaturesType;
 import io.github.mzmine.datamodel.data.types.RawColorType;
 import io.github.mzmine.datamodel.data.types.RawFileType;
 import io.github.mzmine.datamodel.data.types.numbers.IDType;
+import io.github.mzmine.datamodel.data.types.numbers.MZType;
+import io.github.mzmine.datamodel.data.types.numbers.RTType;
+import io.github.mzmine.util.MzRtIndex;
+import javafx.beans.InvalidationListener;
+import javafx.beans.property.Property;
 import javafx.collections.FXCollections;
+import javafx.collections.MapChangeListener;
 import javafx.collections.ObservableMap;
 
 public class ModularFeatureList implements PeakList {
@@ -44,6 +51,22 @@ public class ModularFeatureList implements PeakList {
   private Range<Double> mzRange;
   private Range<Float> rtRange;
 
+  // Index of rows by m/z and RT, built on demand and dropped on every change of the rows
+  private volatile MzRtIndex<ModularFeatureListRow> rowIndex;
+  private final AtomicInteger rowsVersion = new AtomicInteger();
+  private final InvalidationListener rowValueListener = observable -> rowValuesChanged();
+  // m/z and RT properties are replaced when row types are added
+  @SuppressWarnings("rawtypes")
+  private final MapChangeListener<DataType, Property<?>> rowPropertyListener = change -> {
+    if (!(change.getKey() instanceof MZType) && !(change.getKey() instanceof RTType))
+      return;
+    if (change.wasRemoved())
+      change.getValueRemoved().removeListener(rowValueListener);
+    if (change.wasAdded())
+      change.getValueAdded().addListener(rowValueListener);
+    rowValuesChanged();
+  };
+
   public ModularFeatureList(String name) {
     this(name, List.of());
   }
@@ -242,10 +265,52 @@ public class ModularFeatureList implements PeakList {
   @Override
   public List<ModularFeatureListRow> getRowsInsideScanAndMZRange(Range<Float> rtRange,
       Range<Double> mzRange) {
-    // TODO handle if mz or rt is not present
-    return stream().filter(
-        row -> rtRange.contains(row.getRT().getValue()) && mzRange.contains(row.getMZ().getValue()))
-        .collect(Collectors.toList());
+    return getRowIndex().getItemsInside(mzRange, rtRange);
+  }
+
+  /**
+   * Returns the index of rows by their m/z and RT, building it if the rows have changed since the
+   * last query. Rows without m/z or RT value are only found by unbounded ranges.
+   */
+  private MzRtIndex<ModularFeatureListRow> getRowIndex() {
+    MzRtIndex<ModularFeatureListRow> index = rowIndex;
+    if (index == null) {
+      // Only keep the new index if no row has changed while it was being built
+      final int version = rowsVersion.get();
+      index = new MzRtIndex<>(peakListRows, row -> getValue(row.getMZ()),
+          row -> getValue(row.getRT()));
+      rowIndex = index;
+      if (version != rowsVersion.get())
+        rowIndex = null;
+    }
+    return index;
+  }
+
+  private static double getValue(Property<? extends Number> property) {
+    if (property == null || property.getValue() == null)
+      return Double.NaN;
+    return property.getValue().doubleValue();
+  }
+
+  private void rowValuesChanged() {
+    rowsVersion.incrementAndGet();
+    rowIndex = null;
+  }
+
+  private void addRowValueListeners(ModularFeatureListRow row) {
+    row.getMap().addListener(rowPropertyListener);
+    if (row.getMZ() != null)
+      row.getMZ().addListener(rowValueListener);
+    if (row.getRT() != null)
+      row.getRT().addListener(rowValueListener);
+  }
+
+  private void removeRowValueListeners(ModularFeatureListRow row) {
+    row.getMap().removeListener(rowPropertyListener);
+    if (row.getMZ() != null)
+      row.getMZ().removeListener(rowValueListener);
+    if (row.getRT() != null)
+      row.getRT().removeListener(rowValueListener);
   }
 
   @Override
@@ -260,6 +325,8 @@ public class ModularFeatureList implements PeakList {
     peakListRows.add(row);
 
     applyRowBindings(row);
+    addRowValueListeners(row);
+    rowValuesChanged();
 
     // TODO solve with bindings
     // max intensity
@@ -309,7 +376,9 @@ public class ModularFeatureList implements PeakList {
    */
   @Override
   public void removeRow(ModularFeatureListRow row) {
-    peakListRows.remove(row);
+    if (peakListRows.remove(row))
+      removeRowValueListeners(row);
+    rowValuesChanged();
     updateMaxIntensity();
   }
 
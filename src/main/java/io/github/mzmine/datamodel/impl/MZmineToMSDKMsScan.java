@@ -21,6 +21,8 @@ package io.github.mzmine.datamodel.impl;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 import com.google.common.collect.Range;
 
 import io.github.msdk.datamodel.ActivationInfo;
@@ -31,8 +33,8 @@ import io.github.msdk.datamodel.PolarityType;
 import io.github.msdk.datamodel.RawDataFile;
 import io.github.msdk.datamodel.SimpleIsolationInfo;
 import io.github.msdk.util.tolerances.MzTolerance;
-import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.MZmineToMSDKRawDataFile.ScanValues;
 
 /**
  * Simple implementation of the Scan interface.
@@ -42,11 +44,19 @@ public class MZmineToMSDKMsScan implements MsScan {
   private final Scan mzmineScan;
   private final List<IsolationInfo> isolations = new ArrayList<>();
 
+  // File which caches the converted values of its scans, may be null
+  private final @Nullable MZmineToMSDKRawDataFile msdkRawDataFile;
+
   /**
    * Clone constructor
    */
   public MZmineToMSDKMsScan(Scan mzmineScan) {
+    this(mzmineScan, null);
+  }
+
+  MZmineToMSDKMsScan(Scan mzmineScan, @Nullable MZmineToMSDKRawDataFile msdkRawDataFile) {
     this.mzmineScan = mzmineScan;
+    this.msdkRawDataFile = msdkRawDataFile;
     if (mzmineScan.getPrecursorMZ() != 0) {
       Range<Double> isolationMzRange = Range.singleton(mzmineScan.getPrecursorMZ());
       double precursorMz = mzmineScan.getPrecursorMZ();
@@ -69,26 +79,32 @@ public class MZmineToMSDKMsScan implements MsScan {
 
   @Override
   public double[] getMzValues(double[] array) {
-    if (array == null || array.length < mzmineScan.getNumberOfDataPoints())
-      array = new double[mzmineScan.getNumberOfDataPoints()];
-    DataPoint dp[] = mzmineScan.getDataPoints();
-    for (int i = 0; i < mzmineScan.getNumberOfDataPoints(); i++) {
-      array[i] = dp[i].getMZ();
-    }
+    final ScanValues values = getScanValues();
+    if (values == null)
+      return mzmineScan.getMzValues(array);
+
+    if (array == null || array.length < values.mzValues.length)
+      array = new double[values.mzValues.length];
+    System.arraycopy(values.mzValues, 0, array, 0, values.mzValues.length);
     return array;
   }
 
   @Override
   public float[] getIntensityValues(float[] array) {
-    if (array == null || array.length < mzmineScan.getNumberOfDataPoints())
-      array = new float[mzmineScan.getNumberOfDataPoints()];
-    DataPoint dp[] = mzmineScan.getDataPoints();
-    for (int i = 0; i < mzmineScan.getNumberOfDataPoints(); i++) {
-      array[i] = (float) dp[i].getIntensity();
-    }
+    final ScanValues values = getScanValues();
+    if (values == null)
+      return mzmineScan.getFloatIntensityValues(array);
+
+    if (array == null || array.length < values.intensityValues.length)
+      array = new float[values.intensityValues.length];
+    System.arraycopy(values.intensityValues, 0, array, 0, values.intensityValues.length);
     return array;
   }
 
+  private ScanValues getScanValues() {
+    return (msdkRawDataFile != null) ? msdkRawDataFile.getScanValues(mzmineScan) : null;
+  }
+
   @Override
   public Float getTIC() {
     return (float) mzmineScan.getTIC();
@@ -29,6 +29,7 @@ import io.github.msdk.datamodel.FileType;
 import io.github.msdk.datamodel.MsScan;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.project.impl.SpectraCache;
 
 /**
  * Simple implementation of the Scan interface.
@@ -48,12 +49,38 @@ public class MZmineToMSDKRawDataFile implements io.github.msdk.datamodel.RawData
     int scanNumbers[] = mzmineRawdataFile.getScanNumbers();
     for (int scanNum : scanNumbers) {
       Scan mzmineScan = mzmineRawdataFile.getScan(scanNum);
-      MsScan msdkScan = new MZmineToMSDKMsScan(mzmineScan);
+      MsScan msdkScan = new MZmineToMSDKMsScan(mzmineScan, this);
       scans.add(msdkScan);
     }
 
   }
 
+  /**
+   * Returns the m/z and intensity values of given scan of this file, from the cache if possible.
+   * MSDK methods such as ADAP3D read the same scans many times. The converted values are kept in
+   * the SpectraCache, within the same memory budget as the data points of the raw data files. The
+   * arrays are shared and must not be modified. Returns null if the cache is disabled.
+   */
+  ScanValues getScanValues(Scan mzmineScan) {
+
+    if (!SpectraCache.isEnabled())
+      return null;
+
+    ScanValues values = (ScanValues) SpectraCache.getEntry(this, mzmineScan.getScanNumber());
+    if (values == null) {
+      final int numOfDataPoints = mzmineScan.getNumberOfDataPoints();
+      double mzValues[] = mzmineScan.getMzValues(null);
+      float intensityValues[] = mzmineScan.getFloatIntensityValues(null);
+      if (mzValues.length != numOfDataPoints)
+        mzValues = Arrays.copyOf(mzValues, numOfDataPoints);
+      if (intensityValues.length != numOfDataPoints)
+        intensityValues = Arrays.copyOf(intensityValues, numOfDataPoints);
+      values = new ScanValues(mzValues, intensityValues);
+      SpectraCache.putEntry(this, mzmineScan.getScanNumber(), values);
+    }
+    return values;
+  }
+
   @Override
   public String getName() {
     return mzmineRawdataFile.getName();
@@ -86,7 +113,24 @@ public class MZmineToMSDKRawDataFile implements io.github.msdk.datamodel.RawData
 
   @Override
   public void dispose() {
+    SpectraCache.invalidateAll(this);
     mzmineRawdataFile.close();
   }
 
+  static final class ScanValues implements SpectraCache.Entry {
+
+    final double mzValues[];
+    final float intensityValues[];
+
+    ScanValues(double mzValues[], float intensityValues[]) {
+      this.mzValues = mzValues;
+      this.intensityValues = intensityValues;
+    }
+
+    @Override
+    public int getWeight() {
+      return mzValues.length * 12;
+    }
+  }
+
 }
@@ -26,6 +26,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Objects;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import com.google.common.collect.Range;
@@ -33,7 +34,9 @@ import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.util.MzRtIndex;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 
 /**
@@ -49,6 +52,10 @@ public class SimplePeakList implements PeakList {
   private String dateCreated;
   private Range<Double> mzRange, rtRange;
 
+  // Index of rows by average m/z and RT, built on demand and dropped on every change of the rows
+  private volatile MzRtIndex<PeakListRow> rowIndex;
+  private final AtomicInteger rowsVersion = new AtomicInteger();
+
   public static DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
 
   public SimplePeakList(String name, RawDataFile dataFile) {
@@ -70,6 +77,8 @@ public class SimplePeakList implements PeakList {
 
     dateCreated = dateFormat.format(new Date());
 
+    peakListRows.addListener((ListChangeListener<PeakListRow>) change -> rowValuesChanged());
+
   }
 
   @Override
@@ -161,14 +170,32 @@ public class SimplePeakList implements PeakList {
 
   @Override
   public PeakListRow[] getRowsInsideScanAndMZRange(Range<Double> rtRange, Range<Double> mzRange) {
-    Vector<PeakListRow> rowsInside = new Vector<PeakListRow>();
+    return getRowIndex().getItemsInside(mzRange, rtRange).toArray(new PeakListRow[0]);
+  }
 
-    for (PeakListRow row : peakListRows) {
-      if (rtRange.contains(row.getAverageRT()) && mzRange.contains(row.getAverageMZ()))
-        rowsInside.add(row);
+  /**
+   * Returns the index of rows by their average m/z and RT, building it if the rows have changed
+   * since the last query
+   */
+  private MzRtIndex<PeakListRow> getRowIndex() {
+    MzRtIndex<PeakListRow> index = rowIndex;
+    if (index == null) {
+      // Only keep the new index if no row has changed while it was being built
+      final int version = rowsVersion.get();
+      index = new MzRtIndex<>(peakListRows, PeakListRow::getAverageMZ, PeakListRow::getAverageRT);
+      rowIndex = index;
+      if (version != rowsVersion.get())
+        rowIndex = null;
     }
+    return index;
+  }
 
-    return rowsInside.toArray(new PeakListRow[0]);
+  /**
+   * Called by the rows of this feature list when their average m/z or RT values change
+   */
+  void rowValuesChanged() {
+    rowsVersion.incrementAndGet();
+    rowIndex = null;
   }
 
   @Override
@@ -176,6 +176,16 @@ public class SimplePeakListRow implements PeakListRow {
     } else {
       rowCharge = 0;
     }
+    notifyPeakList();
+  }
+
+  /**
+   * The feature list keeps an index of its rows by average m/z and RT, which must be rebuilt when
+   * these values change
+   */
+  private void notifyPeakList() {
+    if (peakList instanceof SimplePeakList)
+      ((SimplePeakList) peakList).rowValuesChanged();
   }
 
   /**
@@ -224,6 +234,7 @@ public class SimplePeakListRow implements PeakListRow {
   @Override
   public void setAverageMZ(double mz) {
     this.averageMZ = mz;
+    notifyPeakList();
   }
 
   /**
@@ -232,6 +243,7 @@ public class SimplePeakListRow implements PeakListRow {
   @Override
   public void setAverageRT(double rt) {
     this.averageRT = rt;
+    notifyPeakList();
   }
 
   /**
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ * 
+ * This file is part of MZmine.
+ * 
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.gui.preferences;
+
+import io.github.mzmine.parameters.Parameter;
+import io.github.mzmine.parameters.impl.SimpleParameterSet;
+import io.github.mzmine.parameters.parametertypes.IntegerParameter;
+import io.github.mzmine.parameters.parametertypes.filenames.DirectoryParameter;
+import io.github.mzmine.util.spectraldb.parser.SpectralLibraryCache;
+
+/**
+ * Spectral library cache settings
+ */
+public class LibraryCacheSettings extends SimpleParameterSet {
+
+  public static final DirectoryParameter directory = new DirectoryParameter("Directory",
+      "Directory of the compiled spectral libraries");
+
+  public static final IntegerParameter maximumSize = new IntegerParameter("Maximum size (MB)",
+      "Maximum disk space of all compiled spectral libraries together. When a new library is compiled, the least recently used ones are deleted. Larger libraries are not compiled.",
+      10240, 1, null);
+
+  static {
+    directory.setValue(SpectralLibraryCache.DEFAULT_DIRECTORY);
+  }
+
+  public LibraryCacheSettings() {
+    super(new Parameter[] {directory, maximumSize});
+  }
+
+}
@@ -26,14 +26,18 @@ import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.impl.SimpleParameterSet;
 import io.github.mzmine.parameters.parametertypes.BooleanParameter;
 import io.github.mzmine.parameters.parametertypes.ComboParameter;
+import io.github.mzmine.parameters.parametertypes.IntegerParameter;
 import io.github.mzmine.parameters.parametertypes.ParameterSetParameter;
 import io.github.mzmine.parameters.parametertypes.WindowSettingsParameter;
 import io.github.mzmine.parameters.parametertypes.colorpalette.ColorPaletteParameter;
 import io.github.mzmine.parameters.parametertypes.filenames.FileNameParameter;
 import io.github.mzmine.parameters.parametertypes.filenames.FileSelectionType;
 import io.github.mzmine.parameters.parametertypes.submodules.OptionalModuleParameter;
+import io.github.mzmine.project.impl.DataPointsCodec;
+import io.github.mzmine.project.impl.SpectraCache;
 import io.github.mzmine.util.ExitCode;
 import io.github.mzmine.util.color.Vision;
+import io.github.mzmine.util.spectraldb.parser.SpectralLibraryCache;
 import javafx.collections.FXCollections;
 
 public class MZminePreferences extends SimpleParameterSet {
@@ -55,6 +59,35 @@ public class MZminePreferences extends SimpleParameterSet {
 
   public static final NumOfThreadsParameter numOfThreads = new NumOfThreadsParameter();
 
+  // An eighth of the maximum heap size, at most 2 GB
+  private static final int DEFAULT_SPECTRA_CACHE_SIZE =
+      (int) Math.min(2048, Runtime.getRuntime().maxMemory() / 8 / (1024 * 1024));
+
+  public static final IntegerParameter spectraCacheSize = new IntegerParameter(
+      "Spectra cache size (MB)",
+      "Memory budget shared by all raw data files for decoded scans and mass lists, which are kept in memory to avoid reading them from the disk again. Defaults to an eighth of the maximum memory. Scans converted for MSDK based modules such as ADAP3D count against the same budget. Set to 0 to disable the cache.",
+      DEFAULT_SPECTRA_CACHE_SIZE, 0, null);
+
+  public static final ComboParameter<DataPointsCodec> dataPointsCompression =
+      new ComboParameter<>("Temporary data compression",
+          "Encoding of the scans and mass lists in the temporary files of raw data files. Compression saves disk space and reading time at the cost of some CPU time. The lossy numpress encoding keeps m/z values more precisely than no compression, intensities with a relative error below 0.1 %. Applies to raw data files imported or opened afterwards.",
+          FXCollections.observableArrayList(DataPointsCodec.values()), DataPointsCodec.NONE);
+
+  public static final BooleanParameter loadPeakListsOnDemand = new BooleanParameter(
+      "Load feature lists on demand",
+      "When opening a project, only register its feature lists and read the rows of each feature list when it is used for the first time. Large projects open faster. Projects saved with this option store their scans uncompressed, so that they are read in place when opening, but the project files are larger.",
+      false);
+
+  public static final BooleanParameter binaryPeakLists = new BooleanParameter(
+      "Save feature lists in binary format",
+      "Save the feature lists of projects in a compact binary format instead of XML. Saving and opening are much faster. Older MZmine versions refuse to open such projects, so XML is the default.",
+      false);
+
+  public static final OptionalModuleParameter<LibraryCacheSettings> libraryCache =
+      new OptionalModuleParameter<>("Cache spectral libraries",
+          "Compile spectral libraries into a binary file when they are parsed for the first time. Later searches read the compiled library, which is much faster for large libraries. A compiled library is updated when its library file changes.",
+          new LibraryCacheSettings(), true);
+
   public static final OptionalModuleParameter proxySettings = new OptionalModuleParameter(
       "Use proxy", "Use proxy for internet connection?", new ProxySettings());
 
@@ -84,7 +117,8 @@ public class MZminePreferences extends SimpleParameterSet {
   
   public MZminePreferences() {
     super(new Parameter[] {colorPalettes, mzFormat, rtFormat, intensityFormat, numOfThreads,
-        proxySettings, rExecPath, sendStatistics, windowSetttings, sendErrorEMail,
+        spectraCacheSize, dataPointsCompression, loadPeakListsOnDemand, binaryPeakLists,
+        libraryCache, proxySettings, rExecPath, sendStatistics, windowSetttings, sendErrorEMail,
         stdColorPalette, chartParam});
   }
 
@@ -97,6 +131,8 @@ public class MZminePreferences extends SimpleParameterSet {
 
       // Update proxy settings
       updateSystemProxySettings();
+      updateSpectraCache();
+      updateLibraryCache();
 
       // Repaint windows to update number formats
       // MZmineCore.getDesktop().getMainWindow().repaint();
@@ -109,6 +145,26 @@ public class MZminePreferences extends SimpleParameterSet {
   public void loadValuesFromXML(Element xmlElement) {
     super.loadValuesFromXML(xmlElement);
     updateSystemProxySettings();
+    updateSpectraCache();
+    updateLibraryCache();
+  }
+
+  private void updateSpectraCache() {
+    Integer sizeMB = getParameter(spectraCacheSize).getValue();
+    SpectraCache.setMaximumSize(sizeMB != null ? sizeMB * 1024L * 1024L : 0);
+  }
+
+  private void updateLibraryCache() {
+    Boolean enabled = getParameter(libraryCache).getValue();
+    if ((enabled != null) && enabled) {
+      ParameterSet settings = getParameter(libraryCache).getEmbeddedParameters();
+      Integer sizeMB = settings.getParameter(LibraryCacheSettings.maximumSize).getValue();
+      SpectralLibraryCache.setCacheDirectory(
+          settings.getParameter(LibraryCacheSettings.directory).getValue(),
+          sizeMB != null ? sizeMB * 1024L * 1024L : 0);
+    } else {
+      SpectralLibraryCache.setCacheDirectory(null, 0);
+    }
   }
 
   private void updateSystemProxySettings() {
@@ -23,12 +23,14 @@ import java.io.IOException;
 import java.text.NumberFormat;
 import java.util.List;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import io.github.mzmine.gui.chartbasics.chartthemes.ChartThemeParameters;
 import io.github.mzmine.gui.chartbasics.chartthemes.EStandardChartTheme;
 import io.github.mzmine.gui.preferences.MZminePreferences;
 import io.github.mzmine.modules.MZmineModule;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.filenames.FileNameListSilentParameter;
+import io.github.mzmine.project.impl.DataPointsCodec;
 import io.github.mzmine.util.StringCrypter;
 import io.github.mzmine.util.color.SimpleColorPalette;
 import io.github.mzmine.util.color.Vision;
@@ -76,6 +78,37 @@ public interface MZmineConfiguration {
 
   public Boolean getSendStatistics();
 
+  /**
+   * @return Memory budget in bytes for the decoded spectra cache shared by all raw data files
+   */
+  public long getSpectraCacheSize();
+
+  /**
+   * @return Directory of the compiled spectral libraries, or null if libraries are not cached
+   */
+  @Nullable
+  public File getLibraryCacheDirectory();
+
+  /**
+   * @return Maximum size in bytes of all compiled spectral libraries together
+   */
+  public long getLibraryCacheSize();
+
+  /**
+   * @return Encoding of newly stored data points in the temporary files of raw data files
+   */
+  public DataPointsCodec getDataPointsCodec();
+
+  /**
+   * @return Whether the rows of feature lists in opened projects are read when first used
+   */
+  public boolean isLoadPeakListsOnDemand();
+
+  /**
+   * @return Whether feature lists are saved to projects in the binary format instead of XML
+   */
+  public boolean isSaveBinaryPeakLists();
+
   /**
    * For color blindness or "normal vision"
    * 
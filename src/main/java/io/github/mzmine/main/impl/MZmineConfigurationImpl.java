@@ -48,6 +48,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 import io.github.mzmine.gui.chartbasics.chartthemes.ChartThemeParameters;
 import io.github.mzmine.gui.chartbasics.chartthemes.EStandardChartTheme;
+import io.github.mzmine.gui.preferences.LibraryCacheSettings;
 import io.github.mzmine.gui.preferences.MZminePreferences;
 import io.github.mzmine.main.MZmineConfiguration;
 import io.github.mzmine.main.MZmineCore;
@@ -57,6 +58,7 @@ import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.impl.SimpleParameterSet;
 import io.github.mzmine.parameters.parametertypes.EncryptionKeyParameter;
 import io.github.mzmine.parameters.parametertypes.filenames.FileNameListSilentParameter;
+import io.github.mzmine.project.impl.DataPointsCodec;
 import io.github.mzmine.util.StringCrypter;
 import io.github.mzmine.util.color.ColorsFX;
 import io.github.mzmine.util.color.SimpleColorPalette;
@@ -175,6 +177,53 @@ public class MZmineConfigurationImpl implements MZmineConfiguration {
     return preferences.getParameter(MZminePreferences.sendStatistics).getValue();
   }
 
+  @Override
+  public long getSpectraCacheSize() {
+    Integer sizeMB = preferences.getParameter(MZminePreferences.spectraCacheSize).getValue();
+    if (sizeMB == null)
+      return 0;
+    return sizeMB * 1024L * 1024L;
+  }
+
+  @Override
+  public File getLibraryCacheDirectory() {
+    Boolean enabled = preferences.getParameter(MZminePreferences.libraryCache).getValue();
+    if ((enabled == null) || !enabled)
+      return null;
+    return preferences.getParameter(MZminePreferences.libraryCache).getEmbeddedParameters()
+        .getParameter(LibraryCacheSettings.directory).getValue();
+  }
+
+  @Override
+  public long getLibraryCacheSize() {
+    Integer sizeMB = preferences.getParameter(MZminePreferences.libraryCache)
+        .getEmbeddedParameters().getParameter(LibraryCacheSettings.maximumSize).getValue();
+    if (sizeMB == null)
+      return 0;
+    return sizeMB * 1024L * 1024L;
+  }
+
+  @Override
+  public DataPointsCodec getDataPointsCodec() {
+    DataPointsCodec codec =
+        preferences.getParameter(MZminePreferences.dataPointsCompression).getValue();
+    if (codec == null)
+      return DataPointsCodec.NONE;
+    return codec;
+  }
+
+  @Override
+  public boolean isLoadPeakListsOnDemand() {
+    Boolean onDemand = preferences.getParameter(MZminePreferences.loadPeakListsOnDemand).getValue();
+    return (onDemand != null) && onDemand;
+  }
+
+  @Override
+  public boolean isSaveBinaryPeakLists() {
+    Boolean binary = preferences.getParameter(MZminePreferences.binaryPeakLists).getValue();
+    return (binary != null) && binary;
+  }
+
   @SuppressWarnings("unchecked")
   @Override
   public void loadConfiguration(File file) throws IOException {
@@ -19,17 +19,36 @@
 package io.github.mzmine.modules.batchmode;
 
 import java.util.Collection;
+import java.util.Set;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
+import com.google.common.collect.ImmutableSet;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.MZmineModule;
 import io.github.mzmine.modules.MZmineProcessingModule;
 import io.github.mzmine.modules.MZmineProcessingStep;
+import io.github.mzmine.modules.dataprocessing.featdet_ADAPchromatogrambuilder.ADAPChromatogramBuilderModule;
+import io.github.mzmine.modules.dataprocessing.featdet_chromatogrambuilder.ChromatogramBuilderModule;
+import io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.DeconvolutionModule;
+import io.github.mzmine.modules.dataprocessing.featdet_gridmass.GridMassModule;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetectionModule;
+import io.github.mzmine.modules.dataprocessing.featdet_peakextender.PeakExtenderModule;
+import io.github.mzmine.modules.dataprocessing.featdet_shoulderpeaksfilter.ShoulderPeaksFilterModule;
+import io.github.mzmine.modules.dataprocessing.featdet_smoothing.SmoothingModule;
+import io.github.mzmine.modules.dataprocessing.filter_duplicatefilter.DuplicateFilterModule;
+import io.github.mzmine.modules.dataprocessing.filter_isotopegrouper.IsotopeGrouperModule;
 import io.github.mzmine.modules.dataprocessing.filter_rowsfilter.RowsFilterModule;
 import io.github.mzmine.modules.dataprocessing.filter_rowsfilter.RowsFilterParameters;
 import io.github.mzmine.modules.impl.MZmineProcessingStepImpl;
+import io.github.mzmine.parameters.Parameter;
 import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.parametertypes.selectors.PeakListsParameter;
+import io.github.mzmine.parameters.parametertypes.selectors.PeakListsSelection;
+import io.github.mzmine.parameters.parametertypes.selectors.PeakListsSelectionType;
+import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesParameter;
+import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesSelection;
+import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesSelectionType;
 import io.github.mzmine.util.javafx.ArrayObservableList;
 
 /**
@@ -43,6 +62,60 @@ public class BatchQueue extends ArrayObservableList<MZmineProcessingStep<MZmineP
   // Method element name.
   private static final String METHOD_ELEMENT = "method";
 
+  /**
+   * Modules which process each raw data file or single-file feature list on its own and do not
+   * create new raw data files, including their subclasses. Consecutive steps of these modules may
+   * run for one file while other files are still in an earlier step.
+   */
+  // The deprecated ChromatogramBuilderModule is still listed, as existing batches may use it
+  @SuppressWarnings("deprecation")
+  private static final Set<Class<? extends MZmineProcessingModule>> PER_FILE_MODULES =
+      ImmutableSet.of(MassDetectionModule.class, ShoulderPeaksFilterModule.class,
+          ChromatogramBuilderModule.class, ADAPChromatogramBuilderModule.class,
+          GridMassModule.class, DeconvolutionModule.class, SmoothingModule.class,
+          PeakExtenderModule.class, IsotopeGrouperModule.class, DuplicateFilterModule.class);
+
+  /**
+   * Returns the end (exclusive) of the run of per-file steps which starts at given step. Together
+   * with the steps in between, which join all files (e.g. alignment), these runs form the
+   * dependency graph of the batch: within a run, each file only depends on its own previous step.
+   * Returns fromStep if the step at fromStep is not a per-file step.
+   */
+  public int getPerFileStepsEnd(int fromStep) {
+    int end = fromStep;
+    while ((end < size()) && isPerFileStep(get(end)))
+      end++;
+    return end;
+  }
+
+  /**
+   * A step can run per file if its module processes each file on its own, and all its raw data
+   * file and feature list selections refer to the results of the previous batch step
+   */
+  private static boolean isPerFileStep(MZmineProcessingStep<MZmineProcessingModule> step) {
+
+    final MZmineProcessingModule module = step.getModule();
+    if (PER_FILE_MODULES.stream().noneMatch(moduleClass -> moduleClass.isInstance(module)))
+      return false;
+
+    for (Parameter<?> p : step.getParameterSet().getParameters()) {
+      if (p instanceof RawDataFilesParameter) {
+        RawDataFilesSelection selection = ((RawDataFilesParameter) p).getValue();
+        if ((selection == null)
+            || (selection.getSelectionType() != RawDataFilesSelectionType.BATCH_LAST_FILES))
+          return false;
+      }
+      if (p instanceof PeakListsParameter) {
+        PeakListsSelection selection = ((PeakListsParameter) p).getValue();
+        if ((selection == null)
+            || (selection.getSelectionType() != PeakListsSelectionType.BATCH_LAST_PEAKLISTS))
+          return false;
+      }
+    }
+
+    return true;
+  }
+
   @Override
   public BatchQueue clone() {
 
@@ -15,7 +15,6 @@
  * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
  * USA
  */
-
 package io.github.mzmine.modules.batchmode;
 
 import java.util.ArrayList;
@@ -37,12 +36,17 @@ import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesParamete
 import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesSelection;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.Task;
+import io.github.mzmine.taskcontrol.TaskController;
 import io.github.mzmine.taskcontrol.TaskPriority;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.taskcontrol.TaskStatusListener;
 import io.github.mzmine.util.ExitCode;
 
 /**
- * Batch mode task
+ * Batch mode task. Steps which join all files (e.g. alignment) run one after another. Runs of
+ * consecutive per-file steps (see {@link BatchQueue#getPerFileStepsEnd(int)}) are processed as one
+ * lane per raw data file, so each file proceeds to its next step as soon as its own tasks are done,
+ * without waiting for the other files.
  */
 public class BatchTask extends AbstractTask {
 
@@ -52,18 +56,58 @@ public class BatchTask extends AbstractTask {
 
   private MZmineProject project;
   private final BatchQueue queue;
+  private final TaskController taskController;
+
+  // Data files and feature lists created by the last step which created any
+  private List<RawDataFile> batchLastDataFiles;
+  private List<PeakList> batchLastPeakLists;
+
+  // Set by the status listener of the step tasks, so we can wake up immediately
+  private boolean stepTaskStatusChanged = false;
+  private final TaskStatusListener stepTaskListener = (task, newStatus, oldStatus) -> {
+    synchronized (BatchTask.this) {
+      stepTaskStatusChanged = true;
+      BatchTask.this.notifyAll();
+    }
+  };
+
+  /**
+   * The state of one raw data file during a run of per-file steps
+   */
+  private static class Lane {
+
+    private final RawDataFile dataFile;
+    // The data file is only passed to the steps if it was created by the previous batch step
+    private final List<RawDataFile> dataFiles;
+    private List<PeakList> peakLists;
+    private int nextStep;
+    private List<Task> tasks;
+    private List<PeakList> beforePeakLists;
+    private boolean createdPeakLists = false;
+
+    private Lane(RawDataFile dataFile, boolean batchLastDataFile, int firstStep) {
+      this.dataFile = dataFile;
+      this.dataFiles = batchLastDataFile ? List.of(dataFile) : List.of();
+      this.peakLists = new ArrayList<>();
+      this.nextStep = firstStep;
+    }
 
-  private List<RawDataFile> createdDataFiles, previousCreatedDataFiles;
-  private List<PeakList> createdPeakLists, previousCreatedPeakLists;
+  }
 
   BatchTask(MZmineProject project, ParameterSet parameters) {
+    this(project, parameters, MZmineCore.getTaskController());
+  }
+
+  /**
+   * Batch task submitting the tasks of its steps to the given task controller
+   */
+  BatchTask(MZmineProject project, ParameterSet parameters, TaskController taskController) {
     this.project = project;
+    this.taskController = taskController;
     this.queue = parameters.getParameter(BatchModeParameters.batchQueue).getValue();
     totalSteps = queue.size();
-    createdDataFiles = new ArrayList<>();
-    createdPeakLists = new ArrayList<>();
-    previousCreatedDataFiles = new ArrayList<>();
-    previousCreatedPeakLists = new ArrayList<>();
+    batchLastDataFiles = new ArrayList<>();
+    batchLastPeakLists = new ArrayList<>();
   }
 
   @Override
@@ -72,13 +116,18 @@ public class BatchTask extends AbstractTask {
     setStatus(TaskStatus.PROCESSING);
     logger.info("Starting a batch of " + totalSteps + " steps");
 
-
-
     // Process individual batch steps
-    for (int i = 0; i < totalSteps; i++) {
-
-      processQueueStep(i);
-      processedSteps++;
+    int stepNumber = 0;
+    while (stepNumber < totalSteps) {
+
+      final int perFileStepsEnd = queue.getPerFileStepsEnd(stepNumber);
+      if ((perFileStepsEnd > stepNumber) && processPerFileSteps(stepNumber, perFileStepsEnd)) {
+        stepNumber = perFileStepsEnd;
+      } else {
+        processQueueStep(stepNumber);
+        stepNumber++;
+      }
+      processedSteps = stepNumber;
 
       // If we are canceled or ran into error, stop here
       if (isCanceled() || (getStatus() == TaskStatus.ERROR)) {
@@ -98,65 +147,216 @@ public class BatchTask extends AbstractTask {
 
     // Run next step of the batch
     MZmineProcessingStep<?> currentStep = queue.get(stepNumber);
-    MZmineProcessingModule method = (MZmineProcessingModule) currentStep.getModule();
-    ParameterSet batchStepParameters = currentStep.getParameterSet();
 
     final List<PeakList> beforePeakLists = ImmutableList.copyOf(project.getFeatureLists());
     final List<RawDataFile> beforeDataFiles = ImmutableList.copyOf(project.getRawDataFiles());
 
-    // If the last step did not produce any data files or feature lists, use
-    // the ones from the previous step
-    if (createdDataFiles.isEmpty())
-      createdDataFiles = previousCreatedDataFiles;
-    if (createdPeakLists.isEmpty())
-      createdPeakLists = previousCreatedPeakLists;
+    List<Task> currentStepTasks = startStep(currentStep, currentStep.getParameterSet(),
+        batchLastDataFiles, batchLastPeakLists);
+    if (currentStepTasks == null)
+      return;
+
+    // Wait until all tasks of this step are finished
+    while (!currentStepTasks.isEmpty() && !checkStepTasks(currentStepTasks)) {
+
+      // If we canceled the batch, cancel all running tasks
+      if (isCanceled()) {
+        for (Task stepTask : currentStepTasks)
+          stepTask.cancel();
+        return;
+      }
+
+      waitForStepTasks();
+    }
+
+    if (isCanceled())
+      return;
+
+    // Save the data files and feature lists created by this step for the next step. If this step
+    // did not produce any data files or feature lists, the next step uses the ones from the
+    // previous step.
+    List<RawDataFile> createdDataFiles = new ArrayList<>(project.getRawDataFiles());
+    List<PeakList> createdPeakLists = new ArrayList<>(project.getFeatureLists());
+    createdDataFiles.removeAll(beforeDataFiles);
+    createdPeakLists.removeAll(beforePeakLists);
+    if (!createdDataFiles.isEmpty())
+      batchLastDataFiles = createdDataFiles;
+    if (!createdPeakLists.isEmpty())
+      batchLastPeakLists = createdPeakLists;
+
+  }
+
+  /**
+   * Processes the per-file steps from firstStep (inclusive) to endStep (exclusive) in one lane per
+   * raw data file. Returns false if the current data files and feature lists cannot be split into
+   * lanes, so the steps have to be processed one after another.
+   */
+  private boolean processPerFileSteps(int firstStep, int endStep) {
+
+    // Each feature list must belong to exactly one data file
+    List<Lane> lanes = new ArrayList<>();
+    for (RawDataFile dataFile : batchLastDataFiles)
+      lanes.add(new Lane(dataFile, true, firstStep));
+    for (PeakList peakList : batchLastPeakLists) {
+      if (peakList.getNumberOfRawDataFiles() != 1)
+        return false;
+      RawDataFile dataFile = peakList.getRawDataFile(0);
+      Lane lane = lanes.stream().filter(l -> l.dataFile == dataFile).findFirst().orElse(null);
+      if (lane == null) {
+        lane = new Lane(dataFile, false, firstStep);
+        lanes.add(lane);
+      }
+      lane.peakLists.add(peakList);
+    }
+    if (lanes.isEmpty())
+      return false;
+
+    logger.info("Starting steps # " + (firstStep + 1) + " to " + endStep + " for "
+        + lanes.size() + " raw data files");
+
+    while (true) {
+
+      // If we canceled the batch, cancel all running tasks
+      if (isCanceled()) {
+        for (Lane lane : lanes)
+          if (lane.tasks != null)
+            for (Task stepTask : lane.tasks)
+              stepTask.cancel();
+        return true;
+      }
+
+      boolean allLanesFinished = true;
+      int slowestLaneStep = endStep;
+
+      for (Lane lane : lanes) {
+
+        // Check the tasks of the current step of this lane
+        if (lane.tasks != null) {
+          if (!checkStepTasks(lane.tasks)) {
+            if (isCanceled()) {
+              for (Lane l : lanes)
+                if (l.tasks != null)
+                  for (Task stepTask : l.tasks)
+                    stepTask.cancel();
+              return true;
+            }
+            allLanesFinished = false;
+            slowestLaneStep = Math.min(slowestLaneStep, lane.nextStep);
+            continue;
+          }
+          finishLaneStep(lane);
+        }
+
+        // Start the next steps of this lane, skipping steps which produce no tasks or have no
+        // input for this lane
+        while ((lane.tasks == null) && (lane.nextStep < endStep)) {
+          MZmineProcessingStep<MZmineProcessingModule> step = queue.get(lane.nextStep);
+          lane.beforePeakLists = ImmutableList.copyOf(project.getFeatureLists());
+          if (!hasInput(step.getParameterSet(), lane)) {
+            finishLaneStep(lane);
+            continue;
+          }
+          lane.tasks = startStep(step, step.getParameterSet().cloneParameterSet(), lane.dataFiles,
+              lane.peakLists);
+          if (lane.tasks == null)
+            return true;
+          if (lane.tasks.isEmpty())
+            finishLaneStep(lane);
+        }
+
+        if (lane.tasks != null) {
+          allLanesFinished = false;
+          slowestLaneStep = Math.min(slowestLaneStep, lane.nextStep);
+        }
+
+      }
+
+      processedSteps = slowestLaneStep;
+
+      if (allLanesFinished)
+        break;
+
+      waitForStepTasks();
+    }
+
+    // Use the feature lists of all lanes for the next step, unless none of these steps created any
+    List<PeakList> createdPeakLists = new ArrayList<>();
+    boolean anyCreated = false;
+    for (Lane lane : lanes) {
+      createdPeakLists.addAll(lane.peakLists);
+      anyCreated |= lane.createdPeakLists;
+    }
+    if (anyCreated)
+      batchLastPeakLists = createdPeakLists;
+
+    return true;
+  }
+
+  /**
+   * Returns false if the step selects data files or feature lists, but the lane has none
+   */
+  private boolean hasInput(ParameterSet batchStepParameters, Lane lane) {
+    for (Parameter<?> p : batchStepParameters.getParameters()) {
+      if ((p instanceof RawDataFilesParameter) && lane.dataFiles.isEmpty())
+        return false;
+      if ((p instanceof PeakListsParameter) && lane.peakLists.isEmpty())
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Collects the feature lists created for the data file of the lane and moves it to its next step
+   */
+  private void finishLaneStep(Lane lane) {
+    List<PeakList> createdPeakLists = new ArrayList<>(project.getFeatureLists());
+    createdPeakLists.removeAll(lane.beforePeakLists);
+    createdPeakLists.removeIf(peakList -> (peakList.getNumberOfRawDataFiles() != 1)
+        || (peakList.getRawDataFile(0) != lane.dataFile));
+    if (!createdPeakLists.isEmpty()) {
+      lane.peakLists = createdPeakLists;
+      lane.createdPeakLists = true;
+    }
+    lane.tasks = null;
+    lane.nextStep++;
+  }
+
+  /**
+   * Sets the batch input of the step, checks its parameters and submits its tasks to the task
+   * controller. Returns null in case of error.
+   */
+  private List<Task> startStep(MZmineProcessingStep<?> step, ParameterSet batchStepParameters,
+      List<RawDataFile> lastDataFiles, List<PeakList> lastPeakLists) {
+
+    MZmineProcessingModule method = (MZmineProcessingModule) step.getModule();
 
-    // Update the RawDataFilesParameter parameters to reflect the current
+    // Update the RawDataFilesParameter and PeakListsParameter parameters to reflect the current
     // state of the batch
     for (Parameter<?> p : batchStepParameters.getParameters()) {
       if (p instanceof RawDataFilesParameter) {
         RawDataFilesParameter rdp = (RawDataFilesParameter) p;
-        RawDataFile createdFiles[] = createdDataFiles.toArray(new RawDataFile[0]);
         final RawDataFilesSelection selectedFiles = rdp.getValue();
         if (selectedFiles == null) {
           setStatus(TaskStatus.ERROR);
           setErrorMessage("Invalid parameter settings for module " + method.getName() + ": "
               + "Missing parameter value for " + p.getName());
-          return;
+          return null;
         }
-        selectedFiles.setBatchLastFiles(createdFiles);
+        selectedFiles.setBatchLastFiles(lastDataFiles.toArray(new RawDataFile[0]));
       }
-    }
-
-    createdDataFiles = new ArrayList<>(project.getRawDataFiles());
-    createdPeakLists = new ArrayList<>(project.getFeatureLists());
-    createdDataFiles.removeAll(beforeDataFiles);
-    createdPeakLists.removeAll(beforePeakLists);
-
-    // Update the PeakListsParameter parameters to reflect the current
-    // state of the batch
-    for (Parameter<?> p : batchStepParameters.getParameters()) {
       if (p instanceof PeakListsParameter) {
         PeakListsParameter rdp = (PeakListsParameter) p;
-        PeakList createdPls[] = createdPeakLists.toArray(new PeakList[0]);
         final PeakListsSelection selectedPeakLists = rdp.getValue();
         if (selectedPeakLists == null) {
           setStatus(TaskStatus.ERROR);
           setErrorMessage("Invalid parameter settings for module " + method.getName() + ": "
               + "Missing parameter value for " + p.getName());
-          return;
+          return null;
         }
-        selectedPeakLists.setBatchLastPeakLists(createdPls);
+        selectedPeakLists.setBatchLastPeakLists(lastPeakLists.toArray(new PeakList[0]));
       }
     }
 
-    // Clear the saved data files and feature lists. Save them to the
-    // "previous" lists, in case the next step does not produce any new data
-    if (!createdDataFiles.isEmpty())
-      previousCreatedDataFiles = createdDataFiles;
-    if (!createdPeakLists.isEmpty())
-      previousCreatedPeakLists = createdPeakLists;
-
     // Check if the parameter settings are valid
     ArrayList<String> messages = new ArrayList<String>();
     boolean paramsCheck = batchStepParameters.checkParameterValues(messages);
@@ -164,6 +364,7 @@ public class BatchTask extends AbstractTask {
       setStatus(TaskStatus.ERROR);
       setErrorMessage("Invalid parameter settings for module " + method.getName() + ": "
           + Arrays.toString(messages.toArray()));
+      return null;
     }
 
     ArrayList<Task> currentStepTasks = new ArrayList<Task>();
@@ -172,69 +373,73 @@ public class BatchTask extends AbstractTask {
     if (exitCode != ExitCode.OK) {
       setStatus(TaskStatus.ERROR);
       setErrorMessage("Could not start batch step " + method.getName());
-      return;
+      return null;
     }
 
     // If current step didn't produce any tasks, continue with next step
     if (currentStepTasks.isEmpty())
-      return;
+      return currentStepTasks;
 
-    boolean allTasksFinished = false;
+    for (Task stepTask : currentStepTasks)
+      if (stepTask instanceof AbstractTask)
+        ((AbstractTask) stepTask).addTaskStatusListener(stepTaskListener);
 
     // Submit the tasks to the task controller for processing
-    MZmineCore.getTaskController().addTasks(currentStepTasks.toArray(new Task[0]));
-
-    while (!allTasksFinished) {
-
-      // If we canceled the batch, cancel all running tasks
-      if (isCanceled()) {
-        for (Task stepTask : currentStepTasks)
-          stepTask.cancel();
-        return;
-      }
+    taskController.addTasks(currentStepTasks.toArray(new Task[0]));
 
-      // First set to true, then check all tasks
-      allTasksFinished = true;
+    return currentStepTasks;
+  }
 
-      for (Task stepTask : currentStepTasks) {
+  /**
+   * Returns true if all tasks of a step are finished. If any of them failed or was canceled, the
+   * whole batch is stopped and all tasks of the step are canceled.
+   */
+  private boolean checkStepTasks(List<Task> stepTasks) {
 
-        TaskStatus stepStatus = stepTask.getStatus();
+    boolean allTasksFinished = true;
 
-        // If any of them is not finished, keep checking
-        if (stepStatus != TaskStatus.FINISHED)
-          allTasksFinished = false;
+    for (Task stepTask : stepTasks) {
 
-        // If there was an error, we have to stop the whole batch
-        if (stepStatus == TaskStatus.ERROR) {
-          setStatus(TaskStatus.ERROR);
-          setErrorMessage(stepTask.getTaskDescription() + ": " + stepTask.getErrorMessage());
-          return;
-        }
+      TaskStatus stepStatus = stepTask.getStatus();
 
-        // If user canceled any of the tasks, we have to cancel the
-        // whole batch
-        if (stepStatus == TaskStatus.CANCELED) {
-          setStatus(TaskStatus.CANCELED);
-          for (Task t : currentStepTasks)
-            t.cancel();
-          return;
-        }
+      // If any of them is not finished, keep checking
+      if (stepStatus != TaskStatus.FINISHED)
+        allTasksFinished = false;
 
+      // If there was an error, we have to stop the whole batch
+      if (stepStatus == TaskStatus.ERROR) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage(stepTask.getTaskDescription() + ": " + stepTask.getErrorMessage());
+        return false;
       }
 
-      // Wait 1s before checking the tasks again
-      if (!allTasksFinished) {
-        synchronized (this) {
-          try {
-            this.wait(1000);
-          } catch (InterruptedException e) {
-            // ignore
-          }
-        }
+      // If user canceled any of the tasks, we have to cancel the
+      // whole batch
+      if (stepStatus == TaskStatus.CANCELED) {
+        setStatus(TaskStatus.CANCELED);
+        for (Task t : stepTasks)
+          t.cancel();
+        return false;
       }
 
     }
 
+    return allTasksFinished;
+  }
+
+  /**
+   * Waits until the status of any step task changes, but at most 1s, because tasks which do not
+   * extend AbstractTask do not notify us
+   */
+  private synchronized void waitForStepTasks() {
+    if (!stepTaskStatusChanged) {
+      try {
+        this.wait(1000);
+      } catch (InterruptedException e) {
+        // ignore
+      }
+    }
+    stepTaskStatusChanged = false;
   }
 
   @Override
@@ -20,7 +20,8 @@ package io.github.mzmine.modules.dataprocessing.align_hierarchical;
 
 public enum ClustererType {
 
-  CLASSIC("Classic (Base)"), CACHED("Classic (Cached)"), HYBRID("Hybrid");
+  CLASSIC("Classic (Base)"), CACHED("Classic (Cached)"), HYBRID("Hybrid"),
+  SPARSE("Sparse (Thresholded)");
 
   private final String name;
 
@@ -32,4 +33,9 @@ public enum ClustererType {
     return this.name;
   }
 
+  @Override
+  public String toString() {
+    return this.name;
+  }
+
 }
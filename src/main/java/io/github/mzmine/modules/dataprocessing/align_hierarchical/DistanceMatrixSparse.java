@@ -0,0 +1,203 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ * 
+ * This file is part of MZmine.
+ * 
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.align_hierarchical;
+
+import java.util.Arrays;
+
+import org.gnf.clustering.DistanceMatrix;
+
+/**
+ * Symmetrical distance matrix which only stores the pairs closer than a given default distance.
+ * Each row keeps the sorted columns greater than the row itself and their distances, all other
+ * pairs are at the default distance. Rows may be assigned to groups (e.g. the data files of the
+ * rows), pairs of rows of the same group which are not stored are at the same group distance
+ * instead. Rows are set as a whole with {@link #setRow}, different rows may be set from different
+ * threads. {@link #setValue} inserts or removes single pairs.
+ */
+public class DistanceMatrixSparse implements DistanceMatrix {
+
+  private static final int EMPTY_COLUMNS[] = new int[0];
+  private static final float EMPTY_VALUES[] = new float[0];
+
+  private final int dimension;
+  private final float defaultValue;
+  private final int rowGroups[];
+  private final float sameGroupValue;
+
+  private final int columns[][];
+  private final float values[][];
+
+  public DistanceMatrixSparse(int nRowCount, float defaultValue) {
+    this(nRowCount, defaultValue, null, defaultValue);
+  }
+
+  /**
+   * @param rowGroups Group of each row, or null if the rows are not grouped
+   * @param sameGroupValue Distance of the pairs of rows of the same group which are not stored
+   */
+  public DistanceMatrixSparse(int nRowCount, float defaultValue, int rowGroups[],
+      float sameGroupValue) {
+
+    if (rowGroups != null && rowGroups.length != nRowCount)
+      throw new IllegalArgumentException(
+          "Number of row groups differs from the number of rows: " + rowGroups.length + " != "
+              + nRowCount);
+
+    this.dimension = nRowCount;
+    this.defaultValue = defaultValue;
+    this.rowGroups = rowGroups;
+    this.sameGroupValue = sameGroupValue;
+    this.columns = new int[nRowCount][];
+    this.values = new float[nRowCount][];
+    Arrays.fill(columns, EMPTY_COLUMNS);
+    Arrays.fill(values, EMPTY_VALUES);
+  }
+
+  /**
+   * Sets the stored pairs of the given row. The columns must be sorted ascending and greater than
+   * the row.
+   */
+  public void setRow(int row, int rowColumns[], float rowValues[]) {
+
+    if (rowColumns.length != rowValues.length)
+      throw new IllegalArgumentException("Number of columns and values of row " + row
+          + " differ: " + rowColumns.length + " != " + rowValues.length);
+
+    columns[row] = rowColumns;
+    values[row] = rowValues;
+  }
+
+  public int[] getRowColumns(int row) {
+    return columns[row];
+  }
+
+  public float[] getRowValues(int row) {
+    return values[row];
+  }
+
+  public float getDefaultValue() {
+    return defaultValue;
+  }
+
+  public float getSameGroupValue() {
+    return sameGroupValue;
+  }
+
+  public boolean hasRowGroups() {
+    return rowGroups != null;
+  }
+
+  /**
+   * @return Group of the row, or the row itself if the rows are not grouped
+   */
+  public int getRowGroup(int row) {
+    return (rowGroups != null) ? rowGroups[row] : row;
+  }
+
+  /**
+   * @return Distance of the pair if it is not stored
+   */
+  public float getUnstoredValue(int nRow, int nCol) {
+    return (nRow != nCol && getRowGroup(nRow) == getRowGroup(nCol)) ? sameGroupValue
+        : defaultValue;
+  }
+
+  /**
+   * @return Number of stored pairs
+   */
+  public long getNumberOfValues() {
+    long count = 0;
+    for (int rowColumns[] : columns)
+      count += rowColumns.length;
+    return count;
+  }
+
+  @Override
+  public int getRowCount() {
+    return dimension;
+  }
+
+  @Override
+  public int getColCount() {
+    return dimension;
+  }
+
+  @Override
+  public float getValue(int nRow, int nCol) {
+
+    if (nRow == nCol)
+      return 0f;
+
+    final int row = Math.min(nRow, nCol);
+    final int index = Arrays.binarySearch(columns[row], Math.max(nRow, nCol));
+    return (index >= 0) ? values[row][index] : getUnstoredValue(nRow, nCol);
+  }
+
+  /**
+   * Sets the distance of a pair. Setting the distance of unstored pairs removes the pair, the
+   * diagonal is always 0.
+   */
+  @Override
+  public void setValue(int nRow, int nCol, float fVal) {
+
+    if (nRow == nCol)
+      return;
+
+    final int row = Math.min(nRow, nCol);
+    final int col = Math.max(nRow, nCol);
+    final int rowColumns[] = columns[row];
+    final float rowValues[] = values[row];
+    final int index = Arrays.binarySearch(rowColumns, col);
+    final float unstoredValue = getUnstoredValue(row, col);
+
+    if (index >= 0) {
+      if (fVal != unstoredValue) {
+        rowValues[index] = fVal;
+        return;
+      }
+      // remove the pair
+      final int newColumns[] = new int[rowColumns.length - 1];
+      final float newValues[] = new float[rowValues.length - 1];
+      System.arraycopy(rowColumns, 0, newColumns, 0, index);
+      System.arraycopy(rowValues, 0, newValues, 0, index);
+      System.arraycopy(rowColumns, index + 1, newColumns, index, newColumns.length - index);
+      System.arraycopy(rowValues, index + 1, newValues, index, newValues.length - index);
+      setRow(row, newColumns, newValues);
+      return;
+    }
+
+    if (fVal == unstoredValue)
+      return;
+
+    // insert the pair at its sorted position
+    final int insertion = -index - 1;
+    final int newColumns[] = new int[rowColumns.length + 1];
+    final float newValues[] = new float[rowValues.length + 1];
+    System.arraycopy(rowColumns, 0, newColumns, 0, insertion);
+    System.arraycopy(rowValues, 0, newValues, 0, insertion);
+    newColumns[insertion] = col;
+    newValues[insertion] = fVal;
+    System.arraycopy(rowColumns, insertion, newColumns, insertion + 1,
+        rowColumns.length - insertion);
+    System.arraycopy(rowValues, insertion, newValues, insertion + 1,
+        rowValues.length - insertion);
+    setRow(row, newColumns, newValues);
+  }
+
+}
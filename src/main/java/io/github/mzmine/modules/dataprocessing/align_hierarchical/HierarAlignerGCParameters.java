@@ -55,8 +55,10 @@ public class HierarAlignerGCParameters extends SimpleParameterSet {
   // Clusterer choice
   public static final ComboParameter<ClustererType> clusterer_type =
       new ComboParameter<ClustererType>("Hierarchical clusterer",
-          "Which clustering algorithm should be used (See: \"Hierarchical clustering\" algorithms in general).",
-          ClustererType.values(), ClustererType.CACHED);
+          "Which clustering algorithm should be used (See: \"Hierarchical clustering\" algorithms in general). "
+              + "'Sparse' only keeps the distances of rows inside the m/z and RT tolerances and "
+              + "needs far less memory for many feature lists.",
+          new ClustererType[] {ClustererType.CACHED, ClustererType.SPARSE}, ClustererType.CACHED);
 
   // Clustering linkage strategy
   public static final ComboParameter<ClusteringLinkageStrategyType> linkageStartegyType_0 =
@@ -134,7 +136,7 @@ public class HierarAlignerGCParameters extends SimpleParameterSet {
   public HierarAlignerGCParameters() {
     super(new Parameter[] {peakLists,
         // useOldestRDFAncestor,
-        //// clusterer_type,
+        clusterer_type,
         //// saveRAMratherThanCPU_1, saveRAMratherThanCPU_2,
         linkageStartegyType_0,
         // hybrid_K_value,
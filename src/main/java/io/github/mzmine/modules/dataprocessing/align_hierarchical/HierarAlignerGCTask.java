@@ -29,13 +29,17 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import org.gnf.clustering.DataSource;
 import org.gnf.clustering.DistanceMatrix;
 import org.gnf.clustering.FloatSource1D;
 import org.gnf.clustering.LinkageMode;
+import com.google.common.collect.Range;
 import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.PeakIdentity;
@@ -52,6 +56,8 @@ import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.MzRtIndex;
+import io.github.mzmine.util.ParallelUtils;
 import io.github.mzmine.util.PeakUtils;
 import io.github.mzmine.util.SortingDirection;
 
@@ -66,7 +72,8 @@ public class HierarAlignerGCTask extends AbstractTask {
   private PeakList alignedPeakList;
 
   // Processed rows counter
-  private int processedRows, totalRows;
+  private final AtomicInteger processedRows = new AtomicInteger();
+  private int totalRows;
 
   private String peakListName;
   private LinkageMode linkageStartegyType;
@@ -180,10 +187,7 @@ public class HierarAlignerGCTask extends AbstractTask {
 
     //
 
-    // CLUSTERER_TYPE = parameters
-    // .getParameter(HierarAlignerGCParameters.clusterer_type)
-    // .getValue();// .ordinal();
-    CLUSTERER_TYPE = ClustererType.CACHED;
+    CLUSTERER_TYPE = parameters.getParameter(HierarAlignerGCParameters.clusterer_type).getValue();
 
     //
     ClusteringLinkageStrategyType linkageStartegyType_0 =
@@ -229,7 +233,7 @@ public class HierarAlignerGCTask extends AbstractTask {
       return 0f;
     // return (double) processedRows / (double) totalRows;
     double progress =
-        (processedRows + (clustProgress.getProgress() * totalRows / 3.0d)) / totalRows;
+        (processedRows.get() + (clustProgress.getProgress() * totalRows / 3.0d)) / totalRows;
     // logger.info(">> THE progress: " + progress);
     // logger.info("Caught progress: " +
     // clustProgress.getProgress());
@@ -325,7 +329,9 @@ public class HierarAlignerGCTask extends AbstractTask {
     }
 
     // If 'Hybrid' or no distance matrix: no need for a matrix
-    if (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) {
+    // 'Sparse': matrix is filled once the rows are known
+    if (CLUSTERER_TYPE != ClustererType.SPARSE
+        && (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1)) {
       // distances = new double[nbPeaks][nbPeaks];
 
       int nRowCount = nbPeaks;
@@ -356,8 +362,15 @@ public class HierarAlignerGCTask extends AbstractTask {
         // rtToleranceAfter,
         maximumScore);
 
+    if (CLUSTERER_TYPE == ClustererType.SPARSE) {
+
+      distancesGNF_Tri = computeSparseDistances(distProvider);
+      if (distancesGNF_Tri == null)
+        return;
+
+    }
     // If 'Hybrid' or no distance matrix: no need for a matrix
-    if (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) {
+    else if (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) {
 
       for (int x = 0; x < nbPeaks; ++x) {
 
@@ -373,10 +386,10 @@ public class HierarAlignerGCTask extends AbstractTask {
 
         }
 
-        processedRows++;
+        processedRows.incrementAndGet();
         if (DEBUG)
-          logger.info(
-              "Treating lists: " + (Math.round(100 * processedRows / (double) nbPeaks)) + " %");
+          logger.info("Treating lists: "
+              + (Math.round(100 * processedRows.get() / (double) nbPeaks)) + " %");
 
       }
     }
@@ -469,6 +482,23 @@ public class HierarAlignerGCTask extends AbstractTask {
 
       outputPrefix = "hierar_1";
 
+    } else if (CLUSTERER_TYPE == ClustererType.SPARSE) { // Hierar on stored pairs only
+
+      if (DEBUG)
+        logger.info("Clustering " + ((DistanceMatrixSparse) distancesGNF_Tri).getNumberOfValues()
+            + " stored distances...");
+
+      // The clustering does not alter the sparse matrix, no backup required
+      arNodes = SparseLinkageClustering.clusterDM((DistanceMatrixSparse) distancesGNF_Tri,
+          linkageStartegyType, clustProgress);
+      distancesGNF_Tri_Bkp = distancesGNF_Tri;
+      distancesGNF_Tri = null;
+
+      if (DEBUG)
+        printMemoryUsage(logger, run_time, prevTotal, prevFree, "SPARSE CLUSTERER DONE");
+
+      outputPrefix = "hierar_2";
+
     } else if (CLUSTERER_TYPE == ClustererType.HYBRID) { // Hybrid!
 
       throw new IllegalStateException(
@@ -554,7 +584,7 @@ public class HierarAlignerGCTask extends AbstractTask {
       }
       clustersList.add(rows_cluster);
       //
-      processedRows += rows_cluster.size();
+      processedRows.addAndGet(rows_cluster.size());
     }
 
     if (DEBUG)
@@ -672,6 +702,76 @@ public class HierarAlignerGCTask extends AbstractTask {
 
   }
 
+  /**
+   * Computes the distances of all row pairs inside the m/z and RT tolerances in parallel. Pairs
+   * outside the tolerances are not stored, they are at
+   * {@link RowVsRowDistanceProvider#NOT_CANDIDATE_DISTANCE}. The rows are grouped by their data
+   * file, so that all pairs of rows from the same data file are at
+   * {@link RowVsRowDistanceProvider#SAME_FILE_DISTANCE} without being stored, as with the full
+   * distance matrix.
+   * 
+   * @return The distance matrix, or null if the task was canceled
+   */
+  private DistanceMatrixSparse computeSparseDistances(RowVsRowDistanceProvider distProvider) {
+
+    final double mzMaxDiff = mzTolerance.getMzTolerance();
+    final double rtMaxDiff = rtTolerance.getTolerance();
+    final int nbRows = full_rows_list.size();
+
+    final Map<RawDataFile, Integer> fileIndexes = new HashMap<>();
+    final int rowFiles[] = new int[nbRows];
+    for (int i = 0; i < nbRows; i++) {
+      final RawDataFile file = full_rows_list.get(i).getRawDataFiles()[0];
+      rowFiles[i] = fileIndexes.computeIfAbsent(file, f -> fileIndexes.size());
+    }
+
+    final DistanceMatrixSparse distances =
+        new DistanceMatrixSparse(nbRows, (float) RowVsRowDistanceProvider.NOT_CANDIDATE_DISTANCE,
+            rowFiles, (float) RowVsRowDistanceProvider.SAME_FILE_DISTANCE);
+
+    // Candidates lie inside half of the tolerances, the distance provider checks the bounds
+    List<Integer> rowIndexes = new ArrayList<>(nbRows);
+    for (int i = 0; i < nbRows; i++)
+      rowIndexes.add(i);
+    final MzRtIndex<Integer> index = new MzRtIndex<>(rowIndexes,
+        i -> full_rows_list.get(i).getBestPeak().getMZ(),
+        i -> full_rows_list.get(i).getBestPeak().getRT());
+
+    // Use the number of threads set in the preferences instead of the common pool
+    ParallelUtils.run(() -> IntStream.range(0, nbRows).parallel().forEach(x -> {
+
+      if (isCanceled())
+        return;
+
+      final Feature peak = full_rows_list.get(x).getBestPeak();
+      final List<Integer> candidates = index.getItemsInside(
+          Range.closed(peak.getMZ() - mzMaxDiff / 2.0, peak.getMZ() + mzMaxDiff / 2.0),
+          Range.closed(peak.getRT() - rtMaxDiff / 2.0, peak.getRT() + rtMaxDiff / 2.0));
+
+      int columns[] = new int[candidates.size()];
+      float values[] = new float[candidates.size()];
+      int count = 0;
+      for (int y : candidates) {
+        if (y <= x || rowFiles[y] == rowFiles[x])
+          continue;
+        double dist = distProvider.getRankedDistance(x, y, mzMaxDiff, rtMaxDiff, minScore);
+        if (dist == RowVsRowDistanceProvider.NOT_CANDIDATE_DISTANCE)
+          continue;
+        columns[count] = y;
+        values[count] = (float) dist;
+        count++;
+      }
+      distances.setRow(x, Arrays.copyOf(columns, count), Arrays.copyOf(values, count));
+
+      processedRows.incrementAndGet();
+    }));
+
+    if (isCanceled())
+      return null;
+
+    return distances;
+  }
+
   /**
    * Two clusters can be merged if and only if: - The resulting merged cluster: (their parent)
    * doesn't exceed 'level' leaves - The distance between them two is acceptable (close enough)
@@ -26,6 +26,11 @@ import io.github.mzmine.modules.dataprocessing.align_hierarchical.RowVsRowScoreG
 
 public class RowVsRowDistanceProvider {
 
+  // Ranked distances of rows which cannot be aligned
+  public static final double SAME_FILE_DISTANCE = 1000.0d;
+  public static final double NOT_CANDIDATE_DISTANCE = 100.0d;
+  public static final double LOW_SCORE_DISTANCE = 10.0d;
+
   MZmineProject project;
   // boolean useOldestRDFancestor;
   // Hashtable<RawDataFile, List<double[]>> rtAdjustementMapping;
@@ -124,7 +129,7 @@ public class RowVsRowDistanceProvider {
     // aligned_row_id < 102)
     // || (row_id >= 102 && aligned_row_id >= 102)) {
     if (row.getRawDataFiles()[0] == k_row.getRawDataFiles()[0]) {
-      return 1000.0d;
+      return SAME_FILE_DISTANCE;
     }
     // Not candidate
     else {
@@ -141,7 +146,7 @@ public class RowVsRowDistanceProvider {
       if ((Math.abs(row.getBestPeak().getRT() - k_row.getBestPeak().getRT()) >= rtMaxDiff / 2.0
           || Math.abs(row.getBestPeak().getMZ() - k_row.getBestPeak().getMZ()) >= mzMaxDiff
               / 2.0)) {
-        return 100.0d;
+        return NOT_CANDIDATE_DISTANCE;
       }
     }
 
@@ -152,7 +157,7 @@ public class RowVsRowDistanceProvider {
       // Math.max(JDXCompoundsIdentificationSingleTask.MIN_SCORE_ABSOLUTE,
       // minScore) + "!");
       // System.out.println("(2) Final dist: " + 10.0f);
-      return 10.0d;
+      return LOW_SCORE_DISTANCE;
     }
 
     // Score OK
@@ -0,0 +1,443 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ * 
+ * This file is part of MZmine.
+ * 
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.align_hierarchical;
+
+import java.util.Arrays;
+
+import org.gnf.clustering.LinkageMode;
+import org.gnf.clustering.Node;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntMaps;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Agglomerative hierarchical clustering on a {@link DistanceMatrixSparse}. Pairs which are not
+ * stored in the matrix are at the default distance of the matrix, or at the same group distance if
+ * both rows are in the same group, so only the stored pairs have to be visited: every cluster
+ * keeps the links to the clusters it has stored pairs with, and a priority queue holds the linkage
+ * distance of all linked clusters. The number of unstored pairs of the same group follows from the
+ * number of rows of each group in the clusters. The closest two clusters are merged until no links
+ * are left, the remaining clusters are then joined pairwise.
+ * 
+ * The resulting nodes have the layout of
+ * {@link org.gnf.clustering.sequentialcache.SequentialCacheClustering#clusterDM}: node k is the
+ * k-th merge, leaves are referenced by their row and nodes by -(k + 1).
+ */
+public class SparseLinkageClustering {
+
+  private final DistanceMatrixSparse distMtx;
+  private final LinkageMode linkageMode;
+  private final float defaultDistance;
+  private final float sameGroupDistance;
+  private final int nRowCount;
+
+  // Clusters 0 .. nRowCount - 1 are the rows, cluster nRowCount + k is created by the k-th merge
+  private final int sizes[];
+  private final boolean merged[];
+  private final Int2IntOpenHashMap links[];
+  // Number of rows of each group in the merged clusters, only if the rows are grouped
+  private final Int2IntOpenHashMap groupCounts[];
+
+  // Stored pairs between two clusters, shared by the links of both clusters
+  private double linkSums[];
+  private long linkCounts[];
+  private long linkSameGroupCounts[];
+  private float linkMins[], linkMaxs[];
+  private int numLinks;
+  private final IntArrayList freeLinks = new IntArrayList();
+
+  private final LinkQueue queue;
+
+  private SparseLinkageClustering(DistanceMatrixSparse distMtx, LinkageMode linkageMode) {
+
+    this.distMtx = distMtx;
+    this.linkageMode = linkageMode;
+    this.defaultDistance = distMtx.getDefaultValue();
+    this.sameGroupDistance = distMtx.getSameGroupValue();
+    this.nRowCount = distMtx.getRowCount();
+
+    final int numClusters = Math.max(2 * nRowCount - 1, 0);
+    sizes = new int[numClusters];
+    merged = new boolean[numClusters];
+    links = new Int2IntOpenHashMap[numClusters];
+    groupCounts = distMtx.hasRowGroups() ? new Int2IntOpenHashMap[numClusters] : null;
+
+    final int numPairs = (int) Math.min(distMtx.getNumberOfValues(), Integer.MAX_VALUE - 8);
+    linkSums = new double[Math.max(numPairs, 16)];
+    linkCounts = new long[linkSums.length];
+    linkSameGroupCounts = new long[linkSums.length];
+    linkMins = new float[linkSums.length];
+    linkMaxs = new float[linkSums.length];
+    queue = new LinkQueue(Math.max(numPairs, 16));
+  }
+
+  /**
+   * Clusters the rows of the given matrix
+   * 
+   * @param progress Receives the ratio of merged clusters, may be null
+   * @return The nRowCount - 1 nodes of the tree
+   */
+  public static Node[] clusterDM(DistanceMatrixSparse distMtx, LinkageMode linkageMode,
+      ClusteringProgression progress) {
+    return new SparseLinkageClustering(distMtx, linkageMode).cluster(progress);
+  }
+
+  private Node[] cluster(ClusteringProgression progress) {
+
+    final Node nodes[] = new Node[Math.max(nRowCount - 1, 0)];
+    if (nodes.length == 0)
+      return nodes;
+
+    // Size the link maps of the rows by the number of their stored pairs
+    final int numRowLinks[] = new int[nRowCount];
+    for (int row = 0; row < nRowCount; row++) {
+      numRowLinks[row] += distMtx.getRowColumns(row).length;
+      for (int col : distMtx.getRowColumns(row))
+        numRowLinks[col]++;
+    }
+    for (int row = 0; row < nRowCount; row++) {
+      sizes[row] = 1;
+      links[row] = new Int2IntOpenHashMap(numRowLinks[row]);
+      links[row].defaultReturnValue(-1);
+    }
+
+    for (int row = 0; row < nRowCount; row++) {
+      final int rowColumns[] = distMtx.getRowColumns(row);
+      final float rowValues[] = distMtx.getRowValues(row);
+      for (int i = 0; i < rowColumns.length; i++) {
+        final int col = rowColumns[i];
+        if (col == row)
+          continue;
+        final int link =
+            createLink(rowValues[i], distMtx.getRowGroup(row) == distMtx.getRowGroup(col));
+        links[row].put(col, link);
+        links[col].put(row, link);
+        queue.add(getLinkageDistance(link, row, col), row, col);
+      }
+    }
+
+    // Merge the closest linked clusters
+    int numNodes = 0;
+    while (numNodes < nodes.length && !queue.isEmpty()) {
+
+      final float distance = queue.peekDistance();
+      final long pair = queue.poll();
+      final int cluster1 = (int) (pair >>> 32);
+      final int cluster2 = (int) pair;
+
+      // Skip links to clusters which have been merged meanwhile
+      if (merged[cluster1] || merged[cluster2])
+        continue;
+
+      nodes[numNodes] = new Node(getNodeReference(cluster1), getNodeReference(cluster2), distance);
+      merge(cluster1, cluster2, nRowCount + numNodes);
+      numNodes++;
+
+      if (progress != null)
+        progress.setProgress((double) numNodes / nodes.length);
+    }
+
+    // Join the unlinked clusters pairwise, which keeps the top of the tree balanced
+    IntArrayList roots = new IntArrayList();
+    for (int cluster = 0; cluster < nRowCount + numNodes; cluster++) {
+      if (!merged[cluster])
+        roots.add(cluster);
+    }
+    while (roots.size() > 1) {
+      IntArrayList nextRoots = new IntArrayList(roots.size() / 2 + 1);
+      for (int i = 0; i < roots.size(); i += 2) {
+        if (i + 1 == roots.size()) {
+          nextRoots.add(roots.getInt(i));
+          continue;
+        }
+        final int cluster1 = roots.getInt(i), cluster2 = roots.getInt(i + 1);
+        nodes[numNodes] = new Node(getNodeReference(cluster1), getNodeReference(cluster2),
+            getLinkageDistance(-1, cluster1, cluster2));
+        join(cluster1, cluster2, nRowCount + numNodes);
+        nextRoots.add(nRowCount + numNodes);
+        numNodes++;
+      }
+      roots = nextRoots;
+    }
+
+    if (progress != null)
+      progress.setProgress(1d);
+
+    return nodes;
+  }
+
+  /**
+   * Merges two linked clusters into a new one, which takes over the links of both
+   */
+  private void merge(int cluster1, int cluster2, int newCluster) {
+
+    final Int2IntOpenHashMap links1 = links[cluster1], links2 = links[cluster2];
+    final Int2IntOpenHashMap newLinks = new Int2IntOpenHashMap(links1.size() + links2.size());
+    newLinks.defaultReturnValue(-1);
+
+    freeLink(links1.get(cluster2));
+
+    for (Int2IntMap.Entry entry : Int2IntMaps.fastIterable(links1)) {
+      final int other = entry.getIntKey();
+      if (other == cluster2)
+        continue;
+      final int link = entry.getIntValue();
+      final int link2 = links2.get(other);
+      if (link2 >= 0) {
+        combineLinks(link, link2);
+        freeLink(link2);
+        links[other].remove(cluster2);
+      }
+      links[other].remove(cluster1);
+      links[other].put(newCluster, link);
+      newLinks.put(other, link);
+    }
+
+    for (Int2IntMap.Entry entry : Int2IntMaps.fastIterable(links2)) {
+      final int other = entry.getIntKey();
+      if (other == cluster1 || newLinks.containsKey(other))
+        continue;
+      final int link = entry.getIntValue();
+      links[other].remove(cluster2);
+      links[other].put(newCluster, link);
+      newLinks.put(other, link);
+    }
+
+    links[cluster1] = null;
+    links[cluster2] = null;
+    links[newCluster] = newLinks;
+    join(cluster1, cluster2, newCluster);
+
+    for (Int2IntMap.Entry entry : Int2IntMaps.fastIterable(newLinks)) {
+      final int other = entry.getIntKey();
+      queue.add(getLinkageDistance(entry.getIntValue(), newCluster, other), newCluster, other);
+    }
+  }
+
+  /**
+   * Marks two clusters as merged into a new one and sums up their sizes and groups
+   */
+  private void join(int cluster1, int cluster2, int newCluster) {
+
+    merged[cluster1] = true;
+    merged[cluster2] = true;
+    sizes[newCluster] = sizes[cluster1] + sizes[cluster2];
+
+    if (groupCounts == null)
+      return;
+
+    // Add the groups of the smaller cluster to the counts of the larger one
+    final int larger = (sizes[cluster1] >= sizes[cluster2]) ? cluster1 : cluster2;
+    final int smaller = (larger == cluster1) ? cluster2 : cluster1;
+    Int2IntOpenHashMap counts = groupCounts[larger];
+    if (counts == null) {
+      counts = new Int2IntOpenHashMap();
+      counts.addTo(distMtx.getRowGroup(larger), 1);
+    }
+    if (groupCounts[smaller] == null) {
+      counts.addTo(distMtx.getRowGroup(smaller), 1);
+    } else {
+      for (Int2IntMap.Entry entry : Int2IntMaps.fastIterable(groupCounts[smaller]))
+        counts.addTo(entry.getIntKey(), entry.getIntValue());
+    }
+    groupCounts[newCluster] = counts;
+    groupCounts[cluster1] = null;
+    groupCounts[cluster2] = null;
+  }
+
+  /**
+   * Distance of two clusters, where the pairs not stored in the link are at the same group
+   * distance if both rows are in the same group, and at the default distance otherwise
+   * 
+   * @param link Stored pairs of the clusters, or -1 if there are none
+   */
+  private float getLinkageDistance(int link, int cluster1, int cluster2) {
+
+    final long numPairs = (long) sizes[cluster1] * sizes[cluster2];
+    final long numStored = (link >= 0) ? linkCounts[link] : 0;
+    final long numSameGroup = getNumSameGroupPairs(cluster1, cluster2)
+        - ((link >= 0) ? linkSameGroupCounts[link] : 0);
+    final long numDefault = numPairs - numStored - numSameGroup;
+
+    if (linkageMode == LinkageMode.MIN) {
+      float distance = (numStored > 0) ? linkMins[link] : Float.POSITIVE_INFINITY;
+      if (numDefault > 0)
+        distance = Math.min(distance, defaultDistance);
+      if (numSameGroup > 0)
+        distance = Math.min(distance, sameGroupDistance);
+      return distance;
+    }
+
+    if (linkageMode == LinkageMode.MAX) {
+      float distance = (numStored > 0) ? linkMaxs[link] : Float.NEGATIVE_INFINITY;
+      if (numDefault > 0)
+        distance = Math.max(distance, defaultDistance);
+      if (numSameGroup > 0)
+        distance = Math.max(distance, sameGroupDistance);
+      return distance;
+    }
+
+    final double sum = (numStored > 0) ? linkSums[link] : 0d;
+    return (float) ((sum + numSameGroup * (double) sameGroupDistance
+        + numDefault * (double) defaultDistance) / numPairs);
+  }
+
+  /**
+   * @return Number of pairs of rows of the same group between the two clusters
+   */
+  private long getNumSameGroupPairs(int cluster1, int cluster2) {
+
+    if (groupCounts == null)
+      return 0;
+
+    final Int2IntOpenHashMap counts1 = groupCounts[cluster1], counts2 = groupCounts[cluster2];
+    if (counts1 == null && counts2 == null)
+      return (distMtx.getRowGroup(cluster1) == distMtx.getRowGroup(cluster2)) ? 1 : 0;
+    if (counts1 == null)
+      return counts2.get(distMtx.getRowGroup(cluster1));
+    if (counts2 == null)
+      return counts1.get(distMtx.getRowGroup(cluster2));
+
+    final Int2IntOpenHashMap smaller = (counts1.size() <= counts2.size()) ? counts1 : counts2;
+    final Int2IntOpenHashMap larger = (smaller == counts1) ? counts2 : counts1;
+    long numPairs = 0;
+    for (Int2IntMap.Entry entry : Int2IntMaps.fastIterable(smaller))
+      numPairs += (long) entry.getIntValue() * larger.get(entry.getIntKey());
+    return numPairs;
+  }
+
+  private int getNodeReference(int cluster) {
+    return (cluster < nRowCount) ? cluster : -(cluster - nRowCount + 1);
+  }
+
+  private int createLink(float distance, boolean sameGroup) {
+
+    final int link;
+    if (!freeLinks.isEmpty()) {
+      link = freeLinks.popInt();
+    } else {
+      if (numLinks == linkSums.length) {
+        final int capacity = linkSums.length * 2;
+        linkSums = Arrays.copyOf(linkSums, capacity);
+        linkCounts = Arrays.copyOf(linkCounts, capacity);
+        linkSameGroupCounts = Arrays.copyOf(linkSameGroupCounts, capacity);
+        linkMins = Arrays.copyOf(linkMins, capacity);
+        linkMaxs = Arrays.copyOf(linkMaxs, capacity);
+      }
+      link = numLinks++;
+    }
+
+    linkSums[link] = distance;
+    linkCounts[link] = 1;
+    linkSameGroupCounts[link] = sameGroup ? 1 : 0;
+    linkMins[link] = distance;
+    linkMaxs[link] = distance;
+    return link;
+  }
+
+  private void combineLinks(int link, int otherLink) {
+    linkSums[link] += linkSums[otherLink];
+    linkCounts[link] += linkCounts[otherLink];
+    linkSameGroupCounts[link] += linkSameGroupCounts[otherLink];
+    linkMins[link] = Math.min(linkMins[link], linkMins[otherLink]);
+    linkMaxs[link] = Math.max(linkMaxs[link], linkMaxs[otherLink]);
+  }
+
+  private void freeLink(int link) {
+    freeLinks.add(link);
+  }
+
+  /**
+   * Binary min-heap of cluster pairs by distance. Pairs of equal distance are ordered by their
+   * cluster numbers, so the clustering does not depend on the order of the links.
+   */
+  private static class LinkQueue {
+
+    private float distances[];
+    private long pairs[];
+    private int size;
+
+    LinkQueue(int capacity) {
+      distances = new float[capacity];
+      pairs = new long[capacity];
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    void add(float distance, int cluster1, int cluster2) {
+
+      if (size == distances.length) {
+        distances = Arrays.copyOf(distances, size * 2);
+        pairs = Arrays.copyOf(pairs, size * 2);
+      }
+
+      final long pair = ((long) cluster1 << 32) | (cluster2 & 0xffffffffL);
+      int i = size++;
+      while (i > 0) {
+        final int parent = (i - 1) >>> 1;
+        if (compare(distances[parent], pairs[parent], distance, pair) <= 0)
+          break;
+        distances[i] = distances[parent];
+        pairs[i] = pairs[parent];
+        i = parent;
+      }
+      distances[i] = distance;
+      pairs[i] = pair;
+    }
+
+    float peekDistance() {
+      return distances[0];
+    }
+
+    long poll() {
+
+      final long result = pairs[0];
+      size--;
+      final float distance = distances[size];
+      final long pair = pairs[size];
+
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size)
+          break;
+        if (child + 1 < size
+            && compare(distances[child + 1], pairs[child + 1], distances[child], pairs[child]) < 0)
+          child++;
+        if (compare(distance, pair, distances[child], pairs[child]) <= 0)
+          break;
+        distances[i] = distances[child];
+        pairs[i] = pairs[child];
+        i = child;
+      }
+      distances[i] = distance;
+      pairs[i] = pair;
+      return result;
+    }
+
+    private static int compare(float distance1, long pair1, float distance2, long pair2) {
+      final int c = Float.compare(distance1, distance2);
+      return (c != 0) ? c : Long.compare(pair1, pair2);
+    }
+  }
+
+}
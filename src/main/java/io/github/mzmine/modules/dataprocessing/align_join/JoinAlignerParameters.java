@@ -62,9 +62,14 @@ public class JoinAlignerParameters extends SimpleParameterSet {
           "Compare MS1 or MS2 spectra similarity",
           new JoinAlignerSpectraSimilarityScoreParameters());
 
+  public static final BooleanParameter parallel = new BooleanParameter("Parallel processing",
+      "If selected, the rows of each feature list are scored on multiple threads. Rows with equally good matches are then aligned in a fixed order of the rows.",
+      true);
+
   public JoinAlignerParameters() {
     super(new Parameter[] {peakLists, peakListName, MZTolerance, MZWeight, RTTolerance, RTWeight,
-        SameChargeRequired, SameIDRequired, compareIsotopePattern, compareSpectraSimilarity});
+        SameChargeRequired, SameIDRequired, compareIsotopePattern, compareSpectraSimilarity,
+        parallel});
   }
 
 }
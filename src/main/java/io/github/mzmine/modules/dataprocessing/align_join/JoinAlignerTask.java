@@ -18,18 +18,31 @@
 
 package io.github.mzmine.modules.dataprocessing.align_join;
 
-import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import com.google.common.collect.Range;
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.IsotopePattern;
 import io.github.mzmine.datamodel.MZmineProject;
+import io.github.mzmine.datamodel.MassList;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
 import io.github.mzmine.datamodel.impl.SimplePeakList;
 import io.github.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
 import io.github.mzmine.datamodel.impl.SimplePeakListRow;
@@ -40,6 +53,8 @@ import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.MzRtIndex;
+import io.github.mzmine.util.ParallelUtils;
 import io.github.mzmine.util.PeakUtils;
 import io.github.mzmine.util.RangeUtils;
 import io.github.mzmine.util.scans.similarity.SpectralSimilarity;
@@ -52,15 +67,19 @@ public class JoinAlignerTask extends AbstractTask {
   private final MZmineProject project;
   private PeakList peakLists[], alignedPeakList;
 
+  // Creates the aligned feature list from its name and raw data files
+  private final BiFunction<String, RawDataFile[], PeakList> alignedPeakListFactory;
+
   // Processed rows counter
-  private int processedRows, totalRows;
+  private final AtomicInteger processedRows = new AtomicInteger();
+  private int totalRows;
 
   private String peakListName;
   private MZTolerance mzTolerance;
   private RTTolerance rtTolerance;
   private double mzWeight, rtWeight;
   private boolean sameIDRequired, sameChargeRequired, compareIsotopePattern,
-      compareSpectraSimilarity;
+      compareSpectraSimilarity, parallel;
   private ParameterSet parameters;
 
   // ID counter for the new peaklist
@@ -72,9 +91,19 @@ public class JoinAlignerTask extends AbstractTask {
   private String massList;
 
   public JoinAlignerTask(MZmineProject project, ParameterSet parameters) {
+    this(project, parameters, SimplePeakList::new);
+  }
+
+  /**
+   * @param alignedPeakListFactory creates the aligned feature list, e.g. to benchmark other
+   *        implementations of its range queries
+   */
+  JoinAlignerTask(MZmineProject project, ParameterSet parameters,
+      BiFunction<String, RawDataFile[], PeakList> alignedPeakListFactory) {
 
     this.project = project;
     this.parameters = parameters;
+    this.alignedPeakListFactory = alignedPeakListFactory;
 
     peakLists =
         parameters.getParameter(JoinAlignerParameters.peakLists).getValue().getMatchingPeakLists();
@@ -99,6 +128,8 @@ public class JoinAlignerTask extends AbstractTask {
     compareSpectraSimilarity =
         parameters.getParameter(JoinAlignerParameters.compareSpectraSimilarity).getValue();
 
+    parallel = parameters.getParameter(JoinAlignerParameters.parallel).getValue();
+
     if (compareSpectraSimilarity) {
       simFunction = parameters.getParameter(JoinAlignerParameters.compareSpectraSimilarity)
           .getEmbeddedParameters()
@@ -129,7 +160,7 @@ public class JoinAlignerTask extends AbstractTask {
   public double getFinishedPercentage() {
     if (totalRows == 0)
       return 0f;
-    return (double) processedRows / (double) totalRows;
+    return (double) processedRows.get() / (double) totalRows;
   }
 
   /**
@@ -173,129 +204,21 @@ public class JoinAlignerTask extends AbstractTask {
     }
 
     // Create a new aligned feature list
-    alignedPeakList = new SimplePeakList(peakListName, allDataFiles.toArray(new RawDataFile[0]));
+    alignedPeakList =
+        alignedPeakListFactory.apply(peakListName, allDataFiles.toArray(new RawDataFile[0]));
 
     // Iterate source feature lists
     for (PeakList peakList : peakLists) {
 
-      // Create a sorted set of scores matching
-      TreeSet<RowVsRowScore> scoreSet = new TreeSet<RowVsRowScore>();
-
       PeakListRow allRows[] = peakList.getRows().toArray(PeakListRow[]::new);
 
-      // Calculate scores for all possible alignments of this row
-      for (PeakListRow row : allRows) {
-
-        if (isCanceled())
-          return;
-
-        // Calculate limits for a row with which the row can be aligned
-        Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
-        Range<Double> rtRange = rtTolerance.getToleranceRange(row.getAverageRT());
-
-        // Get all rows of the aligned peaklist within parameter limits
-        PeakListRow candidateRows[] = alignedPeakList.getRowsInsideScanAndMZRange(rtRange, mzRange);
-
-        // Calculate scores and store them
-        for (PeakListRow candidate : candidateRows) {
-
-          if (sameChargeRequired) {
-            if (!PeakUtils.compareChargeState(row, candidate))
-              continue;
-          }
-
-          if (sameIDRequired) {
-            if (!PeakUtils.compareIdentities(row, candidate))
-              continue;
-          }
-
-          if (compareIsotopePattern) {
-            IsotopePattern ip1 = row.getBestIsotopePattern();
-            IsotopePattern ip2 = candidate.getBestIsotopePattern();
-
-            if ((ip1 != null) && (ip2 != null)) {
-              ParameterSet isotopeParams =
-                  parameters.getParameter(JoinAlignerParameters.compareIsotopePattern)
-                      .getEmbeddedParameters();
-
-              if (!IsotopePatternScoreCalculator.checkMatch(ip1, ip2, isotopeParams)) {
-                continue;
-              }
-            }
-          }
-
-          // compare the similarity of spectra mass lists on MS1 or
-          // MS2 level
-          if (compareSpectraSimilarity) {
-            DataPoint[] rowDPs = null;
-            DataPoint[] candidateDPs = null;
-            SpectralSimilarity sim = null;
-
-            // get data points of mass list of the representative
-            // scans
-            if (msLevel == 1) {
-              rowDPs =
-                  row.getBestPeak().getRepresentativeScan().getMassList(massList).getDataPoints();
-              candidateDPs = candidate.getBestPeak().getRepresentativeScan().getMassList(massList)
-                  .getDataPoints();
-            }
-
-            // get data points of mass list of the best
-            // fragmentation scans
-            if (msLevel == 2) {
-              if (row.getBestFragmentation() != null && candidate.getBestFragmentation() != null) {
-                rowDPs = row.getBestFragmentation().getMassList(massList).getDataPoints();
-                candidateDPs =
-                    candidate.getBestFragmentation().getMassList(massList).getDataPoints();
-              } else
-                continue;
-            }
-
-            // compare mass list data points of selected scans
-            if (rowDPs != null && candidateDPs != null) {
-
-              // calculate similarity using SimilarityFunction
-              sim = createSimilarity(rowDPs, candidateDPs);
-
-              // check if similarity is null. Similarity is not
-              // null if similarity score is >= the
-              // user set threshold
-              if (sim == null) {
-                continue;
-              }
-            }
-          }
-
-          RowVsRowScore score =
-              new RowVsRowScore(row, candidate, RangeUtils.rangeLength(mzRange) / 2.0, mzWeight,
-                  RangeUtils.rangeLength(rtRange) / 2.0, rtWeight);
-
-          scoreSet.add(score);
-        }
-        processedRows++;
-      }
-
-      // Create a table of mappings for best scores
-      Hashtable<PeakListRow, PeakListRow> alignmentMapping =
-          new Hashtable<PeakListRow, PeakListRow>();
-
-      // Iterate scores by descending order
-      Iterator<RowVsRowScore> scoreIterator = scoreSet.iterator();
-      while (scoreIterator.hasNext()) {
-
-        RowVsRowScore score = scoreIterator.next();
-
-        // Check if the row is already mapped
-        if (alignmentMapping.containsKey(score.getPeakListRow()))
-          continue;
+      // Calculate scores for all possible alignments of the rows and map each row to the best
+      // available row of the aligned feature list
+      Map<PeakListRow, PeakListRow> alignmentMapping =
+          parallel ? mapRowsInParallel(allRows) : mapRows(allRows);
 
-        // Check if the aligned row is already filled
-        if (alignmentMapping.containsValue(score.getAlignedRow()))
-          continue;
-
-        alignmentMapping.put(score.getPeakListRow(), score.getAlignedRow());
-
-      }
+      if (isCanceled())
+        return;
 
       // Align all rows using mapping
       for (PeakListRow row : allRows) {
@@ -318,7 +241,7 @@ public class JoinAlignerTask extends AbstractTask {
         // aligned row
         PeakUtils.copyPeakListRowProperties(row, targetRow);
 
-        processedRows++;
+        processedRows.incrementAndGet();
 
       }
 
@@ -337,6 +260,229 @@ public class JoinAlignerTask extends AbstractTask {
 
   }
 
+  /**
+   * Scores the rows against the candidate rows of the aligned feature list, one row after the
+   * other, and maps them by descending score
+   */
+  private Map<PeakListRow, PeakListRow> mapRows(PeakListRow rows[]) {
+
+    final Map<PeakListRow, Integer> alignedRowIndexes = getRowIndexes(alignedPeakList.getRows());
+
+    // Create a sorted set of scores matching
+    TreeSet<RowVsRowScore> scoreSet = new TreeSet<RowVsRowScore>();
+
+    // Calculate scores for all possible alignments of this row
+    for (int rowIndex = 0; rowIndex < rows.length; rowIndex++) {
+
+      final PeakListRow row = rows[rowIndex];
+
+      if (isCanceled())
+        return Collections.emptyMap();
+
+      // Calculate limits for a row with which the row can be aligned
+      Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
+      Range<Double> rtRange = rtTolerance.getToleranceRange(row.getAverageRT());
+
+      // Get all rows of the aligned peaklist within parameter limits
+      PeakListRow candidateRows[] = alignedPeakList.getRowsInsideScanAndMZRange(rtRange, mzRange);
+
+      DataPoint rowDPs[] = compareSpectraSimilarity ? getSpectrum(row) : null;
+
+      // Calculate scores and store them
+      for (PeakListRow candidate : candidateRows) {
+        DataPoint candidateDPs[] = compareSpectraSimilarity ? getSpectrum(candidate) : null;
+        RowVsRowScore score = createScore(row, rowIndex, rowDPs, candidate,
+            alignedRowIndexes.get(candidate), candidateDPs, mzRange, rtRange);
+        if (score != null)
+          scoreSet.add(score);
+      }
+      processedRows.incrementAndGet();
+    }
+
+    return mapBestScores(scoreSet);
+  }
+
+  /**
+   * Scores the rows against the aligned feature list on multiple threads. The candidates are
+   * looked up in an index of the aligned rows, whose spectra for the similarity comparison are
+   * read only once. Scores are sorted as in {@link #mapRows(PeakListRow[])}, so the mapping does
+   * not depend on the threads.
+   */
+  private Map<PeakListRow, PeakListRow> mapRowsInParallel(PeakListRow rows[]) {
+
+    final List<PeakListRow> alignedRows = new ArrayList<>(alignedPeakList.getRows());
+    final Map<PeakListRow, Integer> alignedRowIndexes = getRowIndexes(alignedRows);
+    final MzRtIndex<PeakListRow> alignedRowIndex =
+        new MzRtIndex<>(alignedRows, PeakListRow::getAverageMZ, PeakListRow::getAverageRT);
+
+    // Spectra of the aligned rows, by row. The streams use the number of threads set in the
+    // preferences instead of the common pool.
+    final Map<PeakListRow, DataPoint[]> alignedSpectra = new IdentityHashMap<>();
+    if (compareSpectraSimilarity) {
+      DataPoint spectra[][] = ParallelUtils.call(() -> alignedRows.parallelStream()
+          .map(this::getSpectrum).toArray(DataPoint[][]::new));
+      for (int i = 0; i < spectra.length; i++)
+        alignedSpectra.put(alignedRows.get(i), spectra[i]);
+    }
+
+    final List<RowVsRowScore> scores = ParallelUtils.call(() -> IntStream
+        .range(0, rows.length).parallel().boxed().flatMap(rowIndex -> {
+
+          if (isCanceled())
+            return Stream.empty();
+
+          final PeakListRow row = rows[rowIndex];
+          Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
+          Range<Double> rtRange = rtTolerance.getToleranceRange(row.getAverageRT());
+
+          DataPoint rowDPs[] = compareSpectraSimilarity ? getSpectrum(row) : null;
+
+          List<RowVsRowScore> rowScores = new ArrayList<>();
+          for (PeakListRow candidate : alignedRowIndex.getItemsInside(mzRange, rtRange)) {
+            RowVsRowScore score = createScore(row, rowIndex, rowDPs, candidate,
+                alignedRowIndexes.get(candidate), alignedSpectra.get(candidate), mzRange,
+                rtRange);
+            if (score != null)
+              rowScores.add(score);
+          }
+          processedRows.incrementAndGet();
+          return rowScores.stream();
+
+        }).collect(Collectors.toList()));
+
+    if (isCanceled())
+      return Collections.emptyMap();
+
+    Collections.sort(scores);
+
+    return mapBestScores(scores);
+  }
+
+  /**
+   * @return the index of each row in the list
+   */
+  private static Map<PeakListRow, Integer> getRowIndexes(List<PeakListRow> rows) {
+    final Map<PeakListRow, Integer> indexes = new IdentityHashMap<>();
+    for (int i = 0; i < rows.size(); i++)
+      indexes.put(rows.get(i), i);
+    return indexes;
+  }
+
+  /**
+   * Maps each row to the aligned row of its best score, unless a better score already took either
+   * of them
+   * 
+   * @param scores scores by descending order
+   */
+  private Map<PeakListRow, PeakListRow> mapBestScores(Iterable<RowVsRowScore> scores) {
+
+    // Create a table of mappings for best scores
+    Map<PeakListRow, PeakListRow> alignmentMapping = new HashMap<PeakListRow, PeakListRow>();
+    Set<PeakListRow> mappedAlignedRows = new HashSet<PeakListRow>();
+
+    // Iterate scores by descending order
+    for (RowVsRowScore score : scores) {
+
+      // Check if the row is already mapped
+      if (alignmentMapping.containsKey(score.getPeakListRow()))
+        continue;
+
+      // Check if the aligned row is already filled
+      if (!mappedAlignedRows.add(score.getAlignedRow()))
+        continue;
+
+      alignmentMapping.put(score.getPeakListRow(), score.getAlignedRow());
+
+    }
+
+    return alignmentMapping;
+  }
+
+  /**
+   * Checks whether the row can be aligned with the candidate row and calculates their score
+   * 
+   * @param rowIndex index of the row in the feature list which is being aligned
+   * @param rowDPs spectrum of the row for the similarity comparison, see
+   *        {@link #getSpectrum(PeakListRow)}
+   * @param candidateIndex index of the candidate row in the aligned feature list
+   * @param candidateDPs spectrum of the candidate row
+   * @return the score, or null if the rows cannot be aligned
+   */
+  private RowVsRowScore createScore(PeakListRow row, int rowIndex, DataPoint rowDPs[],
+      PeakListRow candidate, int candidateIndex, DataPoint candidateDPs[], Range<Double> mzRange,
+      Range<Double> rtRange) {
+
+    if (sameChargeRequired) {
+      if (!PeakUtils.compareChargeState(row, candidate))
+        return null;
+    }
+
+    if (sameIDRequired) {
+      if (!PeakUtils.compareIdentities(row, candidate))
+        return null;
+    }
+
+    if (compareIsotopePattern) {
+      IsotopePattern ip1 = row.getBestIsotopePattern();
+      IsotopePattern ip2 = candidate.getBestIsotopePattern();
+
+      if ((ip1 != null) && (ip2 != null)) {
+        ParameterSet isotopeParams = parameters
+            .getParameter(JoinAlignerParameters.compareIsotopePattern).getEmbeddedParameters();
+
+        if (!IsotopePatternScoreCalculator.checkMatch(ip1, ip2, isotopeParams)) {
+          return null;
+        }
+      }
+    }
+
+    // compare the similarity of spectra mass lists on MS1 or
+    // MS2 level
+    if (compareSpectraSimilarity) {
+
+      // rows without the spectrum cannot be compared
+      if (rowDPs == null || candidateDPs == null)
+        return null;
+
+      // calculate similarity using SimilarityFunction
+      SpectralSimilarity sim = createSimilarity(rowDPs, candidateDPs);
+
+      // check if similarity is null. Similarity is not
+      // null if similarity score is >= the
+      // user set threshold
+      if (sim == null) {
+        return null;
+      }
+    }
+
+    return new RowVsRowScore(row, rowIndex, candidate, candidateIndex,
+        RangeUtils.rangeLength(mzRange) / 2.0, mzWeight, RangeUtils.rangeLength(rtRange) / 2.0,
+        rtWeight);
+  }
+
+  /**
+   * Data points of the mass list of the representative scan (MS1) or of the best fragmentation
+   * scan (MS2) of the row
+   * 
+   * @return the data points, or null if the row has no fragmentation scan or the scan has no
+   *         such mass list
+   */
+  private DataPoint[] getSpectrum(PeakListRow row) {
+
+    // representative scan or best fragmentation scan
+    Scan scan = null;
+    if (msLevel == 1)
+      scan = row.getBestPeak().getRepresentativeScan();
+    if (msLevel == 2)
+      scan = row.getBestFragmentation();
+    if (scan == null)
+      return null;
+
+    // get data points of the mass list, if the scan has it
+    MassList masses = scan.getMassList(massList);
+    return masses != null ? masses.getDataPoints() : null;
+  }
+
   /**
    * Uses the similarity function and filter to create similarity.
    *
@@ -26,13 +26,20 @@ import io.github.mzmine.datamodel.PeakListRow;
 class RowVsRowScore implements Comparable<RowVsRowScore> {
 
   private PeakListRow peakListRow, alignedRow;
+  private final int rowIndex, alignedRowIndex;
   double score;
 
-  RowVsRowScore(PeakListRow peakListRow, PeakListRow alignedRow, double mzMaxDiff, double mzWeight,
-      double rtMaxDiff, double rtWeight) {
+  /**
+   * @param rowIndex index of the row in the feature list which is being aligned
+   * @param alignedRowIndex index of the row in the aligned feature list
+   */
+  RowVsRowScore(PeakListRow peakListRow, int rowIndex, PeakListRow alignedRow,
+      int alignedRowIndex, double mzMaxDiff, double mzWeight, double rtMaxDiff, double rtWeight) {
 
     this.peakListRow = peakListRow;
     this.alignedRow = alignedRow;
+    this.rowIndex = rowIndex;
+    this.alignedRowIndex = alignedRowIndex;
 
     // Calculate differences between m/z and RT values
     double mzDiff = Math.abs(peakListRow.getAverageMZ() - alignedRow.getAverageMZ());
@@ -65,16 +72,20 @@ class RowVsRowScore implements Comparable<RowVsRowScore> {
   }
 
   /**
+   * Orders by descending score. Equal scores are ordered by the index of the row and then by the
+   * index of the aligned row, so the order does not depend on the order the scores were
+   * calculated in. Only scores of the same two rows are equal.
+   * 
    * @see java.lang.Comparable#compareTo(java.lang.Object)
    */
   public int compareTo(RowVsRowScore object) {
 
-    // We must never return 0, because the TreeSet in JoinAlignerTask would
-    // treat such elements as equal
-    if (score < object.getScore())
-      return 1;
-    else
-      return -1;
+    int result = Double.compare(object.getScore(), score);
+    if (result == 0)
+      result = Integer.compare(rowIndex, object.rowIndex);
+    if (result == 0)
+      result = Integer.compare(alignedRowIndex, object.alignedRowIndex);
+    return result;
 
   }
 
@@ -17,11 +17,13 @@
  */
 package io.github.mzmine.modules.dataprocessing.align_ransac;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
 
 import org.apache.commons.math.analysis.polynomials.PolynomialFunction;
 import org.apache.commons.math.optimization.fitting.PolynomialFitter;
@@ -30,9 +32,13 @@ import org.apache.commons.math.optimization.general.GaussNewtonOptimizer;
 import com.google.common.collect.Range;
 
 import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.util.ParallelUtils;
 
 public class RANSAC {
 
+  // Seed of the random streams of the iterations, which make the alignment reproducible
+  private static final long SEED = 0x2545F4914F6CDD1DL;
+
   /**
    * input: data - a set of observed data points n - the minimum number of data values required to
    * fit the model k - the maximum number of iterations allowed in the algorithm t - a threshold
@@ -44,11 +50,20 @@ public class RANSAC {
   private int n;
   private double d = 1;
   private int k = 0;
-  private int AlsoNumber;
   private double numRatePoints, t;
   private boolean Linear;
+  private final int numOfThreads;
 
   public RANSAC(ParameterSet parameters) {
+    this(parameters, ParallelUtils.getNumOfThreads());
+  }
+
+  /**
+   * @param numOfThreads number of threads running the iterations
+   */
+  RANSAC(ParameterSet parameters, int numOfThreads) {
+
+    this.numOfThreads = numOfThreads;
 
     this.numRatePoints = parameters.getParameter(RansacAlignerParameters.NMinPoints).getValue();
 
@@ -106,89 +121,109 @@ public class RANSAC {
   }
 
   /**
-   * RANSAC algorithm
+   * RANSAC algorithm. The iterations run in parallel, each one draws its initial points from its
+   * own random stream derived from a fixed seed. The best model is the one with the lowest error,
+   * or the first one of those with the same error, so the result does not depend on the number of
+   * threads and is the same for the same data.
    * 
    * @param data vector with the points which represent all possible alignments.
    */
   public void ransac(List<AlignStructMol> data) {
-    double besterr = 9.9E99;
-
-    for (int iterations = 0; iterations < k; iterations++) {
-      AlsoNumber = n;
-      // Get the initial points
-      boolean initN = getInitN(data);
-      if (!initN) {
-        continue;
-      }
 
-      // Calculate the model
-      fittPolinomialFunction(data, Linear);
-
-      // If the model has the minimun number of points
-      if (AlsoNumber >= d) {
-        // Get the error of the model based on the number of points
-        double error = 9.9E99;
-        try {
-          error = newError(data);
-        } catch (Exception ex) {
-          Logger.getLogger(RANSAC.class.getName()).log(Level.SEVERE, null, ex);
-        }
+    // The initial points are taken from the lower and upper half of the RT range
+    data.sort(Comparator.comparingDouble(alignStruct -> alignStruct.RT));
 
-        // If the error is less than the error of the last model
-        if (error < besterr) {
-          besterr = error;
-          for (int i = 0; i < data.size(); i++) {
-            AlignStructMol alignStruct = data.get(i);
-            if (alignStruct.ransacAlsoInLiers || alignStruct.ransacMaybeInLiers) {
-              alignStruct.Aligned = true;
-            } else {
-              alignStruct.Aligned = false;
-            }
-
-            alignStruct.ransacAlsoInLiers = false;
-            alignStruct.ransacMaybeInLiers = false;
-
-          }
-        }
-      }
-      // remove the model
-      for (int i = 0; i < data.size(); i++) {
-        AlignStructMol alignStruct = data.get(i);
-        alignStruct.ransacAlsoInLiers = false;
-        alignStruct.ransacMaybeInLiers = false;
-      }
+    final double rt[] = new double[data.size()];
+    final double rt2[] = new double[data.size()];
+    for (int i = 0; i < rt.length; i++) {
+      rt[i] = data.get(i).RT;
+      rt2[i] = data.get(i).RT2;
+    }
+
+    // Use the number of threads set in the preferences instead of the common pool
+    Optional<Model> bestModel = ParallelUtils.call(numOfThreads,
+        () -> IntStream.range(0, k).parallel().mapToObj(iteration -> fitModel(iteration, rt, rt2))
+            .filter(Objects::nonNull)
+            .reduce((model1, model2) -> model2.isBetterThan(model1) ? model2 : model1));
+
+    if (!bestModel.isPresent())
+      return;
+
+    // The points of the best model are aligned
+    final Model model = bestModel.get();
+    for (int i = 0; i < rt.length; i++) {
+      AlignStructMol alignStruct = data.get(i);
+      alignStruct.Aligned = model.isAligned(i, rt, rt2);
+      alignStruct.ransacAlsoInLiers = false;
+      alignStruct.ransacMaybeInLiers = false;
+    }
+  }
+
+  /**
+   * One RANSAC iteration: fits the model to randomly taken initial points and checks how many
+   * points fit the model
+   * 
+   * @param rt RT values of the points, sorted
+   * @param rt2 RT values of the aligned points
+   * @return the model, or null if it does not have the minimum number of points
+   */
+  private Model fitModel(int iteration, double rt[], double rt2[]) {
+
+    SplittableRandom random = new SplittableRandom(SEED + iteration);
+
+    // Get the initial points
+    int initN[] = getInitN(rt, random);
+    if (initN == null)
+      return null;
+
+    // Calculate the model
+    Model model = new Model(iteration, initN, fittPolinomialFunction(initN, rt, rt2, Linear));
 
+    // Count the points that fit the model
+    int alsoNumber = n, numT = 1;
+    for (int i = 0; i < rt.length; i++) {
+      boolean alsoInLier = model.fits(i, rt, rt2);
+      if (alsoInLier)
+        alsoNumber++;
+      if (alsoInLier || model.isInitialPoint(i))
+        numT++;
     }
+
+    // If the model has the minimun number of points
+    if (alsoNumber < d)
+      return null;
+
+    // The error of the model based on the number of points
+    model.error = 1.0 / numT;
+    return model;
   }
 
   /**
    * Take the initial points ramdoly. The points are divided by the initial number of points. If the
    * fractions contain enough number of points took one point from each part.
    * 
-   * @param data vector with the points which represent all possible alignments.
-   * @return false if there is any problem.
+   * @param rt sorted RT values of the points which represent all possible alignments.
+   * @return indexes of the initial points, or null if there is any problem.
    */
-  private boolean getInitN(List<AlignStructMol> data) {
-    if (data.size() > n) {
-      Collections.sort(data, new AlignStructMol());
-      double min = data.get(0).RT;
-      double max = data.get(data.size() - 1).RT;
+  private int[] getInitN(double rt[], SplittableRandom random) {
+    if (rt.length > n) {
+      int initN[] = new int[n];
+      double min = rt[0];
+      double max = rt[rt.length - 1];
 
       Range<Double> rtRange = Range.closed(min, ((max - min) / 2) + min);
 
       int cont = 0, bucle = 0;
       while (cont < n / 2 && bucle < 1000) {
-        int index = (int) (data.size() * Math.random());
-        if (!data.get(index).ransacMaybeInLiers && rtRange.contains(data.get(index).RT)) {
-          data.get(index).ransacMaybeInLiers = true;
-          cont++;
-
+        int index = random.nextInt(rt.length);
+        if (!contains(initN, cont, index) && rtRange.contains(rt[index])) {
+          initN[cont++] = index;
         }
 
         bucle++;
       }
       if (bucle >= 1000) {
-        getN(data, (n / 2) - cont);
+        cont = getN(initN, cont, n / 2, rt.length, random);
       }
 
       bucle = 0;
@@ -196,38 +231,52 @@ public class RANSAC {
 
       while (cont < n && bucle < 1000) {
 
-        int index = (int) (data.size() * Math.random());
-        if (!data.get(index).ransacMaybeInLiers && rtRange.contains(data.get(index).RT)) {
-          data.get(index).ransacMaybeInLiers = true;
-          cont++;
+        int index = random.nextInt(rt.length);
+        if (!contains(initN, cont, index) && rtRange.contains(rt[index])) {
+          initN[cont++] = index;
         }
         bucle++;
       }
       if (bucle >= 1000) {
-        getN(data, n - cont);
+        cont = getN(initN, cont, n, rt.length, random);
       }
-      return true;
+
+      // The points are fitted in the order of the data
+      Arrays.sort(initN, 0, cont);
+      return Arrays.copyOf(initN, cont);
     } else {
-      return false;
+      return null;
     }
   }
 
-  private void getN(List<AlignStructMol> data, int newN) {
-    if (newN < 1) {
-      return;
-    }
-    int cont = 0;
+  /**
+   * Takes random points until there are newN initial points
+   * 
+   * @return the number of initial points
+   */
+  private int getN(int initN[], int cont, int newN, int size, SplittableRandom random) {
     while (cont < newN) {
-      int index = (int) (data.size() * Math.random());
-      if (!data.get(index).ransacMaybeInLiers) {
-        data.get(index).ransacMaybeInLiers = true;
-        cont++;
+      int index = random.nextInt(size);
+      if (!contains(initN, cont, index)) {
+        initN[cont++] = index;
       }
     }
+    return cont;
   }
 
-  private void fittPolinomialFunction(List<AlignStructMol> data, boolean linear) {
-    List<AlignStructMol> points = new ArrayList<AlignStructMol>();
+  private static boolean contains(int indexes[], int length, int index) {
+    for (int i = 0; i < length; i++) {
+      if (indexes[i] == index)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return the model fitted to the initial points, or null if the fitting failed
+   */
+  private PolynomialFunction fittPolinomialFunction(int initN[], double rt[], double rt2[],
+      boolean linear) {
 
     int degree = 3;
     if (linear) {
@@ -235,45 +284,56 @@ public class RANSAC {
     }
 
     PolynomialFitter fitter = new PolynomialFitter(degree, new GaussNewtonOptimizer(true));
-    for (int i = 0; i < data.size(); i++) {
-      AlignStructMol point = data.get(i);
-      if (point.ransacMaybeInLiers) {
-        points.add(point);
-        fitter.addObservedPoint(1, point.RT, point.RT2);
-      }
+    for (int i : initN) {
+      fitter.addObservedPoint(1, rt[i], rt2[i]);
     }
     try {
-      PolynomialFunction function = fitter.fit();
-      for (AlignStructMol point : data) {
-        double y = point.RT2;
-        double bestY = function.value(point.RT);
-        if (Math.abs(y - bestY) < t) {
-          point.ransacAlsoInLiers = true;
-          AlsoNumber++;
-        } else {
-          point.ransacAlsoInLiers = false;
-        }
-      }
+      return fitter.fit();
     } catch (Exception ex) {
+      return null;
     }
   }
 
   /**
-   * calculate the error in the model
-   * 
-   * @param data vector with the points which represent all possible alignments.
-   * @param regression regression of the alignment points
-   * @return the error in the model
+   * Model of one iteration, the function fitted to its initial points
    */
-  private double newError(List<AlignStructMol> data) throws Exception {
+  private class Model {
 
-    double numT = 1;
-    for (int i = 0; i < data.size(); i++) {
-      if (data.get(i).ransacAlsoInLiers || data.get(i).ransacMaybeInLiers) {
-        numT++;
-      }
+    private final int iteration;
+    private final int initN[];
+    private final PolynomialFunction function;
+    private double error;
+
+    Model(int iteration, int initN[], PolynomialFunction function) {
+      this.iteration = iteration;
+      this.initN = initN;
+      this.function = function;
     }
-    return 1 / numT;
 
+    boolean isInitialPoint(int index) {
+      return RANSAC.contains(initN, initN.length, index);
+    }
+
+    /**
+     * @return whether the point is within the threshold of the model
+     */
+    boolean fits(int index, double rt[], double rt2[]) {
+      if (function == null)
+        return false;
+      return Math.abs(rt2[index] - function.value(rt[index])) < t;
+    }
+
+    /**
+     * @return whether the point is one of the initial points or fits the model
+     */
+    boolean isAligned(int index, double rt[], double rt2[]) {
+      return isInitialPoint(index) || fits(index, rt, rt2);
+    }
+
+    boolean isBetterThan(Model model) {
+      if (error != model.error)
+        return error < model.error;
+      return iteration < model.iteration;
+    }
   }
 }
@@ -21,12 +21,16 @@ package io.github.mzmine.modules.dataprocessing.align_ransac;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.apache.commons.math.analysis.polynomials.PolynomialFunction;
 import org.apache.commons.math.optimization.fitting.PolynomialFitter;
 import org.apache.commons.math.optimization.general.GaussNewtonOptimizer;
@@ -46,7 +50,9 @@ import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.MzRtIndex;
 import io.github.mzmine.util.PeakUtils;
+import io.github.mzmine.util.ParallelUtils;
 import io.github.mzmine.util.RangeUtils;
 
 class RansacAlignerTask extends AbstractTask {
@@ -215,6 +221,7 @@ class RansacAlignerTask extends AbstractTask {
 
     // Create a table of mappings for best scores
     HashMap<PeakListRow, PeakListRow> alignmentMapping = new HashMap<PeakListRow, PeakListRow>();
+    Set<PeakListRow> mappedAlignedRows = new HashSet<PeakListRow>();
 
     if (alignedPeakList.getNumberOfRows() < 1) {
       return alignmentMapping;
@@ -282,7 +289,7 @@ class RansacAlignerTask extends AbstractTask {
       }
 
       // Check if the aligned row is already filled
-      if (alignmentMapping.containsValue(score.getAlignedRow())) {
+      if (!mappedAlignedRows.add(score.getAlignedRow())) {
         continue;
       }
 
@@ -380,22 +387,30 @@ class RansacAlignerTask extends AbstractTask {
    */
   private List<AlignStructMol> getVectorAlignment(PeakList peakListX, PeakList peakListY) {
 
-    List<AlignStructMol> alignMol = new ArrayList<AlignStructMol>();
-    for (PeakListRow row : peakListX.getRows()) {
+    // Index of the rows of peakListY, which is shared by the threads looking up the candidates
+    final MzRtIndex<PeakListRow> rowIndex =
+        new MzRtIndex<>(peakListY.getRows(), PeakListRow::getAverageMZ, PeakListRow::getAverageRT);
 
-      if (isCanceled()) {
-        return null;
-      }
-      // Calculate limits for a row with which the row can be aligned
-      Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
-      Range<Double> rtRange = rtToleranceBefore.getToleranceRange(row.getAverageRT());
+    // The pairs are collected in the order of the rows. Use the number of threads set in the
+    // preferences instead of the common pool.
+    List<AlignStructMol> alignMol = ParallelUtils.call(() -> peakListX.getRows().parallelStream()
+        .flatMap(row -> {
 
-      // Get all rows of the aligned peaklist within parameter limits
-      PeakListRow candidateRows[] = peakListY.getRowsInsideScanAndMZRange(rtRange, mzRange);
+          if (isCanceled()) {
+            return Stream.empty();
+          }
+          // Calculate limits for a row with which the row can be aligned
+          Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
+          Range<Double> rtRange = rtToleranceBefore.getToleranceRange(row.getAverageRT());
 
-      for (PeakListRow candidateRow : candidateRows) {
-        alignMol.add(new AlignStructMol(row, candidateRow));
-      }
+          // Get all rows of the aligned peaklist within parameter limits
+          return rowIndex.getItemsInside(mzRange, rtRange).stream()
+              .map(candidateRow -> new AlignStructMol(row, candidateRow));
+
+        }).collect(Collectors.toCollection(ArrayList::new)));
+
+    if (isCanceled()) {
+      return null;
     }
 
     return alignMol;
@@ -20,7 +20,9 @@ package io.github.mzmine.modules.dataprocessing.featdet_adap3d;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Predicate;
 import java.util.logging.Logger;
 import io.github.msdk.datamodel.Feature;
@@ -126,8 +128,9 @@ public class ADAP3DTask extends AbstractTask {
 
     // Run MSDK module
     MZmineToMSDKRawDataFile msdkRawDataFile = new MZmineToMSDKRawDataFile(dataFile);
+    Set<Scan> selectedScanSet = new HashSet<>(selectedScans);
     Predicate<MsScan> scanSelectionPredicate =
-        scan -> selectedScans.contains(((MZmineToMSDKMsScan) scan).getMzmineScan());
+        scan -> selectedScanSet.contains(((MZmineToMSDKMsScan) scan).getMzmineScan());
     msdkADAP3DMethod = new ADAP3DFeatureDetectionMethod(msdkRawDataFile, scanSelectionPredicate,
         new ADAP3DFeatureDetectionParameters());
     List<Feature> features = null;
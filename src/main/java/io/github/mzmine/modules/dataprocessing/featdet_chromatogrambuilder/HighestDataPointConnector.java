@@ -18,19 +18,18 @@
 
 package io.github.mzmine.modules.dataprocessing.featdet_chromatogrambuilder;
 
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
-
-import com.google.common.collect.Range;
+import java.util.TreeMap;
 
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
-import io.github.mzmine.util.DataPointSorter;
-import io.github.mzmine.util.SortingDirection;
-import io.github.mzmine.util.SortingProperty;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 
 public class HighestDataPointConnector {
 
@@ -42,6 +41,9 @@ public class HighestDataPointConnector {
   // Mapping of last data point m/z --> chromatogram
   private Set<Chromatogram> buildingChromatograms;
 
+  // Indices of the m/z peaks of the current scan, reused between scans
+  private int peakOrder[] = new int[0];
+
   public HighestDataPointConnector(RawDataFile dataFile, int allScanNumbers[],
       double minimumTimeSpan, double minimumHeight, MZTolerance mzTolerance) {
 
@@ -60,45 +62,126 @@ public class HighestDataPointConnector {
 
   public void addScan(int scanNumber, DataPoint mzValues[]) {
 
-    // Sort m/z peaks by descending intensity
-    Arrays.sort(mzValues,
-        new DataPointSorter(SortingProperty.Intensity, SortingDirection.Descending));
+    final int numOfDataPoints = mzValues.length;
+    final double mzs[] = new double[numOfDataPoints];
+    final double intensities[] = new double[numOfDataPoints];
+    for (int i = 0; i < numOfDataPoints; i++) {
+      mzs[i] = mzValues[i].getMZ();
+      intensities[i] = mzValues[i].getIntensity();
+    }
+
+    addScan(scanNumber, mzs, intensities, numOfDataPoints);
+
+  }
+
+  /**
+   * Connects the m/z peaks of one scan, given as primitive arrays. Only the first numOfDataPoints
+   * values of the arrays are used, so the caller may reuse the same arrays for every scan. DataPoint
+   * objects are only created for m/z peaks which are added to a chromatogram.
+   */
+  public void addScan(int scanNumber, double mzValues[], double intensityValues[],
+      int numOfDataPoints) {
+
+    // Sort m/z peaks by descending intensity, and by descending m/z in case of equal intensity,
+    // in the same stable order as DataPointSorter would
+    if (peakOrder.length < numOfDataPoints)
+      peakOrder = new int[numOfDataPoints];
+    for (int i = 0; i < numOfDataPoints; i++)
+      peakOrder[i] = i;
+    IntArrays.mergeSort(peakOrder, 0, numOfDataPoints, (a, b) -> {
+      int result = Double.compare(intensityValues[b], intensityValues[a]);
+      if (result == 0)
+        result = Double.compare(mzValues[b], mzValues[a]);
+      return result;
+    });
+
+    // Chromatograms which were open before this scan, in the order of buildingChromatograms. The
+    // position in this order breaks ties between equally intense candidates.
+    final Chromatogram openChromatograms[] = buildingChromatograms.toArray(new Chromatogram[0]);
+    final int numOfOpen = openChromatograms.length;
+    final double openMz[] = new double[numOfOpen];
+    final double openIntensity[] = new double[numOfOpen];
+    final int mzOrder[] = new int[numOfOpen];
+    for (int i = 0; i < numOfOpen; i++) {
+      DataPoint lastMzPeak = openChromatograms[i].getLastMzPeak();
+      openMz[i] = lastMzPeak.getMZ();
+      openIntensity[i] = lastMzPeak.getIntensity();
+      mzOrder[i] = i;
+    }
+    IntArrays.mergeSort(mzOrder, (a, b) -> Double.compare(openMz[a], openMz[b]));
+    final double sortedMz[] = new double[numOfOpen];
+    for (int i = 0; i < numOfOpen; i++)
+      sortedMz[i] = openMz[mzOrder[i]];
+
+    // Open chromatograms which were connected in this scan have a new last data point, so they are
+    // looked up by the m/z of that data point instead
+    final boolean connected[] = new boolean[numOfOpen];
+    final TreeMap<Double, IntArrayList> connectedByMz = new TreeMap<>();
 
     // Set of already connected chromatograms in each iteration
     Set<Chromatogram> connectedChromatograms = new LinkedHashSet<Chromatogram>();
 
-    // TODO: these two nested cycles should be optimized for speed
-    for (DataPoint mzPeak : mzValues) {
+    for (int p = 0; p < numOfDataPoints; p++) {
 
-      // Search for best chromatogram, which has highest last data point
-      Chromatogram bestChromatogram = null;
+      final int peakIndex = peakOrder[p];
+      final double mz = mzValues[peakIndex];
 
-      for (Chromatogram testChrom : buildingChromatograms) {
+      // The tolerance is checked around the last m/z of each chromatogram. For any sensible ppm
+      // value, that tolerance is less than twice the tolerance around the m/z of this peak, so
+      // this window contains all candidates.
+      final double searchWidth = 4 * mzTolerance.getMzToleranceForMass(mz);
+      final double searchStart = mz - searchWidth;
+      final double searchEnd = mz + searchWidth;
 
-        DataPoint lastMzPeak = testChrom.getLastMzPeak();
-        Range<Double> toleranceRange = mzTolerance.getToleranceRange(lastMzPeak.getMZ());
-        if (toleranceRange.contains(mzPeak.getMZ())) {
-          if ((bestChromatogram == null) || (testChrom.getLastMzPeak()
-              .getIntensity() > bestChromatogram.getLastMzPeak().getIntensity())) {
-            bestChromatogram = testChrom;
-          }
+      // Search for best chromatogram, which has highest last data point. In case of equal
+      // intensity, the first one in the order of buildingChromatograms wins.
+      int best = -1;
+      double bestIntensity = 0;
+
+      for (int i = findFirstIndex(sortedMz, searchStart); i < numOfOpen
+          && sortedMz[i] <= searchEnd; i++) {
+        final int candidate = mzOrder[i];
+        if (connected[candidate] || !mzTolerance.checkWithinTolerance(openMz[candidate], mz))
+          continue;
+        if ((best == -1) || (openIntensity[candidate] > bestIntensity)
+            || ((openIntensity[candidate] == bestIntensity) && (candidate < best))) {
+          best = candidate;
+          bestIntensity = openIntensity[candidate];
         }
+      }
 
+      for (Map.Entry<Double, IntArrayList> entry : connectedByMz
+          .subMap(searchStart, true, searchEnd, true).entrySet()) {
+        if (!mzTolerance.checkWithinTolerance(entry.getKey(), mz))
+          continue;
+        for (int candidate : entry.getValue()) {
+          final double intensity = openChromatograms[candidate].getLastMzPeak().getIntensity();
+          if ((best == -1) || (intensity > bestIntensity)
+              || ((intensity == bestIntensity) && (candidate < best))) {
+            best = candidate;
+            bestIntensity = intensity;
+          }
+        }
       }
 
       // If we found best chromatogram, check if it is already connected.
       // In such case, we may discard this mass and continue. If we
       // haven't found a chromatogram, we may create a new one.
-      if (bestChromatogram != null) {
-        if (connectedChromatograms.contains(bestChromatogram)) {
+      Chromatogram bestChromatogram;
+      if (best != -1) {
+        if (connected[best]) {
           continue;
         }
+        bestChromatogram = openChromatograms[best];
+        connected[best] = true;
+        connectedByMz.computeIfAbsent(mz, key -> new IntArrayList(1)).add(best);
       } else {
         bestChromatogram = new Chromatogram(dataFile, allScanNumbers);
       }
 
       // Add this mzPeak to the chromatogram
-      bestChromatogram.addMzPeak(scanNumber, mzPeak);
+      bestChromatogram.addMzPeak(scanNumber,
+          new SimpleDataPoint(mz, intensityValues[peakIndex]));
 
       // Move the chromatogram to the set of connected chromatograms
       connectedChromatograms.add(bestChromatogram);
@@ -139,6 +222,21 @@ public class HighestDataPointConnector {
 
   }
 
+  /**
+   * Binary search for the first index whose value is not smaller than the given value
+   */
+  private static int findFirstIndex(double sorted[], double value) {
+    int low = 0, high = sorted.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sorted[mid] < value)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
   public Chromatogram[] finishChromatograms() {
 
     // Iterate through current chromatograms and remove those which do not
@@ -23,8 +23,10 @@ import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconv
 import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.DeconvolutionParameters.RetentionTimeMSMS;
 import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.DeconvolutionParameters.SUFFIX;
 import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.DeconvolutionParameters.mzRangeMSMS;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.PeakList;
@@ -39,6 +41,7 @@ import io.github.mzmine.modules.tools.qualityparameters.QualityParameters;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.ParallelUtils;
 import io.github.mzmine.util.R.REngineType;
 import io.github.mzmine.util.R.RSessionWrapper;
 import io.github.mzmine.util.R.RSessionWrapperException;
@@ -55,7 +58,7 @@ public class DeconvolutionTask extends AbstractTask {
   private PeakList newPeakList;
 
   // Counters.
-  private int processedRows;
+  private final AtomicInteger processedRows = new AtomicInteger();
   private int totalRows;
 
   // User parameters
@@ -83,7 +86,6 @@ public class DeconvolutionTask extends AbstractTask {
     parameters = parameterSet;
     originalPeakList = list;
     newPeakList = null;
-    processedRows = 0;
     totalRows = 0;
     this.mzCenterFunction = mzCenterFunction;
   }
@@ -97,7 +99,7 @@ public class DeconvolutionTask extends AbstractTask {
   @Override
   public double getFinishedPercentage() {
 
-    return totalRows == 0 ? 0.0 : (double) processedRows / (double) totalRows;
+    return totalRows == 0 ? 0.0 : (double) processedRows.get() / (double) totalRows;
   }
 
   @Override
@@ -125,7 +127,7 @@ public class DeconvolutionTask extends AbstractTask {
           final MZmineProcessingStep<PeakResolver> resolver =
               parameters.getParameter(PEAK_RESOLVER).getValue();
 
-          if (resolver.getModule().getRequiresR()) {
+          if (resolver.getModule().getRequiresR(resolver.getParameterSet())) {
             // Check R availability, by trying to open the
             // connection.
             String[] reqPackages = resolver.getModule().getRequiredRPackages();
@@ -207,7 +209,7 @@ public class DeconvolutionTask extends AbstractTask {
    * @return a new feature list holding the resolved peaks.
    * @throws RSessionWrapperException
    */
-  private PeakList resolvePeaks(final PeakList peakList, RSessionWrapper rSession)
+  PeakList resolvePeaks(final PeakList peakList, RSessionWrapper rSession)
       throws RSessionWrapperException {
 
     // Get data file information.
@@ -245,41 +247,78 @@ public class DeconvolutionTask extends AbstractTask {
         "Peak deconvolution by " + resolver, resolver.getParameterSet()));
 
     // Initialise counters.
-    processedRows = 0;
+    processedRows.set(0);
     totalRows = peakList.getNumberOfRows();
     int peakId = 1;
 
-    // Process each chromatogram.
+    // Resolve each chromatogram, in parallel unless the resolver shares state (e.g. R).
+    final PeakResolver resolverModule = resolver.getModule();
+    final ParameterSet resolverParams = resolver.getParameterSet();
     final PeakListRow[] peakListRows = peakList.getRows().toArray(PeakListRow[]::new);
     final int chromatogramCount = peakListRows.length;
-    for (int index = 0; !isCanceled() && index < chromatogramCount; index++) {
+    final ResolvedPeak[][] peaksByRow = new ResolvedPeak[chromatogramCount][];
+
+    if (resolverModule.isThreadSafe(resolverParams)) {
+
+      // The parallel stream runs in its own pool, so it uses the number of threads set in the
+      // preferences instead of the common pool.
+      ParallelUtils.run(() -> IntStream.range(0, chromatogramCount).parallel().forEach(index -> {
+        if (isCanceled())
+          return;
+        try {
+          peaksByRow[index] = resolveRow(peakListRows[index], dataFile, resolverModule,
+              resolverParams, null);
+        } catch (RSessionWrapperException e) {
+          // Thread-safe resolvers do not use R.
+          throw new IllegalStateException(e);
+        }
+        processedRows.incrementAndGet();
+      }));
 
-      final PeakListRow currentRow = peakListRows[index];
-      final Feature chromatogram = currentRow.getPeak(dataFile);
+    } else {
 
-      // Resolve peaks.
-      final PeakResolver resolverModule = resolver.getModule();
-      final ParameterSet resolverParams = resolver.getParameterSet();
-      final ResolvedPeak[] peaks = resolverModule.resolvePeaks(chromatogram, resolverParams,
-          rSession, mzCenterFunction, msmsRange, RTRangeMSMS);
+      for (int index = 0; !isCanceled() && index < chromatogramCount; index++) {
+        peaksByRow[index] = resolveRow(peakListRows[index], dataFile, resolverModule,
+            resolverParams, rSession);
+        processedRows.incrementAndGet();
+      }
+    }
 
-      // Add peaks to the new feature list.
-      for (final ResolvedPeak peak : peaks) {
+    // Add peaks to the new feature list, in the order of the chromatograms.
+    for (int index = 0; !isCanceled() && index < chromatogramCount; index++) {
 
-        peak.setParentChromatogramRowID(currentRow.getID());
+      for (final ResolvedPeak peak : peaksByRow[index]) {
 
         final PeakListRow newRow = new SimplePeakListRow(peakId++);
         newRow.addPeak(dataFile, peak);
         newRow.setPeakInformation(peak.getPeakInformation());
         resolvedPeaks.addRow(newRow);
       }
-
-      processedRows++;
     }
 
     return resolvedPeaks;
   }
 
+  /**
+   * Resolves the chromatogram of a feature list row.
+   *
+   * @return the resolved peaks, linked to the row as their parent chromatogram.
+   * @throws RSessionWrapperException
+   */
+  private ResolvedPeak[] resolveRow(final PeakListRow row, final RawDataFile dataFile,
+      final PeakResolver resolverModule, final ParameterSet resolverParams,
+      final RSessionWrapper rSession) throws RSessionWrapperException {
+
+    final Feature chromatogram = row.getPeak(dataFile);
+    final ResolvedPeak[] peaks = resolverModule.resolvePeaks(chromatogram, resolverParams,
+        rSession, mzCenterFunction, msmsRange, RTRangeMSMS);
+
+    for (final ResolvedPeak peak : peaks)
+      peak.setParentChromatogramRowID(row.getID());
+
+    return peaks;
+  }
+
   @Override
   public void cancel() {
 
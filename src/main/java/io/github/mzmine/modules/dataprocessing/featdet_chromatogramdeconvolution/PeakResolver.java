@@ -33,6 +33,22 @@ public interface PeakResolver extends MZmineModule {
    */
   public boolean getRequiresR();
 
+  /**
+   * Gets if resolver requires R with the given parameters, e.g. when R is an optional alternative
+   * to a Java implementation. Defaults to {@link #getRequiresR()}.
+   */
+  public default boolean getRequiresR(final ParameterSet parameters) {
+    return getRequiresR();
+  }
+
+  /**
+   * Gets if {@link #resolvePeaks} may be called concurrently for different chromatograms with the
+   * given parameters. Resolvers working through an R session are not, as the session is shared.
+   */
+  public default boolean isThreadSafe(final ParameterSet parameters) {
+    return !getRequiresR(parameters);
+  }
+
   /**
    * Gets R required packages for the resolver's method, if applicable
    */
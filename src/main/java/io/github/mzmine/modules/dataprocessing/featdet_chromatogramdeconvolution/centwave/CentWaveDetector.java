@@ -28,6 +28,7 @@ import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconv
 import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.centwave.CentWaveDetectorParameters.PEAK_DURATION;
 import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.centwave.CentWaveDetectorParameters.PEAK_SCALES;
 import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.centwave.CentWaveDetectorParameters.SN_THRESHOLD;
+import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.centwave.CentWaveDetectorParameters.USE_R;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -49,7 +50,8 @@ import io.github.mzmine.util.R.RSessionWrapperException;
 import io.github.mzmine.util.maths.CenterFunction;
 
 /**
- * Use XCMS findPeaks.centWave to identify peaks.
+ * Use XCMS findPeaks.centWave to identify peaks, either through R or with the Java port in
+ * {@link CentWavePeakPicker}.
  */
 public class CentWaveDetector implements PeakResolver {
 
@@ -84,6 +86,11 @@ public class CentWaveDetector implements PeakResolver {
     return true;
   }
 
+  @Override
+  public boolean getRequiresR(final ParameterSet parameters) {
+    return parameters.getParameter(USE_R).getValue();
+  }
+
   @Override
   public String[] getRequiredRPackages() {
     return new String[] {"xcms"};
@@ -119,16 +126,35 @@ public class CentWaveDetector implements PeakResolver {
         intensities[i] = 0.0;
     }
 
-    // Call findPeaks.centWave.
-    double[][] peakMatrix = null;
+    // Call findPeaks.centWave, or its Java port.
+    final int[][] peakRanges;
+    if (getRequiresR(parameters)) {
+
+      final double[][] peakMatrix = centWave(rSession, retentionTimes, intensities,
+          chromatogram.getMZ(), parameters.getParameter(SN_THRESHOLD).getValue(),
+          parameters.getParameter(PEAK_SCALES).getValue(),
+          parameters.getParameter(INTEGRATION_METHOD).getValue());
+
+      if (peakMatrix == null) {
+        peakRanges = null;
+      } else {
+        peakRanges = new int[peakMatrix.length][];
+        for (int i = 0; i < peakMatrix.length; i++) {
+          peakRanges[i] = new int[] {findRTIndex(retentionTimes, peakMatrix[i][4]),
+              findRTIndex(retentionTimes, peakMatrix[i][5])};
+        }
+      }
+
+    } else {
 
-    peakMatrix = centWave(rSession, retentionTimes, intensities, chromatogram.getMZ(),
-        parameters.getParameter(SN_THRESHOLD).getValue(),
-        parameters.getParameter(PEAK_SCALES).getValue(),
-        parameters.getParameter(INTEGRATION_METHOD).getValue());
+      peakRanges = CentWavePeakPicker.findPeaks(retentionTimes, intensities,
+          parameters.getParameter(PEAK_SCALES).getValue(),
+          parameters.getParameter(SN_THRESHOLD).getValue(),
+          parameters.getParameter(INTEGRATION_METHOD).getValue());
+    }
 
     final List<ResolvedPeak> resolvedPeaks;
-    if (peakMatrix == null) {
+    if (peakRanges == null) {
 
       resolvedPeaks = new ArrayList<ResolvedPeak>(0);
 
@@ -139,13 +165,13 @@ public class CentWaveDetector implements PeakResolver {
       final Range<Double> peakDuration = parameters.getParameter(PEAK_DURATION).getValue();
 
       // Process peak matrix.
-      resolvedPeaks = new ArrayList<ResolvedPeak>(peakMatrix.length);
+      resolvedPeaks = new ArrayList<ResolvedPeak>(peakRanges.length);
 
-      for (final double[] peakRow : peakMatrix) {
+      for (final int[] peakRange : peakRanges) {
 
         // Get peak start and end.
-        final int peakLeft = findRTIndex(retentionTimes, peakRow[4]);
-        final int peakRight = findRTIndex(retentionTimes, peakRow[5]);
+        final int peakLeft = peakRange[0];
+        final int peakRight = peakRange[1];
 
         // Partition into sections bounded by null data points, creating
         // a peak for each.
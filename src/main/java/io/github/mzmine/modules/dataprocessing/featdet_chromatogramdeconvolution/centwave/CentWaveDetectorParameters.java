@@ -33,6 +33,7 @@ import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.PeakResolverSetupDialog;
 import io.github.mzmine.parameters.Parameter;
 import io.github.mzmine.parameters.impl.SimpleParameterSet;
+import io.github.mzmine.parameters.parametertypes.BooleanParameter;
 import io.github.mzmine.parameters.parametertypes.ComboParameter;
 import io.github.mzmine.parameters.parametertypes.DoubleParameter;
 import io.github.mzmine.parameters.parametertypes.ranges.DoubleRangeParameter;
@@ -94,16 +95,24 @@ public class CentWaveDetectorParameters extends SimpleParameterSet {
           "Method used to determine RT extents of detected peaks", PeakIntegrationMethod.values(),
           PeakIntegrationMethod.UseSmoothedData);
 
+  /**
+   * Run findPeaks.centWave in R instead of the Java implementation.
+   */
+  public static final BooleanParameter USE_R = new BooleanParameter("Compute with R",
+      "If checked (default), peaks are detected by findPeaks.centWave of the XCMS R package (see R engine). Otherwise the Java implementation is used, which does not need R, but is not validated against XCMS yet.",
+      true);
+
   /**
    * R engine type.
    */
   public static final ComboParameter<REngineType> RENGINE_TYPE = new ComboParameter<REngineType>(
-      "R engine", "The R engine to be used for communicating with R.", REngineType.values(),
-      REngineType.RCALLER);
+      "R engine", "The R engine to be used for communicating with R (if \"" + USE_R.getName()
+          + "\" is checked).",
+      REngineType.values(), REngineType.RCALLER);
 
   public CentWaveDetectorParameters() {
 
-    super(new Parameter[] {SN_THRESHOLD, PEAK_SCALES, PEAK_DURATION, INTEGRATION_METHOD,
+    super(new Parameter[] {SN_THRESHOLD, PEAK_SCALES, PEAK_DURATION, INTEGRATION_METHOD, USE_R,
         RENGINE_TYPE});
   }
 
@@ -0,0 +1,821 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.centwave;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Range;
+
+import io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.centwave.CentWaveDetectorParameters.PeakIntegrationMethod;
+
+/**
+ * Java port of xcms findPeaks.centWave for a single chromatogram, as called by
+ * {@link CentWaveDetector} through R: every run of non-zero intensities is a region of interest,
+ * analyzed with a Mexican hat continuous wavelet transform, ridge lines and local noise estimates.
+ * The wavelet and ridge functions follow MassSpecWavelet (cwt, getLocalMaximumCWT, getRidge) as
+ * bundled with xcms. Gaussian fitting is not used by the R call either, so it is left out.
+ *
+ * All methods are static and keep no state, so chromatograms can be processed concurrently.
+ */
+final class CentWavePeakPicker {
+
+  // Mexican hat sampled over [-8, 8], as in MassSpecWavelet.
+  private static final int PSI_LENGTH = 1024;
+  private static final double[] PSI = new double[PSI_LENGTH];
+  private static final double PSI_DX;
+  private static final double PSI_XMAX = 16.0;
+
+  static {
+    final double step = 16.0 / (PSI_LENGTH - 1);
+    for (int i = 0; i < PSI_LENGTH; i++) {
+      final double x = -8.0 + i * step;
+      PSI[i] = (2.0 / Math.sqrt(3.0) * Math.pow(Math.PI, -0.25)) * (1.0 - x * x)
+          * Math.exp(-x * x / 2.0);
+    }
+    PSI_DX = (-8.0 + step) - (-8.0);
+  }
+
+  // Ridge detection settings of xcms.
+  private static final int MIN_WIN_SIZE = 5;
+  private static final int GAP_THRESHOLD = 3;
+
+  private CentWavePeakPicker() {}
+
+  /**
+   * Finds peaks in a chromatogram.
+   *
+   * @param scanTime retention times (for each scan).
+   * @param intensity intensity values (for each scan), zero where there is no data point.
+   * @param peakWidth range of wavelet scales, in the unit of scanTime.
+   * @param snrThreshold signal:noise ratio threshold.
+   * @param integrationMethod integration method.
+   * @return the first and last scan index of each peak, in order of detection.
+   */
+  static int[][] findPeaks(final double[] scanTime, final double[] intensity,
+      final Range<Double> peakWidth, final double snrThreshold,
+      final PeakIntegrationMethod integrationMethod) {
+
+    final int numScans = intensity.length;
+    if (numScans < 2)
+      return new int[0][];
+
+    // Scales (in scans) from the peak width range.
+    final double meanScanDiff = (scanTime[numScans - 1] - scanTime[0]) / (numScans - 1);
+    final int lowScale = (int) Math.rint(peakWidth.lowerEndpoint() / meanScanDiff / 2.0);
+    final int highScale = (int) Math.rint(peakWidth.upperEndpoint() / meanScanDiff / 2.0);
+    final int[] scales;
+    if (lowScale > 0 && highScale > 0) {
+      scales = new int[(highScale - lowScale) / 2 + 1];
+      for (int i = 0; i < scales.length; i++)
+        scales[i] = lowScale + 2 * i;
+    } else if (lowScale > 0 || highScale > 0) {
+      scales = new int[] {Math.max(lowScale, highScale)};
+    } else {
+      return new int[0][];
+    }
+
+    final int minPeakWidth = scales[0];
+    final int noiseRangeMin = 3 * minPeakWidth;
+    final int noiseRangeMax = 3 * scales[scales.length - 1];
+    final int minPtsAboveBaseLine = Math.max(4, minPeakWidth - 2);
+    final int scRangeTol = minPeakWidth / 2;
+    final int maxDescOutlier = scRangeTol;
+
+    final List<Peak> peaks = new ArrayList<>();
+
+    for (int start = 0; start < numScans; start++) {
+
+      // Region of interest: non-zero section.
+      if (intensity[start] <= 0.0)
+        continue;
+      int end = start;
+      while (end + 1 < numScans && intensity[end + 1] > 0.0)
+        end++;
+      final int scMin = start, scMax = end;
+      start = end;
+
+      // Scan range extended by the noise range, for baseline and wavelet analysis.
+      final int srFrom = Math.max(0, scMin - noiseRangeMax);
+      final int srTo = Math.min(numScans - 1, scMax + noiseRangeMax);
+      final double[] d = Arrays.copyOfRange(intensity, srFrom, srTo + 1);
+
+      // Scan range extended by scRangeTol, for continuous data above the first baseline.
+      final int ftdFrom = Math.max(srFrom, scMin - scRangeTol) - srFrom;
+      final int ftdTo = Math.min(srTo, scMax + scRangeTol) - srFrom;
+
+      // First baseline: statistic approach (full trace for very long regions).
+      final int roiLength = scMax - scMin + 1;
+      final double noise = estimateChromNoise(roiLength >= 10 * minPeakWidth ? intensity : d,
+          0.05, 3 * minPeakWidth);
+      if (!continuousPtsAboveThreshold(d, ftdFrom, ftdTo, noise, minPtsAboveBaseLine))
+        continue;
+
+      // Second baseline, from the region around the peak.
+      final double[] localNoise = getLocalNoiseEstimate(d, ftdFrom, ftdTo, noiseRangeMin,
+          numScans, noise, minPtsAboveBaseLine);
+      final double baseline = Math.max(1.0, Math.min(localNoise[0], noise));
+      final double sdNoise = Math.max(1.0, localNoise[1]);
+      final double sdThreshold = sdNoise * snrThreshold;
+
+      boolean aboveThreshold = false;
+      for (int i = ftdFrom; i <= ftdTo && !aboveThreshold; i++)
+        aboveThreshold = d[i] - baseline >= sdThreshold;
+      if (!aboveThreshold)
+        continue;
+
+      final double[][] wCoefs = cwt(d, scales);
+      if (wCoefs == null || !anyAbove(wCoefs, baseline + sdThreshold))
+        continue;
+      if (srTo == numScans - 1 && d.length > 1) {
+        for (final double[] coefs : wCoefs)
+          coefs[d.length - 1] = coefs[d.length - 2] * 0.99;
+      }
+
+      final int[] usedScales = Arrays.copyOf(scales, wCoefs.length);
+      final boolean[][] localMax = getLocalMaximumCWT(wCoefs, usedScales);
+      final List<int[]> ridges = getRidges(localMax, usedScales);
+
+      final List<Peak> roiPeaks = new ArrayList<>();
+      final int irange = (scales[0] + 1) / 2;
+      for (final int[] ridge : ridges) {
+
+        // xcms tests the ridge positions on the first scale only.
+        boolean ridgeAbove = false;
+        for (int pos : ridge)
+          ridgeAbove |= wCoefs[0][pos] - baseline >= sdThreshold;
+        if (!ridgeAbove)
+          continue;
+
+        // Final S/N check, on positions within the original data range.
+        boolean inRange = false, peakAbove = false;
+        for (int pos : ridge) {
+          if (pos >= ftdFrom && pos <= ftdTo) {
+            inRange = true;
+            peakAbove |= d[pos] - baseline >= sdThreshold;
+          }
+        }
+        if (!inRange || !peakAbove)
+          continue;
+
+        // Decide which scale describes the peak best.
+        int bestScaleNr = 0;
+        double bestIntensity = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < ridge.length; k++) {
+          double sum = 0.0;
+          for (int i = Math.max(0, ridge[k] - irange); i <= Math.min(d.length - 1,
+              ridge[k] + irange); i++)
+            sum += d[i];
+          if (sum > bestIntensity) {
+            bestIntensity = sum;
+            bestScaleNr = k;
+          }
+        }
+        final int bestScale = usedScales[Math.min(bestScaleNr, usedScales.length - 1)];
+        final int bestScalePos = ridge[bestScaleNr];
+        final int lwpos = Math.max(0, bestScalePos - bestScale);
+        final int rwpos = Math.min(bestScalePos + bestScale, d.length - 1);
+
+        // Peak limits.
+        int[] lm = null;
+        if (integrationMethod == PeakIntegrationMethod.UseSmoothedData) {
+          lm = descendMin(wCoefs[Math.min(bestScaleNr, wCoefs.length - 1)], bestScalePos);
+          boolean gap = true;
+          for (int i = lm[0]; i <= lm[1] && gap; i++)
+            gap = d[i] == 0.0;
+          if (lm[0] == lm[1] || gap)
+            lm = null;
+        }
+        if (lm == null)
+          lm = descendMinTol(d, lwpos, rwpos, maxDescOutlier);
+
+        // Narrow down the boundaries by skipping zeros.
+        int left = lm[0], right = lm[1];
+        int first = left;
+        while (first <= right && d[first] < 1.0)
+          first++;
+        int last = right;
+        while (last >= left && d[last] < 1.0)
+          last--;
+        left += Math.max(0, first - lm[0] - 1);
+        right -= Math.max(0, lm[1] - last - 1);
+        if (left > right)
+          continue;
+
+        final int peakFrom = srFrom + left, peakTo = srFrom + right;
+        final Peak peak = new Peak(bestScale, bestScalePos, peakFrom, peakTo,
+            area(scanTime, intensity, peakFrom, peakTo));
+        if (!roiPeaks.contains(peak))
+          roiPeaks.add(peak);
+      }
+      peaks.addAll(roiPeaks);
+    }
+
+    // Remove overlapping peaks, keeping the most intense ones (xcms rectUnique).
+    final Integer[] order = new Integer[peaks.size()];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+    Arrays.sort(order, Comparator.comparingDouble((Integer i) -> -peaks.get(i).into));
+    final boolean[] keep = new boolean[order.length];
+    final List<Peak> kept = new ArrayList<>();
+    for (final int i : order) {
+      final Peak peak = peaks.get(i);
+      boolean overlaps = false;
+      for (final Peak other : kept) {
+        if (peak.from < other.to && peak.to > other.from) {
+          overlaps = true;
+          break;
+        }
+      }
+      if (!overlaps) {
+        keep[i] = true;
+        kept.add(peak);
+      }
+    }
+
+    final List<int[]> result = new ArrayList<>(kept.size());
+    for (int i = 0; i < keep.length; i++) {
+      if (keep[i])
+        result.add(new int[] {peaks.get(i).from, peaks.get(i).to});
+    }
+    return result.toArray(new int[result.size()][]);
+  }
+
+  /**
+   * Peak area as "into" of findPeaks.centWave: the intensity sum times the mean scan time
+   * difference within the peak.
+   */
+  static double area(final double[] scanTime, final double[] intensity, final int from,
+      final int to) {
+    final double pwid = (to > from) ? (scanTime[to] - scanTime[from]) / (to - from) : 1.0;
+    double into = 0.0;
+    for (int i = from; i <= to; i++)
+      into += intensity[i];
+    return pwid * into;
+  }
+
+  /**
+   * Peak candidate. Equal candidates of a region of interest are reported once.
+   */
+  private static final class Peak {
+
+    private final int scale, position, from, to;
+    private final double into;
+
+    private Peak(int scale, int position, int from, int to, double into) {
+      this.scale = scale;
+      this.position = position;
+      this.from = from;
+      this.to = to;
+      this.into = into;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Peak))
+        return false;
+      final Peak other = (Peak) o;
+      return scale == other.scale && position == other.position && from == other.from
+          && to == other.to;
+    }
+
+    @Override
+    public int hashCode() {
+      return ((scale * 31 + position) * 31 + from) * 31 + to;
+    }
+  }
+
+  /**
+   * First baseline guess: 90% trimmed mean of the non-zero values.
+   */
+  private static double estimateChromNoise(final double[] x, final double trim, final int minPts) {
+
+    final double[] positive = Arrays.stream(x).filter(v -> v > 0.0).toArray();
+    if (positive.length < minPts || positive.length == 0)
+      return Arrays.stream(x).average().orElse(0.0);
+
+    Arrays.sort(positive);
+    final int lo = (int) Math.floor(positive.length * trim);
+    final int hi = positive.length - lo;
+    double sum = 0.0;
+    for (int i = lo; i < hi; i++)
+      sum += positive[i];
+    return sum / (hi - lo);
+  }
+
+  /**
+   * Whether y[from..to] has at least num consecutive values above the threshold.
+   */
+  private static boolean continuousPtsAboveThreshold(final double[] y, final int from,
+      final int to, final double threshold, final int num) {
+    int count = 0;
+    for (int i = from; i <= to; i++) {
+      count = (y[i] > threshold) ? count + 1 : 0;
+      if (count >= num)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Values of y not belonging to runs of at least num consecutive values above the threshold.
+   */
+  private static double[] withoutContinuousPts(final double[] y, final double threshold,
+      final int num) {
+
+    final boolean[] continuous = new boolean[y.length];
+    int count = 0;
+    for (int i = 0; i <= y.length; i++) {
+      if (i < y.length && y[i] > threshold) {
+        count++;
+      } else {
+        if (count >= num)
+          Arrays.fill(continuous, i - count, i, true);
+        count = 0;
+      }
+    }
+
+    int size = 0;
+    final double[] result = new double[y.length];
+    for (int i = 0; i < y.length; i++) {
+      if (!continuous[i])
+        result[size++] = y[i];
+    }
+    return Arrays.copyOf(result, size);
+  }
+
+  /**
+   * Local baseline and noise, from the data around the peak region d[ftdFrom..ftdTo].
+   *
+   * @return {baseline, standard deviation}.
+   */
+  private static double[] getLocalNoiseEstimate(final double[] d, final int ftdFrom,
+      final int ftdTo, final int noiseRange, final int numScans, final double threshold,
+      final int num) {
+
+    if (d.length >= numScans) {
+      final double[] trimmed = trimm(d, 0.05, 0.95);
+      final double[] stats = meanAndSd(trimmed);
+      return stats;
+    }
+
+    // Everything but the peak region.
+    final double[] outside = new double[d.length - (ftdTo - ftdFrom + 1)];
+    System.arraycopy(d, 0, outside, 0, ftdFrom);
+    System.arraycopy(d, ftdTo + 1, outside, ftdFrom, d.length - ftdTo - 1);
+    final double[] stats1 = meanAndSd(withoutContinuousPts(outside, threshold, num));
+
+    // Noise range next to the peak region (including its limits).
+    final int leftFrom = Math.max(0, ftdFrom - noiseRange);
+    final int rightTo = Math.min(d.length - 1, ftdTo + noiseRange);
+    final double[] around = new double[(ftdFrom - leftFrom + 1) + (rightTo - ftdTo + 1)];
+    System.arraycopy(d, leftFrom, around, 0, ftdFrom - leftFrom + 1);
+    System.arraycopy(d, ftdTo, around, ftdFrom - leftFrom + 1, rightTo - ftdTo + 1);
+    final double[] stats2 = meanAndSd(withoutContinuousPts(around, threshold, num));
+
+    return new double[] {Math.min(stats1[0], stats2[0]), Math.min(stats1[1], stats2[1])};
+  }
+
+  /**
+   * Mean and sample standard deviation, {1, 1} for less than two values.
+   */
+  private static double[] meanAndSd(final double[] x) {
+    if (x.length < 2)
+      return new double[] {1.0, 1.0};
+    double mean = 0.0;
+    for (double v : x)
+      mean += v;
+    mean /= x.length;
+    double ss = 0.0;
+    for (double v : x)
+      ss += (v - mean) * (v - mean);
+    return new double[] {mean, Math.sqrt(ss / (x.length - 1))};
+  }
+
+  /**
+   * Non-zero values between the given quantiles (sorted).
+   */
+  private static double[] trimm(final double[] x, final double lower, final double upper) {
+    final double[] positive = Arrays.stream(x).filter(v -> v > 0.0).sorted().toArray();
+    final int n = positive.length;
+    final int from = (int) Math.rint(n * lower + 1) - 1;
+    final int to = (int) Math.rint(n * upper);
+    return (to > from) ? Arrays.copyOfRange(positive, Math.max(0, from), to) : new double[0];
+  }
+
+  private static boolean anyAbove(final double[][] values, final double threshold) {
+    for (final double[] row : values) {
+      for (double v : row) {
+        if (v >= threshold)
+          return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Continuous wavelet transform with the Mexican hat wavelet. The signal is extended to the next
+   * power of two by reflection, and each scale is a circular convolution computed by FFT.
+   *
+   * @return coefficients [scale][position], cut at the first scale whose wavelet does not fit the
+   *         extended signal, or null if none fits.
+   */
+  static double[][] cwt(final double[] ms, final int[] scales) {
+
+    final int oldLength = ms.length;
+    int length = 1;
+    while (length < oldLength)
+      length <<= 1;
+
+    final double[] signalRe = new double[length], signalIm = new double[length];
+    System.arraycopy(ms, 0, signalRe, 0, oldLength);
+    for (int i = oldLength; i < length; i++)
+      signalRe[i] = ms[oldLength - 1 - (i - oldLength)];
+    fft(signalRe, signalIm, false);
+
+    final List<double[]> coefficients = new ArrayList<>(scales.length);
+    for (final int scale : scales) {
+
+      final int waveLength = (int) Math.floor(scale * PSI_XMAX) + 1;
+      if (waveLength > length)
+        break;
+
+      final double[] wave = new double[waveLength];
+      double mean = 0.0;
+      for (int k = 0; k < waveLength; k++) {
+        final int j = (int) Math.floor(k / (scale * PSI_DX));
+        wave[k] = PSI[Math.min(j, PSI_LENGTH - 1)];
+        mean += wave[k];
+      }
+      mean /= waveLength;
+
+      final double[] re = new double[length], im = new double[length];
+      for (int k = 0; k < waveLength; k++)
+        re[k] = wave[waveLength - 1 - k] - mean;
+      fft(re, im, false);
+
+      // Circular cross-correlation: IFFT(FFT(signal) * conj(FFT(wave))).
+      for (int k = 0; k < length; k++) {
+        final double r = signalRe[k] * re[k] + signalIm[k] * im[k];
+        final double i = signalIm[k] * re[k] - signalRe[k] * im[k];
+        re[k] = r;
+        im[k] = i;
+      }
+      fft(re, im, true);
+
+      // Shift by half the wavelet width.
+      final int shift = waveLength / 2;
+      final double norm = 1.0 / Math.sqrt(scale) / length;
+      final double[] coefs = new double[oldLength];
+      for (int k = 0; k < oldLength; k++)
+        coefs[k] = re[Math.floorMod(k - shift, length)] * norm;
+      coefficients.add(coefs);
+    }
+
+    return coefficients.isEmpty() ? null : coefficients.toArray(new double[0][]);
+  }
+
+  /**
+   * In-place radix-2 FFT (unnormalized, also when inverse). The length must be a power of two.
+   */
+  static void fft(final double[] re, final double[] im, final boolean inverse) {
+
+    final int n = re.length;
+    for (int i = 1, j = 0; i < n; i++) {
+      int bit = n >> 1;
+      for (; (j & bit) != 0; bit >>= 1)
+        j ^= bit;
+      j ^= bit;
+      if (i < j) {
+        double t = re[i];
+        re[i] = re[j];
+        re[j] = t;
+        t = im[i];
+        im[i] = im[j];
+        im[j] = t;
+      }
+    }
+
+    for (int len = 2; len <= n; len <<= 1) {
+      final double angle = 2.0 * Math.PI / len * (inverse ? 1.0 : -1.0);
+      final double wRe = Math.cos(angle), wIm = Math.sin(angle);
+      for (int i = 0; i < n; i += len) {
+        double curRe = 1.0, curIm = 0.0;
+        for (int k = 0; k < len / 2; k++) {
+          final int a = i + k, b = i + k + len / 2;
+          final double vRe = re[b] * curRe - im[b] * curIm;
+          final double vIm = re[b] * curIm + im[b] * curRe;
+          re[b] = re[a] - vRe;
+          im[b] = im[a] - vIm;
+          re[a] += vRe;
+          im[a] += vIm;
+          final double nextRe = curRe * wRe - curIm * wIm;
+          curIm = curRe * wIm + curIm * wRe;
+          curRe = nextRe;
+        }
+      }
+    }
+  }
+
+  /**
+   * Local maxima of the coefficients of each scale, in windows of 2 * scale + 1 positions.
+   * Negative coefficients are never local maxima.
+   */
+  private static boolean[][] getLocalMaximumCWT(final double[][] wCoefs, final int[] scales) {
+    final boolean[][] localMax = new boolean[wCoefs.length][];
+    for (int s = 0; s < wCoefs.length; s++) {
+      localMax[s] = localMaximum(wCoefs[s], Math.max(2 * scales[s] + 1, MIN_WIN_SIZE));
+      for (int i = 0; i < wCoefs[s].length; i++) {
+        if (wCoefs[s][i] < 0.0)
+          localMax[s][i] = false;
+      }
+    }
+    return localMax;
+  }
+
+  /**
+   * Maxima of consecutive windows (twice, shifted by half a window) which are higher than both
+   * window ends. Of two maxima closer than the window size, only the higher one is kept.
+   */
+  static boolean[] localMaximum(final double[] x, final int winSize) {
+
+    final int len = x.length;
+    final boolean[] localMax = new boolean[len];
+
+    for (int shift : new int[] {0, winSize / 2}) {
+      final int windows = (len + shift + winSize - 1) / winSize;
+      for (int w = 0; w < windows; w++) {
+        int maxIndex = 0;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < winSize; k++) {
+          final double v = padded(x, w * winSize + k - shift);
+          if (v > max) {
+            max = v;
+            maxIndex = k;
+          }
+        }
+        if (max > padded(x, w * winSize - shift)
+            && max > padded(x, w * winSize + winSize - 1 - shift))
+          localMax[w * winSize + maxIndex - shift] = true;
+      }
+    }
+
+    // Maxima closer than the window size: keep the higher one.
+    final int[] maxima = new int[len];
+    int count = 0;
+    for (int i = 0; i < len; i++) {
+      if (localMax[i])
+        maxima[count++] = i;
+    }
+    final List<Integer> cleared = new ArrayList<>();
+    for (int k = 0; k + 1 < count; k++) {
+      if (maxima[k + 1] - maxima[k] < winSize)
+        cleared.add(x[maxima[k]] - x[maxima[k + 1]] <= 0.0 ? maxima[k] : maxima[k + 1]);
+    }
+    for (int i : cleared)
+      localMax[i] = false;
+
+    return localMax;
+  }
+
+  private static double padded(final double[] x, final int i) {
+    return x[Math.max(0, Math.min(x.length - 1, i))];
+  }
+
+  /**
+   * Ridge lines of local maxima, followed from the largest to the smallest scale. A ridge may skip
+   * up to GAP_THRESHOLD scales; ridges losing their maximum for longer end as orphans.
+   *
+   * @return the positions of each ridge, from the smallest scale up.
+   */
+  static List<int[]> getRidges(final boolean[][] localMax, final int[] scales) {
+
+    final int numScales = localMax.length;
+    final int len = localMax[0].length;
+
+    // Ridges by their current position, in order.
+    Map<Integer, Ridge> ridges = new LinkedHashMap<>();
+    for (int i = 0; i < len; i++) {
+      if (localMax[numScales - 1][i])
+        ridges.put(i, new Ridge(i));
+    }
+    if (numScales == 1)
+      return ridgePositions(ridges.values(), new LinkedHashMap<>());
+
+    final Map<String, Ridge> orphans = new LinkedHashMap<>();
+    List<Integer> current = new ArrayList<>(ridges.keySet());
+
+    for (int col = numScales - 2; col >= 0; col--) {
+
+      final int scale = scales[col];
+      if (current.isEmpty()) {
+        for (int i = 0; i < len; i++) {
+          if (localMax[col][i])
+            current.add(i);
+        }
+        continue;
+      }
+
+      final int winSize = Math.max(scale / 2, MIN_WIN_SIZE);
+      final List<Integer> selected = new ArrayList<>();
+      final List<Ridge> selectedRidges = new ArrayList<>();
+      for (final int index : current) {
+
+        // Maxima picked up after all ridges ended start a new ridge on this level.
+        Ridge ridge = ridges.get(index);
+        if (ridge == null) {
+          ridge = new Ridge(Collections.<Integer>emptyList());
+          ridge.status = GAP_THRESHOLD + 1;
+        }
+
+        // Nearest local maximum within the window.
+        int next = -1;
+        for (int i = Math.max(0, index - winSize); i <= Math.min(len - 1, index + winSize); i++) {
+          if (localMax[col][i] && (next < 0 || Math.abs(i - index) < Math.abs(next - index)))
+            next = i;
+        }
+
+        if (next < 0) {
+          if (ridge.status > GAP_THRESHOLD && scale >= 2) {
+            final int keep = ridge.positions.size() - ridge.status;
+            if (keep > 0) {
+              orphans.putIfAbsent((col + 1 + ridge.status + 1) + "_" + index,
+                  ridge.prefix(keep));
+            }
+            continue;
+          }
+          next = index;
+          ridge.status++;
+        } else {
+          ridge.status = 0;
+        }
+        ridge.positions.add(next);
+        selected.add(next);
+        selectedRidges.add(ridge);
+      }
+
+      // Several ridges reaching the same maximum: keep the (first) longest one.
+      final Map<Integer, List<Integer>> ridgesByPosition = new LinkedHashMap<>();
+      for (int k = 0; k < selected.size(); k++)
+        ridgesByPosition.computeIfAbsent(selected.get(k), p -> new ArrayList<>()).add(k);
+      final Set<Integer> removed = new HashSet<>();
+      for (int k = 0; k < selected.size(); k++) {
+        final List<Integer> group = ridgesByPosition.get(selected.get(k));
+        // groups in the order of their first duplicate, like unique(x[duplicated(x)])
+        if (group.size() < 2 || group.get(1) != k)
+          continue;
+        int longest = 0;
+        for (int g = 1; g < group.size(); g++) {
+          if (selectedRidges.get(group.get(g)).positions.size() > selectedRidges
+              .get(group.get(longest)).positions.size())
+            longest = g;
+        }
+        for (int g = 0; g < group.size(); g++) {
+          if (g != longest)
+            removed.add(group.get(g));
+        }
+        // As in MassSpecWavelet getRidge, the orphan is ridgeList[removeInd.jk]: the index of the
+        // longest ridge within its group is applied to the list of all ridges of this level, so
+        // the orphan is not necessarily one of the removed ridges. This is reproduced to give the
+        // same peaks as findPeaks.centWave.
+        orphans.putIfAbsent((col + 1) + "_" + selected.get(longest),
+            selectedRidges.get(longest).copy());
+      }
+      final Map<Integer, Ridge> nextRidges = new LinkedHashMap<>();
+      for (int k = 0; k < selected.size(); k++) {
+        if (!removed.contains(k))
+          nextRidges.put(selected.get(k), selectedRidges.get(k));
+      }
+      final Set<Integer> selectedSet = new HashSet<>(selected);
+      ridges = nextRidges;
+
+      // From scale 2, other maxima of this level start new ridges.
+      current = new ArrayList<>(ridges.keySet());
+      if (scale >= 2) {
+        for (int i = 0; i < len; i++) {
+          if (localMax[col][i] && !selectedSet.contains(i)) {
+            ridges.put(i, new Ridge(i));
+            current.add(i);
+          }
+        }
+      }
+    }
+
+    return ridgePositions(ridges.values(), orphans);
+  }
+
+  private static List<int[]> ridgePositions(final Iterable<Ridge> ridges,
+      final Map<String, Ridge> orphans) {
+
+    final List<int[]> result = new ArrayList<>();
+    final Set<String> names = new HashSet<>();
+    for (final Ridge ridge : ridges) {
+      names.add("1_" + ridge.positions.get(ridge.positions.size() - 1));
+      result.add(ridge.reversed());
+    }
+    for (final Map.Entry<String, Ridge> orphan : orphans.entrySet()) {
+      if (names.add(orphan.getKey()))
+        result.add(orphan.getValue().reversed());
+    }
+    return result;
+  }
+
+  private static final class Ridge {
+
+    private final List<Integer> positions = new ArrayList<>();
+    private int status;
+
+    private Ridge(int position) {
+      positions.add(position);
+    }
+
+    private Ridge(List<Integer> positions) {
+      this.positions.addAll(positions);
+    }
+
+    private Ridge prefix(int size) {
+      return new Ridge(positions.subList(0, size));
+    }
+
+    private Ridge copy() {
+      return new Ridge(positions);
+    }
+
+    private int[] reversed() {
+      final int[] result = new int[positions.size()];
+      for (int i = 0; i < result.length; i++)
+        result[i] = positions.get(positions.size() - 1 - i);
+      return result;
+    }
+  }
+
+  /**
+   * Descends from istart to the nearest minima on both sides.
+   */
+  private static int[] descendMin(final double[] y, final int istart) {
+    int lower = istart;
+    while (lower > 0 && y[lower - 1] < y[lower])
+      lower--;
+    int upper = istart;
+    while (upper < y.length - 1 && y[upper + 1] < y[upper])
+      upper++;
+    return new int[] {lower, upper};
+  }
+
+  /**
+   * Descends from the given limits while intensities decrease, tolerating up to maxDescOutlier
+   * increasing values.
+   */
+  private static int[] descendMinTol(final double[] d, final int startLeft, final int startRight,
+      final int maxDescOutlier) {
+
+    int l = startLeft, outliers = 0, outlierPos = 0;
+    while (l > 0 && d[l] > 0.0 && outliers <= maxDescOutlier) {
+      final int vpos = (outliers > 0) ? outlierPos : l;
+      outliers = (d[l - 1] > d[vpos]) ? outliers + 1 : 0;
+      if (outliers == 1)
+        outlierPos = l;
+      l--;
+    }
+    if (outliers > 0)
+      l += outliers;
+
+    int r = startRight;
+    outliers = 0;
+    while (r < d.length - 1 && d[r] > 0.0 && outliers <= maxDescOutlier) {
+      final int vpos = (outliers > 0) ? outlierPos : r;
+      outliers = (d[r + 1] > d[vpos]) ? outliers + 1 : 0;
+      if (outliers == 1)
+        outlierPos = r;
+      r++;
+    }
+    if (outliers > 0)
+      r -= outliers;
+
+    return new int[] {l, r};
+  }
+
+}
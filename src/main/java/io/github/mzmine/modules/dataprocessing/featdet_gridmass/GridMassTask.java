@@ -586,8 +586,10 @@ public class GridMassTask extends AbstractTask {
       double timeMZSpan, int scanSpan, double mzTol, int mzPoints, double minimumHeight) {
     int[] scanNumbers = dataFile.getScanNumbers(1);
     int totalScans = scanNumbers.length;
-    DataPoint mzValues[][] = null; // [relative scan][j value]
-    DataPoint mzValuesJ[] = null;
+    double mzValues[][] = null; // [relative scan][j value]
+    double intensityValues[][] = null; // [relative scan][j value]
+    double mzValuesJ[] = null;
+    double intensityValuesJ[] = null;
     int mzValuesScan[] = null;
     int mzValuesMZidx[] = null;
     IndexedDataPoint newMZValues[][] = null;
@@ -606,7 +608,6 @@ public class GridMassTask extends AbstractTask {
       // Smoothing in TIME space
       Scan scan = dataFile.getScan(scanNumbers[i]);
       double rt = retentiontime[i];
-      DataPoint[] xDP = null;
       IndexedDataPoint[] iDP = null;
       sj = si = i;
       ssi = ssj = i;
@@ -641,7 +642,8 @@ public class GridMassTask extends AbstractTask {
         if (scan != null && sj > si) {
           // Allocate
           if (mzValues == null || mzValues.length < sj - si + 1) {
-            mzValues = new DataPoint[sj - si + 1][];
+            mzValues = new double[sj - si + 1][];
+            intensityValues = new double[sj - si + 1][];
             mzValuesScan = new int[sj - si + 1];
             mzValuesMZidx = new int[sj - si + 1];
           }
@@ -650,11 +652,14 @@ public class GridMassTask extends AbstractTask {
             int jsi = j - si;
             if (mzValues[jsi] == null || jsi >= mzValuesScan.length - 1
                 || mzValuesScan[jsi + 1] != scanNumbers[j]) {
+              // Primitive arrays avoid creating DataPoint objects for every raw data point
               Scan xscan = dataFile.getScan(scanNumbers[j]);
-              mzValues[jsi] = xscan.getDataPoints();
+              mzValues[jsi] = xscan.getMzValues(null);
+              intensityValues[jsi] = xscan.getIntensityValues(null);
               mzValuesScan[jsi] = scanNumbers[j];
             } else {
               mzValues[jsi] = mzValues[jsi + 1];
+              intensityValues[jsi] = intensityValues[jsi + 1];
               mzValuesScan[jsi] = mzValuesScan[jsi + 1];
             }
             mzValuesMZidx[jsi] = 0;
@@ -664,23 +669,23 @@ public class GridMassTask extends AbstractTask {
           if (tmpDP.length < mzValues[ii].length)
             tmpDP = new IndexedDataPoint[mzValues[ii].length * 3 / 2];
           for (k = 0; k < mzValues[ii].length; k++) {
-            DataPoint dp = mzValues[ii][k];
-            double mz = dp.getMZ();
+            double mz = mzValues[ii][k];
             double intensidad = 0;
-            if (dp.getIntensity() > 0) { // only process those > 0
+            if (intensityValues[ii][k] > 0) { // only process those > 0
               double a = 0;
               short c = 0;
               int f = 0;
               for (j = 0; j <= sj - si; j++) {
+                intensityValuesJ = intensityValues[j];
                 for (mzValuesJ = mzValues[j]; mzValuesMZidx[j] < mzValuesJ.length - 1
-                    && mzValuesJ[mzValuesMZidx[j] + 1].getMZ() < mz
+                    && mzValuesJ[mzValuesMZidx[j] + 1] < mz
                         - timeSmoothingMZtol; mzValuesMZidx[j]++);
 
                 f = mzValuesMZidx[j];
 
                 for (m = mzValuesMZidx[j] + 1; m < mzValuesJ.length
-                    && mzValuesJ[m].getMZ() < mz + timeSmoothingMZtol; m++) {
-                  if (Math.abs(mzValuesJ[m].getMZ() - mz) < Math.abs(mzValuesJ[f].getMZ() - mz)) {
+                    && mzValuesJ[m] < mz + timeSmoothingMZtol; m++) {
+                  if (Math.abs(mzValuesJ[m] - mz) < Math.abs(mzValuesJ[f] - mz)) {
                     f = m;
                   } else {
                     // siempre debe ser mas cercano porque
@@ -690,14 +695,14 @@ public class GridMassTask extends AbstractTask {
                   }
                 }
                 if (f > 0 && f < mzValuesJ.length
-                    && Math.abs(mzValuesJ[f].getMZ() - mz) <= timeSmoothingMZtol
-                    && mzValuesJ[f].getIntensity() > 0) { // >=
+                    && Math.abs(mzValuesJ[f] - mz) <= timeSmoothingMZtol
+                    && intensityValuesJ[f] > 0) { // >=
                   // minimumHeight
                   // ?
                   // System.out.println("mz="+mz+";
                   // Closer="+mzValuesJ[f].getMZ()+", f="+f+",
                   // Intensity="+mzValuesJ[f].getIntensity());
-                  a += mzValuesJ[f].getIntensity();
+                  a += intensityValuesJ[f];
                   c++;
                 }
               }
@@ -710,12 +715,14 @@ public class GridMassTask extends AbstractTask {
 
         }
       } else if (scan != null) {
-        xDP = scan.getDataPoints();
-        if (tmpDP.length < xDP.length)
-          tmpDP = new IndexedDataPoint[xDP.length];
-        for (k = 0; k < xDP.length; k++) {
-          if (xDP[k].getIntensity() >= minimumHeight) {
-            tmpDP[t++] = new IndexedDataPoint(k, xDP[k]);
+        double xMZ[] = scan.getMzValues(null);
+        double xIntensity[] = scan.getIntensityValues(null);
+        int xLength = scan.getNumberOfDataPoints();
+        if (tmpDP.length < xLength)
+          tmpDP = new IndexedDataPoint[xLength];
+        for (k = 0; k < xLength; k++) {
+          if (xIntensity[k] >= minimumHeight) {
+            tmpDP[t++] = new IndexedDataPoint(k, new SimpleDataPoint(xMZ[k], xIntensity[k]));
           }
         }
       }
@@ -20,8 +20,12 @@ package io.github.mzmine.modules.dataprocessing.featdet_massdetection;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.RawDataFile;
@@ -30,8 +34,14 @@ import io.github.mzmine.datamodel.impl.SimpleMassList;
 import io.github.mzmine.modules.MZmineProcessingStep;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.selectors.ScanSelection;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.project.impl.StorableMassList;
+import io.github.mzmine.project.impl.StorableScan;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.ParallelUtils;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import ucar.ma2.ArrayDouble;
 import ucar.ma2.DataType;
 import ucar.nc2.Attribute;
@@ -43,6 +53,9 @@ import ucar.nc2.Variable;
 
 public class MassDetectionTask extends AbstractTask {
 
+  // Number of scans whose mass lists are detected together and stored with one write
+  private static final int BATCH_SIZE = 256;
+
   private final Logger logger = Logger.getLogger(this.getClass().getName());
   private final RawDataFile dataFile;
 
@@ -55,6 +68,7 @@ public class MassDetectionTask extends AbstractTask {
 
   // Mass detector
   private MZmineProcessingStep<MassDetector> massDetector;
+  private boolean parallel;
 
   // for outputting file
   private File outFilename;
@@ -74,6 +88,8 @@ public class MassDetectionTask extends AbstractTask {
 
     this.name = parameters.getParameter(MassDetectionParameters.name).getValue();
 
+    this.parallel = parameters.getParameter(MassDetectionParameters.parallel).getValue();
+
     this.saveToCDF = parameters.getParameter(MassDetectionParameters.outFilenameOption).getValue();
 
     this.outFilename = MassDetectionParameters.outFilenameOption.getEmbeddedParameter().getValue();
@@ -107,14 +123,14 @@ public class MassDetectionTask extends AbstractTask {
   public void run() {
 
     // make arrays to contain everything you need
-    ArrayList<Integer> pointsInScans = new ArrayList<>();
-    ArrayList<Double> allMZ = new ArrayList<>();
-    ArrayList<Double> allIntensities = new ArrayList<>();
+    IntArrayList pointsInScans = new IntArrayList();
+    DoubleArrayList allMZ = new DoubleArrayList();
+    DoubleArrayList allIntensities = new DoubleArrayList();
     // idecies of full mass list where scan starts?
-    ArrayList<Integer> startIndex = new ArrayList<>();
-    ArrayList<Double> scanAcquisitionTime = new ArrayList<>();
+    IntArrayList startIndex = new IntArrayList();
+    DoubleArrayList scanAcquisitionTime = new DoubleArrayList();
     // XCMS needs this one
-    ArrayList<Double> totalIntensity = new ArrayList<>();
+    DoubleArrayList totalIntensity = new DoubleArrayList();
 
     double curTotalIntensity;
     int lastPointCount = 0;
@@ -129,42 +145,86 @@ public class MassDetectionTask extends AbstractTask {
 
       final Scan scans[] = scanSelection.getMatchingScans(dataFile);
       totalScans = scans.length;
-      // Process scans one by one
-      for (Scan scan : scans) {
-
-        if (isCanceled())
-          return;
-
-        MassDetector detector = massDetector.getModule();
-        DataPoint mzPeaks[] = detector.getMassValues(scan, massDetector.getParameterSet());
-
-        SimpleMassList newMassList = new SimpleMassList(name, scan, mzPeaks);
 
-        // Add new mass list to the scan
-        scan.addMassList(newMassList);
-
-        if (this.saveToCDF) {
+      final MassDetector detector = massDetector.getModule();
+      final ParameterSet detectorParameters = massDetector.getParameterSet();
+
+      // Mass lists of scans in the temporary file are written in bulk
+      final boolean storeInBulk = dataFile instanceof RawDataFileImpl
+          && Arrays.stream(scans).allMatch(s -> s instanceof StorableScan);
+
+      // One pool for all batches, and m/z and intensity buffers reused by each thread
+      final ForkJoinPool pool =
+          parallel ? new ForkJoinPool(ParallelUtils.getNumOfThreads()) : null;
+      final ThreadLocal<double[][]> buffers = ThreadLocal.withInitial(() -> new double[2][]);
+
+      // Process scans in batches. The mass detectors are stateless, so the scans of a batch may be
+      // processed in parallel. The results are added in scan order.
+      try {
+        for (int start = 0; start < scans.length; start += BATCH_SIZE) {
+          if (isCanceled())
+            return;
+
+          final int batchStart = start;
+          final int batchEnd = Math.min(start + BATCH_SIZE, scans.length);
+          final DataPoint batch[][] = new DataPoint[batchEnd - batchStart][];
+          final IntStream batchIndices = IntStream.range(batchStart, batchEnd);
+          final IntConsumer detect = i -> {
+            final double buffer[][] = buffers.get();
+            buffer[0] = scans[i].getMzValues(buffer[0]);
+            buffer[1] = scans[i].getIntensityValues(buffer[1]);
+            batch[i - batchStart] = detector.getMassValues(buffer[0], buffer[1],
+                scans[i].getNumberOfDataPoints(), detectorParameters);
+          };
+          if (parallel) {
+            // Use the number of threads set in the preferences instead of the common pool
+            ParallelUtils.run(pool, () -> batchIndices.parallel().forEach(detect));
+          } else {
+            batchIndices.forEach(detect);
+          }
 
-          curTotalIntensity = 0;
-          for (int a = 0; a < mzPeaks.length; a++) {
-            DataPoint curMzPeak = mzPeaks[a];
-            allMZ.add(curMzPeak.getMZ());
-            allIntensities.add(curMzPeak.getIntensity());
-            curTotalIntensity += curMzPeak.getIntensity();
+          // Add new mass lists to the scans
+          if (storeInBulk) {
+            final RawDataFileImpl rawDataFile = (RawDataFileImpl) dataFile;
+            final int storageIDs[] = rawDataFile.storeDataPoints(batch);
+            for (int i = batchStart; i < batchEnd; i++) {
+              scans[i].addMassList(
+                  new StorableMassList(rawDataFile, storageIDs[i - batchStart], name, scans[i]));
+            }
+          } else {
+            for (int i = batchStart; i < batchEnd; i++) {
+              scans[i].addMassList(new SimpleMassList(name, scans[i], batch[i - batchStart]));
+            }
           }
 
-          scanAcquisitionTime.add(scan.getRetentionTime());
-          pointsInScans.add(0);
-          startIndex.add(mzPeaks.length + lastPointCount);
-          totalIntensity.add(curTotalIntensity);
+          if (this.saveToCDF) {
+
+            for (int i = batchStart; i < batchEnd; i++) {
+              final DataPoint mzPeaks[] = batch[i - batchStart];
+              curTotalIntensity = 0;
+              for (int a = 0; a < mzPeaks.length; a++) {
+                DataPoint curMzPeak = mzPeaks[a];
+                allMZ.add(curMzPeak.getMZ());
+                allIntensities.add(curMzPeak.getIntensity());
+                curTotalIntensity += curMzPeak.getIntensity();
+              }
+
+              scanAcquisitionTime.add(scans[i].getRetentionTime());
+              pointsInScans.add(0);
+              startIndex.add(mzPeaks.length + lastPointCount);
+              totalIntensity.add(curTotalIntensity);
+
+              lastPointCount = mzPeaks.length + lastPointCount;
+            }
+          }
 
-          lastPointCount = mzPeaks.length + lastPointCount;
+          processedScans = batchEnd;
         }
-
-        processedScans++;
+      } finally {
+        if (pool != null)
+          pool.shutdown();
       }
 
-
       if (this.saveToCDF) {
         // ************** write mass list
         // *******************************
@@ -232,15 +292,15 @@ public class MassDetectionTask extends AbstractTask {
         ArrayDouble.D1 arr_pointsInScans = new ArrayDouble.D1(dim_pointsInScans.getLength());
 
         for (int i = 0; i < allMZ.size(); i++) {
-          arr_massValues.set(i, allMZ.get(i));
-          arr_intensityValues.set(i, allIntensities.get(i));
+          arr_massValues.set(i, allMZ.getDouble(i));
+          arr_intensityValues.set(i, allIntensities.getDouble(i));
         }
         int i = 0;
         for (; i < scanAcquisitionTime.size(); i++) {
-          arr_scanAcquisitionTime.set(i, scanAcquisitionTime.get(i) * 60);
-          arr_pointsInScans.set(i, pointsInScans.get(i));
-          arr_scanIndex.set(i, startIndex.get(i));
-          arr_totalIntensity.set(i, totalIntensity.get(i));
+          arr_scanAcquisitionTime.set(i, scanAcquisitionTime.getDouble(i) * 60);
+          arr_pointsInScans.set(i, pointsInScans.getInt(i));
+          arr_scanIndex.set(i, startIndex.getInt(i));
+          arr_totalIntensity.set(i, totalIntensity.getDouble(i));
         }
         // arr_scanIndex.set(i,startIndex.get(i));
 
@@ -29,10 +29,31 @@ import io.github.mzmine.parameters.ParameterSet;
 public interface MassDetector extends MZmineModule {
 
   /**
-   * Returns mass and intensity values detected in given scan
+   * Returns mass and intensity values detected in the first numOfDataPoints values of given m/z and
+   * intensity arrays. DataPoint objects are only created for the detected masses.
+   */
+  public DataPoint[] getMassValues(double mzValues[], double intensityValues[],
+      int numOfDataPoints, ParameterSet parameters);
+
+  /**
+   * Returns mass and intensity values detected in given data points
    */
-  public DataPoint[] getMassValues(DataPoint[] dp, ParameterSet parameters);
+  public default DataPoint[] getMassValues(DataPoint[] dp, ParameterSet parameters) {
+    final double mzValues[] = new double[dp.length];
+    final double intensityValues[] = new double[dp.length];
+    for (int i = 0; i < dp.length; i++) {
+      mzValues[i] = dp[i].getMZ();
+      intensityValues[i] = dp[i].getIntensity();
+    }
+    return getMassValues(mzValues, intensityValues, dp.length, parameters);
+  }
 
-  public DataPoint[] getMassValues(Scan scan, ParameterSet parameters);
+  /**
+   * Returns mass and intensity values detected in given scan
+   */
+  public default DataPoint[] getMassValues(Scan scan, ParameterSet parameters) {
+    return getMassValues(scan.getMzValues(null), scan.getIntensityValues(null),
+        scan.getNumberOfDataPoints(), parameters);
+  }
 
 }
@@ -18,92 +18,82 @@
 
 package io.github.mzmine.modules.dataprocessing.featdet_massdetection.exactmass;
 
-import java.util.ArrayList;
 import java.util.TreeSet;
 
 import javax.annotation.Nonnull;
 
 import io.github.mzmine.datamodel.DataPoint;
-import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
 import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetector;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.util.DataPointSorter;
 import io.github.mzmine.util.SortingDirection;
 import io.github.mzmine.util.SortingProperty;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 public class ExactMassDetector implements MassDetector {
 
-  public DataPoint[] getMassValues(Scan scan, ParameterSet parameters) {
-    return getMassValues(scan.getDataPoints(), parameters);
-  }
-
   /**
    * @see io.github.mzmine.modules.peakpicking.threestep.massdetection.MassDetector#getMassValues(io.github.mzmine.datamodel.Scan)
    */
-  public DataPoint[] getMassValues(DataPoint dataPoints[], ParameterSet parameters) {
+  @Override
+  public DataPoint[] getMassValues(double mzValues[], double intensityValues[],
+      int numOfDataPoints, ParameterSet parameters) {
 
     double noiseLevel = parameters.getParameter(ExactMassDetectorParameters.noiseLevel).getValue();
 
     // Create a tree set of detected mzPeaks sorted by MZ in ascending order
-    TreeSet<ExactMzDataPoint> mzPeaks = new TreeSet<ExactMzDataPoint>(
-        new DataPointSorter(SortingProperty.MZ, SortingDirection.Ascending));
+    TreeSet<DataPoint> mzPeaks =
+        new TreeSet<DataPoint>(new DataPointSorter(SortingProperty.MZ, SortingDirection.Ascending));
 
-    // Create a tree set of candidate mzPeaks sorted by intensity in
-    // descending order.
-    TreeSet<ExactMzDataPoint> candidatePeaks = new TreeSet<ExactMzDataPoint>(
-        new DataPointSorter(SortingProperty.Intensity, SortingDirection.Descending));
+    // First get all candidate peaks (local maximum), then calculate the exact mass for each of
+    // them. Each candidate is described by the index of its local maximum and the first and last
+    // index of its raw data points.
+    final int candidates[] = getLocalMaxima(intensityValues, numOfDataPoints, noiseLevel);
 
-    // First get all candidate peaks (local maximum)
-    getLocalMaxima(dataPoints, candidatePeaks, noiseLevel);
+    for (int c = 0; c < candidates.length; c += 3) {
 
-    // We calculate the exact mass for each peak,
-    // starting with biggest intensity peak and so on
-    while (candidatePeaks.size() > 0) {
+      final int maxIndex = candidates[c];
+      final double exactMz =
+          calculateExactMass(mzValues, intensityValues, maxIndex, candidates[c + 1],
+              candidates[c + 2]);
 
-      // Always take the biggest (intensity) peak
-      ExactMzDataPoint currentCandidate = candidatePeaks.first();
-
-      // Calculate the exact mass and update value in current candidate
-      // (MzPeak)
-      double exactMz = calculateExactMass(currentCandidate);
-      currentCandidate.setMZ(exactMz);
-
-      // Add this candidate to the final tree set sorted by MZ and remove
-      // from tree set sorted by intensity
-      mzPeaks.add(currentCandidate);
-      candidatePeaks.remove(currentCandidate);
+      mzPeaks.add(new SimpleDataPoint(exactMz, intensityValues[maxIndex]));
 
     }
 
     // Return an array of detected MzPeaks sorted by MZ
-    return mzPeaks.toArray(new ExactMzDataPoint[0]);
+    return mzPeaks.toArray(new DataPoint[0]);
 
   }
 
   /**
-   * This method gets all possible MzPeaks using local maximum criteria from the current scan and
-   * return a tree set of MzPeaks sorted by intensity in descending order.
+   * This method gets all possible MzPeaks using local maximum criteria from the current scan. The
+   * result contains three values per MzPeak: the index of the local maximum and the first and last
+   * index of the raw data points forming the peak (zero intensity data points are not part of the
+   * peak).
    * 
-   * @param scan
+   * @param intensityValues
    * @return
    */
-  private void getLocalMaxima(DataPoint scanDataPoints[], TreeSet<ExactMzDataPoint> candidatePeaks,
+  private int[] getLocalMaxima(double intensityValues[], int numOfDataPoints,
       double noiseLevel) {
 
-    if (scanDataPoints.length == 0)
-      return;
-    DataPoint localMaximum = scanDataPoints[0];
-    ArrayList<DataPoint> rangeDataPoints = new ArrayList<DataPoint>();
+    if (numOfDataPoints == 0)
+      return new int[0];
+
+    IntArrayList candidates = new IntArrayList();
+    int localMaximum = 0;
+    int rangeStart = -1;
 
     boolean ascending = true;
 
     // Iterate through all data points
-    for (int i = 0; i < scanDataPoints.length - 1; i++) {
+    for (int i = 0; i < numOfDataPoints - 1; i++) {
 
-      boolean nextIsBigger =
-          scanDataPoints[i + 1].getIntensity() > scanDataPoints[i].getIntensity();
-      boolean nextIsZero = scanDataPoints[i + 1].getIntensity() == 0;
-      boolean currentIsZero = scanDataPoints[i].getIntensity() == 0;
+      boolean nextIsBigger = intensityValues[i + 1] > intensityValues[i];
+      boolean nextIsZero = intensityValues[i + 1] == 0;
+      boolean currentIsZero = intensityValues[i] == 0;
 
       // Ignore zero intensity regions
       if (currentIsZero) {
@@ -111,11 +101,12 @@ public class ExactMassDetector implements MassDetector {
       }
 
       // Add current (non-zero) data point to the current m/z peak
-      rangeDataPoints.add(scanDataPoints[i]);
+      if (rangeStart < 0)
+        rangeStart = i;
 
       // Check for local maximum
       if (ascending && (!nextIsBigger)) {
-        localMaximum = scanDataPoints[i];
+        localMaximum = i;
         ascending = false;
         continue;
       }
@@ -124,29 +115,31 @@ public class ExactMassDetector implements MassDetector {
       if ((!ascending) && (nextIsBigger || nextIsZero)) {
 
         // Add the m/z peak if it is above the noise level
-        if (localMaximum.getIntensity() > noiseLevel) {
-
-          DataPoint[] rawDataPoints = rangeDataPoints.toArray(new DataPoint[0]);
-          candidatePeaks.add(new ExactMzDataPoint(localMaximum, rawDataPoints));
+        if (intensityValues[localMaximum] > noiseLevel) {
+          candidates.add(localMaximum);
+          candidates.add(rangeStart);
+          candidates.add(i);
         }
 
         // Reset and start with new peak
         ascending = true;
-        rangeDataPoints.clear();
+        rangeStart = -1;
       }
 
     }
 
+    return candidates.toIntArray();
+
   }
 
   /**
    * This method calculates the exact mass of a peak using the FWHM concept and linear equation (y =
    * mx + b).
    * 
-   * @param ExactMassDataPoint
    * @return double
    */
-  private double calculateExactMass(ExactMzDataPoint currentCandidate) {
+  private double calculateExactMass(double mzValues[], double intensityValues[], int maxIndex,
+      int rangeStart, int rangeEnd) {
 
     /*
      * According with the FWHM concept, the exact mass of this peak is the half point of FWHM. In
@@ -160,26 +153,35 @@ public class ExactMassDetector implements MassDetector {
      * We repeat the same process in the right side.
      */
 
+    final double peakMz = mzValues[maxIndex];
     double xRight = -1, xLeft = -1;
-    double halfIntensity = currentCandidate.getIntensity() / 2;
-    DataPoint[] rangeDataPoints = currentCandidate.getRawDataPoints();
+    double halfIntensity = intensityValues[maxIndex] / 2;
+
+    // Walk through all pairs of consecutive non-zero data points of the peak
+    int previous = -1;
+    for (int next = rangeStart; next <= rangeEnd; next++) {
 
-    for (int i = 0; i < rangeDataPoints.length - 1; i++) {
+      if (intensityValues[next] == 0)
+        continue;
+
+      final int i = previous;
+      previous = next;
+      if (i < 0)
+        continue;
 
       // Left side of the curve
-      if ((rangeDataPoints[i].getIntensity() <= halfIntensity)
-          && (rangeDataPoints[i].getMZ() < currentCandidate.getMZ())
-          && (rangeDataPoints[i + 1].getIntensity() >= halfIntensity)) {
+      if ((intensityValues[i] <= halfIntensity) && (mzValues[i] < peakMz)
+          && (intensityValues[next] >= halfIntensity)) {
 
         // First point with intensity just less than half of total
         // intensity
-        double leftY1 = rangeDataPoints[i].getIntensity();
-        double leftX1 = rangeDataPoints[i].getMZ();
+        double leftY1 = intensityValues[i];
+        double leftX1 = mzValues[i];
 
         // Second point with intensity just bigger than half of total
         // intensity
-        double leftY2 = rangeDataPoints[i + 1].getIntensity();
-        double leftX2 = rangeDataPoints[i + 1].getMZ();
+        double leftY2 = intensityValues[next];
+        double leftX2 = mzValues[next];
 
         // We calculate the slope with formula m = Y1 - Y2 / X1 - X2
         double mLeft = (leftY1 - leftY2) / (leftX1 - leftX2);
@@ -200,19 +202,18 @@ public class ExactMassDetector implements MassDetector {
       }
 
       // Right side of the curve
-      if ((rangeDataPoints[i].getIntensity() >= halfIntensity)
-          && (rangeDataPoints[i].getMZ() > currentCandidate.getMZ())
-          && (rangeDataPoints[i + 1].getIntensity() <= halfIntensity)) {
+      if ((intensityValues[i] >= halfIntensity) && (mzValues[i] > peakMz)
+          && (intensityValues[next] <= halfIntensity)) {
 
         // First point with intensity just bigger than half of total
         // intensity
-        double rightY1 = rangeDataPoints[i].getIntensity();
-        double rightX1 = rangeDataPoints[i].getMZ();
+        double rightY1 = intensityValues[i];
+        double rightX1 = mzValues[i];
 
         // Second point with intensity just less than half of total
         // intensity
-        double rightY2 = rangeDataPoints[i + 1].getIntensity();
-        double rightX2 = rangeDataPoints[i + 1].getMZ();
+        double rightY2 = intensityValues[next];
+        double rightX2 = mzValues[next];
 
         // We calculate the slope with formula m = Y1 - Y2 / X1 - X2
         double mRight = (rightY1 - rightY2) / (rightX1 - rightX2);
@@ -236,7 +237,7 @@ public class ExactMassDetector implements MassDetector {
     // We verify the values to confirm we find the desired points. If not we
     // return the same mass value.
     if ((xRight == -1) || (xLeft == -1))
-      return currentCandidate.getMZ();
+      return peakMz;
 
     // The center of left and right points is the exact mass of our peak.
     double exactMass = (xLeft + xRight) / 2;
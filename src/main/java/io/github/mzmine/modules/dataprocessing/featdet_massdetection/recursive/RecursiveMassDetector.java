@@ -19,12 +19,11 @@
 package io.github.mzmine.modules.dataprocessing.featdet_massdetection.recursive;
 
 import java.util.TreeSet;
-import java.util.Vector;
 
 import javax.annotation.Nonnull;
 
 import io.github.mzmine.datamodel.DataPoint;
-import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
 import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetector;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.util.DataPointSorter;
@@ -33,11 +32,9 @@ import io.github.mzmine.util.SortingProperty;
 
 public class RecursiveMassDetector implements MassDetector {
 
-  public DataPoint[] getMassValues(Scan scan, ParameterSet parameters) {
-    return getMassValues(scan.getDataPoints(), parameters);
-  }
-
-  public DataPoint[] getMassValues(DataPoint dataPoints[], ParameterSet parameters) {
+  @Override
+  public DataPoint[] getMassValues(double mzValues[], double intensityValues[],
+      int numOfDataPoints, ParameterSet parameters) {
 
     double noiseLevel =
         parameters.getParameter(RecursiveMassDetectorParameters.noiseLevel).getValue();
@@ -50,7 +47,7 @@ public class RecursiveMassDetector implements MassDetector {
         new TreeSet<DataPoint>(new DataPointSorter(SortingProperty.MZ, SortingDirection.Ascending));
 
     // Find MzPeaks
-    recursiveThreshold(mzPeaks, dataPoints, 1, dataPoints.length - 1, noiseLevel,
+    recursiveThreshold(mzPeaks, mzValues, intensityValues, 1, numOfDataPoints - 1, noiseLevel,
         minimumMZPeakWidth, maximumMZPeakWidth, 0);
     return mzPeaks.toArray(new DataPoint[0]);
   }
@@ -58,19 +55,18 @@ public class RecursiveMassDetector implements MassDetector {
   /**
    * This function searches for maxima from given part of a spectrum
    */
-  private int recursiveThreshold(TreeSet<DataPoint> mzPeaks, DataPoint dataPoints[], int startInd,
-      int stopInd, double curentNoiseLevel, double minimumMZPeakWidth, double maximumMZPeakWidth,
-      int recuLevel) {
+  private int recursiveThreshold(TreeSet<DataPoint> mzPeaks, double mzValues[],
+      double intensityValues[], int startInd, int stopInd, double curentNoiseLevel,
+      double minimumMZPeakWidth, double maximumMZPeakWidth, int recuLevel) {
 
     // logger.finest(" Level of recursion " + recuLevel);
 
-    Vector<DataPoint> RawDataPointsInds = new Vector<DataPoint>();
     int peakStartInd, peakStopInd, peakMaxInd;
     double peakWidthMZ;
 
     for (int ind = startInd; ind < stopInd; ind++) {
 
-      boolean currentIsBiggerNoise = dataPoints[ind].getIntensity() > curentNoiseLevel;
+      boolean currentIsBiggerNoise = intensityValues[ind] > curentNoiseLevel;
       double localMinimum = Double.MAX_VALUE;
 
       // Ignore intensities below curentNoiseLevel
@@ -83,50 +79,46 @@ public class RecursiveMassDetector implements MassDetector {
       peakMaxInd = peakStartInd;
 
       // While peak is on
-      while ((ind < stopInd) && (dataPoints[ind].getIntensity() > curentNoiseLevel)) {
+      while ((ind < stopInd) && (intensityValues[ind] > curentNoiseLevel)) {
 
-        boolean isLocalMinimum =
-            (dataPoints[ind - 1].getIntensity() > dataPoints[ind].getIntensity())
-                && (dataPoints[ind].getIntensity() < dataPoints[ind + 1].getIntensity());
+        boolean isLocalMinimum = (intensityValues[ind - 1] > intensityValues[ind])
+            && (intensityValues[ind] < intensityValues[ind + 1]);
 
         // Check if this is the minimum point of the peak
-        if (isLocalMinimum && (dataPoints[ind].getIntensity() < localMinimum))
-          localMinimum = dataPoints[ind].getIntensity();
+        if (isLocalMinimum && (intensityValues[ind] < localMinimum))
+          localMinimum = intensityValues[ind];
 
         // Check if this is the maximum point of the peak
-        if (dataPoints[ind].getIntensity() > dataPoints[peakMaxInd].getIntensity())
+        if (intensityValues[ind] > intensityValues[peakMaxInd])
           peakMaxInd = ind;
 
-        // Forming the DataPoint array that defines this peak
-        RawDataPointsInds.add(dataPoints[ind]);
         ind++;
       }
 
       // Add ending point of the peak
       peakStopInd = ind;
 
-      peakWidthMZ = dataPoints[peakStopInd].getMZ() - dataPoints[peakStartInd].getMZ();
+      peakWidthMZ = mzValues[peakStopInd] - mzValues[peakStartInd];
 
       // Verify width of the peak
       if ((peakWidthMZ >= minimumMZPeakWidth) && (peakWidthMZ <= maximumMZPeakWidth)) {
 
         // Declare a new MzPeak with intensity equal to max intensity
         // data point
-        mzPeaks.add(dataPoints[peakMaxInd]);
+        mzPeaks.add(new SimpleDataPoint(mzValues[peakMaxInd], intensityValues[peakMaxInd]));
 
         if (recuLevel > 0) {
           // return stop index and beginning of the next peak
           return ind;
         }
       }
-      RawDataPointsInds.clear();
 
       // If the peak is still too big applies the same method until find a
       // peak of the right size
       if (peakWidthMZ > maximumMZPeakWidth) {
         if (localMinimum < Double.MAX_VALUE) {
-          ind = recursiveThreshold(mzPeaks, dataPoints, peakStartInd, peakStopInd, localMinimum,
-              minimumMZPeakWidth, maximumMZPeakWidth, recuLevel + 1);
+          ind = recursiveThreshold(mzPeaks, mzValues, intensityValues, peakStartInd, peakStopInd,
+              localMinimum, minimumMZPeakWidth, maximumMZPeakWidth, recuLevel + 1);
         }
 
       }
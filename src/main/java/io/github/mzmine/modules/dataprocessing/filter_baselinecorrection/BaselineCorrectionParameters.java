@@ -126,19 +126,27 @@ public class BaselineCorrectionParameters extends SimpleParameterSet {
       new BooleanParameter("Remove source file after baseline correction",
           "If checked, original file will be replaced by the corrected version", true);
 
+  /**
+   * Compute baselines with R instead of the Java implementations.
+   */
+  public static final BooleanParameter USE_R = new BooleanParameter("Compute with R",
+      "If checked (default), baselines are computed by the R package of the selected method (see R engine). Otherwise the Java implementations are used, which do not need R and process m/z bins in parallel, but are not validated against R yet.",
+      true);
+
   /**
    * R engine type.
    */
   public static final ComboParameter<REngineType> RENGINE_TYPE = new ComboParameter<REngineType>(
-      "R engine", "The R engine to be used for communicating with R.", REngineType.values(),
-      REngineType.RCALLER);
+      "R engine", "The R engine to be used for communicating with R (if \"" + USE_R.getName()
+          + "\" is checked).",
+      REngineType.values(), REngineType.RCALLER);
 
   /**
    * Create the parameter set.
    */
   public BaselineCorrectionParameters() {
     super(new Parameter[] {dataFiles, SUFFIX, CHROMOTAGRAM_TYPE, MS_LEVEL, USE_MZ_BINS,
-        MZ_BIN_WIDTH, BASELINE_CORRECTORS, RENGINE_TYPE, REMOVE_ORIGINAL});
+        MZ_BIN_WIDTH, BASELINE_CORRECTORS, USE_R, RENGINE_TYPE, REMOVE_ORIGINAL});
     thisParameters = null;
   }
 
@@ -68,6 +68,7 @@ public class BaselineCorrectionTask extends AbstractTask {
   private RSessionWrapper rSession;
   private String errorMsg;
 
+  private final boolean useR;
   private REngineType rEngineType;
 
   /**
@@ -88,6 +89,7 @@ public class BaselineCorrectionTask extends AbstractTask {
     this.baselineCorrectorProcStep =
         parameters.getParameter(BaselineCorrectionParameters.BASELINE_CORRECTORS).getValue();
 
+    this.useR = parameters.getParameter(BaselineCorrectionParameters.USE_R).getValue();
     this.rEngineType =
         parameters.getParameter(BaselineCorrectionParameters.RENGINE_TYPE).getValue();
 
@@ -114,12 +116,15 @@ public class BaselineCorrectionTask extends AbstractTask {
 
     try {
 
-      // Check R availability, by trying to open the connection.
-      String[] reqPackages = this.baselineCorrectorProcStep.getModule().getRequiredRPackages();
-      String callerFeatureName = this.baselineCorrectorProcStep.getModule().getName();
-      this.rSession = new RSessionWrapper(rEngineType, callerFeatureName, reqPackages, null);
+      // Check R availability, by trying to open the connection. The Java
+      // implementations of the correctors do not need R at all.
+      if (useR) {
+        String[] reqPackages = this.baselineCorrectorProcStep.getModule().getRequiredRPackages();
+        String callerFeatureName = this.baselineCorrectorProcStep.getModule().getName();
+        this.rSession = new RSessionWrapper(rEngineType, callerFeatureName, reqPackages, null);
 
-      this.rSession.open();
+        this.rSession.open();
+      }
 
       this.baselineCorrectorProcStep.getModule().initProgress(origDataFile);
 
@@ -146,7 +151,7 @@ public class BaselineCorrectionTask extends AbstractTask {
         logger.info("Baseline corrected " + origDataFile.getName());
       }
       // Turn off R instance, once task ended gracefully.
-      if (!isCanceled())
+      if (!isCanceled() && this.rSession != null)
         this.rSession.close(false);
 
     } catch (IOException | RSessionWrapperException e) {
@@ -163,7 +168,7 @@ public class BaselineCorrectionTask extends AbstractTask {
 
     // Turn off R instance, once task ended UNgracefully.
     try {
-      if (!isCanceled())
+      if (!isCanceled() && this.rSession != null)
         this.rSession.close(isCanceled());
     } catch (RSessionWrapperException e) {
       if (!isCanceled()) {
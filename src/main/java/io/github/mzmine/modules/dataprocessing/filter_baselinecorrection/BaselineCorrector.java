@@ -19,8 +19,12 @@
 package io.github.mzmine.modules.dataprocessing.filter_baselinecorrection;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import javax.annotation.Nullable;
 
 import com.google.common.collect.Range;
 
@@ -33,6 +37,7 @@ import io.github.mzmine.datamodel.impl.SimpleScan;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.MZmineModule;
 import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.util.ParallelUtils;
 import io.github.mzmine.util.RangeUtils;
 import io.github.mzmine.util.R.REngineType;
 import io.github.mzmine.util.R.RSessionWrapper;
@@ -52,12 +57,13 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
   /**
    * String: dataFile being processed. int[]: 3 values array => { progress, progressMax, isAborted }
    */
-  HashMap<RawDataFile, int[]> progressMap;
+  Map<RawDataFile, int[]> progressMap;
 
   // Filename suffix.
   private String suffix;
 
   // General parameters (common to all baseline correction methods).
+  private boolean useR;
   private REngineType rEgineType;
   private ChromatogramType chromatogramType;
   private double binWidth;
@@ -70,7 +76,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
   public BaselineCorrector() {
 
     // Processing info storage
-    progressMap = new HashMap<RawDataFile, int[]>();
+    progressMap = new ConcurrentHashMap<RawDataFile, int[]>();
   }
 
   /**
@@ -91,6 +97,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
       generalParameters = BaselineCorrectionParameters.getBaselineCorrectionParameters();
     }
     // Get common parameters.
+    useR = generalParameters.getParameter(BaselineCorrectionParameters.USE_R).getValue();
     rEgineType =
         generalParameters.getParameter(BaselineCorrectionParameters.RENGINE_TYPE).getValue();
     suffix = generalParameters.getParameter(BaselineCorrectionParameters.SUFFIX).getValue();
@@ -101,11 +108,18 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     msLevel = generalParameters.getParameter(BaselineCorrectionParameters.MS_LEVEL).getValue();
   }
 
-  public final RawDataFile correctDatafile(final RSessionWrapper rSession,
+  /**
+   * Creates the baseline corrected copy of a data file.
+   * 
+   * @param rSession the R session computing the baselines, or null to use the Java implementation
+   *        of the method (see {@link #isUsingR()}).
+   * @return the corrected data file, or null if processing was aborted.
+   */
+  public final RawDataFile correctDatafile(@Nullable final RSessionWrapper rSession,
       final RawDataFile dataFile, final ParameterSet parameters,
       final ParameterSet commonParameters) throws IOException, RSessionWrapperException {
 
-    if (isAborted(dataFile) || !rSession.isSessionRunning())
+    if (isAborted(dataFile) || (rSession != null && !rSession.isSessionRunning()))
       return null;
     // Get very last information from root module setup
     // this.setGeneralParameters(MZmineCore.getConfiguration().getModuleParameters(BaselineCorrectionModule.class));
@@ -254,11 +268,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     // Calculate baselines: done in-place, i.e. overwrite chromatograms to
     // save memory.
     logger.finest("Calculating baselines.");
-    for (int binIndex = 0; !isAborted(origDataFile) && binIndex < numBins; binIndex++) {
-      baseChrom[binIndex] =
-          computeBaseline(rSession, origDataFile, baseChrom[binIndex], parameters);
-      progressMap.get(origDataFile)[0]++;
-    }
+    computeBaselines(rSession, origDataFile, baseChrom, numScans, parameters, false);
 
     // Subtract baselines.
     logger.finest("Subtracting baselines.");
@@ -306,22 +316,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     // Calculate baselines: done in-place, i.e. overwrite chromatograms to
     // save memory.
     logger.finest("Calculating baselines.");
-    for (int binIndex = 0; !isAborted(origDataFile) && binIndex < numBins; binIndex++) {
-
-      // Calculate baseline.
-      // final double[] baseline = asymBaseline(baseChrom[binIndex]);
-      final double[] baseline =
-          computeBaseline(rSession, origDataFile, baseChrom[binIndex], parameters);
-
-      // Normalize the baseline w.r.t. chromatogram (TIC).
-      for (int scanIndex = 0; !isAborted(origDataFile) && scanIndex < numScans; scanIndex++) {
-        final double bc = baseChrom[binIndex][scanIndex];
-        if (bc != 0.0) {
-          baseChrom[binIndex][scanIndex] = baseline[scanIndex] / bc;
-        }
-      }
-      progressMap.get(origDataFile)[0]++;
-    }
+    computeBaselines(rSession, origDataFile, baseChrom, numScans, parameters, true);
 
     // Subtract baselines.
     logger.finest("Subtracting baselines.");
@@ -343,6 +338,64 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
 
   }
 
+  /**
+   * Calculates the baseline of each m/z bin, in-place. With R, bins are sent to the session one
+   * after the other. The Java implementations keep no state, so bins are processed in parallel.
+   * 
+   * @param rSession R session, or null to use the Java implementation.
+   * @param origDataFile dataFile of concern.
+   * @param chromatograms the chromatograms, replaced by their baselines.
+   * @param numScans number of scans per chromatogram.
+   * @param parameters parameters specific to the actual method for baseline computing.
+   * @param normalize if true, store the baseline relative to the chromatogram (TIC).
+   * @throws RSessionWrapperException
+   */
+  private void computeBaselines(@Nullable final RSessionWrapper rSession,
+      final RawDataFile origDataFile, final double[][] chromatograms, final int numScans,
+      final ParameterSet parameters, final boolean normalize) throws RSessionWrapperException {
+
+    final int[] progress = progressMap.get(origDataFile);
+
+    if (rSession != null) {
+      for (int binIndex = 0; !isAborted(origDataFile)
+          && binIndex < chromatograms.length; binIndex++) {
+        final double[] baseline =
+            computeBaseline(rSession, origDataFile, chromatograms[binIndex], parameters);
+        storeBaseline(chromatograms, binIndex, baseline, numScans, normalize);
+        progress[0]++;
+      }
+      return;
+    }
+
+    // Use the number of threads set in the preferences instead of the common pool
+    ParallelUtils.run(() -> IntStream.range(0, chromatograms.length).parallel().forEach(i -> {
+      if (isAborted(origDataFile))
+        return;
+      final double[] baseline = computeBaseline(origDataFile, chromatograms[i], parameters);
+      storeBaseline(chromatograms, i, baseline, numScans, normalize);
+      synchronized (progress) {
+        progress[0]++;
+      }
+    }));
+  }
+
+  private static void storeBaseline(final double[][] chromatograms, final int binIndex,
+      final double[] baseline, final int numScans, final boolean normalize) {
+
+    if (!normalize) {
+      chromatograms[binIndex] = baseline;
+      return;
+    }
+
+    // Normalize the baseline w.r.t. chromatogram (TIC).
+    for (int scanIndex = 0; scanIndex < numScans; scanIndex++) {
+      final double bc = chromatograms[binIndex][scanIndex];
+      if (bc != 0.0) {
+        chromatograms[binIndex][scanIndex] = baseline[scanIndex] / bc;
+      }
+    }
+  }
+
   /**
    * Constructs base peak (max) chromatograms - one for each m/z bin.
    * 
@@ -550,6 +603,13 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     progressMap.remove(origDataFile);
   }
 
+  /**
+   * @return true if baselines are computed with R, false for the Java implementations.
+   */
+  public boolean isUsingR() {
+    return this.useR;
+  }
+
   public REngineType getRengineType() {
     return this.rEgineType;
   }
@@ -42,4 +42,11 @@ public interface BaselineProvider {
   public double[] computeBaseline(final RSessionWrapper rSession, final RawDataFile origDataFile,
       final double[] chromatogram, ParameterSet parameters) throws RSessionWrapperException;
 
+  /**
+   * Returns a baseline for correcting the given chromatogram, computed in Java without R. Bins are
+   * processed concurrently, so implementations must not keep any state between calls.
+   */
+  public double[] computeBaseline(final RawDataFile origDataFile, final double[] chromatogram,
+      ParameterSet parameters);
+
 }
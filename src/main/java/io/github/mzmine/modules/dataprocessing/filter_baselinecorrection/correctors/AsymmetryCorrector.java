@@ -18,6 +18,8 @@
 
 package io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors;
 
+import java.util.Arrays;
+
 import javax.annotation.Nonnull;
 
 import io.github.mzmine.datamodel.RawDataFile;
@@ -29,11 +31,16 @@ import io.github.mzmine.util.R.RSessionWrapperException;
 /**
  * @description Asymmetric baseline corrector. Estimates a trend based on asymmetric least squares.
  *              Uses "asysm" feature from "ptw" R-package
- *              (http://cran.r-project.org/web/packages/ptw/ptw.pdf).
+ *              (http://cran.r-project.org/web/packages/ptw/ptw.pdf). The Java implementation
+ *              follows the same scheme: a Whittaker smoother (second order differences) whose
+ *              weights are updated until the set of points above the trend line is stable.
  * 
  */
 public class AsymmetryCorrector extends BaselineCorrector {
 
+  // Same iteration limit as "asysm".
+  private static final int MAX_ITERATIONS = 25;
+
   @Override
   public String[] getRequiredRPackages() {
     return new String[] { /* "rJava", "Rserve", */"ptw"};
@@ -74,6 +81,105 @@ public class AsymmetryCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(final RawDataFile origDataFile, double[] chromatogram,
+      ParameterSet parameters) {
+
+    // Smoothing and asymmetry parameters.
+    final double smoothing =
+        parameters.getParameter(AsymmetryCorrectorParameters.SMOOTHING).getValue();
+    final double asymmetry =
+        parameters.getParameter(AsymmetryCorrectorParameters.ASYMMETRY).getValue();
+
+    return asymmetricBaseline(chromatogram, smoothing, asymmetry);
+  }
+
+  /**
+   * Asymmetric least squares: repeatedly solves (W + lambda * D'D) z = W y, with D the second
+   * difference operator, weighting points above the trend line by p and the others by 1 - p.
+   */
+  static double[] asymmetricBaseline(final double[] y, final double lambda, final double p) {
+
+    final int n = y.length;
+    if (n < 3)
+      return y.clone();
+
+    final double[] w = new double[n];
+    Arrays.fill(w, 1.0);
+
+    double[] z = null;
+    for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+      z = whittakerSmooth(y, w, lambda);
+      boolean changed = false;
+      for (int i = 0; i < n; i++) {
+        final double weight = (y[i] > z[i]) ? p : 1.0 - p;
+        changed |= (weight != w[i]);
+        w[i] = weight;
+      }
+      if (!changed)
+        break;
+    }
+    return z;
+  }
+
+  /**
+   * Solves the symmetric pentadiagonal system (W + lambda * D'D) z = W y by LDL' decomposition.
+   */
+  static double[] whittakerSmooth(final double[] y, final double[] w,
+      final double lambda) {
+
+    final int n = y.length;
+
+    final double[] d = new double[n], l1 = new double[n], l2 = new double[n];
+    final double[] z = new double[n];
+    for (int i = 0; i < n; i++) {
+
+      // Bands of D'D: difference rows k = 0..n-3 have coefficients (1, -2, 1) at k..k+2.
+      final double diag = (validRow(i - 2, n) ? 1.0 : 0.0) + (validRow(i - 1, n) ? 4.0 : 0.0)
+          + (validRow(i, n) ? 1.0 : 0.0);
+      final double off1 = (validRow(i - 1, n) ? -2.0 : 0.0) + (validRow(i, n) ? -2.0 : 0.0);
+
+      // Factorization.
+      double di = w[i] + lambda * diag;
+      if (i >= 1)
+        di -= l1[i - 1] * l1[i - 1] * d[i - 1];
+      if (i >= 2)
+        di -= l2[i - 2] * l2[i - 2] * d[i - 2];
+      d[i] = di;
+      if (i + 1 < n) {
+        double a = lambda * off1;
+        if (i >= 1)
+          a -= l2[i - 1] * l1[i - 1] * d[i - 1];
+        l1[i] = a / di;
+      }
+      if (i + 2 < n)
+        l2[i] = lambda / di;
+
+      // Forward substitution.
+      double u = w[i] * y[i];
+      if (i >= 1)
+        u -= l1[i - 1] * z[i - 1];
+      if (i >= 2)
+        u -= l2[i - 2] * z[i - 2];
+      z[i] = u;
+    }
+
+    // Back substitution.
+    for (int i = n - 1; i >= 0; i--) {
+      double v = z[i] / d[i];
+      if (i + 1 < n)
+        v -= l1[i] * z[i + 1];
+      if (i + 2 < n)
+        v -= l2[i] * z[i + 2];
+      z[i] = v;
+    }
+    return z;
+  }
+
+  private static boolean validRow(final int k, final int n) {
+    return k >= 0 && k <= n - 3;
+  }
+
   @Override
   public @Nonnull String getName() {
     return "Asymmetric baseline corrector";
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors;
+
+import java.util.Arrays;
+
+/**
+ * @description Window filters and interpolation shared by the Java implementations of the baseline
+ *              correctors. All windows are centered on the current scan and clipped at the
+ *              chromatogram ends. Methods are stateless and safe to call from several threads.
+ *
+ */
+final class BaselineFilters {
+
+  private BaselineFilters() {}
+
+  /**
+   * Moving minimum over [i - halfWidth, i + halfWidth], in linear time.
+   */
+  static double[] movingMin(final double[] y, final int halfWidth) {
+    return movingExtremum(y, halfWidth, true);
+  }
+
+  /**
+   * Moving maximum over [i - halfWidth, i + halfWidth], in linear time.
+   */
+  static double[] movingMax(final double[] y, final int halfWidth) {
+    return movingExtremum(y, halfWidth, false);
+  }
+
+  private static double[] movingExtremum(final double[] y, final int halfWidth,
+      final boolean min) {
+
+    final int n = y.length;
+    final double[] result = new double[n];
+    if (halfWidth <= 0) {
+      System.arraycopy(y, 0, result, 0, n);
+      return result;
+    }
+
+    // Monotonic deque of indices, the front holds the extremum of the window.
+    final int[] deque = new int[n];
+    int head = 0, tail = 0, next = 0;
+    for (int i = 0; i < n; i++) {
+      final int last = Math.min(n - 1, i + halfWidth);
+      for (; next <= last; next++) {
+        while (tail > head
+            && (min ? y[deque[tail - 1]] >= y[next] : y[deque[tail - 1]] <= y[next]))
+          tail--;
+        deque[tail++] = next;
+      }
+      while (deque[head] < i - halfWidth)
+        head++;
+      result[i] = y[deque[head]];
+    }
+    return result;
+  }
+
+  /**
+   * Moving average over [i - halfWidth, i + halfWidth].
+   */
+  static double[] movingMean(final double[] y, final int halfWidth) {
+
+    final int n = y.length;
+    final double[] cumulated = new double[n + 1];
+    for (int i = 0; i < n; i++)
+      cumulated[i + 1] = cumulated[i] + y[i];
+
+    final double[] result = new double[n];
+    for (int i = 0; i < n; i++) {
+      final int from = Math.max(0, i - halfWidth), to = Math.min(n - 1, i + halfWidth);
+      result[i] = (cumulated[to + 1] - cumulated[from]) / (to - from + 1);
+    }
+    return result;
+  }
+
+  /**
+   * Median of values[from..to] (inclusive). Reorders the given work array.
+   */
+  static double median(final double[] values, final int from, final int to, final double[] work) {
+    final int length = to - from + 1;
+    System.arraycopy(values, from, work, 0, length);
+    Arrays.sort(work, 0, length);
+    return (length % 2 == 1) ? work[length / 2]
+        : 0.5 * (work[length / 2 - 1] + work[length / 2]);
+  }
+
+  /**
+   * Linear interpolation of the support points (x[k], y[k]) at positions 0..n-1. The x values must
+   * be increasing. Ends are extended with the first and last support values (R's approx(...,
+   * rule=2)).
+   */
+  static double[] interpolate(final int[] x, final double[] y, final int count, final int n) {
+
+    final double[] result = new double[n];
+    if (count == 0)
+      return result;
+
+    int k = 0;
+    for (int i = 0; i < n; i++) {
+      if (i <= x[0]) {
+        result[i] = y[0];
+      } else if (i >= x[count - 1]) {
+        result[i] = y[count - 1];
+      } else {
+        while (x[k + 1] < i)
+          k++;
+        final double t = (double) (i - x[k]) / (x[k + 1] - x[k]);
+        result[i] = y[k] + t * (y[k + 1] - y[k]);
+      }
+    }
+    return result;
+  }
+
+}
@@ -18,6 +18,8 @@
 
 package io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors;
 
+import java.util.Arrays;
+
 import javax.annotation.Nonnull;
 
 import io.github.mzmine.datamodel.RawDataFile;
@@ -30,6 +32,9 @@ import io.github.mzmine.util.R.RSessionWrapperException;
  * @description Local Minima + LOESS (smoothed low-percentile intensity) baseline corrector. Uses
  *              "bslnoff" feature from "PROcess" R/Bioconductor package
  *              (http://bioconductor.org/packages/release/ bioc/manuals/PROcess/man/PROcess.pdf).
+ *              The Java implementation selects the same support points (breaks equally spaced on
+ *              the log scale of the scan index) and fits them by local linear regression with
+ *              tricube weights, or by linear interpolation.
  * 
  */
 public class LocMinLoessCorrector extends BaselineCorrector {
@@ -79,6 +84,141 @@ public class LocMinLoessCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(final RawDataFile origDataFile, double[] chromatogram,
+      ParameterSet parameters) {
+
+    // Local Minima parameters.
+    String method = parameters.getParameter(LocMinLoessCorrectorParameters.METHOD).getValue();
+    double bw = parameters.getParameter(LocMinLoessCorrectorParameters.BW).getValue();
+    int breaks = parameters.getParameter(LocMinLoessCorrectorParameters.BREAKS).getValue();
+    int breaks_width =
+        parameters.getParameter(LocMinLoessCorrectorParameters.BREAK_WIDTH).getValue();
+    double qntl = parameters.getParameter(LocMinLoessCorrectorParameters.QNTL).getValue();
+
+    final int n = chromatogram.length;
+    if (breaks_width > 0)
+      breaks = (int) Math.round((double) (n - 1) / (double) breaks_width);
+    breaks = Math.max(1, breaks);
+
+    // Support points: local minima (or low quantiles) per break.
+    final int[] x = new int[n];
+    final double[] y = new double[n];
+    final int count = selectSupportPoints(chromatogram, breaks, qntl, x, y);
+
+    if (method.equals("approx") || count < 2)
+      return BaselineFilters.interpolate(x, y, count, n);
+    return loess(x, y, count, n, Math.max(bw, BW_MIN_VAL));
+  }
+
+  /**
+   * Splits scan indices 1..n into "breaks" intervals equally spaced on the log scale and keeps, per
+   * interval, the lowest point (qntl = 0) or all points below the qntl quantile.
+   * 
+   * @return the number of support points stored in x and y (sorted by x).
+   */
+  private static int selectSupportPoints(final double[] chromatogram, final int breaks,
+      final double qntl, final int[] x, final double[] y) {
+
+    final int n = chromatogram.length;
+    final double logMax = Math.log(n);
+    final double[] work = new double[n];
+
+    int count = 0;
+    int from = 0;
+    for (int b = 1; b <= breaks && from < n; b++) {
+
+      // Interval (cut[b-1], cut[b]] on the 1-based scan index, the first one closed.
+      final double cut = (b == breaks) ? n : Math.exp(logMax * b / breaks);
+      int to = from;
+      while (to + 1 < n && to + 2 <= cut)
+        to++;
+      if (to + 1 > cut)
+        continue;
+
+      if (qntl == 0.0) {
+        int minIndex = from;
+        for (int i = from + 1; i <= to; i++) {
+          if (chromatogram[i] < chromatogram[minIndex])
+            minIndex = i;
+        }
+        x[count] = minIndex;
+        y[count++] = chromatogram[minIndex];
+      } else {
+        final double threshold = quantile(chromatogram, from, to, qntl, work);
+        for (int i = from; i <= to; i++) {
+          if (chromatogram[i] < threshold) {
+            x[count] = i;
+            y[count++] = chromatogram[i];
+          }
+        }
+      }
+      from = to + 1;
+    }
+    return count;
+  }
+
+  /**
+   * Quantile of values[from..to], interpolated as R's default (type 7).
+   */
+  private static double quantile(final double[] values, final int from, final int to,
+      final double probability, final double[] work) {
+    final int length = to - from + 1;
+    System.arraycopy(values, from, work, 0, length);
+    Arrays.sort(work, 0, length);
+    final double h = (length - 1) * probability;
+    final int lo = (int) Math.floor(h);
+    final int hi = Math.min(length - 1, lo + 1);
+    return work[lo] + (h - lo) * (work[hi] - work[lo]);
+  }
+
+  /**
+   * Local linear regression (degree 1, tricube weights) over the span * count nearest support
+   * points, evaluated at every scan index.
+   */
+  private static double[] loess(final int[] x, final double[] y, final int count, final int n,
+      final double span) {
+
+    final int q = Math.min(count, Math.max(2, (int) Math.floor(span * count)));
+    final double[] baseline = new double[n];
+
+    int left = 0;
+    for (int scan = 0; scan < n; scan++) {
+
+      // Outside the support points, hold the fit constant (no extrapolation).
+      final int i = Math.min(Math.max(scan, x[0]), x[count - 1]);
+
+      // Slide the window of the q nearest support points.
+      while (left + q < count && i - x[left] > x[left + q] - i)
+        left++;
+      final int right = left + q - 1;
+
+      final double maxDistance =
+          Math.max(Math.max(i - x[left], x[right] - i), 0.5) * (span > 1.0 ? span : 1.0);
+      // Keep the farthest point with a small weight, as with the loess boundary enlargement.
+      final double h = maxDistance * 1.001;
+
+      double sw = 0.0, swx = 0.0, swy = 0.0, swxx = 0.0, swxy = 0.0;
+      for (int k = left; k <= right; k++) {
+        final double u = Math.abs(x[k] - i) / h;
+        final double t = 1.0 - u * u * u;
+        final double w = t * t * t;
+        final double dx = x[k] - i;
+        sw += w;
+        swx += w * dx;
+        swy += w * y[k];
+        swxx += w * dx * dx;
+        swxy += w * dx * y[k];
+      }
+
+      // Value at dx = 0 of the weighted least squares line.
+      final double det = sw * swxx - swx * swx;
+      baseline[scan] = (Math.abs(det) > 1e-12 * sw * swxx) ? (swxx * swy - swx * swxy) / det
+          : swy / sw;
+    }
+    return baseline;
+  }
+
   @Override
   public @Nonnull String getName() {
     return "Local minima + LOESS baseline corrector";
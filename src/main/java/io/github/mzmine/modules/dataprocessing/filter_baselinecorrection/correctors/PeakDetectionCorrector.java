@@ -33,6 +33,10 @@ import io.github.mzmine.util.R.RSessionWrapperException;
  *              "peakDetection" feature from "baseline" R-package
  *              (http://cran.r-project.org/web/packages/baseline/baseline.pdf). (A translation from
  *              Kevin R. Coombes et al.'s MATLAB code for detecting peaks and removing baselines).
+ *              The Java implementation follows the same steps: window sizes grow linearly along
+ *              the chromatogram (from left to right, lwin to rwin), peaks above the signal to noise
+ *              ratio are cut out down to their flanking minima, and the remaining signal is
+ *              smoothed by local minima then local medians ("multiplier" times wider).
  * 
  */
 public class PeakDetectionCorrector extends BaselineCorrector {
@@ -90,6 +94,118 @@ public class PeakDetectionCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(final RawDataFile origDataFile, double[] chromatogram,
+      ParameterSet parameters) {
+
+    // Feature Detection parameters.
+    int left = parameters.getParameter(PeakDetectionCorrectorParameters.LEFT).getValue();
+    int right = parameters.getParameter(PeakDetectionCorrectorParameters.RIGHT).getValue();
+    int lwin = parameters.getParameter(PeakDetectionCorrectorParameters.LWIN).getValue();
+    int rwin = parameters.getParameter(PeakDetectionCorrectorParameters.RWIN).getValue();
+    double snminimum =
+        parameters.getParameter(PeakDetectionCorrectorParameters.SNMINIMUM).getValue();
+    double mono = parameters.getParameter(PeakDetectionCorrectorParameters.MONO).getValue();
+    double multiplier =
+        parameters.getParameter(PeakDetectionCorrectorParameters.MULTIPLIER).getValue();
+
+    final int n = chromatogram.length;
+    if (n < 3)
+      return chromatogram.clone();
+
+    final double noise = estimateNoise(chromatogram);
+
+    // Cut out the peaks (apex down to the flanking minima).
+    final boolean[] inPeak = new boolean[n];
+    for (int i = 1; i < n - 1; i++) {
+      final int halfWidth = halfWidth(left, right, i, n, 1.0);
+      if (chromatogram[i] <= chromatogram[i - 1]
+          || chromatogram[i] != windowMax(chromatogram, i, halfWidth))
+        continue;
+
+      final int reach = halfWidth(left, right, i, n, multiplier);
+      int from = i, to = i;
+      while (from > 0 && from > i - reach && chromatogram[from - 1] <= chromatogram[from])
+        from--;
+      while (to < n - 1 && to < i + reach && chromatogram[to + 1] <= chromatogram[to])
+        to++;
+
+      final double height = chromatogram[i] - Math.max(chromatogram[from], chromatogram[to]);
+      if (height > 0.0 && (noise == 0.0 || height / noise >= snminimum)) {
+        for (int k = from + 1; k < to; k++)
+          inPeak[k] = true;
+      }
+    }
+
+    // Peak free signal.
+    final int[] x = new int[n];
+    final double[] y = new double[n];
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      if (!inPeak[i]) {
+        x[count] = i;
+        y[count++] = chromatogram[i];
+      }
+    }
+    final double[] signal = BaselineFilters.interpolate(x, y, count, n);
+
+    // Local minima, then local medians.
+    final double[] minima = new double[n];
+    for (int i = 0; i < n; i++)
+      minima[i] = windowMin(signal, i, halfWidth(lwin, rwin, i, n, 1.0));
+
+    final double[] baseline = new double[n];
+    final double[] work = new double[n];
+    for (int i = 0; i < n; i++) {
+      final int halfWidth = halfWidth(lwin, rwin, i, n, multiplier);
+      baseline[i] = BaselineFilters.median(minima, Math.max(0, i - halfWidth),
+          Math.min(n - 1, i + halfWidth), work);
+    }
+
+    // Monotonically decreasing baseline.
+    if (mono > 0.0) {
+      for (int i = 1; i < n; i++)
+        baseline[i] = Math.min(baseline[i], baseline[i - 1]);
+    }
+
+    return baseline;
+  }
+
+  /**
+   * Half of the window size at scan i, growing linearly from the first to the last scan.
+   */
+  private static int halfWidth(final int first, final int last, final int i, final int n,
+      final double multiplier) {
+    final double size = first + (double) (last - first) * i / (n - 1);
+    return Math.max(1, (int) Math.round(multiplier * size / 2.0));
+  }
+
+  /**
+   * Noise level, from the median absolute difference between consecutive scans.
+   */
+  private static double estimateNoise(final double[] chromatogram) {
+    final int n = chromatogram.length;
+    final double[] differences = new double[n - 1];
+    for (int i = 0; i < n - 1; i++)
+      differences[i] = Math.abs(chromatogram[i + 1] - chromatogram[i]);
+    return 1.4826 * BaselineFilters.median(differences, 0, n - 2, new double[n - 1])
+        / Math.sqrt(2.0);
+  }
+
+  private static double windowMax(final double[] y, final int i, final int halfWidth) {
+    double max = y[i];
+    for (int k = Math.max(0, i - halfWidth); k <= Math.min(y.length - 1, i + halfWidth); k++)
+      max = Math.max(max, y[k]);
+    return max;
+  }
+
+  private static double windowMin(final double[] y, final int i, final int halfWidth) {
+    double min = y[i];
+    for (int k = Math.max(0, i - halfWidth); k <= Math.min(y.length - 1, i + halfWidth); k++)
+      min = Math.min(min, y[k]);
+    return min;
+  }
+
   @Override
   public @Nonnull String getName() {
     return "PeakDetection baseline corrector";
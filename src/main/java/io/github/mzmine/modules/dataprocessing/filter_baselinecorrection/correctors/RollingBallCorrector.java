@@ -31,7 +31,8 @@ import io.github.mzmine.util.R.RSessionWrapperException;
  *              Uses "rollingBall" feature from "baseline" R-package
  *              (http://cran.r-project.org/web/packages/baseline/baseline.pdf). (Ideas from Rolling
  *              Ball algorithm for X-ray spectra by M.A.Kneen and H.J. Annegarn. Variable window
- *              width has been left out).
+ *              width has been left out). The Java implementation uses the same local windows,
+ *              clipped at the chromatogram ends.
  * 
  */
 public class RollingBallCorrector extends BaselineCorrector {
@@ -82,6 +83,27 @@ public class RollingBallCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(final RawDataFile origDataFile, double[] chromatogram,
+      ParameterSet parameters) {
+
+    // Rolling Ball parameters.
+    int wm = parameters.getParameter(RollingBallCorrectorParameters.MIN_MAX_WIDTH).getValue();
+    int ws = parameters.getParameter(RollingBallCorrectorParameters.SMOOTHING).getValue();
+
+    return rollingBall(chromatogram, wm, ws);
+  }
+
+  /**
+   * Local minima, then local maxima of those minima (both over 2*wm+1 scans), smoothed by a moving
+   * average over 2*ws+1 scans.
+   */
+  static double[] rollingBall(final double[] chromatogram, final int wm, final int ws) {
+    final double[] minimized = BaselineFilters.movingMin(chromatogram, wm);
+    final double[] maximized = BaselineFilters.movingMax(minimized, wm);
+    return BaselineFilters.movingMean(maximized, ws);
+  }
+
   @Override
   public @Nonnull String getName() {
     return "RollingBall baseline corrector";
@@ -31,6 +31,10 @@ import io.github.mzmine.util.R.RSessionWrapperException;
  *              (which determines a convex envelope for the spectra - underneath side). Uses
  *              "spc.rubberband" feature from "hyperSpec" R-package
  *              (http://cran.r-project.org/web/packages /hyperSpec/vignettes/baseline.pdf).
+ *              The Java implementation takes the vertices of the lower convex hull (plus the points
+ *              lying within the noise level above it) as support points, and joins them by a
+ *              smoothing spline with "df" degrees of freedom (as smooth.spline, generalized cross
+ *              validation if "df" is not in ]1, number of support points]) or straight lines.
  * 
  */
 public class RubberBandCorrector extends BaselineCorrector {
@@ -80,6 +84,83 @@ public class RubberBandCorrector extends BaselineCorrector {
     return baseline;
   }
 
+  @Override
+  public double[] computeBaseline(final RawDataFile origDataFile, double[] chromatogram,
+      ParameterSet parameters) {
+
+    // Rubber Band parameters.
+    double noise = parameters.getParameter(RubberBandCorrectorParameters.NOISE).getValue();
+    boolean autoNoise =
+        parameters.getParameter(RubberBandCorrectorParameters.AUTO_NOISE).getValue();
+    double df = parameters.getParameter(RubberBandCorrectorParameters.DF).getValue();
+    boolean spline = parameters.getParameter(RubberBandCorrectorParameters.SPLINE).getValue();
+    double bend = parameters.getParameter(RubberBandCorrectorParameters.BEND_FACTOR).getValue();
+
+    final int n = chromatogram.length;
+    if (n == 0)
+      return new double[0];
+
+    if (autoNoise) {
+      noise = chromatogram[0];
+      for (double intensity : chromatogram)
+        noise = Math.min(noise, intensity);
+    }
+
+    // Bend: bend * x^2, with x normalized to [0, 1].
+    final double[] bent = new double[n];
+    final double[] bending = new double[n];
+    for (int i = 0; i < n; i++) {
+      final double x = (n > 1) ? (double) i / (n - 1) : 0.0;
+      bending[i] = bend * x * x;
+      bent[i] = chromatogram[i] + bending[i];
+    }
+
+    // Lower convex hull (monotone chain), from first to last scan.
+    final int[] hull = new int[n];
+    int hullSize = 0;
+    for (int i = 0; i < n; i++) {
+      while (hullSize >= 2 && cross(hull[hullSize - 2], hull[hullSize - 1], i, bent) <= 0.0)
+        hullSize--;
+      hull[hullSize++] = i;
+    }
+
+    // Support points: hull vertices, and points within the noise level above the hull.
+    final double[] envelope = BaselineFilters.interpolate(hull, values(hull, hullSize, bent),
+        hullSize, n);
+    final int[] x = new int[n];
+    final double[] y = new double[n];
+    int count = 0;
+    for (int i = 0, h = 0; i < n; i++) {
+      final boolean vertex = (h < hullSize && hull[h] == i);
+      if (vertex)
+        h++;
+      if (vertex || (noise > 0.0 && bent[i] - envelope[i] <= noise)) {
+        x[count] = i;
+        y[count++] = bent[i];
+      }
+    }
+
+    final double[] baseline = spline ? SmoothingSpline.fit(x, y, count, n, df)
+        : BaselineFilters.interpolate(x, y, count, n);
+    for (int i = 0; i < n; i++)
+      baseline[i] -= bending[i];
+    return baseline;
+  }
+
+  /**
+   * Cross product of (a -> b) and (a -> c): positive if c lies to the left of a -> b.
+   */
+  private static double cross(final int a, final int b, final int c, final double[] y) {
+    return (double) (b - a) * (y[c] - y[a]) - (y[b] - y[a]) * (double) (c - a);
+  }
+
+  private static double[] values(final int[] indices, final int count, final double[] y) {
+    final double[] values = new double[count];
+    for (int k = 0; k < count; k++)
+      values[k] = y[indices[k]];
+    return values;
+  }
+
   @Override
   public @Nonnull String getName() {
     return "RubberBand baseline corrector";
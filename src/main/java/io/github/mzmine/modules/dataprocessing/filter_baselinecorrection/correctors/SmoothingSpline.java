@@ -0,0 +1,269 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors;
+
+/**
+ * @description Cubic smoothing spline with a knot at each support point (Reinsch algorithm, see
+ *              Green & Silverman, "Nonparametric Regression and Generalized Linear Models"). Like
+ *              R's smooth.spline, the smoothing parameter is chosen so that the spline has the
+ *              requested equivalent degrees of freedom (trace of the smoother matrix) if
+ *              1 < df <= number of support points, and by generalized cross validation otherwise.
+ *              Unlike smooth.spline, no knots are dropped for more than 49 support points.
+ *
+ */
+final class SmoothingSpline {
+
+  private static final int SEARCH_ITERATIONS = 100;
+  private static final double MAX_LOG_ALPHA = 40.0;
+
+  // Support points, x scaled to [0, 1] as in smooth.spline.
+  private final int m, p;
+  private final double[] u, y, h;
+
+  // Bands of R (tridiagonal), Q'Q (pentadiagonal) and Q'y.
+  private final double[] r0, r1, qtq0, qtq1, qtq2, qty;
+
+  // LDL' factorization of R + alpha * Q'Q, second derivatives and fitted values.
+  private final double[] d, l1, l2, gamma, fitted;
+
+  private SmoothingSpline(final int[] x, final double[] values, final int count) {
+
+    m = count;
+    p = count - 2;
+    u = new double[m];
+    y = new double[m];
+    h = new double[m - 1];
+    final double range = x[m - 1] - x[0];
+    for (int k = 0; k < m; k++) {
+      u[k] = (x[k] - x[0]) / range;
+      y[k] = values[k];
+    }
+    for (int k = 0; k < m - 1; k++)
+      h[k] = u[k + 1] - u[k];
+
+    // Column j of Q (interior knot j + 1) has a, b, c in rows j, j + 1, j + 2.
+    final double[] a = new double[p], b = new double[p], c = new double[p];
+    for (int j = 0; j < p; j++) {
+      a[j] = 1.0 / h[j];
+      c[j] = 1.0 / h[j + 1];
+      b[j] = -a[j] - c[j];
+    }
+
+    r0 = new double[p];
+    r1 = new double[p];
+    qtq0 = new double[p];
+    qtq1 = new double[p];
+    qtq2 = new double[p];
+    qty = new double[p];
+    for (int j = 0; j < p; j++) {
+      r0[j] = (h[j] + h[j + 1]) / 3.0;
+      r1[j] = (j + 1 < p) ? h[j + 1] / 6.0 : 0.0;
+      qtq0[j] = a[j] * a[j] + b[j] * b[j] + c[j] * c[j];
+      qtq1[j] = (j + 1 < p) ? b[j] * a[j + 1] + c[j] * b[j + 1] : 0.0;
+      qtq2[j] = (j + 2 < p) ? c[j] * a[j + 2] : 0.0;
+      qty[j] = a[j] * y[j] + b[j] * y[j + 1] + c[j] * y[j + 2];
+    }
+
+    d = new double[p];
+    l1 = new double[p];
+    l2 = new double[p];
+    gamma = new double[p];
+    fitted = new double[m];
+  }
+
+  /**
+   * Fits the smoothing spline through the support points (x[k], y[k]), x increasing, and evaluates
+   * it at positions 0..n-1. Outside the support range the baseline is held constant.
+   */
+  static double[] fit(final int[] x, final double[] y, final int count, final int n,
+      final double df) {
+
+    if (count < 3)
+      return BaselineFilters.interpolate(x, y, count, n);
+
+    final SmoothingSpline spline = new SmoothingSpline(x, y, count);
+
+    // Range of log10(alpha), from (almost) interpolation to (almost) a straight line.
+    double low = 0.0, high = 0.0;
+    while (low > -MAX_LOG_ALPHA && spline.solve(Math.pow(10.0, low)) < count - 1E-6)
+      low -= 1.0;
+    while (high < MAX_LOG_ALPHA && spline.solve(Math.pow(10.0, high)) > 2.0 + 1E-6)
+      high += 1.0;
+
+    final double logAlpha = (df > 1.0 && df <= count) ? spline.matchDegreesOfFreedom(df, low, high)
+        : spline.minimizeGcv(low, high);
+    spline.solve(Math.pow(10.0, logAlpha));
+    return spline.evaluate(x[0], x[count - 1], n);
+  }
+
+  /**
+   * Bisection on log10(alpha): the degrees of freedom decrease with alpha.
+   */
+  private double matchDegreesOfFreedom(final double df, double low, double high) {
+    for (int iteration = 0; iteration < SEARCH_ITERATIONS; iteration++) {
+      final double middle = 0.5 * (low + high);
+      if (solve(Math.pow(10.0, middle)) > df)
+        low = middle;
+      else
+        high = middle;
+    }
+    return 0.5 * (low + high);
+  }
+
+  /**
+   * Minimum of the GCV score on a grid (ten points per decade of alpha), refined by golden section
+   * search between the neighbours of the best grid point.
+   */
+  private double minimizeGcv(final double low, final double high) {
+
+    final int steps = (int) Math.round(10.0 * (high - low));
+    double best = low, bestScore = Double.MAX_VALUE;
+    for (int s = 0; s <= steps; s++) {
+      final double logAlpha = low + 0.1 * s;
+      final double score = gcv(logAlpha);
+      if (score < bestScore) {
+        bestScore = score;
+        best = logAlpha;
+      }
+    }
+
+    final double ratio = (Math.sqrt(5.0) - 1.0) / 2.0;
+    double a = Math.max(low, best - 0.1), b = Math.min(high, best + 0.1);
+    double c = b - ratio * (b - a), e = a + ratio * (b - a);
+    double scoreC = gcv(c), scoreE = gcv(e);
+    for (int iteration = 0; iteration < SEARCH_ITERATIONS / 2; iteration++) {
+      if (scoreC < scoreE) {
+        b = e;
+        e = c;
+        scoreE = scoreC;
+        c = b - ratio * (b - a);
+        scoreC = gcv(c);
+      } else {
+        a = c;
+        c = e;
+        scoreC = scoreE;
+        e = a + ratio * (b - a);
+        scoreE = gcv(e);
+      }
+    }
+    final double refined = 0.5 * (a + b);
+    return (gcv(refined) <= bestScore) ? refined : best;
+  }
+
+  /**
+   * Generalized cross validation score: m * RSS / (m - df)^2.
+   */
+  private double gcv(final double logAlpha) {
+    final double df = solve(Math.pow(10.0, logAlpha));
+    double rss = 0.0;
+    for (int k = 0; k < m; k++)
+      rss += (y[k] - fitted[k]) * (y[k] - fitted[k]);
+    return m * rss / ((m - df) * (m - df));
+  }
+
+  /**
+   * Solves (R + alpha * Q'Q) gamma = Q'y and sets the fitted values y - alpha * Q gamma.
+   *
+   * @return the equivalent degrees of freedom, m - alpha * trace((R + alpha * Q'Q)^-1 * Q'Q).
+   */
+  private double solve(final double alpha) {
+
+    // Factorization and forward substitution.
+    for (int i = 0; i < p; i++) {
+      double di = r0[i] + alpha * qtq0[i];
+      if (i >= 1)
+        di -= l1[i - 1] * l1[i - 1] * d[i - 1];
+      if (i >= 2)
+        di -= l2[i - 2] * l2[i - 2] * d[i - 2];
+      d[i] = di;
+      double a = r1[i] + alpha * qtq1[i];
+      if (i >= 1)
+        a -= l2[i - 1] * l1[i - 1] * d[i - 1];
+      l1[i] = a / di;
+      l2[i] = alpha * qtq2[i] / di;
+
+      double v = qty[i];
+      if (i >= 1)
+        v -= l1[i - 1] * gamma[i - 1];
+      if (i >= 2)
+        v -= l2[i - 2] * gamma[i - 2];
+      gamma[i] = v;
+    }
+
+    // Back substitution.
+    for (int i = p - 1; i >= 0; i--) {
+      double v = gamma[i] / d[i];
+      if (i + 1 < p)
+        v -= l1[i] * gamma[i + 1];
+      if (i + 2 < p)
+        v -= l2[i] * gamma[i + 2];
+      gamma[i] = v;
+    }
+
+    for (int k = 0; k < m; k++)
+      fitted[k] = y[k];
+    for (int j = 0; j < p; j++) {
+      fitted[j] -= alpha * gamma[j] / h[j];
+      fitted[j + 1] -= alpha * gamma[j] * (-1.0 / h[j] - 1.0 / h[j + 1]);
+      fitted[j + 2] -= alpha * gamma[j] / h[j + 1];
+    }
+
+    // Central bands of the inverse (Hutchinson & de Hoog), from the last row up.
+    double trace = 0.0;
+    double s00 = 0.0, s01 = 0.0, s11 = 0.0; // rows i + 1 and i + 2: (i+1,i+1), (i+1,i+2), (i+2,i+2)
+    for (int i = p - 1; i >= 0; i--) {
+      final double c1 = (i + 1 < p) ? l1[i] : 0.0, c2 = (i + 2 < p) ? l2[i] : 0.0;
+      final double sIi2 = -c1 * s01 - c2 * s11;
+      final double sIi1 = -c1 * s00 - c2 * s01;
+      final double sIi = 1.0 / d[i] - c1 * sIi1 - c2 * sIi2;
+      trace += sIi * qtq0[i] + 2.0 * sIi1 * qtq1[i] + 2.0 * sIi2 * qtq2[i];
+      s11 = s00;
+      s01 = sIi1;
+      s00 = sIi;
+    }
+    return m - alpha * trace;
+  }
+
+  /**
+   * Evaluates the natural cubic spline with the fitted values and second derivatives at the knots.
+   */
+  private double[] evaluate(final int first, final int last, final int n) {
+
+    final double range = last - first;
+    final double[] result = new double[n];
+    int k = 0;
+    for (int i = 0; i < n; i++) {
+      if (i <= first) {
+        result[i] = fitted[0];
+      } else if (i >= last) {
+        result[i] = fitted[m - 1];
+      } else {
+        final double t = (i - first) / range;
+        while (u[k + 1] < t)
+          k++;
+        final double left = t - u[k], right = u[k + 1] - t;
+        final double g0 = (k >= 1) ? gamma[k - 1] : 0.0, g1 = (k + 1 <= p) ? gamma[k] : 0.0;
+        result[i] = (left * fitted[k + 1] + right * fitted[k]) / h[k] - left * right / 6.0
+            * ((1.0 + left / h[k]) * g1 + (1.0 + right / h[k]) * g0);
+      }
+    }
+    return result;
+  }
+
+}
@@ -63,6 +63,27 @@ public class Gap {
 
   public void offerNextScan(Scan scan) {
 
+    // read the data points only if this scan is used
+    double scanRT = scan.getRetentionTime();
+    if ((scanRT < rtRange.lowerEndpoint()) || isFinished(scanRT))
+      return;
+
+    offerNextScan(scan, scan.getMzValues(null), scan.getIntensityValues(null),
+        scan.getNumberOfDataPoints());
+  }
+
+  /**
+   * Same as {@link #offerNextScan(Scan)} with the data points of the scan already read, so that
+   * several gaps can share them
+   * 
+   * @param scan
+   * @param mzValues m/z values of the scan, sorted in m/z order
+   * @param intensityValues intensity values of the scan
+   * @param numOfDataPoints number of data points in the arrays
+   */
+  void offerNextScan(Scan scan, double mzValues[], double intensityValues[],
+      int numOfDataPoints) {
+
     double scanRT = scan.getRetentionTime();
 
     // If not yet inside the RT range
@@ -74,12 +95,13 @@ public class Gap {
       return;
 
     // Find top m/z peak in our range
-    DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
+    int basePeak =
+        ScanUtils.findBasePeakIndex(mzValues, intensityValues, numOfDataPoints, mzRange);
 
     GapDataPoint currentDataPoint;
-    if (basePeak != null) {
-      currentDataPoint =
-          new GapDataPoint(scan.getScanNumber(), basePeak.getMZ(), scanRT, basePeak.getIntensity());
+    if (basePeak >= 0) {
+      currentDataPoint = new GapDataPoint(scan.getScanNumber(), mzValues[basePeak], scanRT,
+          intensityValues[basePeak]);
     } else {
       currentDataPoint =
           new GapDataPoint(scan.getScanNumber(), RangeUtils.rangeCenter(mzRange), scanRT, 0);
@@ -110,6 +132,17 @@ public class Gap {
 
   }
 
+  /**
+   * @return true if no scan at this or a later retention time will be used by this gap
+   */
+  boolean isFinished(double scanRT) {
+    return (scanRT > rtRange.upperEndpoint()) && (currentPeakDataPoints == null);
+  }
+
+  Range<Double> getRTRange() {
+    return rtRange;
+  }
+
   /**
    * Finalizes the gap, adds a peak
    * 
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.gapfill_peakfinder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import com.google.common.collect.Range;
+
+import io.github.mzmine.datamodel.Feature;
+import io.github.mzmine.datamodel.PeakList;
+import io.github.mzmine.datamodel.PeakListRow;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+
+/**
+ * Hands out the gap filling work of a feature list in units of one raw data file and one range of
+ * rows. Any number of threads take units until all are processed, so the same scheduler serves a
+ * single thread, the parallel gap filler and the sub tasks of the multithreaded gap filler.
+ * 
+ * When there are fewer raw data files than threads, the rows of each file are split into as many
+ * ranges as needed to keep all threads busy. Each range reads all scans of its file, so the rows
+ * are not split further than that.
+ */
+public class GapFillingScheduler {
+
+  // Rows of a feature list are not split into ranges smaller than this
+  private static final int MIN_ROWS_PER_RANGE = 500;
+
+  private final PeakList peakList, processedPeakList;
+  private final MZTolerance mzTolerance;
+  private final RTTolerance rtTolerance;
+  private final double intTolerance;
+
+  private final int rowRangesPerFile, rowsPerRange, numOfUnits;
+
+  // index of the next unit to process, shared by all threads
+  private final AtomicInteger nextUnit = new AtomicInteger();
+
+  private final AtomicInteger processedScans = new AtomicInteger();
+  private final int totalScans;
+
+  /**
+   * @param peakList feature list with gaps
+   * @param processedPeakList feature list with the same rows, without features, which receives the
+   *        features of peakList and the filled gaps
+   * @param numOfThreads number of threads which will process the units
+   */
+  public GapFillingScheduler(PeakList peakList, PeakList processedPeakList,
+      MZTolerance mzTolerance, RTTolerance rtTolerance, double intTolerance, int numOfThreads) {
+    this.peakList = peakList;
+    this.processedPeakList = processedPeakList;
+    this.mzTolerance = mzTolerance;
+    this.rtTolerance = rtTolerance;
+    this.intTolerance = intTolerance;
+
+    final int numOfFiles = peakList.getNumberOfRawDataFiles();
+    final int numOfRows = peakList.getNumberOfRows();
+    final int wantedRanges = (numOfFiles == 0) ? 1 : (numOfThreads + numOfFiles - 1) / numOfFiles;
+    rowRangesPerFile = Math.max(1, Math.min(wantedRanges, numOfRows / MIN_ROWS_PER_RANGE));
+    rowsPerRange = (numOfRows + rowRangesPerFile - 1) / rowRangesPerFile;
+    numOfUnits = numOfFiles * rowRangesPerFile;
+
+    int scans = 0;
+    for (RawDataFile dataFile : peakList.getRawDataFiles())
+      scans += dataFile.getNumOfScans(1);
+    totalScans = scans * rowRangesPerFile;
+  }
+
+  /**
+   * @return number of units of one raw data file and one range of rows
+   */
+  public int getNumberOfUnits() {
+    return numOfUnits;
+  }
+
+  public double getFinishedPercentage() {
+    if (totalScans == 0)
+      return 0;
+    return (double) processedScans.get() / (double) totalScans;
+  }
+
+  /**
+   * Processes units until all are taken by this or other threads
+   * 
+   * @param canceled stops processing when it returns true
+   * @return number of units processed by this call
+   */
+  public int processUnits(BooleanSupplier canceled) {
+    int processedUnits = 0;
+    int unit;
+    while ((unit = nextUnit.getAndIncrement()) < numOfUnits) {
+      if (canceled.getAsBoolean())
+        return processedUnits;
+      processUnit(unit / rowRangesPerFile, unit % rowRangesPerFile, canceled);
+      processedUnits++;
+    }
+    return processedUnits;
+  }
+
+  private void processUnit(int fileIndex, int rowRange, BooleanSupplier canceled) {
+    final RawDataFile dataFile = peakList.getRawDataFile(fileIndex);
+    final int fromRow = rowRange * rowsPerRange;
+    final int toRow = Math.min(fromRow + rowsPerRange, peakList.getNumberOfRows());
+
+    // Copy the features of this raw data file and create gaps for the missing ones
+    final List<Gap> gaps = new ArrayList<Gap>();
+    for (int row = fromRow; row < toRow; row++) {
+      PeakListRow sourceRow = peakList.getRow(row);
+      PeakListRow newRow = processedPeakList.getRow(row);
+
+      Feature sourcePeak = sourceRow.getPeak(dataFile);
+
+      if (sourcePeak == null) {
+        Range<Double> mzRange = mzTolerance.getToleranceRange(sourceRow.getAverageMZ());
+        Range<Double> rtRange = rtTolerance.getToleranceRange(sourceRow.getAverageRT());
+        gaps.add(new Gap(newRow, dataFile, mzRange, rtRange, intTolerance));
+      } else {
+        newRow.addPeak(dataFile, sourcePeak);
+      }
+    }
+
+    // Stop processing this unit if there are no gaps
+    if (gaps.isEmpty()) {
+      processedScans.addAndGet(dataFile.getNumOfScans(1));
+      return;
+    }
+
+    // Feed all scans of this data file to the gaps in their RT range
+    final GapIndex gapIndex = new GapIndex(gaps);
+    for (int scanNumber : dataFile.getScanNumbers(1)) {
+      if (canceled.getAsBoolean())
+        return;
+      Scan scan = dataFile.getScan(scanNumber);
+      gapIndex.offerNextScan(scan);
+      processedScans.incrementAndGet();
+    }
+
+    // Finalize gaps
+    gapIndex.noMoreOffers();
+  }
+
+}
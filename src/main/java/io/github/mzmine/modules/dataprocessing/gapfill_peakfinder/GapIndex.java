@@ -0,0 +1,106 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ * 
+ * This file is part of MZmine.
+ * 
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.gapfill_peakfinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import io.github.mzmine.datamodel.Scan;
+
+/**
+ * The gaps of one raw data file, sorted by the start of their RT range. Scans must be offered in
+ * ascending retention time. Only the gaps whose RT range has been reached and which still need data
+ * are visited, and the data points of each scan are read only once for all of them.
+ * 
+ * The index is ordered by RT rather than by m/z interval: scans arrive in RT order, so this ordering
+ * is what limits each scan to the few gaps eluting at that time. Within a scan, each active gap
+ * finds the start of its m/z range by a lower bound binary search in the m/z-sorted data points
+ * (see {@link io.github.mzmine.util.scans.ScanUtils#findBasePeakIndex}) and only visits the data
+ * points inside that range.
+ */
+public class GapIndex {
+
+  // sorted by RT range start
+  private final Gap gaps[];
+  private int nextGap = 0;
+  // gaps that still need scans
+  private final List<Gap> active = new ArrayList<>();
+
+  // data points of the current scan
+  private double mzValues[] = new double[0];
+  private double intensityValues[] = new double[0];
+
+  public GapIndex(List<Gap> gaps) {
+    this.gaps = gaps.toArray(new Gap[gaps.size()]);
+    Arrays.sort(this.gaps,
+        Comparator.comparingDouble(gap -> gap.getRTRange().lowerEndpoint()));
+  }
+
+  public boolean isEmpty() {
+    return gaps.length == 0;
+  }
+
+  /**
+   * Feeds the next scan to all gaps that need it
+   * 
+   * @param scan
+   */
+  public void offerNextScan(Scan scan) {
+    final double scanRT = scan.getRetentionTime();
+
+    // gaps whose RT range has started
+    while (nextGap < gaps.length && gaps[nextGap].getRTRange().lowerEndpoint() <= scanRT) {
+      active.add(gaps[nextGap]);
+      nextGap++;
+    }
+
+    // remove finished gaps
+    int n = 0;
+    for (int i = 0; i < active.size(); i++) {
+      Gap gap = active.get(i);
+      if (!gap.isFinished(scanRT))
+        active.set(n++, gap);
+    }
+    active.subList(n, active.size()).clear();
+
+    if (active.isEmpty())
+      return;
+
+    // read the data points once
+    final int numOfDataPoints = scan.getNumberOfDataPoints();
+    mzValues = scan.getMzValues(mzValues);
+    intensityValues = scan.getIntensityValues(intensityValues);
+
+    for (Gap gap : active) {
+      gap.offerNextScan(scan, mzValues, intensityValues, numOfDataPoints);
+    }
+  }
+
+  /**
+   * Finalizes all gaps
+   */
+  public void noMoreOffers() {
+    for (Gap gap : gaps) {
+      gap.noMoreOffers();
+    }
+  }
+
+}
@@ -18,8 +18,6 @@
 
 package io.github.mzmine.modules.dataprocessing.gapfill_peakfinder;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
@@ -42,6 +40,7 @@ import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.ParallelUtils;
 
 class PeakFinderTask extends AbstractTask {
 
@@ -60,6 +59,8 @@ class PeakFinderTask extends AbstractTask {
   private boolean MASTERLIST = true, removeOriginal;
   private int masterSample = 0;
   private boolean useParallelStream = false;
+  // processes the gaps unless the RT is corrected
+  private volatile GapFillingScheduler scheduler;
 
   PeakFinderTask(MZmineProject project, PeakList peakList, ParameterSet parameters) {
 
@@ -117,87 +118,18 @@ class PeakFinderTask extends AbstractTask {
 
     } else {
 
-      // Process all raw data files
-      IntStream rawStream = IntStream.range(0, peakList.getNumberOfRawDataFiles());
-      if (useParallelStream)
-        rawStream = rawStream.parallel();
-
-      rawStream.forEach(i -> {
-        // Canceled?
-        if (isCanceled()) {
-          // inside stream - only skips this element
-          return;
-        }
-        RawDataFile dataFile = peakList.getRawDataFile(i);
-
-        List<Gap> gaps = new ArrayList<Gap>();
-
-        // Fill each row of this raw data file column, create new empty
-        // gaps
-        // if necessary
-        for (int row = 0; row < peakList.getNumberOfRows(); row++) {
-          // Canceled?
-          if (isCanceled()) {
-            // inside stream - only skips this element
-            return;
-          }
-
-          PeakListRow sourceRow = peakList.getRow(row);
-          PeakListRow newRow = processedPeakList.getRow(row);
-
-          Feature sourcePeak = sourceRow.getPeak(dataFile);
-
-          if (sourcePeak == null) {
-
-            // Create a new gap
-
-            Range<Double> mzRange = mzTolerance.getToleranceRange(sourceRow.getAverageMZ());
-            Range<Double> rtRange = rtTolerance.getToleranceRange(sourceRow.getAverageRT());
-
-            Gap newGap = new Gap(newRow, dataFile, mzRange, rtRange, intTolerance);
-
-            gaps.add(newGap);
-
-          } else {
-            newRow.addPeak(dataFile, sourcePeak);
-          }
-        }
-
-        // Stop processing this file if there are no gaps
-        if (gaps.size() == 0) {
-          processedScans.addAndGet(dataFile.getNumOfScans());
-          return;
-        }
-
-        // Get all scans of this data file
-        int scanNumbers[] = dataFile.getScanNumbers(1);
-
-        // Process each scan
-        for (int scanNumber : scanNumbers) {
-          // Canceled?
-          if (isCanceled()) {
-            // inside stream - only skips this element
-            return;
-          }
-
-          // Get the scan
-          Scan scan = dataFile.getScan(scanNumber);
-
-          // Feed this scan to all gaps
-          for (Gap gap : gaps) {
-            gap.offerNextScan(scan);
-          }
-
-          processedScans.incrementAndGet();
-        }
-
-        // Finalize gaps
-        for (Gap gap : gaps) {
-          gap.noMoreOffers();
-        }
-      });
+      // Process all raw data files, on the threads set in the preferences if requested. The
+      // scheduler splits the rows of each file into ranges when there are fewer files than threads
+      final int numOfThreads = useParallelStream ? ParallelUtils.getNumOfThreads() : 1;
+      final GapFillingScheduler scheduler = new GapFillingScheduler(peakList, processedPeakList,
+          mzTolerance, rtTolerance, intTolerance, numOfThreads);
+      this.scheduler = scheduler;
+      if (numOfThreads == 1)
+        scheduler.processUnits(this::isCanceled);
+      else
+        ParallelUtils.run(numOfThreads, () -> IntStream.range(0, numOfThreads).parallel()
+            .forEach(thread -> scheduler.processUnits(this::isCanceled)));
     }
-    // terminate - stream only skips all elements
     if (isCanceled())
       return;
 
@@ -307,6 +239,7 @@ class PeakFinderTask extends AbstractTask {
 
         // Get all scans of this data file
         int scanNumbers[] = datafile1.getScanNumbers(1);
+        GapIndex gapIndex = new GapIndex(gaps);
 
         // Process each scan
         for (int scanNumber : scanNumbers) {
@@ -319,22 +252,21 @@ class PeakFinderTask extends AbstractTask {
           // Get the scan
           Scan scan = datafile1.getScan(scanNumber);
 
-          // Feed this scan to all gaps
-          for (Gap gap : gaps) {
-            gap.offerNextScan(scan);
-          }
+          // Feed this scan to all gaps in its RT range
+          gapIndex.offerNextScan(scan);
           processedScans.incrementAndGet();
         }
 
         // Finalize gaps
-        for (Gap gap : gaps) {
-          gap.noMoreOffers();
-        }
+        gapIndex.noMoreOffers();
       }
     }
   }
 
   public double getFinishedPercentage() {
+    if (scheduler != null) {
+      return scheduler.getFinishedPercentage();
+    }
     if (totalScans == 0 || processedScans == null) {
       return 0;
     }
@@ -27,18 +27,19 @@ import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.impl.SimplePeakList;
 import io.github.mzmine.datamodel.impl.SimplePeakListRow;
-import io.github.mzmine.gui.preferences.MZminePreferences;
-import io.github.mzmine.gui.preferences.NumOfThreadsParameter;
 import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.modules.dataprocessing.gapfill_peakfinder.GapFillingScheduler;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.Task;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.taskcontrol.TaskStatusListener;
+import io.github.mzmine.util.ParallelUtils;
 
 /**
- * The main task creates sub tasks to perform the PeakFinder algorithm on multiple threads. Each sub
- * task performs gap filling on a number of RawDataFiles.
+ * The main task creates sub tasks to perform the PeakFinder algorithm on multiple threads. The sub
+ * tasks take units of one RawDataFile and one range of rows from a shared
+ * {@link GapFillingScheduler}, so that they stay busy until all files are processed.
  * 
  * @author Robin Schmid (robinschmid@wwu.de)
  *
@@ -83,19 +84,22 @@ class MultiThreadPeakFinderMainTask extends AbstractTask {
     processedPeakList = createResultsPeakList();
     progress = 0.5;
 
-    // split raw data files into groups for each thread (task)
-    // Obtain the settings of max concurrent threads
-    // as this task uses one thread
-    int maxRunningThreads = getMaxThreads();
-    // raw files
-    int raw = peakList.getNumberOfRawDataFiles();
+    // The sub tasks share the units of raw data files and row ranges of one scheduler. There are
+    // no more sub tasks than threads set in the preferences, or than units.
+    int maxRunningThreads = ParallelUtils.getNumOfThreads();
+    GapFillingScheduler scheduler = new GapFillingScheduler(peakList, processedPeakList,
+        parameters.getParameter(MultiThreadPeakFinderParameters.MZTolerance).getValue(),
+        parameters.getParameter(MultiThreadPeakFinderParameters.RTTolerance).getValue(),
+        parameters.getParameter(MultiThreadPeakFinderParameters.intTolerance).getValue(),
+        maxRunningThreads);
+    maxRunningThreads = Math.max(1, Math.min(maxRunningThreads, scheduler.getNumberOfUnits()));
 
     // create consumer of resultpeaklist
     SubTaskFinishListener listener =
         new SubTaskFinishListener(project, parameters, peakList, removeOriginal, maxRunningThreads);
 
     // Submit the tasks to the task controller for processing
-    Task[] tasks = createSubTasks(raw, maxRunningThreads, listener);
+    Task[] tasks = createSubTasks(scheduler, maxRunningThreads, listener);
 
     // listener for status change: Cancel / error
     TaskStatusListener list = new TaskStatusListener() {
@@ -155,51 +159,20 @@ class MultiThreadPeakFinderMainTask extends AbstractTask {
     return processedPeakList;
   }
 
-  private int getMaxThreads() {
-    int maxRunningThreads = 1;
-    NumOfThreadsParameter parameter =
-        MZmineCore.getConfiguration().getPreferences().getParameter(MZminePreferences.numOfThreads);
-    if (parameter.isAutomatic() || (parameter.getValue() == null))
-      maxRunningThreads = Runtime.getRuntime().availableProcessors();
-    else
-      maxRunningThreads = parameter.getValue();
-
-    // raw files
-    int raw = peakList.getNumberOfRawDataFiles();
-    // raw files<?
-    if (raw < maxRunningThreads)
-      maxRunningThreads = raw;
-    return maxRunningThreads;
-  }
-
   /**
-   * Distributes the RawDataFiles on different tasks
+   * Creates the sub tasks that share the units of the scheduler
    * 
-   * @param lock
-   * @param raw
+   * @param scheduler
    * @param maxRunningThreads
    * @param listener
    * @return
    */
-  private Task[] createSubTasks(int raw, int maxRunningThreads, SubTaskFinishListener listener) {
-    int numPerTask = raw / maxRunningThreads;
-    int rest = raw % maxRunningThreads;
+  private Task[] createSubTasks(GapFillingScheduler scheduler, int maxRunningThreads,
+      SubTaskFinishListener listener) {
     Task[] tasks = new Task[maxRunningThreads];
     for (int i = 0; i < maxRunningThreads; i++) {
-      int start = numPerTask * i;
-      int endexcl = numPerTask * (i + 1);
-      // add one from the rest
-      if (rest > 0) {
-        start += Math.min(i, rest);
-        endexcl += Math.min(i + 1, rest);
-      }
-
-      if (i == maxRunningThreads - 1)
-        endexcl = raw;
-
       // create task
-      tasks[i] = new MultiThreadPeakFinderTask(project, peakList, processedPeakList, parameters,
-          start, endexcl, listener, i);
+      tasks[i] = new MultiThreadPeakFinderTask(peakList, processedPeakList, scheduler, listener, i);
     }
     return tasks;
   }
@@ -21,43 +21,45 @@ package io.github.mzmine.modules.dataprocessing.id_spectraldbsearch;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.annotation.Nonnull;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
-import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.ParallelUtils;
+import io.github.mzmine.util.exceptions.MissingMassListException;
 import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
 import io.github.mzmine.util.spectraldb.parser.AutoLibraryParser;
 import io.github.mzmine.util.spectraldb.parser.LibraryEntryProcessor;
+import io.github.mzmine.util.spectraldb.parser.SpectralLibraryCache;
 import io.github.mzmine.util.spectraldb.parser.UnsupportedFormatException;
 
 class LocalSpectralDBSearchTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
+  private static final int MAX_ERROR = 3;
+
   private final PeakList peakList;
-  private final @Nonnull String massListName;
   private final File dataBaseFile;
 
   private ParameterSet parameters;
 
-  private List<RowsSpectralMatchTask> tasks;
-
-  private int totalTasks;
   private PeakListRow[] rows;
+  private final AtomicInteger finishedRows = new AtomicInteger();
+  private final AtomicInteger errorCounter = new AtomicInteger();
 
   public LocalSpectralDBSearchTask(PeakList peakList, ParameterSet parameters) {
     this.peakList = peakList;
     this.rows = peakList.getRows().toArray(PeakListRow[]::new);
     this.parameters = parameters;
     dataBaseFile = parameters.getParameter(LocalSpectralDBSearchParameters.dataBaseFile).getValue();
-    massListName = parameters.getParameter(LocalSpectralDBSearchParameters.massList).getValue();
   }
 
   /**
@@ -65,9 +67,9 @@ class LocalSpectralDBSearchTask extends AbstractTask {
    */
   @Override
   public double getFinishedPercentage() {
-    if (totalTasks == 0 || tasks == null)
+    if (rows.length == 0)
       return 0;
-    return ((double) totalTasks - tasks.size()) / totalTasks;
+    return ((double) finishedRows.get()) / rows.length;
   }
 
   /**
@@ -84,41 +86,52 @@ class LocalSpectralDBSearchTask extends AbstractTask {
   @Override
   public void run() {
     setStatus(TaskStatus.PROCESSING);
-    int count = 0;
+    AtomicInteger count = new AtomicInteger();
     try {
-      tasks = parseFile(dataBaseFile);
-      totalTasks = tasks.size();
-      if (!tasks.isEmpty()) {
-        // wait for the tasks to finish
-        while (!isCanceled() && !tasks.isEmpty()) {
-          for (int i = 0; i < tasks.size(); i++) {
-            if (tasks.get(i).isFinished() || tasks.get(i).isCanceled()) {
-              count += tasks.get(i).getCount();
-              tasks.remove(i);
-              i--;
-            }
-          }
-          // wait for all sub tasks to finish
-          try {
-            Thread.sleep(100);
-          } catch (Exception e) {
-            cancel();
-          }
-        }
-        // cancelled
-        if (isCanceled()) {
-          tasks.stream().forEach(AbstractTask::cancel);
-        }
-      } else {
+      // load the library once and match all rows in parallel
+      SpectralDBSearchEngine engine = createEngine(this, parameters, dataBaseFile);
+      if (isCanceled())
+        return;
+      if (engine.getEntryCount() == 0) {
         setStatus(TaskStatus.ERROR);
         setErrorMessage("DB file was empty - or error while parsing " + dataBaseFile);
+        return;
+      }
+
+      logger.info("Matching " + rows.length + " rows against " + engine.getEntryCount()
+          + " library entries");
+      // Use the number of threads set in the preferences instead of the common pool
+      ParallelUtils.run(() -> Arrays.stream(rows).parallel().forEach(row -> {
+        if (isCanceled() || errorCounter.get() > MAX_ERROR)
+          return;
+        try {
+          count.addAndGet(engine.matchRow(row, null));
+        } catch (MissingMassListException e) {
+          logger.log(Level.WARNING, "No mass list in spectrum for rowID=" + row.getID(), e);
+          errorCounter.incrementAndGet();
+        }
+        finishedRows.incrementAndGet();
+      }));
+
+      // check for max error (missing masslist)
+      if (errorCounter.get() > MAX_ERROR) {
+        logger.log(Level.WARNING, "Data base matching failed. To many missing mass lists ");
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Data base matching failed. To many missing mass lists ");
+        return;
+      }
+      if (isCanceled()) {
+        logger.info(
+            "Added " + count.get() + " spectral library matches (before being cancelled)");
+        return;
       }
     } catch (Exception e) {
       logger.log(Level.SEVERE, "Could not read file " + dataBaseFile, e);
       setStatus(TaskStatus.ERROR);
       setErrorMessage(e.toString());
+      return;
     }
-    logger.info("Added " + count + " spectral library matches");
+    logger.info("Added " + count.get() + " spectral library matches");
 
     // Add task description to peakList
     peakList.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
@@ -128,30 +141,39 @@ class LocalSpectralDBSearchTask extends AbstractTask {
 
   }
 
+  /**
+   * Creates the search engine for a library. A library with an up to date cache is read from the
+   * mapped cache file, other libraries are parsed (which writes their cache).
+   *
+   * @param task the task that reads the file
+   */
+  static SpectralDBSearchEngine createEngine(AbstractTask task, ParameterSet parameters,
+      File dataBaseFile) throws UnsupportedFormatException, IOException {
+    SpectralLibraryCache cache = SpectralLibraryCache.open(dataBaseFile);
+    if (cache != null)
+      return new SpectralDBSearchEngine(parameters, cache);
+    return new SpectralDBSearchEngine(parameters, parseFile(task, dataBaseFile));
+  }
+
   /**
    * Load all library entries from data base file
    *
+   * @param task the task that reads the file
    * @param dataBaseFile
-   * @return
+   * @return all library entries in file order
    */
-  private List<RowsSpectralMatchTask> parseFile(File dataBaseFile)
+  static List<SpectralDBEntry> parseFile(AbstractTask task, File dataBaseFile)
       throws UnsupportedFormatException, IOException {
-    //
-    List<RowsSpectralMatchTask> tasks = new ArrayList<>();
+    List<SpectralDBEntry> library = new ArrayList<>();
     AutoLibraryParser parser = new AutoLibraryParser(100, new LibraryEntryProcessor() {
       @Override
       public void processNextEntries(List<SpectralDBEntry> list, int alreadyProcessed) {
-        // start last task
-        RowsSpectralMatchTask task = new RowsSpectralMatchTask(peakList.getName(), rows, parameters,
-            alreadyProcessed + 1, list);
-        MZmineCore.getTaskController().addTask(task);
-        tasks.add(task);
+        library.addAll(list);
       }
     });
 
-    // return tasks
-    parser.parse(this, dataBaseFile);
-    return tasks;
+    parser.parse(task, dataBaseFile);
+    return library;
   }
 
 }
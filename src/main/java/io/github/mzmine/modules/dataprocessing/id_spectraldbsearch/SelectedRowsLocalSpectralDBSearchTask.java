@@ -19,9 +19,8 @@
 package io.github.mzmine.modules.dataprocessing.id_spectraldbsearch;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
@@ -35,10 +34,8 @@ import io.github.mzmine.modules.visualization.spectra.spectralmatchresults.Spect
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
-import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
-import io.github.mzmine.util.spectraldb.parser.AutoLibraryParser;
-import io.github.mzmine.util.spectraldb.parser.LibraryEntryProcessor;
-import io.github.mzmine.util.spectraldb.parser.UnsupportedFormatException;
+import io.github.mzmine.util.ParallelUtils;
+import io.github.mzmine.util.exceptions.MissingMassListException;
 
 public class SelectedRowsLocalSpectralDBSearchTask extends AbstractTask {
 
@@ -50,13 +47,11 @@ public class SelectedRowsLocalSpectralDBSearchTask extends AbstractTask {
 
   private ParameterSet parameters;
 
-  private List<RowsSpectralMatchTask> tasks;
-
   private SpectraIdentificationResultsWindow resultWindow;
 
   private PeakListTable table;
 
-  private int totalTasks;
+  private final AtomicInteger finishedRows = new AtomicInteger();
 
   public SelectedRowsLocalSpectralDBSearchTask(PeakListRow[] peakListRows, PeakListTable table,
       ParameterSet parameters) {
@@ -72,9 +67,9 @@ public class SelectedRowsLocalSpectralDBSearchTask extends AbstractTask {
    */
   @Override
   public double getFinishedPercentage() {
-    if (totalTasks == 0 || tasks == null)
+    if (peakListRows.length == 0)
       return 0;
-    return ((double) totalTasks - tasks.size()) / totalTasks;
+    return ((double) finishedRows.get()) / peakListRows.length;
   }
 
   /**
@@ -103,32 +98,33 @@ public class SelectedRowsLocalSpectralDBSearchTask extends AbstractTask {
     }
 
     try {
-      tasks = parseFile(dataBaseFile);
-      totalTasks = tasks.size();
-      if (!tasks.isEmpty()) {
-        // wait for the tasks to finish
-        while (!isCanceled() && !tasks.isEmpty()) {
-          for (int i = 0; i < tasks.size(); i++) {
-            if (tasks.get(i).isFinished() || tasks.get(i).isCanceled()) {
-              count += tasks.get(i).getCount();
-              tasks.remove(i);
-              i--;
-            }
-          }
-          // wait for all sub tasks to finish
-          try {
-            Thread.sleep(100);
-          } catch (Exception e) {
-            cancel();
-          }
-        }
-        // cancelled
-        if (isCanceled()) {
-          tasks.stream().forEach(AbstractTask::cancel);
-        }
-      } else {
+      // load the library once and match all rows in parallel
+      SpectralDBSearchEngine engine =
+          LocalSpectralDBSearchTask.createEngine(this, parameters, dataBaseFile);
+      if (engine.getEntryCount() == 0) {
         setStatus(TaskStatus.ERROR);
         setErrorMessage("DB file was empty - or error while parsing " + dataBaseFile);
+      } else if (!isCanceled()) {
+        // Use the number of threads set in the preferences instead of the common pool
+        count = ParallelUtils.call(() -> Arrays.stream(peakListRows).parallel().mapToInt(row -> {
+          if (isCanceled())
+            return 0;
+          try {
+            return engine.matchRow(row, (match) -> {
+              // one selected row -> show in dialog
+              if (resultWindow != null) {
+                resultWindow.addMatches(match);
+                resultWindow.revalidate();
+                resultWindow.repaint();
+              }
+            });
+          } catch (MissingMassListException e) {
+            logger.log(Level.WARNING, "No mass list in spectrum for rowID=" + row.getID(), e);
+            return 0;
+          } finally {
+            finishedRows.incrementAndGet();
+          }
+        }).sum());
       }
     } catch (Exception e) {
       logger.log(Level.SEVERE, "Could not read file " + dataBaseFile, e);
@@ -151,37 +147,4 @@ public class SelectedRowsLocalSpectralDBSearchTask extends AbstractTask {
 
   }
 
-  /**
-   * Load all library entries from data base file
-   * 
-   * @param dataBaseFile
-   * @return
-   */
-  private List<RowsSpectralMatchTask> parseFile(File dataBaseFile)
-      throws UnsupportedFormatException, IOException {
-    //
-    List<RowsSpectralMatchTask> tasks = new ArrayList<>();
-    AutoLibraryParser parser = new AutoLibraryParser(100, new LibraryEntryProcessor() {
-      @Override
-      public void processNextEntries(List<SpectralDBEntry> list, int alreadyProcessed) {
-        // start last task
-        RowsSpectralMatchTask task = new RowsSpectralMatchTask(peakListRows.length + " rows",
-            peakListRows, parameters, alreadyProcessed + 1, list, (match) -> {
-              // one selected row -> show in dialog
-              if (resultWindow != null) {
-                resultWindow.addMatches(match);
-                resultWindow.revalidate();
-                resultWindow.repaint();
-              }
-            });
-        MZmineCore.getTaskController().addTask(task);
-        tasks.add(task);
-      }
-    });
-
-    // return tasks
-    parser.parse(this, dataBaseFile);
-    return tasks;
-  }
-
 }
@@ -0,0 +1,442 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ * 
+ * This file is part of MZmine.
+ * 
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.id_spectraldbsearch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.MassList;
+import io.github.mzmine.datamodel.PeakListRow;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.modules.MZmineProcessingStep;
+import io.github.mzmine.modules.dataprocessing.id_spectraldbsearch.sort.SortSpectralDBIdentitiesTask;
+import io.github.mzmine.modules.visualization.spectra.simplespectra.datapointprocessing.isotopes.MassListDeisotoper;
+import io.github.mzmine.modules.visualization.spectra.simplespectra.datapointprocessing.isotopes.MassListDeisotoperParameters;
+import io.github.mzmine.modules.visualization.spectra.simplespectra.spectraidentification.spectraldatabase.SpectralMatchTask;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import io.github.mzmine.util.DataPointSorter;
+import io.github.mzmine.util.ParallelUtils;
+import io.github.mzmine.util.SortingDirection;
+import io.github.mzmine.util.SortingProperty;
+import io.github.mzmine.util.exceptions.MissingMassListException;
+import io.github.mzmine.util.scans.ScanAlignment;
+import io.github.mzmine.util.scans.ScanUtils;
+import io.github.mzmine.util.scans.similarity.SpectralSimilarity;
+import io.github.mzmine.util.scans.similarity.SpectralSimilarityFunction;
+import io.github.mzmine.util.scans.sorting.ScanSortMode;
+import io.github.mzmine.util.spectraldb.entry.DBEntryField;
+import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
+import io.github.mzmine.util.spectraldb.entry.SpectralDBPeakIdentity;
+import io.github.mzmine.util.spectraldb.parser.SpectralLibraryCache;
+
+/**
+ * Matches feature list rows against a spectral library that is loaded once. Library spectra are
+ * prepared (deisotoped and sorted by m/z) only once and, for MS2 searches, the entries are indexed
+ * by precursor m/z so that only entries inside the precursor tolerance window of a row are scored.
+ * Each call to {@link #matchRow(PeakListRow, Consumer)} is independent and never modifies the
+ * prepared spectra, so rows can be matched in parallel.
+ *
+ * A library with a {@link SpectralLibraryCache} is not loaded as a whole. The precursor table is
+ * read from the mapped cache file, and entries are read and prepared when they are first needed as
+ * candidates.
+ *
+ * Identities are added to a row in library order before being sorted by score, which gives the same
+ * result as scoring every row against every library entry.
+ */
+class SpectralDBSearchEngine {
+
+  static final String METHOD = "Spectral DB search";
+
+  private final @Nonnull String massListName;
+  private final MZTolerance mzToleranceSpectra;
+  private final MZTolerance mzTolerancePrecursor;
+  private final RTTolerance rtTolerance;
+  private final boolean useRT;
+  private final int msLevel;
+  private final double noiseLevel;
+  private final int minMatch;
+  private final MZmineProcessingStep<SpectralSimilarityFunction> simFunction;
+  private final boolean removeIsotopes;
+  private final MassListDeisotoperParameters deisotopeParam;
+  private final boolean cropSpectraToOverlap;
+  private final boolean allMS2Scans;
+  private final boolean needsIsotopePattern;
+  private final int minMatchedIsoSignals;
+
+  // library entries and their prepared spectra in library order, read from the library cache when
+  // first needed if there is one
+  private final int entryCount;
+  private final @Nullable SpectralLibraryCache libraryCache;
+  private final AtomicReferenceArray<SpectralDBEntry> entries;
+  private final AtomicReferenceArray<DataPoint[]> librarySpectra;
+
+  // entries with a precursor m/z sorted by precursor m/z (index into entries), without a library
+  // cache
+  private final double sortedPrecursorMZ[];
+  private final int sortedEntries[];
+
+  SpectralDBSearchEngine(ParameterSet parameters, List<SpectralDBEntry> library) {
+    this(parameters, library, null);
+  }
+
+  /**
+   * Searches a library that is read from its cache
+   */
+  SpectralDBSearchEngine(ParameterSet parameters, SpectralLibraryCache libraryCache) {
+    this(parameters, null, libraryCache);
+  }
+
+  private SpectralDBSearchEngine(ParameterSet parameters, @Nullable List<SpectralDBEntry> library,
+      @Nullable SpectralLibraryCache libraryCache) {
+    massListName = parameters.getParameter(LocalSpectralDBSearchParameters.massList).getValue();
+    mzToleranceSpectra =
+        parameters.getParameter(LocalSpectralDBSearchParameters.mzTolerance).getValue();
+    msLevel = parameters.getParameter(LocalSpectralDBSearchParameters.msLevel).getValue();
+    noiseLevel = parameters.getParameter(LocalSpectralDBSearchParameters.noiseLevel).getValue();
+
+    useRT = parameters.getParameter(LocalSpectralDBSearchParameters.rtTolerance).getValue();
+    rtTolerance = parameters.getParameter(LocalSpectralDBSearchParameters.rtTolerance)
+        .getEmbeddedParameter().getValue();
+
+    minMatch = parameters.getParameter(LocalSpectralDBSearchParameters.minMatch).getValue();
+    simFunction =
+        parameters.getParameter(LocalSpectralDBSearchParameters.similarityFunction).getValue();
+    needsIsotopePattern =
+        parameters.getParameter(LocalSpectralDBSearchParameters.needsIsotopePattern).getValue();
+    minMatchedIsoSignals = !needsIsotopePattern ? 0
+        : parameters.getParameter(LocalSpectralDBSearchParameters.needsIsotopePattern)
+            .getEmbeddedParameter().getValue();
+    removeIsotopes =
+        parameters.getParameter(LocalSpectralDBSearchParameters.deisotoping).getValue();
+    deisotopeParam = parameters.getParameter(LocalSpectralDBSearchParameters.deisotoping)
+        .getEmbeddedParameters();
+    cropSpectraToOverlap =
+        parameters.getParameter(LocalSpectralDBSearchParameters.cropSpectraToOverlap).getValue();
+    if (msLevel > 1)
+      mzTolerancePrecursor =
+          parameters.getParameter(LocalSpectralDBSearchParameters.mzTolerancePrecursor).getValue();
+    else
+      mzTolerancePrecursor = null;
+
+    allMS2Scans = parameters.getParameter(LocalSpectralDBSearchParameters.allMS2Spectra).getValue();
+
+    this.libraryCache = libraryCache;
+    entryCount = library != null ? library.size() : libraryCache.getEntryCount();
+    entries = new AtomicReferenceArray<>(entryCount);
+    librarySpectra = new AtomicReferenceArray<>(entryCount);
+    if (library == null) {
+      // the cache has its own precursor table
+      sortedEntries = null;
+      sortedPrecursorMZ = null;
+      return;
+    }
+
+    // prepare library spectra once: deisotoped copies sorted by m/z. All rows read these spectra
+    // concurrently, so neither they nor the data points of the entries are modified afterwards
+    for (int i = 0; i < entryCount; i++)
+      entries.set(i, library.get(i));
+    // Use the number of threads set in the preferences instead of the common pool
+    ParallelUtils.run(() -> IntStream.range(0, entryCount).parallel()
+        .forEach(i -> librarySpectra.set(i, prepareSpectrum(entries.get(i)))));
+
+    // index entries by precursor m/z (MS1 searches do not use the precursor)
+    if (msLevel > 1) {
+      Integer order[] = IntStream.range(0, entryCount)
+          .filter(i -> entries.get(i).getPrecursorMZ() != null).boxed().toArray(Integer[]::new);
+      Arrays.sort(order, Comparator.comparingDouble(i -> entries.get(i).getPrecursorMZ()));
+      sortedEntries = new int[order.length];
+      sortedPrecursorMZ = new double[order.length];
+      for (int i = 0; i < order.length; i++) {
+        sortedEntries[i] = order[i];
+        sortedPrecursorMZ[i] = entries.get(order[i]).getPrecursorMZ();
+      }
+    } else {
+      sortedEntries = null;
+      sortedPrecursorMZ = null;
+    }
+  }
+
+  /**
+   * @return number of library entries
+   */
+  int getEntryCount() {
+    return entryCount;
+  }
+
+  /**
+   * The library entry, read from the library cache when it is first needed
+   */
+  private SpectralDBEntry getEntry(int index) {
+    SpectralDBEntry entry = entries.get(index);
+    if (entry == null) {
+      // rows matched in parallel may read the same entry, all of them use the first one
+      entries.compareAndSet(index, null, libraryCache.getEntry(index));
+      entry = entries.get(index);
+    }
+    return entry;
+  }
+
+  /**
+   * The prepared spectrum of a library entry, prepared when it is first needed
+   */
+  private DataPoint[] getLibrarySpectrum(int index) {
+    DataPoint dps[] = librarySpectra.get(index);
+    if (dps == null) {
+      librarySpectra.compareAndSet(index, null, prepareSpectrum(getEntry(index)));
+      dps = librarySpectra.get(index);
+    }
+    return dps;
+  }
+
+  /**
+   * Deisotoped copy of the library spectrum, sorted by m/z
+   */
+  private DataPoint[] prepareSpectrum(SpectralDBEntry entry) {
+    DataPoint[] dps = entry.getDataPoints();
+    dps = removeIsotopes ? removeIsotopes(dps) : dps.clone();
+    Arrays.sort(dps, new DataPointSorter(SortingProperty.MZ, SortingDirection.Ascending));
+    return dps;
+  }
+
+  /**
+   * Matches one row against the library, adds the best match of each library entry as a
+   * {@link SpectralDBPeakIdentity} and sorts the identities of the row by score.
+   *
+   * @param row
+   * @param matchListener notified of each added identity (may be null)
+   * @return number of matches
+   * @throws MissingMassListException
+   */
+  int matchRow(PeakListRow row, @Nullable Consumer<SpectralDBPeakIdentity> matchListener)
+      throws MissingMassListException {
+    // All MS2 or only best MS2 scan
+    // best MS1 scan
+    // check for MS1 or MSMS scan
+    List<Scan> scans = getScans(row);
+
+    int count = 0;
+    int candidates[] = getCandidates(row);
+    // prepare the query spectra once per row
+    List<DataPoint[]> rowMassLists = new ArrayList<>();
+    if (candidates.length > 0) {
+      for (Scan scan : scans) {
+        // get mass list and perform deisotoping if active
+        DataPoint[] rowMassList = getDataPoints(scan, true);
+        if (removeIsotopes)
+          rowMassList = removeIsotopes(rowMassList);
+        rowMassLists.add(rowMassList);
+      }
+    }
+
+    for (int e : candidates) {
+      SpectralDBEntry ident = getEntry(e);
+      if (!checkRT(row, ident))
+        continue;
+
+      SpectralDBPeakIdentity best = null;
+      // match all scans against this ident to find best match
+      for (int i = 0; i < scans.size(); i++) {
+        SpectralSimilarity sim = spectraDBMatch(getLibrarySpectrum(e), rowMassLists.get(i));
+        if (sim != null
+            && (!needsIsotopePattern || SpectralMatchTask.checkForIsotopePattern(sim,
+                mzToleranceSpectra, minMatchedIsoSignals))
+            && (best == null || best.getSimilarity().getScore() < sim.getScore())) {
+          best = new SpectralDBPeakIdentity(scans.get(i), massListName, ident, sim, METHOD);
+        }
+      }
+      // has match?
+      if (best != null) {
+        // add new identity to the row
+        row.addPeakIdentity(best, false);
+        if (matchListener != null)
+          matchListener.accept(best);
+        count++;
+      }
+    }
+    // sort identities based on similarity score
+    SortSpectralDBIdentitiesTask.sortIdentities(row);
+    return count;
+  }
+
+  /**
+   * Library entries that may match this row, in library order. For MS2 searches these are the
+   * entries with a precursor m/z within the precursor tolerance of the row.
+   */
+  private int[] getCandidates(PeakListRow row) {
+    if (msLevel == 1)
+      return IntStream.range(0, entryCount).toArray();
+
+    // The tolerance is applied to the library precursor m/z. Search a window that contains all
+    // such precursors and check each of them exactly.
+    final double mz = row.getAverageMZ();
+    final double abs = mzTolerancePrecursor.getMzTolerance();
+    final double rel = mzTolerancePrecursor.getPpmTolerance() / 1000000.0;
+    double lower = Math.min(mz - abs, mz / (1 + rel));
+    double upper = rel < 1 ? Math.max(mz + abs, mz / (1 - rel)) : Double.POSITIVE_INFINITY;
+    // widen slightly against rounding errors
+    lower -= Math.abs(lower) * 1E-9;
+    upper += Math.abs(upper) * 1E-9;
+
+    int candidates[];
+    int n = 0;
+    if (libraryCache != null) {
+      // read the precursor table of the mapped cache file
+      int from = libraryCache.getPrecursorPosition(lower);
+      int to = libraryCache.getPrecursorPosition(Math.nextUp(upper));
+      candidates = new int[Math.max(0, to - from)];
+      for (int i = from; i < to; i++) {
+        if (mzTolerancePrecursor.checkWithinTolerance(libraryCache.getPrecursorMZ(i), mz))
+          candidates[n++] = libraryCache.getPrecursorEntry(i);
+      }
+    } else {
+      int from = lowerBound(sortedPrecursorMZ, lower);
+      int to = lowerBound(sortedPrecursorMZ, Math.nextUp(upper));
+      candidates = new int[Math.max(0, to - from)];
+      for (int i = from; i < to; i++) {
+        if (mzTolerancePrecursor.checkWithinTolerance(sortedPrecursorMZ[i], mz))
+          candidates[n++] = sortedEntries[i];
+      }
+    }
+    candidates = Arrays.copyOf(candidates, n);
+    Arrays.sort(candidates);
+    return candidates;
+  }
+
+  /**
+   * @return the first index with a value >= key
+   */
+  private static int lowerBound(double sorted[], double key) {
+    int low = 0;
+    int high = sorted.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sorted[mid] < key)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  /**
+   * Remove 13C isotopes from masslist
+   * 
+   * @param a
+   * @return
+   */
+  private DataPoint[] removeIsotopes(DataPoint[] a) {
+    return MassListDeisotoper.filterIsotopes(a, deisotopeParam);
+  }
+
+  /**
+   * 
+   * @param library prepared library spectrum
+   * @param rowMassList prepared query spectrum
+   * @return spectral similarity or null if no match
+   */
+  private SpectralSimilarity spectraDBMatch(DataPoint[] library, DataPoint[] rowMassList) {
+    // crop the spectra to their overlapping mz range
+    // helpful when comparing spectra, acquired with different
+    // fragmentation energy
+    DataPoint[] query = rowMassList;
+    if (cropSpectraToOverlap) {
+      DataPoint[][] cropped = ScanAlignment.cropToOverlap(mzToleranceSpectra, library, query);
+      library = cropped[0];
+      query = cropped[1];
+    }
+
+    // check spectra similarity
+    return simFunction.getModule().getSimilarity(simFunction.getParameterSet(), mzToleranceSpectra,
+        minMatch, library, query);
+  }
+
+  private boolean checkRT(PeakListRow row, SpectralDBEntry ident) {
+    Double rt = (Double) ident.getField(DBEntryField.RT).orElse(null);
+    return (!useRT || rt == null || rtTolerance.checkWithinTolerance(rt, row.getAverageRT()));
+  }
+
+  /**
+   * Thresholded masslist
+   * 
+   * @param row
+   * @return
+   * @throws MissingMassListException
+   */
+  private DataPoint[] getDataPoints(Scan scan, boolean noiseFilter)
+      throws MissingMassListException {
+    if (scan == null || scan.getMassList(massListName) == null) {
+      return new DataPoint[0];
+    }
+
+    MassList masses = scan.getMassList(massListName);
+    DataPoint[] dps = masses.getDataPoints();
+    return noiseFilter ? ScanUtils.getFiltered(dps, noiseLevel) : dps;
+  }
+
+  List<Scan> getScans(PeakListRow row) throws MissingMassListException {
+    return getScans(row, msLevel, massListName, noiseLevel, minMatch, allMS2Scans);
+  }
+
+  /**
+   * The scans of a row which are matched against the library with the given search parameters,
+   * without preparing a library
+   */
+  static List<Scan> getScans(PeakListRow row, ParameterSet parameters)
+      throws MissingMassListException {
+    return getScans(row,
+        parameters.getParameter(LocalSpectralDBSearchParameters.msLevel).getValue(),
+        parameters.getParameter(LocalSpectralDBSearchParameters.massList).getValue(),
+        parameters.getParameter(LocalSpectralDBSearchParameters.noiseLevel).getValue(),
+        parameters.getParameter(LocalSpectralDBSearchParameters.minMatch).getValue(),
+        parameters.getParameter(LocalSpectralDBSearchParameters.allMS2Spectra).getValue());
+  }
+
+  private static List<Scan> getScans(PeakListRow row, int msLevel, String massListName,
+      double noiseLevel, int minMatch, boolean allMS2Scans) throws MissingMassListException {
+    if (msLevel == 1) {
+      List<Scan> scans = new ArrayList<>();
+      scans.add(row.getBestPeak().getRepresentativeScan());
+      return scans;
+    } else {
+      // first entry is the best scan
+      List<Scan> scans = ScanUtils.listAllFragmentScans(row, massListName, noiseLevel, minMatch,
+          ScanSortMode.MAX_TIC);
+      if (allMS2Scans)
+        return scans;
+      else {
+        // only keep first (with highest TIC)
+        while (scans.size() > 1) {
+          scans.remove(1);
+        }
+        return scans;
+      }
+    }
+  }
+
+}
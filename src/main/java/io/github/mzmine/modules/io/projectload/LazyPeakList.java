@@ -0,0 +1,451 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ * 
+ * This file is part of MZmine.
+ * 
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.annotation.Nullable;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.google.common.collect.Range;
+
+import io.github.mzmine.datamodel.Feature;
+import io.github.mzmine.datamodel.PeakList;
+import io.github.mzmine.datamodel.PeakListRow;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import io.github.mzmine.gui.Desktop;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.modules.io.projectload.version_2_5.PeakListElementName_2_5;
+import io.github.mzmine.modules.tools.qualityparameters.QualityParameters;
+import io.github.mzmine.util.exceptions.PeakListLoadException;
+import javafx.collections.ObservableList;
+
+/**
+ * Feature list of an opened project whose rows are read from the project file when they are
+ * accessed for the first time. Only the name and the raw data files are read when the project is
+ * opened. The name, raw data files and toString() are available without loading the rows. If the
+ * rows cannot be read, all other accessors throw a {@link PeakListLoadException}.
+ * 
+ * As long as the rows were never loaded, saving the project copies the entry of the feature list
+ * instead of serializing it again (see {@link #isUnchanged(Map)}).
+ */
+public class LazyPeakList extends SimplePeakList {
+
+  private static final Logger logger = Logger.getLogger(LazyPeakList.class.getName());
+
+  // Where the rows are read from, moved along when the entry is copied to a new project file
+  private File projectFile;
+  private long projectFileLength, projectFileModified;
+  private String entryName;
+  private final Supplier<PeakListOpenHandler> openHandlerFactory;
+
+  // Name and raw data file IDs of the saved entry. Entries of older project versions are never
+  // copied, because they would be read as the current version.
+  private final String savedName;
+  private final Map<RawDataFile, String> savedDataFileIDs;
+  private final boolean currentFormat;
+
+  private volatile boolean loaded = false;
+  private boolean loading = false;
+  private volatile PeakListLoadException loadError;
+
+  private LazyPeakList(String name, List<RawDataFile> dataFiles, File projectFile,
+      String entryName, Supplier<PeakListOpenHandler> openHandlerFactory,
+      Hashtable<String, RawDataFile> dataFilesIDMap, boolean currentFormat) {
+    super(name, dataFiles);
+    this.projectFile = projectFile;
+    this.projectFileLength = projectFile.length();
+    this.projectFileModified = projectFile.lastModified();
+    this.entryName = entryName;
+    this.openHandlerFactory = openHandlerFactory;
+    this.savedName = name;
+    this.savedDataFileIDs = new HashMap<>();
+    for (Map.Entry<String, RawDataFile> id : dataFilesIDMap.entrySet()) {
+      if (dataFiles.contains(id.getValue()))
+        savedDataFileIDs.put(id.getValue(), id.getKey());
+    }
+    this.currentFormat = currentFormat;
+  }
+
+  /**
+   * Reads the name and the raw data files of a saved feature list and returns a feature list that
+   * reads its rows later from the given project file entry
+   * 
+   * @param is stream of the feature list XML, which is read only up to the first row
+   * @param openHandlerFactory creates handlers for the version of the project
+   * @param currentFormat whether the project was saved in the XML format of this version
+   */
+  static LazyPeakList readHeader(InputStream is, File projectFile, String entryName,
+      Hashtable<String, RawDataFile> dataFilesIDMap,
+      Supplier<PeakListOpenHandler> openHandlerFactory, boolean currentFormat)
+      throws IOException, ParserConfigurationException, SAXException {
+
+    HeaderHandler header = new HeaderHandler(dataFilesIDMap);
+    SAXParserFactory factory = SAXParserFactory.newInstance();
+    SAXParser saxParser = factory.newSAXParser();
+    try {
+      saxParser.parse(is, header);
+    } catch (HeaderParsedException e) {
+      // The header was read completely
+    }
+
+    if (header.name == null)
+      throw new SAXException("Missing feature list name in " + entryName);
+
+    return new LazyPeakList(header.name, header.dataFiles, projectFile, entryName,
+        openHandlerFactory, dataFilesIDMap, currentFormat);
+  }
+
+  /**
+   * Same as {@link #readHeader(InputStream, File, String, Hashtable, Supplier, boolean)} for
+   * feature lists saved in the binary format
+   * 
+   * @param is stream of the binary feature list, which is read only up to the string dictionary
+   */
+  static LazyPeakList readBinaryHeader(InputStream is, File projectFile, String entryName,
+      Hashtable<String, RawDataFile> dataFilesIDMap) throws IOException {
+
+    SimplePeakList header = PeakListBinaryOpenHandler.readHeader(is, dataFilesIDMap);
+
+    return new LazyPeakList(header.getName(), header.getRawDataFiles(), projectFile, entryName,
+        () -> new PeakListBinaryOpenHandler(dataFilesIDMap), dataFilesIDMap, true);
+  }
+
+  /**
+   * Checks whether the saved entry of this feature list still describes it and can be copied into a
+   * project file in which its raw data files have the given IDs. That is not the case once its
+   * rows were loaded (they may have been modified since), if it was renamed, or if the project file
+   * was modified since opening.
+   */
+  public synchronized boolean isUnchanged(Map<RawDataFile, String> dataFilesIDMap) {
+    if (loaded || loading || !currentFormat || !savedName.equals(getName()))
+      return false;
+    if ((projectFile.length() != projectFileLength)
+        || (projectFile.lastModified() != projectFileModified))
+      return false;
+    for (Map.Entry<RawDataFile, String> id : savedDataFileIDs.entrySet()) {
+      if (!id.getValue().equals(dataFilesIDMap.get(id.getKey())))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * The project file the rows are read from
+   */
+  public synchronized File getProjectFile() {
+    return projectFile;
+  }
+
+  /**
+   * The entry of the project file the rows are read from
+   */
+  public synchronized String getEntryName() {
+    return entryName;
+  }
+
+  /**
+   * Reads the rows from the given entry of a newly saved project file from now on, after the saved
+   * entry was copied there unchanged. The previous project file may be replaced or deleted
+   * afterwards.
+   */
+  public synchronized void setSavedEntry(File projectFile, String entryName) {
+    this.projectFile = projectFile;
+    this.projectFileLength = projectFile.length();
+    this.projectFileModified = projectFile.lastModified();
+    this.entryName = entryName;
+  }
+
+  /**
+   * Whether the rows were read from the project file, or failed to be read
+   */
+  boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * Reads the rows, applied methods and creation date from the project file, if that did not happen
+   * yet. A failure is reported once and kept, so that every later access fails the same way
+   * instead of finding an empty feature list.
+   * 
+   * @throws PeakListLoadException if the rows could not be read
+   */
+  private void ensureLoaded() {
+
+    if (!loaded)
+      load();
+    if (loadError != null)
+      throw loadError;
+  }
+
+  private void load() {
+    synchronized (this) {
+      // The calls made while loading find the feature list already loading
+      if (loaded || loading)
+        return;
+      loading = true;
+
+      try {
+        if ((projectFile.length() != projectFileLength)
+            || (projectFile.lastModified() != projectFileModified)) {
+          throw new IOException("Project file " + projectFile + " was modified since opening");
+        }
+
+        logger.info("Loading feature list " + getName() + " from " + projectFile);
+
+        PeakList savedPeakList;
+        try (ZipFile zipFile = new ZipFile(projectFile)) {
+          ZipEntry entry = zipFile.getEntry(entryName);
+          if (entry == null)
+            throw new IOException("Missing " + entryName + " in project file " + projectFile);
+          try (InputStream is = zipFile.getInputStream(entry)) {
+            savedPeakList = openHandlerFactory.get().readPeakList(is);
+          }
+        }
+
+        for (PeakListAppliedMethod method : savedPeakList.getAppliedMethods())
+          super.addDescriptionOfAppliedTask(method);
+        if (savedPeakList instanceof SimplePeakList)
+          super.setDateCreated(((SimplePeakList) savedPeakList).getDateCreated());
+        for (PeakListRow row : savedPeakList.getRows().toArray(new PeakListRow[0]))
+          super.addRow(row);
+
+        // Add quality parameters to peaks
+        QualityParameters.calculateQualityParameters(this);
+
+      } catch (Exception e) {
+        logger.log(Level.SEVERE, "Could not load feature list " + getName(), e);
+        // Rows read before the error would be an incomplete feature list
+        super.getRows().clear();
+        loadError = new PeakListLoadException("Could not load feature list " + getName()
+            + " from project file " + projectFile + ": " + e.getMessage(), e);
+        Desktop desktop = MZmineCore.getDesktop();
+        if (desktop != null)
+          desktop.displayErrorMessage(loadError.getMessage());
+      } finally {
+        loaded = true;
+        loading = false;
+      }
+    }
+  }
+
+  @Override
+  public int getNumberOfRows() {
+    ensureLoaded();
+    return super.getNumberOfRows();
+  }
+
+  @Override
+  public Feature getPeak(int row, RawDataFile rawDataFile) {
+    ensureLoaded();
+    return super.getPeak(row, rawDataFile);
+  }
+
+  @Override
+  public List<Feature> getPeaks(RawDataFile rawDataFile) {
+    ensureLoaded();
+    return super.getPeaks(rawDataFile);
+  }
+
+  @Override
+  public PeakListRow getRow(int row) {
+    ensureLoaded();
+    return super.getRow(row);
+  }
+
+  @Override
+  public ObservableList<PeakListRow> getRows() {
+    ensureLoaded();
+    return super.getRows();
+  }
+
+  @Override
+  public PeakListRow[] getRowsInsideScanAndMZRange(Range<Double> rtRange, Range<Double> mzRange) {
+    ensureLoaded();
+    return super.getRowsInsideScanAndMZRange(rtRange, mzRange);
+  }
+
+  @Override
+  public void addRow(PeakListRow row) {
+    ensureLoaded();
+    super.addRow(row);
+  }
+
+  @Override
+  public void removeRow(PeakListRow row) {
+    ensureLoaded();
+    super.removeRow(row);
+  }
+
+  @Override
+  public void removeRow(int rowNum) {
+    ensureLoaded();
+    super.removeRow(rowNum);
+  }
+
+  @Override
+  public Stream<PeakListRow> stream() {
+    ensureLoaded();
+    return super.stream();
+  }
+
+  @Override
+  public Stream<PeakListRow> parallelStream() {
+    ensureLoaded();
+    return super.parallelStream();
+  }
+
+  @Override
+  public double getDataPointMaxIntensity() {
+    ensureLoaded();
+    return super.getDataPointMaxIntensity();
+  }
+
+  @Override
+  public PeakListRow getPeakRow(Feature peak) {
+    ensureLoaded();
+    return super.getPeakRow(peak);
+  }
+
+  @Override
+  public void addDescriptionOfAppliedTask(PeakListAppliedMethod appliedMethod) {
+    ensureLoaded();
+    super.addDescriptionOfAppliedTask(appliedMethod);
+  }
+
+  @Override
+  public PeakListAppliedMethod[] getAppliedMethods() {
+    ensureLoaded();
+    return super.getAppliedMethods();
+  }
+
+  @Override
+  public String getDateCreated() {
+    ensureLoaded();
+    return super.getDateCreated();
+  }
+
+  @Override
+  public void setDateCreated(String date) {
+    ensureLoaded();
+    super.setDateCreated(date);
+  }
+
+  @Override
+  public Range<Double> getRowsMZRange() {
+    ensureLoaded();
+    return super.getRowsMZRange();
+  }
+
+  @Override
+  public Range<Double> getRowsRTRange() {
+    ensureLoaded();
+    return super.getRowsRTRange();
+  }
+
+  /**
+   * Thrown to stop parsing at the first row
+   */
+  private static class HeaderParsedException extends SAXException {
+    private static final long serialVersionUID = 1L;
+  }
+
+  /**
+   * Reads the feature list name and raw data files, which are saved before the rows. The element
+   * names are the same in all project versions.
+   */
+  private static class HeaderHandler extends DefaultHandler {
+
+    private final Hashtable<String, RawDataFile> dataFilesIDMap;
+    private final StringBuilder charBuffer = new StringBuilder();
+    private final List<RawDataFile> dataFiles = new ArrayList<>();
+    private String name;
+
+    HeaderHandler(Hashtable<String, RawDataFile> dataFilesIDMap) {
+      this.dataFilesIDMap = dataFilesIDMap;
+    }
+
+    @Override
+    public void startElement(String namespaceURI, String lName, String qName, Attributes attrs)
+        throws SAXException {
+      if (qName.equals(PeakListElementName_2_5.ROW.getElementName()))
+        throw new HeaderParsedException();
+      charBuffer.setLength(0);
+    }
+
+    @Override
+    public void endElement(String namespaceURI, String sName, String qName) throws SAXException {
+
+      if (qName.equals(PeakListElementName_2_5.PEAKLIST_NAME.getElementName()))
+        name = getTextOfElement();
+
+      if (qName.equals(PeakListElementName_2_5.RAWFILE.getElementName())) {
+        String rawDataFileID = getTextOfElement();
+        RawDataFile dataFile = dataFilesIDMap.get(rawDataFileID);
+        if (dataFile == null) {
+          throw new SAXException(
+              "Cannot open feature list, because raw data file " + rawDataFileID + " is missing.");
+        }
+        dataFiles.add(dataFile);
+      }
+
+      // A feature list without rows ends after the header
+      if (qName.equals(PeakListElementName_2_5.PEAKLIST.getElementName()))
+        throw new HeaderParsedException();
+    }
+
+    /**
+     * Same text as read by the feature list open handlers
+     */
+    private String getTextOfElement() {
+      String text = charBuffer.toString();
+      text = text.replaceAll("[\n\r\t]+", "");
+      text = text.replaceAll("^\\s+", "");
+      charBuffer.setLength(0);
+      return text;
+    }
+
+    @Override
+    public void characters(char buf[], int offset, int len) throws SAXException {
+      charBuffer.append(buf, offset, len);
+    }
+
+  }
+
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ * 
+ * This file is part of MZmine.
+ * 
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectload;
+
+import static io.github.mzmine.modules.io.projectsave.PeakListBinarySaveHandler.NULL_VALUE;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.logging.Logger;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.IsotopePattern.IsotopePatternStatus;
+import io.github.mzmine.datamodel.PeakList;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimpleFeature;
+import io.github.mzmine.datamodel.impl.SimpleIsotopePattern;
+import io.github.mzmine.datamodel.impl.SimplePeakIdentity;
+import io.github.mzmine.datamodel.impl.SimplePeakInformation;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import io.github.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+import io.github.mzmine.modules.io.projectsave.PeakListBinarySaveHandler;
+
+/**
+ * Reads feature lists saved by {@link PeakListBinarySaveHandler}. The format does not depend on
+ * the project version.
+ */
+public class PeakListBinaryOpenHandler implements PeakListOpenHandler {
+
+  private static final Logger logger = Logger.getLogger(PeakListBinaryOpenHandler.class.getName());
+
+  // Number of values converted at once when reading an array
+  private static final int BUFFER_VALUES = 8192;
+
+  private final Hashtable<String, RawDataFile> dataFilesIDMap;
+  private final byte buffer[] = new byte[BUFFER_VALUES * Double.BYTES];
+
+  private DataInputStream dataStream;
+  private String dictionary[];
+
+  private volatile boolean canceled = false;
+
+  public PeakListBinaryOpenHandler(Hashtable<String, RawDataFile> dataFilesIDMap) {
+    this.dataFilesIDMap = dataFilesIDMap;
+  }
+
+  /**
+   * Reads the name, creation date, raw data files and applied methods of a saved feature list
+   * 
+   * @return feature list without rows
+   */
+  public static SimplePeakList readHeader(InputStream is,
+      Hashtable<String, RawDataFile> dataFilesIDMap) throws IOException {
+    return new PeakListBinaryOpenHandler(dataFilesIDMap).readHeader(new DataInputStream(is));
+  }
+
+  /**
+   * Load the feature list from the binary feature list entry
+   */
+  @Override
+  public PeakList readPeakList(InputStream peakListStream) throws IOException {
+
+    dataStream = new DataInputStream(new BufferedInputStream(peakListStream, 1 << 16));
+
+    final SimplePeakList peakList = readHeader(dataStream);
+    logger.info("Loading feature list: " + peakList.getName());
+
+    final int numberOfRows = dataStream.readInt();
+    dataStream.readInt(); // number of features
+
+    // String dictionary
+    dictionary = new String[dataStream.readInt()];
+    for (int i = 0; i < dictionary.length; i++)
+      dictionary[i] = readString();
+
+    // Rows
+    final int rowIDs[] = readInts(numberOfRows);
+    final int rowComments[] = readInts(numberOfRows);
+    final int rowIdentities[] = readInts(numberOfRows);
+    final int rowPreferredIdentities[] = readInts(numberOfRows);
+    final int identityProperties[] = readInts(dataStream.readInt());
+    final int identityKeys[] = readInts(dataStream.readInt());
+    final int identityValues[] = readInts(dataStream.readInt());
+    final int rowInformation[] = readInts(numberOfRows);
+    final int informationKeys[] = readInts(dataStream.readInt());
+    final int informationValues[] = readInts(dataStream.readInt());
+
+    final SimplePeakListRow rows[] = new SimplePeakListRow[numberOfRows];
+    int identity = 0, identityProperty = 0, informationProperty = 0;
+    for (int i = 0; i < numberOfRows; i++) {
+
+      if (canceled)
+        throw new IOException("Loading canceled");
+
+      final SimplePeakListRow row = new SimplePeakListRow(rowIDs[i]);
+      row.setComment(getString(rowComments[i]));
+
+      for (int j = 0; j < rowIdentities[i]; j++, identity++) {
+        Hashtable<String, String> properties = new Hashtable<>();
+        for (int k = 0; k < identityProperties[identity]; k++, identityProperty++) {
+          properties.put(getString(identityKeys[identityProperty]),
+              getString(identityValues[identityProperty]));
+        }
+        row.addPeakIdentity(new SimplePeakIdentity(properties), j == rowPreferredIdentities[i]);
+      }
+
+      if (rowInformation[i] != NULL_VALUE) {
+        Map<String, String> properties = new HashMap<>();
+        for (int k = 0; k < rowInformation[i]; k++, informationProperty++) {
+          properties.put(getString(informationKeys[informationProperty]),
+              getString(informationValues[informationProperty]));
+        }
+        row.setPeakInformation(new SimplePeakInformation(properties));
+      }
+
+      rows[i] = row;
+    }
+
+    // Features of each raw data file
+    final int numberOfColumns = dataStream.readInt();
+    for (int i = 0; i < numberOfColumns; i++) {
+      if (canceled)
+        throw new IOException("Loading canceled");
+      readFeatures(rows);
+    }
+
+    for (SimplePeakListRow row : rows)
+      peakList.addRow(row);
+
+    return peakList;
+  }
+
+  @Override
+  public void cancel() {
+    canceled = true;
+  }
+
+  private SimplePeakList readHeader(DataInputStream is) throws IOException {
+
+    dataStream = is;
+
+    if (dataStream.readInt() != PeakListBinarySaveHandler.MAGIC)
+      throw new IOException("Invalid binary feature list");
+    final int formatVersion = dataStream.readInt();
+    if (formatVersion > PeakListBinarySaveHandler.FORMAT_VERSION) {
+      throw new IOException("The feature list was saved in a newer format (" + formatVersion
+          + ") by a newer version of MZmine");
+    }
+
+    final String name = readString();
+    final String dateCreated = readString();
+
+    final RawDataFile dataFiles[] = new RawDataFile[dataStream.readInt()];
+    for (int i = 0; i < dataFiles.length; i++)
+      dataFiles[i] = getDataFile(readString());
+
+    final SimplePeakList peakList = new SimplePeakList(name, dataFiles);
+
+    final int numberOfMethods = dataStream.readInt();
+    for (int i = 0; i < numberOfMethods; i++) {
+      String methodName = readString();
+      String methodParams = readString();
+      peakList.addDescriptionOfAppliedTask(
+          new SimplePeakListAppliedMethod(methodName, methodParams));
+    }
+    peakList.setDateCreated(dateCreated);
+
+    return peakList;
+  }
+
+  /**
+   * Reads the features of one raw data file and adds them to their rows
+   */
+  private void readFeatures(SimplePeakListRow rows[]) throws IOException {
+
+    final RawDataFile dataFile = getDataFile(readString());
+
+    final int n = dataStream.readInt();
+    final int rowIndexes[] = readInts(n);
+    final double mz[] = readDoubles(n);
+    final double rt[] = readDoubles(n);
+    final double height[] = readDoubles(n);
+    final double area[] = readDoubles(n);
+    final int status[] = readInts(n);
+    final int charge[] = readInts(n);
+    final int parentChromatogramRowIDs[] = readInts(n);
+    final int representativeScans[] = readInts(n);
+    final int fragmentScans[] = readInts(n);
+
+    final int ms2ScanCounts[] = readInts(n);
+    final int ms2Scans[] = readInts(dataStream.readInt());
+
+    final int dataPointCounts[] = readInts(n);
+    final int dataPointScans[] = readInts(dataStream.readInt());
+    final float dataPointMZ[] = readFloats(dataPointScans.length);
+    final float dataPointIntensities[] = readFloats(dataPointScans.length);
+
+    final int isotopeCounts[] = readInts(n);
+    final int isotopeStatus[] = readInts(n);
+    final int isotopeDescriptions[] = readInts(n);
+    final int numberOfIsotopes = dataStream.readInt();
+    final double isotopeMZ[] = readDoubles(numberOfIsotopes);
+    final double isotopeIntensities[] = readDoubles(numberOfIsotopes);
+
+    int ms2Scan = 0, dataPoint = 0, isotope = 0;
+    for (int i = 0; i < n; i++) {
+
+      int allMS2Scans[] = null;
+      if (ms2ScanCounts[i] != NULL_VALUE) {
+        allMS2Scans = new int[ms2ScanCounts[i]];
+        System.arraycopy(ms2Scans, ms2Scan, allMS2Scans, 0, allMS2Scans.length);
+        ms2Scan += allMS2Scans.length;
+      }
+
+      // Data points and ranges, same as in the XML feature list format
+      final int scanNumbers[] = new int[dataPointCounts[i]];
+      final DataPoint dataPoints[] = new DataPoint[scanNumbers.length];
+      double minRT = Double.POSITIVE_INFINITY, maxRT = Double.NEGATIVE_INFINITY;
+      double minMZ = Double.POSITIVE_INFINITY, maxMZ = Double.NEGATIVE_INFINITY;
+      double minIntensity = Double.POSITIVE_INFINITY, maxIntensity = Double.NEGATIVE_INFINITY;
+      for (int j = 0; j < scanNumbers.length; j++, dataPoint++) {
+        scanNumbers[j] = dataPointScans[dataPoint];
+        double dataPointMz = dataPointMZ[dataPoint];
+        double intensity = dataPointIntensities[dataPoint];
+
+        minIntensity = Math.min(minIntensity, intensity);
+        maxIntensity = Math.max(maxIntensity, intensity);
+        if (intensity > 0) {
+          Scan scan = dataFile.getScan(scanNumbers[j]);
+          if (scan == null) {
+            throw new IOException("Error in project: scan #" + scanNumbers[j] + " of data file "
+                + dataFile + " not found");
+          }
+          double retentionTime = scan.getRetentionTime();
+          minRT = Math.min(minRT, retentionTime);
+          maxRT = Math.max(maxRT, retentionTime);
+        }
+        if (dataPointMz > 0.0) {
+          dataPoints[j] = new SimpleDataPoint(dataPointMz, intensity);
+          minMZ = Math.min(minMZ, dataPointMz);
+          maxMZ = Math.max(maxMZ, dataPointMz);
+        }
+      }
+
+      // The RT range is a single value if the feature consists only of 0 intensity data points
+      final Range<Double> rtRange =
+          minRT <= maxRT ? Range.closed(minRT, maxRT) : Range.singleton(rt[i]);
+      final Range<Double> mzRange = minMZ <= maxMZ ? Range.closed(minMZ, maxMZ) : null;
+      final Range<Double> intensityRange =
+          minIntensity <= maxIntensity ? Range.closed(minIntensity, maxIntensity) : null;
+
+      final SimpleFeature feature = new SimpleFeature(dataFile, mz[i], rt[i], height[i], area[i],
+          scanNumbers, dataPoints, FeatureStatus.valueOf(getString(status[i])),
+          representativeScans[i], fragmentScans[i], allMS2Scans, rtRange, mzRange,
+          intensityRange);
+      feature.setCharge(charge[i]);
+
+      if (isotopeCounts[i] != NULL_VALUE) {
+        DataPoint isotopes[] = new DataPoint[isotopeCounts[i]];
+        for (int j = 0; j < isotopes.length; j++, isotope++)
+          isotopes[j] = new SimpleDataPoint(isotopeMZ[isotope], isotopeIntensities[isotope]);
+        feature.setIsotopePattern(new SimpleIsotopePattern(isotopes,
+            IsotopePatternStatus.valueOf(getString(isotopeStatus[i])),
+            getString(isotopeDescriptions[i])));
+      }
+
+      feature.setParentChromatogramRowID(
+          parentChromatogramRowIDs[i] != NULL_VALUE ? parentChromatogramRowIDs[i] : null);
+
+      rows[rowIndexes[i]].addPeak(dataFile, feature);
+    }
+  }
+
+  private RawDataFile getDataFile(String dataFileID) throws IOException {
+    RawDataFile dataFile = dataFilesIDMap.get(dataFileID);
+    if (dataFile == null) {
+      throw new IOException(
+          "Cannot open feature list, because raw data file " + dataFileID + " is missing.");
+    }
+    return dataFile;
+  }
+
+  private String getString(int index) {
+    if (index == NULL_VALUE)
+      return null;
+    return dictionary[index];
+  }
+
+  private String readString() throws IOException {
+    int length = dataStream.readInt();
+    if (length == NULL_VALUE)
+      return null;
+    byte bytes[] = new byte[length];
+    dataStream.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private int[] readInts(int length) throws IOException {
+    int values[] = new int[length];
+    for (int offset = 0; offset < length; offset += BUFFER_VALUES) {
+      int count = Math.min(BUFFER_VALUES, length - offset);
+      dataStream.readFully(buffer, 0, count * Integer.BYTES);
+      ByteBuffer.wrap(buffer).asIntBuffer().get(values, offset, count);
+    }
+    return values;
+  }
+
+  private float[] readFloats(int length) throws IOException {
+    float values[] = new float[length];
+    for (int offset = 0; offset < length; offset += BUFFER_VALUES) {
+      int count = Math.min(BUFFER_VALUES, length - offset);
+      dataStream.readFully(buffer, 0, count * Float.BYTES);
+      ByteBuffer.wrap(buffer).asFloatBuffer().get(values, offset, count);
+    }
+    return values;
+  }
+
+  private double[] readDoubles(int length) throws IOException {
+    double values[] = new double[length];
+    for (int offset = 0; offset < length; offset += BUFFER_VALUES) {
+      int count = Math.min(BUFFER_VALUES, length - offset);
+      dataStream.readFully(buffer, 0, count * Double.BYTES);
+      ByteBuffer.wrap(buffer).asDoubleBuffer().get(values, offset, count);
+    }
+    return values;
+  }
+
+}
@@ -25,13 +25,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Map;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import javax.xml.parsers.ParserConfigurationException;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.xml.sax.SAXException;
 import com.google.common.io.CountingInputStream;
 import io.github.mzmine.datamodel.PeakList;
@@ -62,6 +66,14 @@ import javafx.scene.control.ButtonType;
 
 public class ProjectOpeningTask extends AbstractTask {
 
+  // Windows does not allow replacing a file while parts of it are mapped, so there the scans are
+  // extracted, and the project can still be saved to the file it was opened from
+  private static final boolean SCANS_IN_PLACE =
+      !System.getProperty("os.name").toUpperCase().contains("WINDOWS");
+
+  private static final Pattern projectFormatPattern = Pattern.compile(
+      "^" + Pattern.quote(ProjectSavingTask.PROJECT_FORMAT_PREFIX) + "(\\d+), MZmine (.*)$");
+
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
   private File openFile;
@@ -69,6 +81,10 @@ public class ProjectOpeningTask extends AbstractTask {
 
   private RawDataFileOpenHandler rawDataFileOpenHandler;
   private PeakListOpenHandler peakListOpenHandler;
+  private Supplier<PeakListOpenHandler> peakListOpenHandlerFactory;
+  private boolean currentPeakListFormat;
+  private PeakListBinaryOpenHandler peakListBinaryOpenHandler;
+  private boolean loadPeakListsOnDemand;
   private UserParameterOpenHandler userParameterOpenHandler;
   private StreamCopy copyMachine;
 
@@ -78,7 +94,11 @@ public class ProjectOpeningTask extends AbstractTask {
 
   // This hashtable maps stored IDs to raw data file objects
   private final Hashtable<String, RawDataFile> dataFilesIDMap = new Hashtable<>();
-  private final Hashtable<String, File> scanFilesIDMap = new Hashtable<>();
+  private final Hashtable<String, ScansEntry> scanFilesIDMap = new Hashtable<>();
+
+  // Data offsets of the stored entries of the project file, read when the first one is opened
+  private Map<String, Long> storedEntryOffsets;
+  private final Hashtable<String, String> scanEntriesIDMap = new Hashtable<>();
 
   public ProjectOpeningTask(ParameterSet parameters) {
     this.openFile = parameters.getParameter(ProjectLoaderParameters.projectFile).getValue();
@@ -143,6 +163,9 @@ public class ProjectOpeningTask extends AbstractTask {
       logger.info("Started opening project " + openFile);
       setStatus(TaskStatus.PROCESSING);
 
+      // The preference may be replaced by the configuration of the project
+      loadPeakListsOnDemand = MZmineCore.getConfiguration().isLoadPeakListsOnDemand();
+
       // Create a new project
       newProject = new MZmineProjectImpl();
       newProject.setProjectFile(openFile);
@@ -166,6 +189,7 @@ public class ProjectOpeningTask extends AbstractTask {
       final Pattern rawFilePattern = Pattern.compile("Raw data file #([\\d]+) (.*)\\.xml$");
       final Pattern scansFilePattern = Pattern.compile("Raw data file #([\\d]+) (.*)\\.scans$");
       final Pattern peakListPattern = Pattern.compile("Peak list #([\\d]+) (.*)\\.xml$");
+      final Pattern binaryPeakListPattern = Pattern.compile("Peak list #([\\d]+) (.*)\\.bin$");
 
       boolean versionInformationLoaded = false;
 
@@ -210,14 +234,21 @@ public class ProjectOpeningTask extends AbstractTask {
         if (scansFileMatcher.matches()) {
           final String fileID = scansFileMatcher.group(1);
           final String fileName = scansFileMatcher.group(2);
-          loadScansFile(cis, fileID, fileName);
+          loadScansFile(cis, entry, fileID, fileName);
         }
 
         // Load a feature list
         final Matcher peakListMatcher = peakListPattern.matcher(entryName);
         if (peakListMatcher.matches()) {
           final String peakListName = peakListMatcher.group(2);
-          loadPeakList(cis, peakListName);
+          loadPeakList(cis, entryName, peakListName);
+        }
+
+        // Load a feature list saved in the binary format
+        final Matcher binaryPeakListMatcher = binaryPeakListPattern.matcher(entryName);
+        if (binaryPeakListMatcher.matches()) {
+          final String peakListName = binaryPeakListMatcher.group(2);
+          loadBinaryPeakList(cis, entryName, peakListName);
         }
 
         // Close the ZIP entry
@@ -279,6 +310,9 @@ public class ProjectOpeningTask extends AbstractTask {
     if (peakListOpenHandler != null)
       peakListOpenHandler.cancel();
 
+    if (peakListBinaryOpenHandler != null)
+      peakListBinaryOpenHandler.cancel();
+
     if (userParameterOpenHandler != null)
       userParameterOpenHandler.cancel();
 
@@ -287,6 +321,31 @@ public class ProjectOpeningTask extends AbstractTask {
 
   }
 
+  /**
+   * Checks the project format of the version entry, if any, and returns the MZmine version that
+   * saved the project
+   *
+   * @see ProjectSavingTask#PROJECT_FORMAT_VERSION
+   */
+  static String checkProjectFormat(String projectVersionString, String mzmineVersionString)
+      throws IOException {
+
+    if (projectVersionString == null)
+      throw new IOException("Empty project version");
+
+    Matcher m = projectFormatPattern.matcher(projectVersionString);
+    if (!m.matches())
+      return projectVersionString;
+
+    int projectFormat = Integer.valueOf(m.group(1));
+    if (projectFormat > ProjectSavingTask.PROJECT_FORMAT_VERSION) {
+      throw new IOException("This project was saved in a newer format (" + projectFormat
+          + ", MZmine " + m.group(2) + ") and it cannot be opened in MZmine "
+          + mzmineVersionString);
+    }
+    return m.group(2);
+  }
+
   /**
    * Load the version info from the ZIP file and checks whether such version can be opened with this
    * MZmine
@@ -300,8 +359,8 @@ public class ProjectOpeningTask extends AbstractTask {
     Pattern versionPattern = Pattern.compile("^(\\d+)\\.(\\d+)");
 
     BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-    String projectVersionString = reader.readLine();
     String mzmineVersionString = MZmineCore.getMZmineVersion();
+    String projectVersionString = checkProjectFormat(reader.readLine(), mzmineVersionString);
 
     Matcher m = versionPattern.matcher(mzmineVersionString);
     if (!m.find()) {
@@ -326,14 +385,16 @@ public class ProjectOpeningTask extends AbstractTask {
     // Check if the project version is 2.0 to 2.2
     if ((projectMajorVersion == 2) && (projectMinorVersion <= 2)) {
       rawDataFileOpenHandler = new RawDataFileOpenHandler_2_0();
-      peakListOpenHandler = new PeakListOpenHandler_2_0(dataFilesIDMap);
+      peakListOpenHandlerFactory = () -> new PeakListOpenHandler_2_0(dataFilesIDMap);
+      peakListOpenHandler = peakListOpenHandlerFactory.get();
       return;
     }
 
     // Check if the project version is 2.3 to 2.4
     if ((projectMajorVersion == 2) && (projectMinorVersion <= 4)) {
       rawDataFileOpenHandler = new RawDataFileOpenHandler_2_3();
-      peakListOpenHandler = new PeakListOpenHandler_2_3(dataFilesIDMap);
+      peakListOpenHandlerFactory = () -> new PeakListOpenHandler_2_3(dataFilesIDMap);
+      peakListOpenHandler = peakListOpenHandlerFactory.get();
       userParameterOpenHandler = new UserParameterOpenHandler_2_3(newProject, dataFilesIDMap);
       return;
     }
@@ -351,7 +412,9 @@ public class ProjectOpeningTask extends AbstractTask {
 
     // Default opening handler for MZmine.5 and higher
     rawDataFileOpenHandler = new RawDataFileOpenHandler_2_5();
-    peakListOpenHandler = new PeakListOpenHandler_2_5(dataFilesIDMap);
+    peakListOpenHandlerFactory = () -> new PeakListOpenHandler_2_5(dataFilesIDMap);
+    peakListOpenHandler = peakListOpenHandlerFactory.get();
+    currentPeakListFormat = true;
     userParameterOpenHandler = new UserParameterOpenHandler_2_5(newProject, dataFilesIDMap);
 
   }
@@ -388,23 +451,41 @@ public class ProjectOpeningTask extends AbstractTask {
 
     currentLoadedObjectName = fileName;
 
-    File scansFile = scanFilesIDMap.get(fileID);
-    if (scansFile == null) {
+    ScansEntry scans = scanFilesIDMap.get(fileID);
+    if (scans == null) {
       throw new IOException("Missing scans data for file ID " + fileID);
     }
 
-    RawDataFile newFile = rawDataFileOpenHandler.readRawDataFile(is, scansFile);
+    RawDataFile newFile = rawDataFileOpenHandler.readRawDataFile(is, scans);
     newProject.addFile(newFile);
     dataFilesIDMap.put(fileID, newFile);
 
+    // The first save can copy the scans from this project file
+    if (newFile instanceof RawDataFileImpl) {
+      ProjectSavingTask.registerOpenedScans((RawDataFileImpl) newFile, openFile,
+          scanEntriesIDMap.get(fileID));
+    }
+
   }
 
-  private void loadScansFile(InputStream is, String fileID, String fileName) throws IOException {
+  private void loadScansFile(InputStream is, ZipEntry entry, String fileID, String fileName)
+      throws IOException {
 
     logger.info("Loading scans data #" + fileID + ": " + fileName);
 
     currentLoadedObjectName = fileName + " scan data";
 
+    scanEntriesIDMap.put(fileID, entry.getName());
+
+    // Stored entries are read in place from the project file
+    if (SCANS_IN_PLACE && (entry.getMethod() == ZipEntry.STORED)) {
+      final Long offset = getStoredEntryOffsets().get(entry.getName());
+      if (offset != null) {
+        scanFilesIDMap.put(fileID, ScansEntry.inPlace(openFile, offset, entry.getSize()));
+        return;
+      }
+    }
+
     final File tempFile = RawDataFileImpl.createNewDataPointsFile();
     final FileOutputStream os = new FileOutputStream(tempFile);
 
@@ -412,17 +493,47 @@ public class ProjectOpeningTask extends AbstractTask {
     copyMachine.copy(is, os);
     os.close();
 
-    scanFilesIDMap.put(fileID, tempFile);
+    scanFilesIDMap.put(fileID, ScansEntry.extracted(tempFile));
 
   }
 
-  private void loadPeakList(InputStream is, String peakListName) throws IOException,
-      ParserConfigurationException, SAXException, InstantiationException, IllegalAccessException {
+  /**
+   * Reads where the data of the stored entries start in the project file, which the ZIP file
+   * classes of the JDK do not tell
+   */
+  private Map<String, Long> getStoredEntryOffsets() throws IOException {
+    if (storedEntryOffsets != null)
+      return storedEntryOffsets;
+    storedEntryOffsets = new HashMap<>();
+    try (org.apache.commons.compress.archivers.zip.ZipFile zipFile =
+        new org.apache.commons.compress.archivers.zip.ZipFile(openFile)) {
+      final Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
+      while (entries.hasMoreElements()) {
+        final ZipArchiveEntry entry = entries.nextElement();
+        if ((entry.getMethod() == ZipEntry.STORED) && (entry.getDataOffset() >= 0))
+          storedEntryOffsets.put(entry.getName(), entry.getDataOffset());
+      }
+    }
+    return storedEntryOffsets;
+  }
 
-    logger.info("Loading feature list " + peakListName);
+  private void loadPeakList(InputStream is, String entryName, String peakListName)
+      throws IOException, ParserConfigurationException, SAXException, InstantiationException,
+      IllegalAccessException {
 
     currentLoadedObjectName = peakListName;
 
+    // Only register the feature list, its rows are read when it is used
+    if (loadPeakListsOnDemand) {
+      logger.info("Registering feature list " + peakListName);
+      PeakList newPeakList = LazyPeakList.readHeader(is, openFile, entryName, dataFilesIDMap,
+          peakListOpenHandlerFactory, currentPeakListFormat);
+      newProject.addPeakList(newPeakList);
+      return;
+    }
+
+    logger.info("Loading feature list " + peakListName);
+
     PeakList newPeakList = peakListOpenHandler.readPeakList(is);
 
     newProject.addPeakList(newPeakList);
@@ -431,6 +542,31 @@ public class ProjectOpeningTask extends AbstractTask {
     QualityParameters.calculateQualityParameters(newPeakList);
   }
 
+  private void loadBinaryPeakList(InputStream is, String entryName, String peakListName)
+      throws IOException {
+
+    currentLoadedObjectName = peakListName;
+
+    // Only register the feature list, its rows are read when it is used
+    if (loadPeakListsOnDemand) {
+      logger.info("Registering feature list " + peakListName);
+      PeakList newPeakList =
+          LazyPeakList.readBinaryHeader(is, openFile, entryName, dataFilesIDMap);
+      newProject.addPeakList(newPeakList);
+      return;
+    }
+
+    logger.info("Loading feature list " + peakListName);
+
+    peakListBinaryOpenHandler = new PeakListBinaryOpenHandler(dataFilesIDMap);
+    PeakList newPeakList = peakListBinaryOpenHandler.readPeakList(is);
+
+    newProject.addPeakList(newPeakList);
+
+    // Add quality parameters to peaks
+    QualityParameters.calculateQualityParameters(newPeakList);
+  }
+
   private void loadUserParameters(InputStream is) throws IOException, ParserConfigurationException,
       SAXException, InstantiationException, IllegalAccessException {
 
@@ -18,7 +18,6 @@
 
 package io.github.mzmine.modules.io.projectload;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -30,7 +29,7 @@ import io.github.mzmine.datamodel.RawDataFile;
 
 public interface RawDataFileOpenHandler {
 
-  RawDataFile readRawDataFile(InputStream is, File scansFile)
+  RawDataFile readRawDataFile(InputStream is, ScansEntry scans)
       throws IOException, ParserConfigurationException, SAXException;
 
   void cancel();
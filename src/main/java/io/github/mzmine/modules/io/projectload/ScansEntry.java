@@ -0,0 +1,68 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectload;
+
+import java.io.File;
+import java.io.IOException;
+
+import io.github.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Scan data of a raw data file in a project file: either the scans entry extracted to a temporary
+ * data points file, or the stored (uncompressed) scans entry, which is read in place from the
+ * project file.
+ */
+public class ScansEntry {
+
+  private final File file;
+  private final long offset, length;
+  private final boolean inPlace;
+
+  private ScansEntry(File file, long offset, long length, boolean inPlace) {
+    this.file = file;
+    this.offset = offset;
+    this.length = length;
+    this.inPlace = inPlace;
+  }
+
+  /**
+   * Scans entry extracted to the given temporary data points file
+   */
+  static ScansEntry extracted(File dataPointsFile) {
+    return new ScansEntry(dataPointsFile, 0, dataPointsFile.length(), false);
+  }
+
+  /**
+   * Stored scans entry, whose data starts at the given offset of the project file
+   */
+  static ScansEntry inPlace(File projectFile, long offset, long length) {
+    return new ScansEntry(projectFile, offset, length, true);
+  }
+
+  /**
+   * Opens the scan data as the data points file of the raw data file
+   */
+  public void open(RawDataFileImpl rawDataFile) throws IOException {
+    if (inPlace)
+      rawDataFile.openScansEntry(file, offset, length);
+    else
+      rawDataFile.openDataPointsFile(file);
+  }
+
+}
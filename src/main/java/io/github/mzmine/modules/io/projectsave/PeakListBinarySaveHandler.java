@@ -0,0 +1,413 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ * 
+ * This file is part of MZmine.
+ * 
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectsave;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.Feature;
+import io.github.mzmine.datamodel.IsotopePattern;
+import io.github.mzmine.datamodel.PeakIdentity;
+import io.github.mzmine.datamodel.PeakInformation;
+import io.github.mzmine.datamodel.PeakList;
+import io.github.mzmine.datamodel.PeakList.PeakListAppliedMethod;
+import io.github.mzmine.datamodel.PeakListRow;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * Saves a feature list in a columnar binary format. The header holds the name, creation date, raw
+ * data files and applied methods. All other strings are written once to a dictionary and referred
+ * to by their index. The rows and their identities follow as primitive arrays, then the features
+ * of each raw data file: m/z, RT, height, area and the other values as one array each, the data
+ * points of all features packed into scan number, m/z and intensity arrays.
+ * 
+ * All values are big-endian. Strings are written as their UTF-8 length and bytes, null values of
+ * nullable integers as {@link #NULL_VALUE}.
+ */
+public class PeakListBinarySaveHandler {
+
+  // "MZPL"
+  public static final int MAGIC = 0x4d5a504c;
+  public static final int FORMAT_VERSION = 1;
+
+  public static final int NULL_VALUE = Integer.MIN_VALUE;
+
+  // Number of values converted at once when writing an array
+  private static final int BUFFER_VALUES = 8192;
+
+  private final Hashtable<RawDataFile, String> dataFilesIDMap;
+  private final DataOutputStream dataStream;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_VALUES * Double.BYTES);
+
+  private final Object2IntOpenHashMap<String> dictionaryIndexes = new Object2IntOpenHashMap<>();
+  private final List<String> dictionary = new ArrayList<>();
+
+  private int totalFeatures, finishedFeatures;
+  private volatile boolean canceled = false;
+
+  public PeakListBinarySaveHandler(OutputStream finalStream,
+      Hashtable<RawDataFile, String> dataFilesIDMap) {
+    // The stream is only flushed, because the final stream is a ZIP entry that stays open
+    this.dataStream = new DataOutputStream(new BufferedOutputStream(finalStream, 1 << 16));
+    this.dataFilesIDMap = dataFilesIDMap;
+    dictionaryIndexes.defaultReturnValue(NULL_VALUE);
+  }
+
+  /**
+   * Writes the feature list to the stream given in the constructor
+   * 
+   * @param peakList
+   * @throws IOException
+   */
+  public void savePeakList(PeakList peakList) throws IOException {
+
+    final PeakListRow rows[] = peakList.getRows().toArray(new PeakListRow[0]);
+
+    // Raw data files of the features, the files of the feature list first
+    final Map<RawDataFile, FeatureColumns> columns = new LinkedHashMap<>();
+    for (RawDataFile dataFile : peakList.getRawDataFiles())
+      columns.put(dataFile, new FeatureColumns());
+
+    // Row columns
+    final int rowIDs[] = new int[rows.length];
+    final int rowComments[] = new int[rows.length];
+    final int rowIdentities[] = new int[rows.length];
+    final int rowPreferredIdentities[] = new int[rows.length];
+    final int rowInformation[] = new int[rows.length];
+    final IntArrayList identityProperties = new IntArrayList();
+    final IntArrayList identityKeys = new IntArrayList();
+    final IntArrayList identityValues = new IntArrayList();
+    final IntArrayList informationKeys = new IntArrayList();
+    final IntArrayList informationValues = new IntArrayList();
+
+    totalFeatures = 0;
+    finishedFeatures = 0;
+
+    for (int i = 0; i < rows.length; i++) {
+
+      if (canceled)
+        return;
+
+      final PeakListRow row = rows[i];
+      rowIDs[i] = row.getID();
+      rowComments[i] = toIndex(row.getComment());
+
+      final PeakIdentity preferredIdentity = row.getPreferredPeakIdentity();
+      final PeakIdentity identities[] = row.getPeakIdentities();
+      rowIdentities[i] = identities.length;
+      rowPreferredIdentities[i] = NULL_VALUE;
+      for (int j = 0; j < identities.length; j++) {
+        if (identities[j] == preferredIdentity)
+          rowPreferredIdentities[i] = j;
+        Map<String, String> properties = identities[j].getAllProperties();
+        identityProperties.add(properties.size());
+        for (Entry<String, String> property : properties.entrySet()) {
+          identityKeys.add(toIndex(property.getKey()));
+          identityValues.add(toIndex(property.getValue()));
+        }
+      }
+
+      final PeakInformation information = row.getPeakInformation();
+      if (information == null) {
+        rowInformation[i] = NULL_VALUE;
+      } else {
+        Map<String, String> properties = information.getAllProperties();
+        rowInformation[i] = properties.size();
+        for (Entry<String, String> property : properties.entrySet()) {
+          informationKeys.add(toIndex(property.getKey()));
+          informationValues.add(toIndex(property.getValue()));
+        }
+      }
+
+      for (Feature feature : row.getPeaks()) {
+        FeatureColumns fileColumns =
+            columns.computeIfAbsent(feature.getDataFile(), f -> new FeatureColumns());
+        fileColumns.add(i, feature);
+        totalFeatures++;
+      }
+    }
+
+    // Header, which is read without the rest when feature lists are loaded on demand
+    dataStream.writeInt(MAGIC);
+    dataStream.writeInt(FORMAT_VERSION);
+    writeString(peakList.getName());
+    writeString(getDateCreated(peakList));
+
+    final RawDataFile dataFiles[] = peakList.getRawDataFiles().toArray(new RawDataFile[0]);
+    dataStream.writeInt(dataFiles.length);
+    for (RawDataFile dataFile : dataFiles)
+      writeString(dataFilesIDMap.get(dataFile));
+
+    final PeakListAppliedMethod methods[] = peakList.getAppliedMethods();
+    dataStream.writeInt(methods.length);
+    for (PeakListAppliedMethod method : methods) {
+      writeString(method.getDescription());
+      writeString(method.getParameters());
+    }
+
+    dataStream.writeInt(rows.length);
+    dataStream.writeInt(totalFeatures);
+
+    // String dictionary
+    dataStream.writeInt(dictionary.size());
+    for (String value : dictionary)
+      writeString(value);
+
+    // Rows
+    writeInts(rowIDs, rows.length);
+    writeInts(rowComments, rows.length);
+    writeInts(rowIdentities, rows.length);
+    writeInts(rowPreferredIdentities, rows.length);
+    writeInts(identityProperties);
+    writeInts(identityKeys);
+    writeInts(identityValues);
+    writeInts(rowInformation, rows.length);
+    writeInts(informationKeys);
+    writeInts(informationValues);
+
+    // Features of each raw data file
+    dataStream.writeInt(columns.size());
+    for (Entry<RawDataFile, FeatureColumns> fileColumns : columns.entrySet()) {
+      if (canceled)
+        return;
+      writeString(dataFilesIDMap.get(fileColumns.getKey()));
+      fileColumns.getValue().write();
+    }
+
+    dataStream.flush();
+  }
+
+  private String getDateCreated(PeakList peakList) {
+    if (peakList instanceof SimplePeakList) {
+      String dateCreated = ((SimplePeakList) peakList).getDateCreated();
+      if (dateCreated != null)
+        return dateCreated;
+    }
+    // The date format is shared by feature lists that are saved in parallel
+    synchronized (PeakListSaveHandler.dateFormat) {
+      return PeakListSaveHandler.dateFormat.format(new Date());
+    }
+  }
+
+  /**
+   * @return the index of the given string in the dictionary, which is added if necessary, or
+   *         {@link #NULL_VALUE} for null
+   */
+  private int toIndex(String value) {
+    if (value == null)
+      return NULL_VALUE;
+    int index = dictionaryIndexes.getInt(value);
+    if (index == NULL_VALUE) {
+      index = dictionary.size();
+      dictionary.add(value);
+      dictionaryIndexes.put(value, index);
+    }
+    return index;
+  }
+
+  private void writeString(String value) throws IOException {
+    if (value == null) {
+      dataStream.writeInt(NULL_VALUE);
+      return;
+    }
+    byte bytes[] = value.getBytes(StandardCharsets.UTF_8);
+    dataStream.writeInt(bytes.length);
+    dataStream.write(bytes);
+  }
+
+  /**
+   * Writes the length of the list and its values
+   */
+  private void writeInts(IntArrayList values) throws IOException {
+    dataStream.writeInt(values.size());
+    writeInts(values.elements(), values.size());
+  }
+
+  private void writeInts(int values[], int length) throws IOException {
+    for (int offset = 0; offset < length; offset += BUFFER_VALUES) {
+      int count = Math.min(BUFFER_VALUES, length - offset);
+      buffer.clear();
+      buffer.asIntBuffer().put(values, offset, count);
+      dataStream.write(buffer.array(), 0, count * Integer.BYTES);
+    }
+  }
+
+  private void writeFloats(float values[], int length) throws IOException {
+    for (int offset = 0; offset < length; offset += BUFFER_VALUES) {
+      int count = Math.min(BUFFER_VALUES, length - offset);
+      buffer.clear();
+      buffer.asFloatBuffer().put(values, offset, count);
+      dataStream.write(buffer.array(), 0, count * Float.BYTES);
+    }
+  }
+
+  private void writeDoubles(double values[], int length) throws IOException {
+    for (int offset = 0; offset < length; offset += BUFFER_VALUES) {
+      int count = Math.min(BUFFER_VALUES, length - offset);
+      buffer.clear();
+      buffer.asDoubleBuffer().put(values, offset, count);
+      dataStream.write(buffer.array(), 0, count * Double.BYTES);
+    }
+  }
+
+  /**
+   * @return the progress of saving the feature list
+   */
+  public double getProgress() {
+    if (totalFeatures == 0)
+      return 0;
+    return (double) finishedFeatures / totalFeatures;
+  }
+
+  public void cancel() {
+    canceled = true;
+  }
+
+  /**
+   * Values of the features of one raw data file
+   */
+  private class FeatureColumns {
+
+    private final IntArrayList rowIndexes = new IntArrayList();
+    private final DoubleArrayList mz = new DoubleArrayList();
+    private final DoubleArrayList rt = new DoubleArrayList();
+    private final DoubleArrayList height = new DoubleArrayList();
+    private final DoubleArrayList area = new DoubleArrayList();
+    private final IntArrayList status = new IntArrayList();
+    private final IntArrayList charge = new IntArrayList();
+    private final IntArrayList parentChromatogramRowIDs = new IntArrayList();
+    private final IntArrayList representativeScans = new IntArrayList();
+    private final IntArrayList fragmentScans = new IntArrayList();
+
+    // Number of MS2 scans per feature, or NULL_VALUE, and the packed scan numbers
+    private final IntArrayList ms2ScanCounts = new IntArrayList();
+    private final IntArrayList ms2Scans = new IntArrayList();
+
+    // Number of data points per feature and the packed data points
+    private final IntArrayList dataPointCounts = new IntArrayList();
+    private final IntArrayList dataPointScans = new IntArrayList();
+    private final FloatArrayList dataPointMZ = new FloatArrayList();
+    private final FloatArrayList dataPointIntensities = new FloatArrayList();
+
+    // Number of isotopes per feature, or NULL_VALUE, and the packed isotopes
+    private final IntArrayList isotopeCounts = new IntArrayList();
+    private final IntArrayList isotopeStatus = new IntArrayList();
+    private final IntArrayList isotopeDescriptions = new IntArrayList();
+    private final DoubleArrayList isotopeMZ = new DoubleArrayList();
+    private final DoubleArrayList isotopeIntensities = new DoubleArrayList();
+
+    void add(int rowIndex, Feature feature) {
+      rowIndexes.add(rowIndex);
+      mz.add(feature.getMZ());
+      rt.add(feature.getRT());
+      height.add(feature.getHeight());
+      area.add(feature.getArea());
+      status.add(toIndex(feature.getFeatureStatus().name()));
+      charge.add(feature.getCharge());
+      Integer parentChromatogramRowID = feature.getParentChromatogramRowID();
+      parentChromatogramRowIDs
+          .add(parentChromatogramRowID != null ? parentChromatogramRowID : NULL_VALUE);
+      representativeScans.add(feature.getRepresentativeScanNumber());
+      fragmentScans.add(feature.getMostIntenseFragmentScanNumber());
+
+      int allMS2Scans[] = feature.getAllMS2FragmentScanNumbers();
+      if (allMS2Scans == null) {
+        ms2ScanCounts.add(NULL_VALUE);
+      } else {
+        ms2ScanCounts.add(allMS2Scans.length);
+        ms2Scans.addElements(ms2Scans.size(), allMS2Scans);
+      }
+
+      // Like in the XML format, missing data points are saved as zeros
+      int scanNumbers[] = feature.getScanNumbers();
+      dataPointCounts.add(scanNumbers.length);
+      for (int scan : scanNumbers) {
+        dataPointScans.add(scan);
+        DataPoint dataPoint = feature.getDataPoint(scan);
+        dataPointMZ.add(dataPoint != null ? (float) dataPoint.getMZ() : 0f);
+        dataPointIntensities.add(dataPoint != null ? (float) dataPoint.getIntensity() : 0f);
+      }
+
+      IsotopePattern isotopePattern = feature.getIsotopePattern();
+      if (isotopePattern == null) {
+        isotopeCounts.add(NULL_VALUE);
+        isotopeStatus.add(NULL_VALUE);
+        isotopeDescriptions.add(NULL_VALUE);
+      } else {
+        DataPoint isotopes[] = isotopePattern.getDataPoints();
+        isotopeCounts.add(isotopes.length);
+        isotopeStatus.add(toIndex(isotopePattern.getStatus().name()));
+        isotopeDescriptions.add(toIndex(isotopePattern.getDescription()));
+        for (DataPoint isotope : isotopes) {
+          isotopeMZ.add(isotope.getMZ());
+          isotopeIntensities.add(isotope.getIntensity());
+        }
+      }
+    }
+
+    void write() throws IOException {
+      final int n = rowIndexes.size();
+      dataStream.writeInt(n);
+      writeInts(rowIndexes.elements(), n);
+      writeDoubles(mz.elements(), n);
+      writeDoubles(rt.elements(), n);
+      writeDoubles(height.elements(), n);
+      writeDoubles(area.elements(), n);
+      writeInts(status.elements(), n);
+      writeInts(charge.elements(), n);
+      writeInts(parentChromatogramRowIDs.elements(), n);
+      writeInts(representativeScans.elements(), n);
+      writeInts(fragmentScans.elements(), n);
+
+      writeInts(ms2ScanCounts.elements(), n);
+      writeInts(ms2Scans);
+
+      writeInts(dataPointCounts.elements(), n);
+      writeInts(dataPointScans);
+      writeFloats(dataPointMZ.elements(), dataPointMZ.size());
+      writeFloats(dataPointIntensities.elements(), dataPointIntensities.size());
+
+      writeInts(isotopeCounts.elements(), n);
+      writeInts(isotopeStatus.elements(), n);
+      writeInts(isotopeDescriptions.elements(), n);
+      dataStream.writeInt(isotopeMZ.size());
+      writeDoubles(isotopeMZ.elements(), isotopeMZ.size());
+      writeDoubles(isotopeIntensities.elements(), isotopeIntensities.size());
+
+      finishedFeatures += n;
+    }
+  }
+
+}
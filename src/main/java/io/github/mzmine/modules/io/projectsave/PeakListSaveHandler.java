@@ -55,7 +55,7 @@ public class PeakListSaveHandler {
   private Hashtable<RawDataFile, String> dataFilesIDMap;
 
   private int numberOfRows, finishedRows;
-  private boolean canceled = false;
+  private volatile boolean canceled = false;
 
   private OutputStream finalStream;
 
@@ -105,7 +105,10 @@ public class PeakListSaveHandler {
       dateText = ((SimplePeakList) peakList).getDateCreated();
     } else {
       Date date = new Date();
-      dateText = dateFormat.format(date);
+      // The date format is shared by feature lists that are saved in parallel
+      synchronized (dateFormat) {
+        dateText = dateFormat.format(date);
+      }
     }
     hd.startElement("", "", PeakListElementName.PEAKLIST_DATE.getElementName(), atts);
     hd.characters(dateText.toCharArray(), 0, dateText.length());
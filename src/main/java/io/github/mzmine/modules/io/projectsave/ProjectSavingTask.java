@@ -20,21 +20,41 @@ package io.github.mzmine.modules.io.projectsave;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.Deflater;
 
 import javax.xml.transform.TransformerConfigurationException;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.xml.sax.SAXException;
 
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.main.MZmineConfiguration;
 import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.modules.io.projectload.LazyPeakList;
 import io.github.mzmine.modules.io.projectload.ProjectLoaderParameters;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.project.impl.MZmineProjectImpl;
@@ -42,25 +62,56 @@ import io.github.mzmine.project.impl.RawDataFileImpl;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.ExceptionUtils;
+import io.github.mzmine.util.ParallelUtils;
 import io.github.mzmine.util.StreamCopy;
-
+import io.github.mzmine.util.exceptions.PeakListLoadException;
+
+/**
+ * Saves the project to a ZIP file. Raw data files and feature lists are serialized in parallel,
+ * each into a temporary ZIP file, whose compressed entries are then copied to the project file in
+ * the usual order. The scans of a raw data file are copied from the previously saved or opened
+ * project file when its data points did not change since, and so is a feature list of an opened
+ * project whose rows were never loaded. The project file is replaced only after all entries were
+ * written.
+ */
 public class ProjectSavingTask extends AbstractTask {
 
   public static final String VERSION_FILENAME = "MZMINE_VERSION";
   public static final String CONFIG_FILENAME = "configuration.xml";
   public static final String PARAMETERS_FILENAME = "User parameters.xml";
 
+  /**
+   * Format of projects with feature lists in the binary format. Their version entry starts with the
+   * format instead of the MZmine version, which older MZmine versions cannot parse, so they refuse
+   * such projects instead of opening them without the feature lists. Projects with XML feature
+   * lists keep the plain MZmine version.
+   */
+  public static final int PROJECT_FORMAT_VERSION = 3;
+  public static final String PROJECT_FORMAT_PREFIX = "MZmine project format ";
+
+  // Last saved or opened scans entry of each raw data file
+  private static final Map<RawDataFileImpl, SavedScansEntry> savedScansEntries =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
   private File saveFile;
   private MZmineProjectImpl savedProject;
 
-  private RawDataFileSaveHandler rawDataFileSaveHandler;
-  private PeakListSaveHandler peakListSaveHandler;
+  // Handlers of the raw data files and feature lists that are being saved
+  private final List<RawDataFileSaveHandler> rawDataFileSaveHandlers =
+      Collections.synchronizedList(new ArrayList<>());
+  private final List<PeakListSaveHandler> peakListSaveHandlers =
+      Collections.synchronizedList(new ArrayList<>());
+  private final List<PeakListBinarySaveHandler> peakListBinarySaveHandlers =
+      Collections.synchronizedList(new ArrayList<>());
+  private boolean binaryPeakLists;
+  private boolean storedScans;
   private UserParameterSaveHandler userParameterSaveHandler;
 
   private final int totalSaveItems;
-  private int currentStage, finishedSaveItems = 0;
+  private final AtomicInteger finishedSaveItems = new AtomicInteger(0);
+  private int currentStage, copiedSaveItems = 0;
   private String currentSavedObjectName;
 
   // This hashtable maps raw data files to their ID within the saved project
@@ -73,6 +124,22 @@ public class ProjectSavingTask extends AbstractTask {
     this.totalSaveItems = project.getDataFiles().length + project.getPeakLists().length;
   }
 
+  /**
+   * Remembers the scans entry a raw data file was just opened from, so that the first save of the
+   * opened project can copy it. The data points of the raw data file must be those of the entry,
+   * stored at the same offsets.
+   */
+  public static void registerOpenedScans(RawDataFileImpl rawDataFile, File projectFile,
+      String entryName) {
+    if ((rawDataFile.getDataPointsFile() == null) || (entryName == null))
+      return;
+    final Map<Integer, Long> dataPointsOffsets = new TreeMap<>(rawDataFile.getDataPointsOffsets());
+    savedScansEntries.put(rawDataFile,
+        new SavedScansEntry(projectFile, entryName, rawDataFile.getDataPointsFile(),
+            dataPointsOffsets, new TreeMap<>(rawDataFile.getDataPointsLengths()),
+            dataPointsOffsets));
+  }
+
   /**
    * @see io.github.mzmine.taskcontrol.Task#getTaskDescription()
    */
@@ -92,27 +159,17 @@ public class ProjectSavingTask extends AbstractTask {
     if (totalSaveItems == 0)
       return 0.0;
 
-    double currentItemProgress = 0.0;
-
     switch (currentStage) {
       case 2:
-        if (rawDataFileSaveHandler != null)
-          currentItemProgress = rawDataFileSaveHandler.getProgress();
-        break;
+        return 0.9 * finishedSaveItems.get() / totalSaveItems;
       case 3:
-        if (peakListSaveHandler != null)
-          currentItemProgress = peakListSaveHandler.getProgress();
-        break;
+        return 0.9 + 0.1 * copiedSaveItems / totalSaveItems;
       case 4:
       case 5:
         return 1.0;
       default:
         return 0;
     }
-
-    double progress = (finishedSaveItems + currentItemProgress) / totalSaveItems;
-
-    return progress;
   }
 
   /**
@@ -125,11 +182,20 @@ public class ProjectSavingTask extends AbstractTask {
 
     setStatus(TaskStatus.CANCELED);
 
-    if (rawDataFileSaveHandler != null)
-      rawDataFileSaveHandler.cancel();
+    synchronized (rawDataFileSaveHandlers) {
+      for (RawDataFileSaveHandler handler : rawDataFileSaveHandlers)
+        handler.cancel();
+    }
 
-    if (peakListSaveHandler != null)
-      peakListSaveHandler.cancel();
+    synchronized (peakListSaveHandlers) {
+      for (PeakListSaveHandler handler : peakListSaveHandlers)
+        handler.cancel();
+    }
+
+    synchronized (peakListBinarySaveHandlers) {
+      for (PeakListBinarySaveHandler handler : peakListBinarySaveHandlers)
+        handler.cancel();
+    }
 
     if (userParameterSaveHandler != null)
       userParameterSaveHandler.cancel();
@@ -141,77 +207,213 @@ public class ProjectSavingTask extends AbstractTask {
    */
   @Override
   public void run() {
+
+    File tempFile = null;
+    ZipArchiveOutputStream zipStream = null;
+    ExecutorService executor = null;
+    final List<File> fragmentFiles = new ArrayList<>();
+    final Map<File, ZipFile> previousProjectFiles = new HashMap<>();
+
     try {
       logger.info("Saving project to " + saveFile);
       setStatus(TaskStatus.PROCESSING);
 
+      final MZmineConfiguration configuration = MZmineCore.getConfiguration();
+      binaryPeakLists = (configuration != null) && configuration.isSaveBinaryPeakLists();
+      // Scans are only stored uncompressed for reading in place if projects are opened on demand
+      storedScans = (configuration != null) && configuration.isLoadPeakListsOnDemand();
+
       // Prepare a temporary ZIP file. We create this file in the same
       // directory as the final saveFile to avoid moving between
-      // filesystems in the last stage (renameTo)
-      File tempFile = File.createTempFile(saveFile.getName(), ".tmp", saveFile.getParentFile());
+      // filesystems in the last stage (rename)
+      tempFile = File.createTempFile(saveFile.getName(), ".tmp", saveFile.getParentFile());
       tempFile.deleteOnExit();
 
       // Create a ZIP stream writing to the temporary file
-      FileOutputStream tempStream = new FileOutputStream(tempFile);
-      ZipOutputStream zipStream = new ZipOutputStream(tempStream);
+      zipStream = new ZipArchiveOutputStream(tempFile);
 
       // Stage 1 - save version and configuration
       currentStage++;
       saveVersion(zipStream);
       saveConfiguration(zipStream);
-      if (isCanceled()) {
-        zipStream.close();
-        tempFile.delete();
+      if (isCanceled())
         return;
+
+      RawDataFile rawDataFiles[] = savedProject.getDataFiles();
+      PeakList peakLists[] = savedProject.getPeakLists();
+      for (int i = 0; i < rawDataFiles.length; i++) {
+        dataFilesIDMap.put(rawDataFiles[i], String.valueOf(i + 1));
       }
 
-      // Stage 2 - save RawDataFile objects
+      // Stage 2 - serialize RawDataFile and PeakList objects in parallel
       currentStage++;
-      saveRawDataFiles(zipStream);
-      if (isCanceled()) {
-        zipStream.close();
-        tempFile.delete();
-        return;
+
+      final SavedScansEntry reusedScans[] = new SavedScansEntry[rawDataFiles.length];
+      for (int i = 0; i < rawDataFiles.length; i++) {
+        final RawDataFileImpl rawDataFile = (RawDataFileImpl) rawDataFiles[i];
+        final SavedScansEntry savedScans = savedScansEntries.get(rawDataFile);
+        if ((savedScans != null) && savedScans.isValidFor(rawDataFile)) {
+          reusedScans[i] = savedScans;
+          previousProjectFiles.putIfAbsent(savedScans.getProjectFile(), null);
+        }
       }
 
-      // Stage 3 - save PeakList objects
-      currentStage++;
-      savePeakLists(zipStream);
-      if (isCanceled()) {
-        zipStream.close();
-        tempFile.delete();
+      // Feature lists of an opened project, which were not loaded since
+      final LazyPeakList reusedPeakLists[] = new LazyPeakList[peakLists.length];
+      final File reusedPeakListFiles[] = new File[peakLists.length];
+      final String reusedPeakListEntries[] = new String[peakLists.length];
+      for (int i = 0; i < peakLists.length; i++) {
+        if (!(peakLists[i] instanceof LazyPeakList))
+          continue;
+        final LazyPeakList lazyPeakList = (LazyPeakList) peakLists[i];
+        synchronized (lazyPeakList) {
+          if (!lazyPeakList.isUnchanged(dataFilesIDMap))
+            continue;
+          reusedPeakLists[i] = lazyPeakList;
+          reusedPeakListFiles[i] = lazyPeakList.getProjectFile();
+          reusedPeakListEntries[i] = lazyPeakList.getEntryName();
+        }
+        previousProjectFiles.putIfAbsent(reusedPeakListFiles[i], null);
+      }
+
+      for (File previousProjectFile : previousProjectFiles.keySet()) {
+        previousProjectFiles.put(previousProjectFile, new ZipFile(previousProjectFile));
+      }
+
+      final RawDataFileSaveHandler rawDataFileHandlers[] =
+          new RawDataFileSaveHandler[rawDataFiles.length];
+      final List<Callable<Void>> saveJobs = new ArrayList<>();
+      for (int i = 0; i < rawDataFiles.length; i++) {
+        final File fragmentFile = createFragmentFile(fragmentFiles);
+        final int index = i;
+        final RawDataFileImpl rawDataFile = (RawDataFileImpl) rawDataFiles[i];
+        saveJobs.add(() -> {
+          rawDataFileHandlers[index] =
+              saveRawDataFile(fragmentFile, rawDataFile, index + 1, reusedScans[index]);
+          return null;
+        });
+      }
+      for (int i = 0; i < peakLists.length; i++) {
+        final File fragmentFile = createFragmentFile(fragmentFiles);
+        final int number = i + 1;
+        final PeakList peakList = peakLists[i];
+        final boolean reused = reusedPeakLists[i] != null;
+        saveJobs.add(() -> {
+          if (reused) {
+            logger.info("Reusing saved feature list: " + peakList.getName());
+            finishedSaveItems.incrementAndGet();
+          } else {
+            savePeakList(fragmentFile, peakList, number);
+          }
+          return null;
+        });
+      }
+
+      final int numOfThreads =
+          Math.max(1, Math.min(ParallelUtils.getNumOfThreads(), saveJobs.size()));
+      executor = Executors.newFixedThreadPool(numOfThreads);
+      final List<Future<Void>> results = new ArrayList<>();
+      for (Callable<Void> saveJob : saveJobs)
+        results.add(executor.submit(saveJob));
+      currentSavedObjectName = null;
+      for (int i = 0; i < results.size(); i++) {
+        try {
+          results.get(i).get();
+        } catch (ExecutionException e) {
+          if (i < rawDataFiles.length)
+            currentSavedObjectName = rawDataFiles[i].getName();
+          else
+            currentSavedObjectName = peakLists[i - rawDataFiles.length].getName();
+          throw e.getCause();
+        }
+      }
+      if (isCanceled())
         return;
+
+      // Stage 3 - copy the serialized objects to the ZIP file in their order
+      currentStage++;
+      for (int i = 0; i < saveJobs.size(); i++) {
+
+        if (isCanceled())
+          return;
+
+        if (i < rawDataFiles.length) {
+          final RawDataFileImpl rawDataFile = (RawDataFileImpl) rawDataFiles[i];
+          currentSavedObjectName = rawDataFile.getName();
+          final String scansEntryName =
+              RawDataFileSaveHandler.getSavedName(rawDataFile, i + 1) + ".scans";
+          if (reusedScans[i] != null) {
+            copyRawEntry(zipStream, previousProjectFiles.get(reusedScans[i].getProjectFile()),
+                reusedScans[i].getEntryName(), scansEntryName);
+          }
+        } else {
+          final int p = i - rawDataFiles.length;
+          currentSavedObjectName = peakLists[p].getName();
+          if (reusedPeakLists[p] != null) {
+            copyRawEntry(zipStream, previousProjectFiles.get(reusedPeakListFiles[p]),
+                reusedPeakListEntries[p], getReusedPeakListEntryName(reusedPeakListEntries[p],
+                    peakLists[p], p + 1));
+            fragmentFiles.get(i).delete();
+            copiedSaveItems++;
+            continue;
+          }
+        }
+
+        try (ZipFile fragment = new ZipFile(fragmentFiles.get(i))) {
+          fragment.copyRawEntries(zipStream, entry -> true);
+        }
+        fragmentFiles.get(i).delete();
+        copiedSaveItems++;
       }
 
       // Stage 4 - save user parameters
       currentStage++;
       saveUserParameters(zipStream);
-      if (isCanceled()) {
-        zipStream.close();
-        tempFile.delete();
+      if (isCanceled())
         return;
-      }
 
       // Stage 5 - finish and close the temporary ZIP file
       currentStage++;
       currentSavedObjectName = null;
       zipStream.close();
+      zipStream = null;
+      for (ZipFile previousProjectFile : previousProjectFiles.values())
+        previousProjectFile.close();
+      previousProjectFiles.clear();
 
       // Final check for cancel
-      if (isCanceled()) {
-        tempFile.delete();
+      if (isCanceled())
         return;
-      }
 
-      // Move the temporary ZIP file to the final location
-      if (saveFile.exists() && !saveFile.delete()) {
-        throw new IOException("Could not delete old file " + saveFile);
+      // Move the temporary ZIP file to the final location. The old file is replaced at once, so the
+      // project file is always complete.
+      try {
+        Files.move(tempFile.toPath(), saveFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempFile.toPath(), saveFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      tempFile = null;
+
+      // Remember the saved scans for the next save
+      for (int i = 0; i < rawDataFiles.length; i++) {
+        final RawDataFileImpl rawDataFile = (RawDataFileImpl) rawDataFiles[i];
+        final RawDataFileSaveHandler handler = rawDataFileHandlers[i];
+        final String scansEntryName =
+            RawDataFileSaveHandler.getSavedName(rawDataFile, i + 1) + ".scans";
+        savedScansEntries.put(rawDataFile,
+            new SavedScansEntry(saveFile, scansEntryName, rawDataFile.getDataPointsFile(),
+                handler.getDataPointsOffsets(), handler.getDataPointsLengths(),
+                handler.getConsolidatedDataPointsOffsets()));
       }
 
-      boolean renameOK = tempFile.renameTo(saveFile);
-      if (!renameOK) {
-        throw new IOException(
-            "Could not move the temporary file " + tempFile + " to the final location " + saveFile);
+      // The copied feature lists are read from the new project file from now on, the previous one
+      // may just have been replaced
+      for (int i = 0; i < peakLists.length; i++) {
+        if (reusedPeakLists[i] != null) {
+          reusedPeakLists[i].setSavedEntry(saveFile,
+              getReusedPeakListEntryName(reusedPeakListEntries[i], peakLists[i], i + 1));
+        }
       }
 
       // Update the location of the project
@@ -227,7 +429,8 @@ public class ProjectSavingTask extends AbstractTask {
       setStatus(TaskStatus.FINISHED);
 
       // add to last loaded projects
-      MZmineCore.getConfiguration().getLastProjectsParameter().addFile(saveFile);
+      if (configuration != null)
+        configuration.getLastProjectsParameter().addFile(saveFile);
 
     } catch (Throwable e) {
 
@@ -242,6 +445,34 @@ public class ProjectSavingTask extends AbstractTask {
             + ": " + ExceptionUtils.exceptionToString(e));
       }
 
+    } finally {
+
+      if (executor != null)
+        executor.shutdownNow();
+
+      for (ZipFile previousProjectFile : previousProjectFiles.values()) {
+        try {
+          if (previousProjectFile != null)
+            previousProjectFile.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+
+      if (zipStream != null) {
+        try {
+          zipStream.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+
+      if (tempFile != null)
+        tempFile.delete();
+
+      for (File fragmentFile : fragmentFiles)
+        fragmentFile.delete();
+
     }
   }
 
@@ -250,14 +481,18 @@ public class ProjectSavingTask extends AbstractTask {
    * 
    * @throws java.io.IOException
    */
-  private void saveVersion(ZipOutputStream zipStream) throws IOException {
+  private void saveVersion(ZipArchiveOutputStream zipStream) throws IOException {
 
-    zipStream.putNextEntry(new ZipEntry(VERSION_FILENAME));
+    zipStream.putArchiveEntry(new ZipArchiveEntry(VERSION_FILENAME));
 
     String MZmineVersion = MZmineCore.getMZmineVersion();
+    if (binaryPeakLists)
+      MZmineVersion = PROJECT_FORMAT_PREFIX + PROJECT_FORMAT_VERSION + ", MZmine " + MZmineVersion;
 
     zipStream.write(MZmineVersion.getBytes());
 
+    zipStream.closeArchiveEntry();
+
   }
 
   /**
@@ -265,13 +500,13 @@ public class ProjectSavingTask extends AbstractTask {
    * 
    * @throws java.io.IOException
    */
-  private void saveConfiguration(ZipOutputStream zipStream) throws IOException {
+  private void saveConfiguration(ZipArchiveOutputStream zipStream) throws IOException {
 
     logger.info("Saving configuration file");
 
     currentSavedObjectName = "configuration";
 
-    zipStream.putNextEntry(new ZipEntry(CONFIG_FILENAME));
+    zipStream.putArchiveEntry(new ZipArchiveEntry(CONFIG_FILENAME));
 
     try {
       File tempConfigFile = File.createTempFile("mzmineconfig", ".tmp");
@@ -288,60 +523,133 @@ public class ProjectSavingTask extends AbstractTask {
       logger.warning("Could not save configuration" + ExceptionUtils.exceptionToString(e));
     }
 
+    zipStream.closeArchiveEntry();
+
   }
 
   /**
-   * Save the raw data files
+   * Creates a temporary ZIP file for one of the saved objects, next to the project file
+   */
+  private File createFragmentFile(List<File> fragmentFiles) throws IOException {
+    File fragmentFile = File.createTempFile(saveFile.getName(), ".tmp", saveFile.getParentFile());
+    fragmentFile.deleteOnExit();
+    fragmentFiles.add(fragmentFile);
+    return fragmentFile;
+  }
+
+  /**
+   * Save the raw data file to the given temporary ZIP file. If savedScans is not null, only the
+   * description is saved, because the scans will be copied from the previous project file.
    * 
+   * @return the handler, which knows the structure of the saved data points
    * @throws SAXException
    * @throws TransformerConfigurationException
    */
-  private void saveRawDataFiles(ZipOutputStream zipStream)
+  private RawDataFileSaveHandler saveRawDataFile(File fragmentFile, RawDataFileImpl rawDataFile,
+      int number, SavedScansEntry savedScans)
       throws IOException, TransformerConfigurationException, SAXException {
 
-    rawDataFileSaveHandler = new RawDataFileSaveHandler(zipStream);
-
-    RawDataFile rawDataFiles[] = savedProject.getDataFiles();
+    try (ZipArchiveOutputStream zipStream = new ZipArchiveOutputStream(fragmentFile)) {
 
-    for (int i = 0; i < rawDataFiles.length; i++) {
+      RawDataFileSaveHandler rawDataFileSaveHandler = new RawDataFileSaveHandler(zipStream, storedScans);
+      rawDataFileSaveHandlers.add(rawDataFileSaveHandler);
 
       if (isCanceled())
-        return;
+        return rawDataFileSaveHandler;
 
-      currentSavedObjectName = rawDataFiles[i].getName();
-      rawDataFileSaveHandler.writeRawDataFile((RawDataFileImpl) rawDataFiles[i], i + 1);
-      dataFilesIDMap.put(rawDataFiles[i], String.valueOf(i + 1));
-      finishedSaveItems++;
+      if (savedScans == null) {
+        rawDataFileSaveHandler.writeRawDataFile(rawDataFile, number);
+      } else {
+        logger.info("Reusing saved data points of: " + rawDataFile.getName());
+        rawDataFileSaveHandler.writeDescription(rawDataFile, number,
+            savedScans.getDataPointsOffsets(), savedScans.getDataPointsLengths(),
+            savedScans.getConsolidatedDataPointsOffsets());
+      }
+      finishedSaveItems.incrementAndGet();
+      return rawDataFileSaveHandler;
     }
   }
 
   /**
-   * Save the feature lists
+   * Copy the compressed entry of a raw data file or feature list from a previously saved project
+   * file
+   */
+  private void copyRawEntry(ZipArchiveOutputStream zipStream, ZipFile previousProjectFile,
+      String previousEntryName, String entryName) throws IOException {
+
+    ZipArchiveEntry previousEntry = previousProjectFile.getEntry(previousEntryName);
+    if (previousEntry == null)
+      throw new IOException("Missing " + previousEntryName + " in previously saved project");
+
+    ZipArchiveEntry entry = new ZipArchiveEntry(entryName);
+    entry.setMethod(previousEntry.getMethod());
+    entry.setCrc(previousEntry.getCrc());
+    entry.setSize(previousEntry.getSize());
+    entry.setCompressedSize(previousEntry.getCompressedSize());
+    entry.setTime(previousEntry.getTime());
+
+    try (InputStream rawStream = previousProjectFile.getRawInputStream(previousEntry)) {
+      zipStream.addRawArchiveEntry(entry, rawStream);
+    }
+  }
+
+  /**
+   * Name of a copied feature list entry in the new project file, keeping the format of the entry
+   */
+  private static String getReusedPeakListEntryName(String previousEntryName, PeakList peakList,
+      int number) {
+    final String extension = previousEntryName.substring(previousEntryName.lastIndexOf('.'));
+    return "Peak list #" + number + " " + peakList.getName() + extension;
+  }
+
+  /**
+   * Save the feature list to the given temporary ZIP file, in the binary format or as XML
    * 
    * @throws SAXException
    * @throws TransformerConfigurationException
    */
-  private void savePeakLists(ZipOutputStream zipStream)
+  private void savePeakList(File fragmentFile, PeakList peakList, int number)
       throws IOException, TransformerConfigurationException, SAXException {
 
-    PeakList peakLists[] = savedProject.getPeakLists();
+    // A feature list of an opened project whose rows could not be read from the project file
+    // would be saved without them
+    try {
+      peakList.getNumberOfRows();
+    } catch (PeakListLoadException e) {
+      throw new IOException("The project is not saved, because " + e.getMessage(), e);
+    }
 
-    for (int i = 0; i < peakLists.length; i++) {
+    try (ZipArchiveOutputStream zipStream = new ZipArchiveOutputStream(fragmentFile)) {
 
       if (isCanceled())
         return;
 
-      logger.info("Saving feature list: " + peakLists[i].getName());
+      logger.info("Saving feature list: " + peakList.getName());
+
+      String peakListSavedName = "Peak list #" + number + " " + peakList.getName();
 
-      String peakListSavedName = "Peak list #" + (i + 1) + " " + peakLists[i].getName();
+      if (binaryPeakLists) {
+        // The numeric columns hardly compress, so deflating harder only costs time
+        zipStream.setLevel(Deflater.BEST_SPEED);
+        zipStream.putArchiveEntry(new ZipArchiveEntry(peakListSavedName + ".bin"));
 
-      zipStream.putNextEntry(new ZipEntry(peakListSavedName + ".xml"));
+        PeakListBinarySaveHandler peakListSaveHandler =
+            new PeakListBinarySaveHandler(zipStream, dataFilesIDMap);
+        peakListBinarySaveHandlers.add(peakListSaveHandler);
 
-      peakListSaveHandler = new PeakListSaveHandler(zipStream, dataFilesIDMap);
+        peakListSaveHandler.savePeakList(peakList);
+      } else {
+        zipStream.putArchiveEntry(new ZipArchiveEntry(peakListSavedName + ".xml"));
+
+        PeakListSaveHandler peakListSaveHandler =
+            new PeakListSaveHandler(zipStream, dataFilesIDMap);
+        peakListSaveHandlers.add(peakListSaveHandler);
 
-      currentSavedObjectName = peakLists[i].getName();
-      peakListSaveHandler.savePeakList(peakLists[i]);
-      finishedSaveItems++;
+        peakListSaveHandler.savePeakList(peakList);
+      }
+
+      zipStream.closeArchiveEntry();
+      finishedSaveItems.incrementAndGet();
     }
   }
 
@@ -351,7 +659,7 @@ public class ProjectSavingTask extends AbstractTask {
    * @throws SAXException
    * @throws TransformerConfigurationException
    */
-  private void saveUserParameters(ZipOutputStream zipStream)
+  private void saveUserParameters(ZipArchiveOutputStream zipStream)
       throws IOException, TransformerConfigurationException, SAXException {
 
     if (isCanceled())
@@ -359,7 +667,7 @@ public class ProjectSavingTask extends AbstractTask {
 
     logger.info("Saving user parameters");
 
-    zipStream.putNextEntry(new ZipEntry(PARAMETERS_FILENAME));
+    zipStream.putArchiveEntry(new ZipArchiveEntry(PARAMETERS_FILENAME));
 
     userParameterSaveHandler =
         new UserParameterSaveHandler(zipStream, savedProject, dataFilesIDMap);
@@ -367,6 +675,8 @@ public class ProjectSavingTask extends AbstractTask {
     currentSavedObjectName = "User parameters";
     userParameterSaveHandler.saveParameters();
 
+    zipStream.closeArchiveEntry();
+
   }
 
 }
@@ -20,12 +20,10 @@ package io.github.mzmine.modules.io.projectsave;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
@@ -34,6 +32,8 @@ import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
 
@@ -49,15 +49,28 @@ class RawDataFileSaveHandler {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
   private int numOfScans, completedScans;
-  private ZipOutputStream zipOutputStream;
-  private boolean canceled = false;
+  private ZipArchiveOutputStream zipOutputStream;
+  private final boolean storedScans;
+  private volatile boolean canceled = false;
   private Map<Integer, Long> dataPointsOffsets;
   private Map<Integer, Long> consolidatedDataPointsOffsets;
   private Map<Integer, Integer> dataPointsLengths;
   private double progress = 0;
 
-  RawDataFileSaveHandler(ZipOutputStream zipOutputStream) {
+  /**
+   * @param storedScans whether the scans are stored uncompressed, so that they can be read in place
+   *        when the project is opened, instead of deflated to a smaller project file
+   */
+  RawDataFileSaveHandler(ZipArchiveOutputStream zipOutputStream, boolean storedScans) {
     this.zipOutputStream = zipOutputStream;
+    this.storedScans = storedScans;
+  }
+
+  /**
+   * Returns the name of the raw data file inside the zip file, without extension
+   */
+  static String getSavedName(RawDataFileImpl rawDataFile, int number) {
+    return "Raw data file #" + number + " " + rawDataFile.getName();
   }
 
   /**
@@ -74,52 +87,94 @@ class RawDataFileSaveHandler {
   void writeRawDataFile(RawDataFileImpl rawDataFile, int number)
       throws IOException, TransformerConfigurationException, SAXException {
 
-    numOfScans = rawDataFile.getNumOfScans();
+    writeScans(rawDataFile, number);
+
+    if (canceled)
+      return;
+
+    writeDescription(rawDataFile, number);
+  }
 
-    // Get the structure of the data points file
-    dataPointsOffsets = rawDataFile.getDataPointsOffsets();
-    dataPointsLengths = rawDataFile.getDataPointsLengths();
+  /**
+   * Copy the data points file of the raw data file from the temporary folder to the zip file. The
+   * structure of the saved data points is available from getDataPointsOffsets(),
+   * getDataPointsLengths() and getConsolidatedDataPointsOffsets() afterwards.
+   */
+  void writeScans(RawDataFileImpl rawDataFile, int number) throws IOException {
+
+    // Get the structure of the data points file. The copies keep the saved data points and their
+    // description consistent, even if data points are added while saving.
+    dataPointsOffsets = new TreeMap<>(rawDataFile.getDataPointsOffsets());
+    dataPointsLengths = new TreeMap<>(rawDataFile.getDataPointsLengths());
     consolidatedDataPointsOffsets = new TreeMap<Integer, Long>();
 
     // step 1 - save data file
     logger.info("Saving data points of: " + rawDataFile.getName());
 
-    String rawDataSavedName = "Raw data file #" + number + " " + rawDataFile.getName();
+    String rawDataSavedName = getSavedName(rawDataFile, number);
 
-    zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".scans"));
+    // Stored scans are uncompressed, so that opening the project can read them in place instead of
+    // extracting them, at the cost of a larger project file. The fragment file is seekable, so size
+    // and CRC are written afterwards.
+    final ZipArchiveEntry scansEntry = new ZipArchiveEntry(rawDataSavedName + ".scans");
+    if (storedScans)
+      scansEntry.setMethod(ZipArchiveEntry.STORED);
+    zipOutputStream.putArchiveEntry(scansEntry);
 
     // We save only those data points that still have a reference in the
     // dataPointsOffset table. Some deleted mass lists may still be present
-    // in the data points file, we don't want to copy those.
+    // in the data points file, we don't want to copy those. Compressed data
+    // points are saved uncompressed, so the project can be opened by any
+    // version of MZmine.
     long newOffset = 0;
     byte buffer[] = new byte[1 << 20];
-    RandomAccessFile dataPointsFile = rawDataFile.getDataPointsFile();
+    int savedDataPoints = 0;
     for (Integer storageID : dataPointsOffsets.keySet()) {
 
       if (canceled)
         return;
 
-      final long offset = dataPointsOffsets.get(storageID);
-      dataPointsFile.seek(offset);
-
-      final int bytes = dataPointsLengths.get(storageID) * 4 * 2;
+      final ByteBuffer dataPoints = rawDataFile.readUncompressedDataPoints(storageID);
+      final int bytes = dataPoints.remaining();
       consolidatedDataPointsOffsets.put(storageID, newOffset);
       if (buffer.length < bytes) {
         buffer = new byte[bytes * 2];
       }
-      dataPointsFile.read(buffer, 0, bytes);
+      dataPoints.get(buffer, 0, bytes);
       zipOutputStream.write(buffer, 0, bytes);
       newOffset += bytes;
-      progress = 0.9 * ((double) offset / dataPointsFile.length());
+      savedDataPoints++;
+      progress = 0.9 * ((double) savedDataPoints / dataPointsOffsets.size());
     }
 
-    if (canceled)
-      return;
+    zipOutputStream.closeArchiveEntry();
+  }
+
+  /**
+   * Create an XML file which contains the description of the raw data file, whose data points were
+   * already saved with the given structure (e.g., by a previous save of the project)
+   */
+  void writeDescription(RawDataFileImpl rawDataFile, int number,
+      Map<Integer, Long> dataPointsOffsets, Map<Integer, Integer> dataPointsLengths,
+      Map<Integer, Long> consolidatedDataPointsOffsets)
+      throws IOException, TransformerConfigurationException, SAXException {
+    this.dataPointsOffsets = dataPointsOffsets;
+    this.dataPointsLengths = dataPointsLengths;
+    this.consolidatedDataPointsOffsets = consolidatedDataPointsOffsets;
+    writeDescription(rawDataFile, number);
+  }
+
+  private void writeDescription(RawDataFileImpl rawDataFile, int number)
+      throws IOException, TransformerConfigurationException, SAXException {
+
+    numOfScans = rawDataFile.getNumOfScans();
 
     // step 2 - save raw data description
     logger.info("Saving raw data description of: " + rawDataFile.getName());
 
-    zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".xml"));
+    String rawDataSavedName = getSavedName(rawDataFile, number);
+
+    zipOutputStream.putArchiveEntry(new ZipArchiveEntry(rawDataSavedName + ".xml"));
     OutputStream finalStream = zipOutputStream;
 
     StreamResult streamResult = new StreamResult(finalStream);
@@ -134,6 +189,8 @@ class RawDataFileSaveHandler {
     hd.startDocument();
     saveRawDataInformation(rawDataFile, hd);
     hd.endDocument();
+
+    zipOutputStream.closeArchiveEntry();
   }
 
   /**
@@ -309,6 +366,18 @@ class RawDataFileSaveHandler {
 
   }
 
+  Map<Integer, Long> getDataPointsOffsets() {
+    return dataPointsOffsets;
+  }
+
+  Map<Integer, Integer> getDataPointsLengths() {
+    return dataPointsLengths;
+  }
+
+  Map<Integer, Long> getConsolidatedDataPointsOffsets() {
+    return consolidatedDataPointsOffsets;
+  }
+
   /**
    * 
    * @return the progress of these functions saving the raw data information to the zip file.
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ * 
+ * This file is part of MZmine.
+ * 
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectsave;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Map;
+
+import io.github.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Remembers where the data points of a raw data file were saved, so that the next save of the
+ * project can copy the compressed scans entry from that project file instead of writing it again.
+ * The data points file is append-only, so the stored bytes are the same as long as the storage IDs
+ * map to the same offsets and lengths.
+ */
+class SavedScansEntry {
+
+  private final File projectFile;
+  private final long projectFileLength, projectFileModified;
+  private final String entryName;
+  private final RandomAccessFile dataPointsFile;
+  private final Map<Integer, Long> dataPointsOffsets;
+  private final Map<Integer, Integer> dataPointsLengths;
+  private final Map<Integer, Long> consolidatedDataPointsOffsets;
+
+  SavedScansEntry(File projectFile, String entryName, RandomAccessFile dataPointsFile,
+      Map<Integer, Long> dataPointsOffsets, Map<Integer, Integer> dataPointsLengths,
+      Map<Integer, Long> consolidatedDataPointsOffsets) {
+    this.projectFile = projectFile;
+    this.projectFileLength = projectFile.length();
+    this.projectFileModified = projectFile.lastModified();
+    this.entryName = entryName;
+    this.dataPointsFile = dataPointsFile;
+    this.dataPointsOffsets = dataPointsOffsets;
+    this.dataPointsLengths = dataPointsLengths;
+    this.consolidatedDataPointsOffsets = consolidatedDataPointsOffsets;
+  }
+
+  /**
+   * Checks that the project file was not modified since it was saved and that the raw data file
+   * still has the same data points
+   */
+  boolean isValidFor(RawDataFileImpl rawDataFile) {
+    return projectFile.length() == projectFileLength
+        && projectFile.lastModified() == projectFileModified
+        && rawDataFile.getDataPointsFile() == dataPointsFile
+        && dataPointsOffsets.equals(rawDataFile.getDataPointsOffsets())
+        && dataPointsLengths.equals(rawDataFile.getDataPointsLengths());
+  }
+
+  File getProjectFile() {
+    return projectFile;
+  }
+
+  String getEntryName() {
+    return entryName;
+  }
+
+  Map<Integer, Long> getDataPointsOffsets() {
+    return dataPointsOffsets;
+  }
+
+  Map<Integer, Integer> getDataPointsLengths() {
+    return dataPointsLengths;
+  }
+
+  Map<Integer, Long> getConsolidatedDataPointsOffsets() {
+    return consolidatedDataPointsOffsets;
+  }
+
+}
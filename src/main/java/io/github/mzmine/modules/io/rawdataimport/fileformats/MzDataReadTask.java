@@ -23,7 +23,9 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Base64;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.SAXParser;
@@ -41,6 +43,7 @@ import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.RawDataFileWriter;
 import io.github.mzmine.datamodel.impl.SimpleDataPoint;
 import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.modules.io.rawdataimport.fileformats.ScanImportPipeline.ScanDecoder;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.ExceptionUtils;
@@ -76,10 +79,17 @@ public class MzDataReadTask extends AbstractTask {
 
   /*
    * The information of "m/z" & "int" is content in two arrays because the mzData standard manages
-   * this information in two different tags.
+   * this information in two different tags. The arrays are kept base64 encoded until they are
+   * decoded by the pipeline.
    */
-  private double[] mzDataPoints;
-  private double[] intensityDataPoints;
+  private String mzBinary, mzPrecision, mzEndian;
+  private String intensityBinary, intensityPrecision, intensityEndian;
+
+  // Decodes the arrays in parallel and writes the scans in order
+  private ScanImportPipeline pipeline;
+
+  // Decoders of the scans in parentStack
+  private final Map<SimpleScan, ScanDecoder> scanDecoders = new IdentityHashMap<>();
 
   /*
    * This variable hold the current scan or fragment, it is send to the stack when another
@@ -126,10 +136,13 @@ public class MzDataReadTask extends AbstractTask {
     // Use the default (non-validating) parser
     SAXParserFactory factory = SAXParserFactory.newInstance();
 
+    pipeline = new ScanImportPipeline(newMZmineFile, file.getName());
+
     try {
 
       SAXParser saxParser = factory.newSAXParser();
       saxParser.parse(file, handler);
+      pipeline.finish();
 
       // Close file
       finalRawDataFile = newMZmineFile.finishWriting();
@@ -137,6 +150,7 @@ public class MzDataReadTask extends AbstractTask {
 
     } catch (Throwable e) {
       e.printStackTrace();
+      pipeline.cancel();
       /* we may already have set the status to CANCELED */
       if (getStatus() == TaskStatus.PROCESSING) {
         setStatus(TaskStatus.ERROR);
@@ -161,6 +175,52 @@ public class MzDataReadTask extends AbstractTask {
     return "Opening file " + file;
   }
 
+  /**
+   * Runs on the decoder threads of the pipeline
+   */
+  private static double[] decodeArray(String base64Text, String precision, String endian,
+      int peaksCount) {
+
+    double values[] = new double[peaksCount];
+
+    byte[] peakBytes = Base64.getDecoder().decode(base64Text);
+
+    ByteBuffer currentBytes = ByteBuffer.wrap(peakBytes);
+
+    if (endian.equals("big")) {
+      currentBytes = currentBytes.order(ByteOrder.BIG_ENDIAN);
+    } else {
+      currentBytes = currentBytes.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    for (int i = 0; i < values.length; i++) {
+      if (precision == null || precision.equals("32"))
+        values[i] = (double) currentBytes.getFloat();
+      else
+        values[i] = currentBytes.getDouble();
+    }
+    return values;
+  }
+
+  /**
+   * Runs on the decoder threads of the pipeline
+   */
+  private static void setDataPoints(SimpleScan scan, double mzValues[], double intensityValues[]) {
+
+    DataPoint dataPoints[] = new DataPoint[mzValues.length];
+
+    // Copy m/z and intensity data
+    for (int i = 0; i < dataPoints.length; i++) {
+      dataPoints[i] = new SimpleDataPoint(mzValues[i], intensityValues[i]);
+    }
+
+    // Auto-detect whether this scan is centroided
+    MassSpectrumType spectrumType = ScanUtils.detectSpectrumType(dataPoints);
+
+    scan.setSpectrumType(spectrumType);
+    scan.setDataPoints(dataPoints);
+  }
+
   private class MzDataHandler extends DefaultHandler {
 
     public void startElement(String namespaceURI, String lName, // local
@@ -296,20 +356,21 @@ public class MzDataReadTask extends AbstractTask {
       // <spectrum>
       if (qName.equalsIgnoreCase("spectrum")) {
 
-        DataPoint dataPoints[] = new DataPoint[peaksCount];
         spectrumInstrumentFlag = false;
 
-        // Copy m/z and intensity data
-        for (int i = 0; i < dataPoints.length; i++) {
-          dataPoints[i] =
-              new SimpleDataPoint((double) mzDataPoints[i], (double) intensityDataPoints[i]);
-        }
-
-        // Auto-detect whether this scan is centroided
-        MassSpectrumType spectrumType = ScanUtils.detectSpectrumType(dataPoints);
-
+        // The data points are decoded by the pipeline
         buildingScan = new SimpleScan(null, scanNumber, msLevel, retentionTime, precursorMz,
-            precursorCharge, null, dataPoints, spectrumType, polarity, "", null);
+            precursorCharge, null, new DataPoint[0], null, polarity, "", null);
+        final int numOfDataPoints = peaksCount;
+        final String mzText = mzBinary, mzPrec = mzPrecision, mzEnd = mzEndian;
+        final String intensityText = intensityBinary, intensityPrec = intensityPrecision,
+            intensityEnd = intensityEndian;
+        scanDecoders.put(buildingScan, scan -> {
+          double mzValues[] = decodeArray(mzText, mzPrec, mzEnd, numOfDataPoints);
+          double intensityValues[] =
+              decodeArray(intensityText, intensityPrec, intensityEnd, numOfDataPoints);
+          setDataPoints(scan, mzValues, intensityValues);
+        });
 
         /*
          * Update of fragmentScanNumbers of each Scan in the parentStack
@@ -328,7 +389,7 @@ public class MzDataReadTask extends AbstractTask {
         if (parentStack.size() > 10) {
           SimpleScan scan = parentStack.removeLast();
           try {
-            newMZmineFile.addScan(scan);
+            pipeline.addScan(scan, scanDecoders.remove(scan));
           } catch (IOException e) {
             setStatus(TaskStatus.ERROR);
             setErrorMessage("IO error: " + e);
@@ -344,50 +405,18 @@ public class MzDataReadTask extends AbstractTask {
 
       // <mzArrayBinary>
       if (qName.equalsIgnoreCase("mzArrayBinary")) {
-
         mzArrayBinaryFlag = false;
-        mzDataPoints = new double[peaksCount];
-
-        byte[] peakBytes = Base64.getDecoder().decode(charBuffer.toString().trim());
-
-        ByteBuffer currentMzBytes = ByteBuffer.wrap(peakBytes);
-
-        if (endian.equals("big")) {
-          currentMzBytes = currentMzBytes.order(ByteOrder.BIG_ENDIAN);
-        } else {
-          currentMzBytes = currentMzBytes.order(ByteOrder.LITTLE_ENDIAN);
-        }
-
-        for (int i = 0; i < mzDataPoints.length; i++) {
-          if (precision == null || precision.equals("32"))
-            mzDataPoints[i] = (double) currentMzBytes.getFloat();
-          else
-            mzDataPoints[i] = currentMzBytes.getDouble();
-        }
+        mzBinary = charBuffer.toString().trim();
+        mzPrecision = precision;
+        mzEndian = endian;
       }
 
       // <intenArrayBinary>
       if (qName.equalsIgnoreCase("intenArrayBinary")) {
-
         intenArrayBinaryFlag = false;
-        intensityDataPoints = new double[peaksCount];
-
-        byte[] peakBytes = Base64.getDecoder().decode(charBuffer.toString().trim());
-
-        ByteBuffer currentIntensityBytes = ByteBuffer.wrap(peakBytes);
-
-        if (endian.equals("big")) {
-          currentIntensityBytes = currentIntensityBytes.order(ByteOrder.BIG_ENDIAN);
-        } else {
-          currentIntensityBytes = currentIntensityBytes.order(ByteOrder.LITTLE_ENDIAN);
-        }
-
-        for (int i = 0; i < intensityDataPoints.length; i++) {
-          if (precision == null || precision.equals("32"))
-            intensityDataPoints[i] = (double) currentIntensityBytes.getFloat();
-          else
-            intensityDataPoints[i] = currentIntensityBytes.getDouble();
-        }
+        intensityBinary = charBuffer.toString().trim();
+        intensityPrecision = precision;
+        intensityEndian = endian;
       }
     }
 
@@ -404,7 +433,7 @@ public class MzDataReadTask extends AbstractTask {
       while (!parentStack.isEmpty()) {
         SimpleScan scan = parentStack.removeLast();
         try {
-          newMZmineFile.addScan(scan);
+          pipeline.addScan(scan, scanDecoders.remove(scan));
         } catch (IOException e) {
           setStatus(TaskStatus.ERROR);
           setErrorMessage("IO error: " + e);
@@ -15,43 +15,58 @@
  * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
  * USA
  */
-
 package io.github.mzmine.modules.io.rawdataimport.fileformats;
 
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.util.*;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import com.google.common.io.CountingInputStream;
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.MZmineProject;
-import io.github.mzmine.datamodel.MassSpectrumType;
 import io.github.mzmine.datamodel.PolarityType;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.RawDataFileWriter;
 import io.github.mzmine.datamodel.impl.SimpleDataPoint;
 import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.modules.io.rawdataimport.fileformats.ScanImportPipeline.ScanDecoder;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.ExceptionUtils;
 import io.github.mzmine.util.scans.ScanUtils;
-import uk.ac.ebi.jmzml.model.mzml.BinaryDataArray;
-import uk.ac.ebi.jmzml.model.mzml.BinaryDataArrayList;
-import uk.ac.ebi.jmzml.model.mzml.CVParam;
-import uk.ac.ebi.jmzml.model.mzml.ParamGroup;
-import uk.ac.ebi.jmzml.model.mzml.Precursor;
-import uk.ac.ebi.jmzml.model.mzml.PrecursorList;
-import uk.ac.ebi.jmzml.model.mzml.Scan;
-import uk.ac.ebi.jmzml.model.mzml.ScanList;
-import uk.ac.ebi.jmzml.model.mzml.SelectedIonList;
-import uk.ac.ebi.jmzml.model.mzml.Spectrum;
-import uk.ac.ebi.jmzml.xml.io.MzMLObjectIterator;
-import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshaller;
 
 /**
- * This class reads mzML 1.0 and 1.1.0 files (http://www.psidev.info/index.php?q=node/257) using the
- * jmzml library (http://code.google.com/p/jmzml/).
+ * This class reads mzML 1.0 and 1.1.0 files (http://www.psidev.info/index.php?q=node/257). The file
+ * is streamed with a StAX parser, one spectrum at a time, and the base64 (optionally zlib
+ * compressed) binary arrays are decoded directly into primitive arrays.
  */
 public class MzMLReadTask extends AbstractTask {
 
@@ -59,16 +74,37 @@ public class MzMLReadTask extends AbstractTask {
 
   private static final Pattern SCAN_PATTERN = Pattern.compile("scan=([0-9]+)");
 
+  private static final Pattern INDEX_LIST_OFFSET_PATTERN =
+      Pattern.compile("<indexListOffset>\\s*([0-9]+)\\s*</indexListOffset>");
+
   private File file;
   private MZmineProject project;
   private RawDataFileWriter newMZmineFile;
   private RawDataFile finalRawDataFile;
-  private int totalScans = 0, parsedScans;
+  private int parsedScans;
+
+  // Progress is reported by the position in the file
+  private long fileLength = 0;
+  private CountingInputStream countingStream;
 
   private int lastScanNumber = 0;
 
   private Map<String, Integer> scanIdTable = new Hashtable<String, Integer>();
 
+  // cvParams of the referenceableParamGroups, by group ID
+  private final Map<String, List<CVParam>> paramGroups = new HashMap<>();
+
+  private final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+  // Decodes the binary arrays in parallel and writes the scans in order
+  private ScanImportPipeline pipeline;
+
+  // Decoders of the scans in parentStack
+  private final Map<SimpleScan, ScanDecoder> scanDecoders = new IdentityHashMap<>();
+
+  // Inflaters of this parser, reused by the decoder threads and ended when parsing is done
+  private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
   /*
    * This stack stores at most 20 consecutive scans. This window serves to find possible fragments
    * (current scan) that belongs to any of the stored scans in the stack. The reason of the size
@@ -79,17 +115,83 @@ public class MzMLReadTask extends AbstractTask {
   private static final int PARENT_STACK_SIZE = 20;
   private LinkedList<SimpleScan> parentStack = new LinkedList<SimpleScan>();
 
+  /**
+   * A cvParam element
+   */
+  private static class CVParam {
+    private final String accession, value, unitAccession;
+
+    private CVParam(String accession, String value, String unitAccession) {
+      this.accession = accession;
+      this.value = value;
+      this.unitAccession = unitAccession;
+    }
+  }
+
+  /**
+   * The still encoded content of a binary element
+   */
+  private static class BinaryArray {
+    private final String base64Text;
+    private final boolean doublePrecision, integer, zlibCompression;
+
+    private BinaryArray(String base64Text, boolean doublePrecision, boolean integer,
+        boolean zlibCompression) {
+      this.base64Text = base64Text;
+      this.doublePrecision = doublePrecision;
+      this.integer = integer;
+      this.zlibCompression = zlibCompression;
+    }
+  }
+
+  /**
+   * The parts of the spectrum element in which we are interested in cvParams
+   */
+  private enum Context {
+    SPECTRUM, SCAN, SELECTED_ION, BINARY_DATA_ARRAY, OTHER
+  }
+
+  /**
+   * Values collected while parsing one spectrum element. Where the value may be given for the
+   * spectrum and for its scans, the spectrum value wins.
+   */
+  private static class SpectrumData {
+    private String id;
+    private int defaultArrayLength;
+    private boolean msSpectrum = true;
+    private int msLevel = 1;
+    private boolean retentionTimeFound = false;
+    private double retentionTime = 0;
+    private PolarityType spectrumPolarity, scanPolarity;
+    private String spectrumScanDefinition, scanScanDefinition;
+    private int numOfPrecursors = 0;
+    private String precursorScanId;
+    private double precursorMz = 0;
+    private int precursorCharge = 0;
+    private BinaryArray mzValues, intensityValues;
+
+    // State of the current binary data array
+    private int arrayIndex = -1;
+    private boolean mzArray, intensityArray, otherArray, doublePrecision = true, integer,
+        zlibCompression;
+  }
+
   public MzMLReadTask(MZmineProject project, File fileToOpen, RawDataFileWriter newMZmineFile) {
     this.project = project;
     this.file = fileToOpen;
     this.newMZmineFile = newMZmineFile;
+    xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
   }
 
   /**
    * @see io.github.mzmine.taskcontrol.Task#getFinishedPercentage()
    */
   public double getFinishedPercentage() {
-    return totalScans == 0 ? 0 : (double) parsedScans / totalScans;
+    final CountingInputStream stream = countingStream;
+    if ((fileLength == 0) || (stream == null))
+      return 0;
+    return Math.min(1.0, (double) stream.getCount() / fileLength);
   }
 
   /**
@@ -100,88 +202,68 @@ public class MzMLReadTask extends AbstractTask {
     setStatus(TaskStatus.PROCESSING);
     logger.info("Started parsing file " + file);
 
-    MzMLUnmarshaller unmarshaller = new MzMLUnmarshaller(file);
-
-    totalScans = unmarshaller.getObjectCountForXpath("/run/spectrumList/spectrum");
+    fileLength = file.length();
 
-    fillScanIdTable(
-        unmarshaller.unmarshalCollectionFromXpath("/run/spectrumList/spectrum", Spectrum.class),
-        totalScans);
+    pipeline = new ScanImportPipeline(newMZmineFile, file.getName());
 
-    MzMLObjectIterator<Spectrum> spectrumIterator =
-        unmarshaller.unmarshalCollectionFromXpath("/run/spectrumList/spectrum", Spectrum.class);
     try {
 
-      while (spectrumIterator.hasNext()) {
-
-        if (isCanceled())
-          return;
-
-        Spectrum spectrum = spectrumIterator.next();
-
-        // Ignore scans that are not MS, e.g. UV
-        if (!isMsSpectrum(spectrum)) {
-          parsedScans++;
-          continue;
-        }
+      // indexedmzML files list all spectrum IDs at the end of the file. Otherwise we have to read
+      // the file twice.
+      List<String> scanIds = readScanIdsFromIndex();
+      if (scanIds == null)
+        scanIds = readScanIdsFromSpectra();
+      fillScanIdTable(scanIds);
+
+      try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+        countingStream = new CountingInputStream(in);
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(countingStream);
+        try {
+          while (reader.hasNext()) {
+
+            if (isCanceled()) {
+              pipeline.cancel();
+              return;
+            }
+
+            if (reader.next() != XMLStreamConstants.START_ELEMENT)
+              continue;
 
-        String scanId = spectrum.getId();
-        Integer scanNumber = scanIdTable.get(scanId);
-        if (scanNumber == null)
-          throw new IllegalStateException("Cannot determine scan number: " + scanId);
-
-        // Extract scan data
-        int msLevel = extractMSLevel(spectrum);
-        double retentionTime = extractRetentionTime(spectrum);
-        PolarityType polarity = extractPolarity(spectrum);
-        int parentScan = extractParentScanNumber(spectrum);
-        double precursorMz = extractPrecursorMz(spectrum);
-        int precursorCharge = extractPrecursorCharge(spectrum);
-        String scanDefinition = extractScanDefinition(spectrum);
-        DataPoint dataPoints[] = extractDataPoints(spectrum);
-
-        // Auto-detect whether this scan is centroided
-        MassSpectrumType spectrumType = ScanUtils.detectSpectrumType(dataPoints);
-
-        SimpleScan scan = new SimpleScan(null, scanNumber, msLevel, retentionTime, precursorMz,
-            precursorCharge, null, dataPoints, spectrumType, polarity, scanDefinition, null);
-
-        for (SimpleScan s : parentStack) {
-          if (s.getScanNumber() == parentScan) {
-            s.addFragmentScan(scanNumber);
+            switch (reader.getLocalName()) {
+              case "referenceableParamGroup":
+                readParamGroup(reader);
+                break;
+              case "spectrum":
+                SpectrumData spectrum = readSpectrum(reader);
+                if (spectrum != null)
+                  addSpectrum(spectrum);
+                break;
+            }
           }
+        } finally {
+          reader.close();
         }
-
-        /*
-         * Verify the size of parentStack. The actual size of the window to cover possible
-         * candidates is defined by limitSize.
-         */
-        if (parentStack.size() > PARENT_STACK_SIZE) {
-          SimpleScan firstScan = parentStack.removeLast();
-          newMZmineFile.addScan(firstScan);
-        }
-
-        parentStack.addFirst(scan);
-
-        parsedScans++;
-
       }
 
       while (!parentStack.isEmpty()) {
         SimpleScan scan = parentStack.removeLast();
-        newMZmineFile.addScan(scan);
-
+        pipeline.addScan(scan, scanDecoders.remove(scan));
       }
+      pipeline.finish();
 
       finalRawDataFile = newMZmineFile.finishWriting();
       project.addFile(finalRawDataFile);
 
     } catch (Throwable e) {
       e.printStackTrace();
+      pipeline.cancel();
       setStatus(TaskStatus.ERROR);
       setErrorMessage("Error parsing mzML: " + ExceptionUtils.exceptionToString(e));
-      e.printStackTrace();
       return;
+    } finally {
+      Inflater inflater;
+      while ((inflater = inflaters.poll()) != null)
+        inflater.end();
     }
 
     if (parsedScans == 0) {
@@ -196,316 +278,513 @@ public class MzMLReadTask extends AbstractTask {
   }
 
   /**
-   * Retrieves scan numbers from scan IDs and stores them in scanIdTable.
-   *
-   * If retrieved scan numbers are not unique, we replace them with new scan numbers.
-   *
-   * @param iterator iterator from MzMLUnmarshaller
+   * Creates a scan from the parsed spectrum and adds it to the raw data file, keeping the most
+   * recent scans in parentStack until their fragment scans are known
    */
-  private void fillScanIdTable(MzMLObjectIterator<Spectrum> iterator, int totalScans) {
-
-    Map<String, Integer> alternativeScanIdTable = new HashMap<>();
-    for (int i = 1; iterator.hasNext(); ++i) {
-      String id = iterator.next().getId();
-      saveScanNumberToTable(id);
-      alternativeScanIdTable.put(id, i);
-    }
-
-    Set<Integer> scanNumberSet = new HashSet<>(scanIdTable.values());
-
-    if (scanNumberSet.size() != totalScans)
-      // Scan Numbers are not unique! We replace them with numbers 1, 2,
-      // 3, ...
-      scanIdTable = alternativeScanIdTable;
-  }
+  private void addSpectrum(SpectrumData spectrum) throws IOException {
 
-  private void saveScanNumberToTable(String scanId) {
-
-    if (scanIdTable.containsKey(scanId))
+    // Ignore scans that are not MS, e.g. UV
+    if (!spectrum.msSpectrum)
       return;
 
-    final Matcher matcher = SCAN_PATTERN.matcher(scanId);
-    boolean scanNumberFound = matcher.find();
+    parsedScans++;
 
-    // Some vendors include scan=XX in the ID, some don't, such as
-    // mzML converted from WIFF files. See the definition of nativeID in
-    // http://psidev.cvs.sourceforge.net/viewvc/psidev/psi/psi-ms/mzML/controlledVocabulary/psi-ms.obo
-    if (scanNumberFound) {
-      int scanNumber = Integer.parseInt(matcher.group(1));
-      scanIdTable.put(scanId, scanNumber);
-      return;
+    Integer scanNumber = scanIdTable.get(spectrum.id);
+    if (scanNumber == null) {
+      // The index did not list this spectrum
+      saveScanNumberToTable(spectrum.id);
+      scanNumber = scanIdTable.get(spectrum.id);
     }
 
-    int scanNumber = lastScanNumber + 1;
-    lastScanNumber++;
-    scanIdTable.put(scanId, scanNumber);
-  }
-
-  private int extractMSLevel(Spectrum spectrum) {
-    // Browse the spectrum parameters
-    List<CVParam> cvParams = spectrum.getCvParam();
-    if (cvParams == null)
-      return 1;
-    for (CVParam param : cvParams) {
-      String accession = param.getAccession();
-      String value = param.getValue();
-      if ((accession == null) || (value == null))
-        continue;
+    int parentScan = -1;
+    if (spectrum.precursorScanId != null) {
+      Integer parentScanNumber = scanIdTable.get(spectrum.precursorScanId);
+      if (parentScanNumber != null)
+        parentScan = parentScanNumber;
+    }
 
-      // MS level MS:1000511
-      if (accession.equals("MS:1000511")) {
-        int msLevel = Integer.parseInt(value);
-        return msLevel;
+    PolarityType polarity = spectrum.spectrumPolarity != null ? spectrum.spectrumPolarity
+        : spectrum.scanPolarity != null ? spectrum.scanPolarity : PolarityType.UNKNOWN;
+    String scanDefinition = spectrum.spectrumScanDefinition != null
+        ? spectrum.spectrumScanDefinition
+        : spectrum.scanScanDefinition != null ? spectrum.scanScanDefinition : spectrum.id;
+
+    // The data points are decoded by the pipeline
+    SimpleScan scan = new SimpleScan(null, scanNumber, spectrum.msLevel, spectrum.retentionTime,
+        spectrum.precursorMz, spectrum.precursorCharge, null, new DataPoint[0], null, polarity,
+        scanDefinition, null);
+    final BinaryArray mzValues = spectrum.mzValues, intensityValues = spectrum.intensityValues;
+    final int defaultArrayLength = spectrum.defaultArrayLength;
+    scanDecoders.put(scan,
+        s -> decodeDataPoints(s, mzValues, intensityValues, defaultArrayLength));
+
+    for (SimpleScan s : parentStack) {
+      if (s.getScanNumber() == parentScan) {
+        s.addFragmentScan(scanNumber);
       }
     }
-    return 1;
-  }
-
-  private double extractRetentionTime(Spectrum spectrum) {
-
-    ScanList scanListElement = spectrum.getScanList();
-    if (scanListElement == null)
-      return 0;
-    List<Scan> scanElements = scanListElement.getScan();
-    if (scanElements == null)
-      return 0;
 
-    for (Scan scan : scanElements) {
-      List<CVParam> cvParams = scan.getCvParam();
-      if (cvParams == null)
-        continue;
+    /*
+     * Verify the size of parentStack. The actual size of the window to cover possible candidates is
+     * defined by limitSize.
+     */
+    if (parentStack.size() > PARENT_STACK_SIZE) {
+      SimpleScan firstScan = parentStack.removeLast();
+      pipeline.addScan(firstScan, scanDecoders.remove(firstScan));
+    }
 
-      for (CVParam param : cvParams) {
-        String accession = param.getAccession();
-        String unitAccession = param.getUnitAccession();
-        String value = param.getValue();
-        if ((accession == null) || (value == null))
-          continue;
-
-        // Retention time (actually "Scan start time") MS:1000016
-        if (accession.equals("MS:1000016")) {
-          // MS:1000038 is used in mzML 1.0, while UO:0000031
-          // is used in mzML 1.1.0 :-/
-          double retentionTime;
-          if ((unitAccession == null) || (unitAccession.equals("MS:1000038"))
-              || unitAccession.equals("UO:0000031")) {
-            retentionTime = Double.parseDouble(value);
-          } else {
-            retentionTime = Double.parseDouble(value) / 60d;
-          }
-          return retentionTime;
+    parentStack.addFirst(scan);
+  }
 
-        }
+  /**
+   * Runs on the decoder threads of the pipeline
+   */
+  private void decodeDataPoints(SimpleScan scan, BinaryArray mzArray,
+      BinaryArray intensityArray, int defaultArrayLength) throws DataFormatException {
+
+    DataPoint dataPoints[] = new DataPoint[0];
+    if ((mzArray != null) && (intensityArray != null)) {
+      final double mzValues[] = decodeBinaryArray(mzArray, defaultArrayLength);
+      final double intensityValues[] = decodeBinaryArray(intensityArray, defaultArrayLength);
+      final int numOfDataPoints = Math.min(mzValues.length, intensityValues.length);
+      dataPoints = new DataPoint[numOfDataPoints];
+      for (int i = 0; i < numOfDataPoints; i++) {
+        dataPoints[i] = new SimpleDataPoint(mzValues[i], intensityValues[i]);
       }
     }
 
-    return 0;
+    // Auto-detect whether this scan is centroided
+    scan.setSpectrumType(ScanUtils.detectSpectrumType(dataPoints));
+    scan.setDataPoints(dataPoints);
   }
 
-  private DataPoint[] extractDataPoints(Spectrum spectrum) {
-    BinaryDataArrayList dataList = spectrum.getBinaryDataArrayList();
-
-    if ((dataList == null) || (dataList.getCount().equals(0)))
-      return new DataPoint[0];
-
-    BinaryDataArray mzArray = dataList.getBinaryDataArray().get(0);
-    BinaryDataArray intensityArray = dataList.getBinaryDataArray().get(1);
-    Number mzValues[] = mzArray.getBinaryDataAsNumberArray();
-    Number intensityValues[] = intensityArray.getBinaryDataAsNumberArray();
-    DataPoint dataPoints[] = new DataPoint[mzValues.length];
-    for (int i = 0; i < dataPoints.length; i++) {
-      double mz = mzValues[i].doubleValue();
-      double intensity = intensityValues[i].doubleValue();
-      dataPoints[i] = new SimpleDataPoint(mz, intensity);
+  /**
+   * Reads a referenceableParamGroup element, the reader being positioned at its start
+   */
+  private void readParamGroup(XMLStreamReader reader) throws XMLStreamException {
+    final String groupId = reader.getAttributeValue(null, "id");
+    final List<CVParam> params = new ArrayList<>();
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if ((event == XMLStreamConstants.START_ELEMENT) && reader.getLocalName().equals("cvParam"))
+        params.add(readCVParam(reader));
+      if ((event == XMLStreamConstants.END_ELEMENT)
+          && reader.getLocalName().equals("referenceableParamGroup"))
+        break;
     }
-    return dataPoints;
+    if (groupId != null)
+      paramGroups.put(groupId, params);
+  }
 
+  private CVParam readCVParam(XMLStreamReader reader) {
+    return new CVParam(reader.getAttributeValue(null, "accession"),
+        reader.getAttributeValue(null, "value"), reader.getAttributeValue(null, "unitAccession"));
   }
 
-  private int extractParentScanNumber(Spectrum spectrum) {
-    PrecursorList precursorListElement = spectrum.getPrecursorList();
-    if ((precursorListElement == null) || (precursorListElement.getCount().equals(0)))
-      return -1;
-
-    List<Precursor> precursorList = precursorListElement.getPrecursor();
-    for (Precursor parent : precursorList) {
-      // Get the precursor scan number
-      String precursorScanId = parent.getSpectrumRef();
-      if (precursorScanId == null) {
-        return -1;
+  /**
+   * Reads a spectrum element, the reader being positioned at its start
+   */
+  private SpectrumData readSpectrum(XMLStreamReader reader) throws XMLStreamException {
+
+    SpectrumData spectrum = new SpectrumData();
+    spectrum.id = reader.getAttributeValue(null, "id");
+    String defaultArrayLength = reader.getAttributeValue(null, "defaultArrayLength");
+    if (defaultArrayLength != null)
+      spectrum.defaultArrayLength = Integer.parseInt(defaultArrayLength.trim());
+
+    // The cvParams of the spectrum element itself are on depth 1
+    int depth = 0;
+    Context context = Context.SPECTRUM;
+    boolean firstPrecursor = false;
+
+    while (reader.hasNext()) {
+      final int event = reader.next();
+
+      if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+        switch (reader.getLocalName()) {
+          case "spectrum":
+            return spectrum;
+          case "scan":
+          case "selectedIon":
+          case "binaryDataArray":
+            context = Context.OTHER;
+            break;
+          case "precursor":
+            firstPrecursor = false;
+            break;
+        }
+        continue;
       }
-      Integer parentScan = scanIdTable.get(precursorScanId);
-      if (parentScan == null)
-        return -1;
 
-      return parentScan;
+      if (event != XMLStreamConstants.START_ELEMENT)
+        continue;
+      depth++;
+
+      switch (reader.getLocalName()) {
+        case "cvParam":
+          handleCVParam(spectrum, (depth == 1) ? Context.SPECTRUM : context, readCVParam(reader));
+          break;
+        case "referenceableParamGroupRef":
+          List<CVParam> params = paramGroups.get(reader.getAttributeValue(null, "ref"));
+          if (params != null)
+            for (CVParam param : params)
+              handleCVParam(spectrum, (depth == 1) ? Context.SPECTRUM : context, param);
+          break;
+        case "scan":
+          context = Context.SCAN;
+          break;
+        case "precursor":
+          // Only the first precursor is used
+          spectrum.numOfPrecursors++;
+          firstPrecursor = (spectrum.numOfPrecursors == 1);
+          if (firstPrecursor)
+            spectrum.precursorScanId = reader.getAttributeValue(null, "spectrumRef");
+          break;
+        case "selectedIon":
+          context = firstPrecursor ? Context.SELECTED_ION : Context.OTHER;
+          break;
+        case "binaryDataArray":
+          context = Context.BINARY_DATA_ARRAY;
+          spectrum.arrayIndex++;
+          spectrum.mzArray = false;
+          spectrum.intensityArray = false;
+          spectrum.otherArray = false;
+          spectrum.doublePrecision = true;
+          spectrum.integer = false;
+          spectrum.zlibCompression = false;
+          break;
+        case "binary":
+          readBinaryArray(spectrum, reader.getElementText());
+          // getElementText() consumed the end element
+          depth--;
+          break;
+      }
     }
-    return -1;
-  }
-
-  private double extractPrecursorMz(Spectrum spectrum) {
 
-    PrecursorList precursorListElement = spectrum.getPrecursorList();
-    if ((precursorListElement == null) || (precursorListElement.getCount().equals(0)))
-      return 0;
+    throw new XMLStreamException("Unexpected end of file in spectrum " + spectrum.id);
+  }
 
-    List<Precursor> precursorList = precursorListElement.getPrecursor();
-    for (Precursor parent : precursorList) {
+  private void handleCVParam(SpectrumData spectrum, Context context, CVParam param) {
 
-      SelectedIonList selectedIonListElement = parent.getSelectedIonList();
-      if ((selectedIonListElement == null) || (selectedIonListElement.getCount().equals(0)))
-        return 0;
-      List<ParamGroup> selectedIonParams = selectedIonListElement.getSelectedIon();
-      if (selectedIonParams == null)
-        continue;
+    final String accession = param.accession;
+    final String value = param.value;
+    if (accession == null)
+      return;
 
-      for (ParamGroup pg : selectedIonParams) {
-        List<CVParam> pgCvParams = pg.getCvParam();
-        for (CVParam param : pgCvParams) {
-          String accession = param.getAccession();
-          String value = param.getValue();
-          if ((accession == null) || (value == null))
-            continue;
-          // MS:1000040 is used in mzML 1.0,
-          // MS:1000744 is used in mzML 1.1.0
-          if (accession.equals("MS:1000040") || accession.equals("MS:1000744")) {
-            double precursorMz = Double.parseDouble(value);
-            return precursorMz;
-          }
+    switch (context) {
+
+      case SPECTRUM:
+        switch (accession) {
+          // MS level MS:1000511
+          case "MS:1000511":
+            if (value != null)
+              spectrum.msLevel = Integer.parseInt(value.trim());
+            break;
+          case "MS:1000130":
+            if (spectrum.spectrumPolarity == null)
+              spectrum.spectrumPolarity = PolarityType.POSITIVE;
+            break;
+          case "MS:1000129":
+            if (spectrum.spectrumPolarity == null)
+              spectrum.spectrumPolarity = PolarityType.NEGATIVE;
+            break;
+          case "MS:1000512":
+            if (spectrum.spectrumScanDefinition == null)
+              spectrum.spectrumScanDefinition = value;
+            break;
+          // Electromagnetic radiation spectrum, e.g. UV
+          case "MS:1000804":
+            spectrum.msSpectrum = false;
+            break;
+        }
+        break;
+
+      case SCAN:
+        switch (accession) {
+          // Retention time (actually "Scan start time") MS:1000016
+          case "MS:1000016":
+            if ((value == null) || spectrum.retentionTimeFound)
+              break;
+            // MS:1000038 is used in mzML 1.0, while UO:0000031
+            // is used in mzML 1.1.0 :-/
+            final String unitAccession = param.unitAccession;
+            if ((unitAccession == null) || (unitAccession.equals("MS:1000038"))
+                || unitAccession.equals("UO:0000031")) {
+              spectrum.retentionTime = Double.parseDouble(value);
+            } else {
+              spectrum.retentionTime = Double.parseDouble(value) / 60d;
+            }
+            spectrum.retentionTimeFound = true;
+            break;
+          case "MS:1000130":
+            if (spectrum.scanPolarity == null)
+              spectrum.scanPolarity = PolarityType.POSITIVE;
+            break;
+          case "MS:1000129":
+            if (spectrum.scanPolarity == null)
+              spectrum.scanPolarity = PolarityType.NEGATIVE;
+            break;
+          case "MS:1000512":
+            if (spectrum.scanScanDefinition == null)
+              spectrum.scanScanDefinition = value;
+            break;
+        }
+        break;
+
+      case SELECTED_ION:
+        if (value == null)
+          break;
+        // MS:1000040 is used in mzML 1.0,
+        // MS:1000744 is used in mzML 1.1.0
+        if ((accession.equals("MS:1000040") || accession.equals("MS:1000744"))
+            && (spectrum.precursorMz == 0))
+          spectrum.precursorMz = Double.parseDouble(value);
+        if (accession.equals("MS:1000041") && (spectrum.precursorCharge == 0))
+          spectrum.precursorCharge = Integer.parseInt(value.trim());
+        break;
+
+      case BINARY_DATA_ARRAY:
+        switch (accession) {
+          case "MS:1000514": // m/z array
+            spectrum.mzArray = true;
+            break;
+          case "MS:1000515": // intensity array
+            spectrum.intensityArray = true;
+            break;
+          case "MS:1000521": // 32-bit float
+            spectrum.doublePrecision = false;
+            spectrum.integer = false;
+            break;
+          case "MS:1000523": // 64-bit float
+            spectrum.doublePrecision = true;
+            spectrum.integer = false;
+            break;
+          case "MS:1000519": // 32-bit integer
+            spectrum.doublePrecision = false;
+            spectrum.integer = true;
+            break;
+          case "MS:1000522": // 64-bit integer
+            spectrum.doublePrecision = true;
+            spectrum.integer = true;
+            break;
+          case "MS:1000574": // zlib compression
+            spectrum.zlibCompression = true;
+            break;
+          case "MS:1000576": // no compression
+            spectrum.zlibCompression = false;
+            break;
+          default:
+            // Other arrays (e.g. charge array) and other compressions (e.g. MS-Numpress)
+            if (accession.startsWith("MS:10005") && (accession.compareTo("MS:1000516") >= 0)
+                && (accession.compareTo("MS:1000520") < 0))
+              spectrum.otherArray = true;
+            if (accession.equals("MS:1000786") || accession.equals("MS:1000617")
+                || accession.equals("MS:1000820") || accession.equals("MS:1000821")
+                || accession.equals("MS:1000822") || accession.equals("MS:1000595"))
+              spectrum.otherArray = true;
+            if (accession.startsWith("MS:100231") || accession.equals("MS:1002746")
+                || accession.equals("MS:1002747") || accession.equals("MS:1002748"))
+              throw new IllegalStateException(
+                  "Unsupported compression of binary data array (" + accession + ")");
+            break;
         }
+        break;
 
-      }
+      case OTHER:
+        break;
     }
-    return 0;
   }
 
-  private int extractPrecursorCharge(Spectrum spectrum) {
-    PrecursorList precursorListElement = spectrum.getPrecursorList();
-    if ((precursorListElement == null) || (precursorListElement.getCount().equals(0)))
-      return 0;
-
-    List<Precursor> precursorList = precursorListElement.getPrecursor();
-    for (Precursor parent : precursorList) {
+  /**
+   * Keeps the base64 text of a binary element for decoding by the pipeline. Arrays without an array
+   * type cvParam are taken as m/z (first) and intensity (second) array.
+   */
+  private void readBinaryArray(SpectrumData spectrum, String base64Text) {
 
-      SelectedIonList selectedIonListElement = parent.getSelectedIonList();
-      if ((selectedIonListElement == null) || (selectedIonListElement.getCount().equals(0)))
-        return 0;
-      List<ParamGroup> selectedIonParams = selectedIonListElement.getSelectedIon();
-      if (selectedIonParams == null)
-        continue;
+    final boolean mzArray = spectrum.mzArray
+        || (!spectrum.intensityArray && !spectrum.otherArray && (spectrum.arrayIndex == 0));
+    final boolean intensityArray = spectrum.intensityArray
+        || (!spectrum.mzArray && !spectrum.otherArray && (spectrum.arrayIndex == 1));
+    if (!mzArray && !intensityArray)
+      return;
 
-      for (ParamGroup pg : selectedIonParams) {
-        List<CVParam> pgCvParams = pg.getCvParam();
-        for (CVParam param : pgCvParams) {
-          String accession = param.getAccession();
-          String value = param.getValue();
-          if ((accession == null) || (value == null))
-            continue;
-          if (accession.equals("MS:1000041")) {
-            int precursorCharge = Integer.parseInt(value);
-            return precursorCharge;
-          }
+    BinaryArray array = new BinaryArray(base64Text, spectrum.doublePrecision, spectrum.integer,
+        spectrum.zlibCompression);
+    if (mzArray)
+      spectrum.mzValues = array;
+    else
+      spectrum.intensityValues = array;
+  }
 
+  /**
+   * Decodes the base64 text of a binary element and inflates it if needed. Runs on the decoder
+   * threads, which share the inflaters of this parser.
+   */
+  private double[] decodeBinaryArray(BinaryArray array, int defaultArrayLength)
+      throws DataFormatException {
+
+    // Line breaks are allowed in base64 text, the MIME decoder ignores them
+    byte bytes[] = Base64.getMimeDecoder().decode(array.base64Text);
+    int numOfBytes = bytes.length;
+    final int valueSize = array.doublePrecision ? 8 : 4;
+
+    if (array.zlibCompression) {
+      Inflater inflater = inflaters.poll();
+      if (inflater == null)
+        inflater = new Inflater();
+      try {
+        inflater.reset();
+        inflater.setInput(bytes);
+        byte inflated[] = new byte[Math.max(defaultArrayLength * valueSize, 1024)];
+        numOfBytes = 0;
+        while (!inflater.finished()) {
+          if (numOfBytes == inflated.length)
+            inflated = Arrays.copyOf(inflated, inflated.length * 2);
+          int n = inflater.inflate(inflated, numOfBytes, inflated.length - numOfBytes);
+          // A complete zlib stream ends with finished(), never by running out of input
+          if ((n == 0) && (inflater.needsInput() || inflater.needsDictionary()))
+            throw new DataFormatException("Truncated zlib compressed binary data array");
+          numOfBytes += n;
         }
-
+        bytes = inflated;
+      } finally {
+        inflaters.add(inflater);
       }
     }
-    return 0;
+
+    // Binary data in mzML is always little endian
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, numOfBytes).order(ByteOrder.LITTLE_ENDIAN);
+    final double values[] = new double[numOfBytes / valueSize];
+    for (int i = 0; i < values.length; i++) {
+      if (array.integer)
+        values[i] = array.doublePrecision ? buffer.getLong() : buffer.getInt();
+      else
+        values[i] = array.doublePrecision ? buffer.getDouble() : buffer.getFloat();
+    }
+    return values;
   }
 
-  private PolarityType extractPolarity(Spectrum spectrum) {
-    List<CVParam> cvParams = spectrum.getCvParam();
-    if (cvParams != null) {
-      for (CVParam param : cvParams) {
-        String accession = param.getAccession();
-
-        if (accession == null)
-          continue;
-        if (accession.equals("MS:1000130"))
-          return PolarityType.POSITIVE;
-        if (accession.equals("MS:1000129"))
-          return PolarityType.NEGATIVE;
+  /**
+   * Reads the spectrum IDs from the index at the end of an indexedmzML file. Returns null if the
+   * file has no usable index.
+   */
+  private List<String> readScanIdsFromIndex() {
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+
+      final long length = raf.length();
+      final int tailLength = (int) Math.min(length, 4096);
+      byte tail[] = new byte[tailLength];
+      raf.seek(length - tailLength);
+      raf.readFully(tail);
+      Matcher matcher =
+          INDEX_LIST_OFFSET_PATTERN.matcher(new String(tail, StandardCharsets.US_ASCII));
+      if (!matcher.find())
+        return null;
+      final long indexListOffset = Long.parseLong(matcher.group(1));
+      if ((indexListOffset <= 0) || (indexListOffset >= length))
+        return null;
+
+      raf.seek(indexListOffset);
+      InputStream in = new BufferedInputStream(Channels.newInputStream(raf.getChannel()));
+      XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(in);
+      try {
+        List<String> scanIds = new ArrayList<>();
+        boolean spectrumIndex = false;
+        while (reader.hasNext()) {
+          final int event = reader.next();
+          if (event == XMLStreamConstants.START_ELEMENT) {
+            if (reader.getLocalName().equals("index"))
+              spectrumIndex = "spectrum".equals(reader.getAttributeValue(null, "name"));
+            else if (spectrumIndex && reader.getLocalName().equals("offset"))
+              scanIds.add(reader.getAttributeValue(null, "idRef"));
+          }
+          if ((event == XMLStreamConstants.END_ELEMENT) && spectrumIndex
+              && reader.getLocalName().equals("index"))
+            return scanIds;
+        }
+        return null;
+      } finally {
+        reader.close();
       }
+
+    } catch (IOException | XMLStreamException | NumberFormatException e) {
+      logger.fine("Cannot read the index of " + file + ": " + e);
+      return null;
     }
-    ScanList scanListElement = spectrum.getScanList();
-    if (scanListElement != null) {
-      List<Scan> scanElements = scanListElement.getScan();
-      if (scanElements != null) {
-        for (Scan scan : scanElements) {
-          cvParams = scan.getCvParam();
-          if (cvParams == null)
-            continue;
-          for (CVParam param : cvParams) {
-            String accession = param.getAccession();
-            if (accession == null)
-              continue;
-            if (accession.equals("MS:1000130"))
-              return PolarityType.POSITIVE;
-            if (accession.equals("MS:1000129"))
-              return PolarityType.NEGATIVE;
-          }
+  }
 
+  /**
+   * Reads the IDs of all spectrum elements of the file
+   */
+  private List<String> readScanIdsFromSpectra() throws IOException, XMLStreamException {
+    List<String> scanIds = new ArrayList<>();
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+      XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(in);
+      try {
+        while (reader.hasNext()) {
+          if ((reader.next() == XMLStreamConstants.START_ELEMENT)
+              && reader.getLocalName().equals("spectrum"))
+            scanIds.add(reader.getAttributeValue(null, "id"));
         }
+      } finally {
+        reader.close();
       }
     }
-    return PolarityType.UNKNOWN;
-
+    return scanIds;
   }
 
-  private String extractScanDefinition(Spectrum spectrum) {
-    List<CVParam> cvParams = spectrum.getCvParam();
-    if (cvParams != null) {
-      for (CVParam param : cvParams) {
-        String accession = param.getAccession();
+  /**
+   * Retrieves scan numbers from scan IDs and stores them in scanIdTable.
+   *
+   * If retrieved scan numbers are not unique, we replace them with new scan numbers.
+   *
+   * @param scanIds IDs of all spectra in the file
+   */
+  private void fillScanIdTable(List<String> scanIds) {
 
-        if (accession == null)
-          continue;
-        if (accession.equals("MS:1000512"))
-          return param.getValue();
-      }
+    Map<String, Integer> alternativeScanIdTable = new HashMap<>();
+    for (int i = 1; i <= scanIds.size(); ++i) {
+      String id = scanIds.get(i - 1);
+      saveScanNumberToTable(id);
+      alternativeScanIdTable.put(id, i);
     }
-    ScanList scanListElement = spectrum.getScanList();
-    if (scanListElement != null) {
-      List<Scan> scanElements = scanListElement.getScan();
-      if (scanElements != null) {
-        for (Scan scan : scanElements) {
-          cvParams = scan.getCvParam();
-          if (cvParams == null)
-            continue;
-          for (CVParam param : cvParams) {
-            String accession = param.getAccession();
-            if (accession == null)
-              continue;
-            if (accession.equals("MS:1000512"))
-              return param.getValue();
-          }
 
-        }
-      }
+    Set<Integer> scanNumberSet = new HashSet<>(scanIdTable.values());
+
+    if (scanNumberSet.size() != scanIds.size()) {
+      // Scan Numbers are not unique! We replace them with numbers 1, 2,
+      // 3, ...
+      scanIdTable = alternativeScanIdTable;
+      lastScanNumber = scanIds.size();
     }
-    return spectrum.getId();
   }
 
-  public String getTaskDescription() {
-    return "Opening file " + file;
-  }
+  private void saveScanNumberToTable(String scanId) {
 
-  boolean isMsSpectrum(Spectrum spectrum) {
+    if (scanIdTable.containsKey(scanId))
+      return;
 
-    List<CVParam> cvParams = spectrum.getCvParam();
-    if (cvParams != null) {
-      for (CVParam param : cvParams) {
-        String accession = param.getAccession();
-        if (accession == null)
-          continue;
+    final Matcher matcher = SCAN_PATTERN.matcher(scanId);
+    boolean scanNumberFound = matcher.find();
 
-        if (accession.equals("MS:1000804"))
-          return false;
-      }
+    // Some vendors include scan=XX in the ID, some don't, such as
+    // mzML converted from WIFF files. See the definition of nativeID in
+    // http://psidev.cvs.sourceforge.net/viewvc/psidev/psi/psi-ms/mzML/controlledVocabulary/psi-ms.obo
+    if (scanNumberFound) {
+      int scanNumber = Integer.parseInt(matcher.group(1));
+      scanIdTable.put(scanId, scanNumber);
+      return;
     }
 
-    // By default, let's assume unidentified spectra are MS spectra
-    return true;
+    int scanNumber = lastScanNumber + 1;
+    lastScanNumber++;
+    scanIdTable.put(scanId, scanNumber);
+  }
+
+  public String getTaskDescription() {
+    return "Opening file " + file;
   }
 
 }
@@ -24,7 +24,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Base64;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
 
@@ -47,6 +49,7 @@ import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.RawDataFileWriter;
 import io.github.mzmine.datamodel.impl.SimpleDataPoint;
 import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.modules.io.rawdataimport.fileformats.ScanImportPipeline.ScanDecoder;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.CompressionUtils;
@@ -93,6 +96,12 @@ public class MzXMLReadTask extends AbstractTask {
    */
   private SimpleScan buildingScan;
 
+  // Decodes the peaks in parallel and writes the scans in order
+  private ScanImportPipeline pipeline;
+
+  // Decoders of the peaks of buildingScan and the scans in parentStack
+  private final Map<SimpleScan, ScanDecoder> scanDecoders = new IdentityHashMap<>();
+
   public MzXMLReadTask(MZmineProject project, File fileToOpen, RawDataFileWriter newMZmineFile) {
     // 256 kilo-chars buffer
     charBuffer = new StringBuilder(1 << 18);
@@ -120,12 +129,15 @@ public class MzXMLReadTask extends AbstractTask {
     // Use the default (non-validating) parser
     SAXParserFactory factory = SAXParserFactory.newInstance();
 
+    pipeline = new ScanImportPipeline(newMZmineFile, file.getName());
+
     try {
 
       dataTypeFactory = DatatypeFactory.newInstance();
 
       SAXParser saxParser = factory.newSAXParser();
       saxParser.parse(file, handler);
+      pipeline.finish();
 
       // Close file
       finalRawDataFile = newMZmineFile.finishWriting();
@@ -133,6 +145,7 @@ public class MzXMLReadTask extends AbstractTask {
 
     } catch (Throwable e) {
       e.printStackTrace();
+      pipeline.cancel();
       /* we may already have set the status to CANCELED */
       if (getStatus() == TaskStatus.PROCESSING) {
         setStatus(TaskStatus.ERROR);
@@ -159,6 +172,59 @@ public class MzXMLReadTask extends AbstractTask {
     return "Opening file " + file;
   }
 
+  /**
+   * Runs on the decoder threads of the pipeline
+   */
+  private static void decodePeaks(SimpleScan scan, String peaksText, boolean compressed,
+      boolean doublePrecision, int peaksCount) throws DataFormatException, IOException {
+
+    byte[] peakBytes = Base64.getDecoder().decode(peaksText);
+
+    if (compressed) {
+      try {
+        peakBytes = CompressionUtils.decompress(peakBytes);
+      } catch (DataFormatException e) {
+        throw new DataFormatException("Corrupt compressed peak: " + e.toString());
+      }
+    }
+
+    // make a data input stream
+    DataInputStream peakStream = new DataInputStream(new ByteArrayInputStream(peakBytes));
+
+    DataPoint dataPoints[] = new DataPoint[peaksCount];
+
+    try {
+      for (int i = 0; i < dataPoints.length; i++) {
+
+        // Always respect this order pairOrder="m/z-int"
+        double massOverCharge;
+        double intensity;
+        if (doublePrecision) {
+          massOverCharge = peakStream.readDouble();
+          intensity = peakStream.readDouble();
+        } else {
+          massOverCharge = (double) peakStream.readFloat();
+          intensity = (double) peakStream.readFloat();
+        }
+
+        // Copy m/z and intensity data
+        dataPoints[i] = new SimpleDataPoint(massOverCharge, intensity);
+
+      }
+    } catch (IOException eof) {
+      throw new IOException("Corrupt mzXML file", eof);
+    }
+
+    // Auto-detect whether this scan is centroided
+    MassSpectrumType spectrumType = ScanUtils.detectSpectrumType(dataPoints);
+
+    // Set the centroided tag
+    scan.setSpectrumType(spectrumType);
+
+    // Set the final data points to the scan
+    scan.setDataPoints(dataPoints);
+  }
+
   private class MzXMLHandler extends DefaultHandler {
     public void startElement(String namespaceURI, String lName, // local
         // name
@@ -297,7 +363,7 @@ public class MzXMLReadTask extends AbstractTask {
           while (!parentStack.isEmpty()) {
             SimpleScan currentScan = parentStack.removeLast();
             try {
-              newMZmineFile.addScan(currentScan);
+              pipeline.addScan(currentScan, scanDecoders.remove(currentScan));
             } catch (IOException e) {
               e.printStackTrace();
               setStatus(TaskStatus.ERROR);
@@ -331,55 +397,13 @@ public class MzXMLReadTask extends AbstractTask {
       // <peaks>
       if (qName.equalsIgnoreCase("peaks")) {
 
-        byte[] peakBytes = Base64.getDecoder().decode(charBuffer.toString());
-
-        if (compressFlag) {
-          try {
-            peakBytes = CompressionUtils.decompress(peakBytes);
-          } catch (DataFormatException e) {
-            setStatus(TaskStatus.ERROR);
-            setErrorMessage("Corrupt compressed peak: " + e.toString());
-            throw new SAXException("Parsing Cancelled");
-          }
-        }
-
-        // make a data input stream
-        DataInputStream peakStream = new DataInputStream(new ByteArrayInputStream(peakBytes));
-
-        DataPoint dataPoints[] = new DataPoint[peaksCount];
-
-        try {
-          for (int i = 0; i < dataPoints.length; i++) {
-
-            // Always respect this order pairOrder="m/z-int"
-            double massOverCharge;
-            double intensity;
-            if ("64".equals(precision)) {
-              massOverCharge = peakStream.readDouble();
-              intensity = peakStream.readDouble();
-            } else {
-              massOverCharge = (double) peakStream.readFloat();
-              intensity = (double) peakStream.readFloat();
-            }
-
-            // Copy m/z and intensity data
-            dataPoints[i] = new SimpleDataPoint(massOverCharge, intensity);
-
-          }
-        } catch (IOException eof) {
-          setStatus(TaskStatus.ERROR);
-          setErrorMessage("Corrupt mzXML file");
-          throw new SAXException("Parsing Cancelled");
-        }
-
-        // Auto-detect whether this scan is centroided
-        MassSpectrumType spectrumType = ScanUtils.detectSpectrumType(dataPoints);
-
-        // Set the centroided tag
-        buildingScan.setSpectrumType(spectrumType);
-
-        // Set the final data points to the scan
-        buildingScan.setDataPoints(dataPoints);
+        // The peaks are decoded by the pipeline
+        final String peaksText = charBuffer.toString();
+        final boolean compressed = compressFlag;
+        final boolean doublePrecision = "64".equals(precision);
+        final int numOfPeaks = peaksCount;
+        scanDecoders.put(buildingScan,
+            scan -> decodePeaks(scan, peaksText, compressed, doublePrecision, numOfPeaks));
 
         return;
       }
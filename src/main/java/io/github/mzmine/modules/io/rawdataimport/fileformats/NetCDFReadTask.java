@@ -30,9 +30,9 @@ import io.github.mzmine.datamodel.MassSpectrumType;
 import io.github.mzmine.datamodel.PolarityType;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.RawDataFileWriter;
-import io.github.mzmine.datamodel.Scan;
 import io.github.mzmine.datamodel.impl.SimpleDataPoint;
 import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.modules.io.rawdataimport.fileformats.ScanImportPipeline.ScanDecoder;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.ExceptionUtils;
@@ -70,6 +70,12 @@ public class NetCDFReadTask extends AbstractTask {
   private double massValueScaleFactor = 1;
   private double intensityValueScaleFactor = 1;
 
+  // Builds the data points in parallel and writes the scans in order
+  private ScanImportPipeline pipeline;
+
+  // Decoder of the scan returned by the last readNextScan() call
+  private ScanDecoder nextScanDecoder;
+
   public NetCDFReadTask(MZmineProject project, File fileToOpen, RawDataFileWriter newMZmineFile) {
     this.project = project;
     this.file = fileToOpen;
@@ -92,24 +98,28 @@ public class NetCDFReadTask extends AbstractTask {
     setStatus(TaskStatus.PROCESSING);
     logger.info("Started parsing file " + file);
 
+    pipeline = new ScanImportPipeline(newMZmineFile, file.getName());
+
     try {
 
       // Open file
       this.startReading();
 
       // Parse scans
-      Scan buildingScan;
+      SimpleScan buildingScan;
       while ((buildingScan = this.readNextScan()) != null) {
 
         // Check if cancel is requested
         if (isCanceled()) {
+          pipeline.cancel();
           return;
         }
         // buildingFile.addScan(scan);
-        newMZmineFile.addScan(buildingScan);
+        pipeline.addScan(buildingScan, nextScanDecoder);
         parsedScans++;
 
       }
+      pipeline.finish();
 
       // Close file
       this.finishReading();
@@ -117,6 +127,7 @@ public class NetCDFReadTask extends AbstractTask {
       project.addFile(finalRawDataFile);
 
     } catch (Throwable e) {
+      pipeline.cancel();
       logger.log(Level.SEVERE, "Could not open file " + file.getPath(), e);
       setErrorMessage(ExceptionUtils.exceptionToString(e));
       setStatus(TaskStatus.ERROR);
@@ -354,6 +365,36 @@ public class NetCDFReadTask extends AbstractTask {
 
   }
 
+  /**
+   * Runs on the decoder threads of the pipeline
+   */
+  private static void setDataPoints(SimpleScan scan, Array massValueArray,
+      Array intensityValueArray, double massValueScaleFactor, double intensityValueScaleFactor) {
+
+    Index massValuesIndex = massValueArray.getIndex();
+    Index intensityValuesIndex = intensityValueArray.getIndex();
+
+    int arrayLength = massValueArray.getShape()[0];
+
+    DataPoint dataPoints[] = new DataPoint[arrayLength];
+
+    for (int j = 0; j < arrayLength; j++) {
+      Index massIndex0 = massValuesIndex.set0(j);
+      Index intensityIndex0 = intensityValuesIndex.set0(j);
+
+      double mz = massValueArray.getDouble(massIndex0) * massValueScaleFactor;
+      double intensity = intensityValueArray.getDouble(intensityIndex0) * intensityValueScaleFactor;
+      dataPoints[j] = new SimpleDataPoint(mz, intensity);
+
+    }
+
+    // Auto-detect whether this scan is centroided
+    MassSpectrumType spectrumType = ScanUtils.detectSpectrumType(dataPoints);
+
+    scan.setSpectrumType(spectrumType);
+    scan.setDataPoints(dataPoints);
+  }
+
   /**
    * @see io.github.mzmine.io.RawDataFileReader#finishReading()
    */
@@ -364,7 +405,7 @@ public class NetCDFReadTask extends AbstractTask {
   /**
    * Reads one scan from the file. Requires that general information has already been read.
    */
-  private Scan readNextScan() throws IOException {
+  private SimpleScan readNextScan() throws IOException {
 
     // Get scan starting position and length
     int[] scanStartPosition = new int[1];
@@ -388,6 +429,7 @@ public class NetCDFReadTask extends AbstractTask {
     // An empty scan needs special attention..
     if (scanLength[0] == 0) {
       scanNum++;
+      nextScanDecoder = null;
       return new SimpleScan(null, scanNum, 1, retentionTime.doubleValue(), 0, 0, null,
           new DataPoint[0], MassSpectrumType.CENTROIDED, PolarityType.UNKNOWN, "", null);
     }
@@ -410,30 +452,15 @@ public class NetCDFReadTask extends AbstractTask {
       throw (new IOException("Could not read from variables mass_values and/or intensity_values."));
     }
 
-    Index massValuesIndex = massValueArray.getIndex();
-    Index intensityValuesIndex = intensityValueArray.getIndex();
-
-    int arrayLength = massValueArray.getShape()[0];
-
-    DataPoint dataPoints[] = new DataPoint[arrayLength];
-
-    for (int j = 0; j < arrayLength; j++) {
-      Index massIndex0 = massValuesIndex.set0(j);
-      Index intensityIndex0 = intensityValuesIndex.set0(j);
-
-      double mz = massValueArray.getDouble(massIndex0) * massValueScaleFactor;
-      double intensity = intensityValueArray.getDouble(intensityIndex0) * intensityValueScaleFactor;
-      dataPoints[j] = new SimpleDataPoint(mz, intensity);
-
-    }
-
     scanNum++;
 
-    // Auto-detect whether this scan is centroided
-    MassSpectrumType spectrumType = ScanUtils.detectSpectrumType(dataPoints);
-
+    // The data points are built by the pipeline
     SimpleScan buildingScan = new SimpleScan(null, scanNum, 1, retentionTime.doubleValue(), 0, 0,
-        null, dataPoints, spectrumType, polarity, scanDefinition, null);
+        null, new DataPoint[0], null, polarity, scanDefinition, null);
+    final double massScaleFactor = massValueScaleFactor;
+    final double intensityScaleFactor = intensityValueScaleFactor;
+    nextScanDecoder = scan -> setDataPoints(scan, massValueArray, intensityValueArray,
+        massScaleFactor, intensityScaleFactor);
 
     return buildingScan;
 
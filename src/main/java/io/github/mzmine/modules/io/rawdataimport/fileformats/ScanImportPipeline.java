@@ -0,0 +1,225 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ * 
+ * This file is part of MZmine.
+ * 
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+package io.github.mzmine.modules.io.rawdataimport.fileformats;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import io.github.mzmine.datamodel.RawDataFileWriter;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.util.ParallelUtils;
+
+/**
+ * Producer/consumer pipeline used by the raw data readers. The reader thread parses the file and
+ * passes each scan together with a decoder (base64 decoding, inflating, building the data points)
+ * to addScan(). The decoders run in parallel on a pool shared by all imports, and a writer thread
+ * adds the decoded scans to the RawDataFileWriter in the order they were passed to addScan().
+ *
+ * At most QUEUE_DEPTH_PER_THREAD scans per decoder thread are pending at any time, addScan() blocks
+ * the reader thread when the queue is full. This bounds the memory used by a single import.
+ */
+class ScanImportPipeline {
+
+  private static final Logger logger = Logger.getLogger(ScanImportPipeline.class.getName());
+
+  /**
+   * Decodes the data points of a scan, e.g. by calling setDataPoints() and setSpectrumType()
+   */
+  @FunctionalInterface
+  interface ScanDecoder {
+    void decode(SimpleScan scan) throws Exception;
+  }
+
+  private static final int QUEUE_DEPTH_PER_THREAD = 4;
+
+  private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+  /**
+   * Shared by all imports, so that several files opened at the same time do not use more threads
+   * than set in the preferences
+   */
+  private static final ThreadPoolExecutor decoderPool;
+
+  static {
+    final AtomicInteger threadNumber = new AtomicInteger(1);
+    final int numOfThreads = ParallelUtils.getNumOfThreads();
+    decoderPool = new ThreadPoolExecutor(numOfThreads, numOfThreads,
+        THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        runnable -> {
+          Thread thread =
+              new Thread(runnable, "Scan decoder thread " + threadNumber.getAndIncrement());
+          thread.setDaemon(true);
+          return thread;
+        });
+    decoderPool.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Marks the end of the scans in the queue
+   */
+  private static final Future<SimpleScan> END_OF_SCANS = CompletableFuture.completedFuture(null);
+
+  private final RawDataFileWriter writer;
+
+  private final BlockingQueue<Future<SimpleScan>> pendingScans;
+
+  private final Thread writerThread;
+
+  private volatile Throwable error;
+
+  private volatile int writtenScans = 0;
+
+  ScanImportPipeline(RawDataFileWriter writer, String fileName) {
+    this.writer = writer;
+    final int numOfDecoderThreads = updateNumberOfThreads();
+    pendingScans = new ArrayBlockingQueue<>(numOfDecoderThreads * QUEUE_DEPTH_PER_THREAD);
+    writerThread = new Thread(this::writeScans, "Scan writer thread for " + fileName);
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  /**
+   * Applies the number of threads from the preferences to the decoder pool
+   *
+   * @return the number of decoder threads
+   */
+  private static synchronized int updateNumberOfThreads() {
+    final int numOfThreads = ParallelUtils.getNumOfThreads();
+    // The core size must never exceed the maximum size
+    if (numOfThreads > decoderPool.getMaximumPoolSize()) {
+      decoderPool.setMaximumPoolSize(numOfThreads);
+      decoderPool.setCorePoolSize(numOfThreads);
+    } else if (numOfThreads < decoderPool.getMaximumPoolSize()) {
+      decoderPool.setCorePoolSize(numOfThreads);
+      decoderPool.setMaximumPoolSize(numOfThreads);
+    }
+    return numOfThreads;
+  }
+
+  /**
+   * Decodes the scan on the decoder pool and queues it for writing. Blocks while the queue is full.
+   *
+   * @param decoder decodes the data points of the scan, or null if the scan is complete already
+   */
+  void addScan(SimpleScan scan, ScanDecoder decoder) throws IOException {
+    final Future<SimpleScan> future;
+    if (decoder == null) {
+      future = CompletableFuture.completedFuture(scan);
+    } else {
+      future = decoderPool.submit(() -> {
+        decoder.decode(scan);
+        return scan;
+      });
+    }
+    enqueue(future);
+  }
+
+  /**
+   * Returns the number of scans that were added to the RawDataFileWriter so far
+   */
+  int getWrittenScans() {
+    return writtenScans;
+  }
+
+  /**
+   * Waits until all scans are decoded and written, and throws the first error of the decoders or
+   * the RawDataFileWriter, if any
+   */
+  void finish() throws IOException {
+    enqueue(END_OF_SCANS);
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      cancel();
+      throw new IOException("Interrupted while writing scans", e);
+    }
+    checkError();
+  }
+
+  /**
+   * Stops decoding and writing. Scans which are still in the queue are discarded.
+   */
+  void cancel() {
+    writerThread.interrupt();
+    discardPendingScans();
+  }
+
+  private void enqueue(Future<SimpleScan> future) throws IOException {
+    try {
+      // Do not block forever if the writer thread stopped because of an error
+      while (!pendingScans.offer(future, 100, TimeUnit.MILLISECONDS)) {
+        checkError();
+        if (!writerThread.isAlive())
+          throw new IOException("Scan writer thread has stopped");
+      }
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      cancel();
+      throw new IOException("Interrupted while queuing scans", e);
+    }
+    checkError();
+  }
+
+  private void checkError() throws IOException {
+    final Throwable e = error;
+    if (e == null)
+      return;
+    if (e instanceof IOException)
+      throw (IOException) e;
+    throw new IOException("Could not decode scan: " + e, e);
+  }
+
+  private void discardPendingScans() {
+    Future<SimpleScan> future;
+    while ((future = pendingScans.poll()) != null)
+      future.cancel(true);
+  }
+
+  /**
+   * Runs on the writer thread
+   */
+  private void writeScans() {
+    try {
+      while (true) {
+        Future<SimpleScan> future = pendingScans.take();
+        if (future == END_OF_SCANS)
+          return;
+        SimpleScan scan = future.get();
+        writer.addScan(scan);
+        writtenScans++;
+      }
+    } catch (InterruptedException e) {
+      // Canceled
+      logger.finest("Scan writer thread interrupted");
+    } catch (ExecutionException e) {
+      error = e.getCause();
+    } catch (Throwable e) {
+      error = e;
+    }
+    discardPendingScans();
+  }
+
+}
@@ -71,6 +71,10 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
   private double intensityMin;
   private double intensityMax;
 
+  // Reused for reading scans which are not fully enclosed in the m/z range.
+  private double[] mzBuffer;
+  private double[] intensityBuffer;
+
   private TaskStatus status;
   private String errorMessage;
 
@@ -327,13 +331,43 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
       // Current scan.
       final Scan scan = scans[index];
 
-      // Determine base peak value.
-      final DataPoint basePeak =
-          mzRange.encloses(scan.getDataPointMZRange()) ? scan.getHighestDataPoint()
-              : ScanUtils.findBasePeak(scan, mzRange);
-      if (basePeak != null) {
+      // Determine base peak and TIC values.
+      double basePeakIntensity = 0.0;
+      boolean hasBasePeak = false;
+      double tic = 0.0;
+      if (mzRange.encloses(scan.getDataPointMZRange())) {
+
+        final DataPoint basePeak = scan.getHighestDataPoint();
+        if (basePeak != null) {
+
+          basePeakValues[index] = basePeak.getMZ();
+          basePeakIntensity = basePeak.getIntensity();
+          hasBasePeak = true;
+        }
+        if (plotType == TICPlotType.TIC) {
 
-        basePeakValues[index] = basePeak.getMZ();
+          tic = scan.getTIC();
+        }
+
+      } else {
+
+        // Read m/z and intensity values into the reused arrays, no DataPoint objects needed.
+        mzBuffer = scan.getMzValues(mzBuffer);
+        intensityBuffer = scan.getIntensityValues(intensityBuffer);
+        final int numOfDataPoints = scan.getNumberOfDataPoints();
+
+        final int basePeakIndex =
+            ScanUtils.findBasePeakIndex(mzBuffer, intensityBuffer, numOfDataPoints, mzRange);
+        if (basePeakIndex >= 0) {
+
+          basePeakValues[index] = mzBuffer[basePeakIndex];
+          basePeakIntensity = intensityBuffer[basePeakIndex];
+          hasBasePeak = true;
+        }
+        if (plotType == TICPlotType.TIC) {
+
+          tic = ScanUtils.calculateTIC(mzBuffer, intensityBuffer, numOfDataPoints, mzRange);
+        }
       }
 
       // Determine peak intensity.
@@ -341,12 +375,11 @@ public class TICDataSet extends AbstractXYZDataset implements Task {
       if (plotType == TICPlotType.TIC) {
 
         // Total ion count.
-        intensity = mzRange.encloses(scan.getDataPointMZRange()) ? scan.getTIC()
-            : ScanUtils.calculateTIC(scan, mzRange);
+        intensity = tic;
 
-      } else if (plotType == TICPlotType.BASEPEAK && basePeak != null) {
+      } else if (plotType == TICPlotType.BASEPEAK && hasBasePeak) {
 
-        intensity = basePeak.getIntensity();
+        intensity = basePeakIntensity;
       }
 
       intensityValues[index] = intensity;
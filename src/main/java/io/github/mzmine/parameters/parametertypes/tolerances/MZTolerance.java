@@ -65,7 +65,9 @@ public class MZTolerance {
   }
 
   public boolean checkWithinTolerance(final double mz1, final double mz2) {
-    return getToleranceRange(mz1).contains(mz2);
+    // Same as getToleranceRange(mz1).contains(mz2), without creating a Range object
+    final double absoluteTolerance = getMzToleranceForMass(mz1);
+    return (mz1 - absoluteTolerance <= mz2) && (mz2 <= mz1 + absoluteTolerance);
   }
 
   @Override
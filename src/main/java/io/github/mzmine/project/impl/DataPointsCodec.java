@@ -0,0 +1,391 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ * 
+ * This file is part of MZmine.
+ * 
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+package io.github.mzmine.project.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import io.github.mzmine.datamodel.DataPoint;
+
+/**
+ * Encodings of the data points in the temporary data points file of a RawDataFileImpl.
+ * 
+ * The codec of each stored record is tagged in the highest byte of its offset in the
+ * dataPointsOffsets map. NONE has the tag 0, so uncompressed records (including those of loaded
+ * projects) have plain offsets. Compressed records start with the length of the encoded data as an
+ * int, followed by the encoded data.
+ */
+public enum DataPointsCodec {
+
+  /**
+   * Interleaved m/z and intensity values as big endian floats
+   */
+  NONE(0, "None") {
+
+    @Override
+    byte[] encode(DataPoint dataPoints[]) {
+      ByteBuffer buffer = ByteBuffer.allocate(dataPoints.length * 2 * 4);
+      for (DataPoint dp : dataPoints) {
+        buffer.putFloat((float) dp.getMZ());
+        buffer.putFloat((float) dp.getIntensity());
+      }
+      return buffer.array();
+    }
+
+    @Override
+    void decode(ByteBuffer encoded, float dst[], int numOfDataPoints) {
+      encoded.asFloatBuffer().get(dst, 0, numOfDataPoints * 2);
+    }
+
+  },
+
+  /**
+   * Lossless. The float bits of the m/z values are delta encoded, all values are split into byte
+   * planes and the result is compressed with deflate.
+   */
+  DEFLATE(1, "Lossless (delta + deflate)") {
+
+    @Override
+    byte[] encode(DataPoint dataPoints[]) {
+
+      final int numOfDataPoints = dataPoints.length;
+      final int numOfValues = numOfDataPoints * 2;
+      final byte planes[] = new byte[numOfValues * 4];
+      int previousMzBits = 0;
+      for (int i = 0; i < numOfDataPoints; i++) {
+        final int mzBits = Float.floatToRawIntBits((float) dataPoints[i].getMZ());
+        putPlanes(planes, numOfValues, i, mzBits - previousMzBits);
+        putPlanes(planes, numOfValues, numOfDataPoints + i,
+            Float.floatToRawIntBits((float) dataPoints[i].getIntensity()));
+        previousMzBits = mzBits;
+      }
+
+      final Deflater deflater = deflaters.get();
+      deflater.reset();
+      deflater.setInput(planes);
+      deflater.finish();
+      byte encoded[] = new byte[planes.length / 2 + 64];
+      int numOfBytes = 0;
+      while (!deflater.finished()) {
+        if (numOfBytes == encoded.length)
+          encoded = Arrays.copyOf(encoded, encoded.length * 2);
+        numOfBytes += deflater.deflate(encoded, numOfBytes, encoded.length - numOfBytes);
+      }
+      return Arrays.copyOf(encoded, numOfBytes);
+    }
+
+    @Override
+    void decode(ByteBuffer encoded, float dst[], int numOfDataPoints) throws DataFormatException {
+
+      final int numOfValues = numOfDataPoints * 2;
+      final byte planes[] = new byte[numOfValues * 4];
+
+      final Inflater inflater = inflaters.get();
+      inflater.reset();
+      inflater.setInput(encoded);
+      int numOfBytes = 0;
+      while (numOfBytes < planes.length) {
+        final int inflated = inflater.inflate(planes, numOfBytes, planes.length - numOfBytes);
+        if ((inflated == 0)
+            && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+          throw new DataFormatException("Truncated data points record");
+        numOfBytes += inflated;
+      }
+
+      int mzBits = 0;
+      for (int i = 0; i < numOfDataPoints; i++) {
+        mzBits += getPlanes(planes, numOfValues, i);
+        dst[2 * i] = Float.intBitsToFloat(mzBits);
+        dst[2 * i + 1] = Float.intBitsToFloat(getPlanes(planes, numOfValues, numOfDataPoints + i));
+      }
+    }
+
+  },
+
+  /**
+   * Lossy, following the MS-Numpress encodings: m/z values are stored in fixed point and linearly
+   * predicted (more precise than the float values of NONE), intensities are stored as 16 bit
+   * logarithms (relative error below 0.1 %). Records with negative or non-finite values are stored
+   * with DEFLATE instead.
+   */
+  NUMPRESS(2, "Lossy (numpress linear + slof)") {
+
+    @Override
+    byte[] encode(DataPoint dataPoints[]) {
+
+      final int numOfDataPoints = dataPoints.length;
+
+      // Fixed points as chosen by numpress
+      double maxIntensity = 1;
+      double maxMzDiff = 0;
+      for (int i = 0; i < numOfDataPoints; i++) {
+        final double mz = dataPoints[i].getMZ(), intensity = dataPoints[i].getIntensity();
+        if (!Double.isFinite(mz) || !Double.isFinite(intensity) || (intensity < 0))
+          return null;
+        maxIntensity = Math.max(maxIntensity, intensity);
+        if (i < 2) {
+          maxMzDiff = Math.max(maxMzDiff, Math.abs(mz));
+        } else {
+          final double previousMz = dataPoints[i - 1].getMZ();
+          final double extrapolation = previousMz + (previousMz - dataPoints[i - 2].getMZ());
+          maxMzDiff = Math.max(maxMzDiff, Math.ceil(Math.abs(mz - extrapolation) + 1));
+        }
+      }
+      final double mzFixedPoint = maxMzDiff > 0 ? Math.floor(Integer.MAX_VALUE / maxMzDiff) : 1;
+      final double intensityFixedPoint = Math.floor(0xFFFF / Math.log(maxIntensity + 1));
+
+      final ByteBuffer header = ByteBuffer.allocate(8 + 8 + numOfDataPoints * 2 + 8);
+      header.putDouble(mzFixedPoint);
+      header.putDouble(intensityFixedPoint);
+      for (DataPoint dp : dataPoints) {
+        header.putShort(
+            (short) (Math.log(dp.getIntensity() + 1) * intensityFixedPoint + 0.5));
+      }
+
+      final NibbleWriter nibbles = new NibbleWriter(numOfDataPoints * 2);
+      long previous = 0, current = 0;
+      for (int i = 0; i < numOfDataPoints; i++) {
+        final long value = (long) (dataPoints[i].getMZ() * mzFixedPoint + 0.5);
+        if (i < 2) {
+          header.putInt((int) value);
+        } else {
+          final long diff = value - (current + (current - previous));
+          if ((diff > Integer.MAX_VALUE) || (diff < Integer.MIN_VALUE))
+            return null;
+          nibbles.putInt((int) diff);
+        }
+        previous = current;
+        current = value;
+      }
+
+      final byte encoded[] = Arrays.copyOf(header.array(), header.position() + nibbles.size());
+      nibbles.copyTo(encoded, header.position());
+      return encoded;
+    }
+
+    @Override
+    void decode(ByteBuffer encoded, float dst[], int numOfDataPoints) {
+
+      final double mzFixedPoint = encoded.getDouble();
+      final double intensityFixedPoint = encoded.getDouble();
+      for (int i = 0; i < numOfDataPoints; i++) {
+        dst[2 * i + 1] =
+            (float) (Math.exp((encoded.getShort() & 0xFFFF) / intensityFixedPoint) - 1);
+      }
+
+      long previous = 0, current = 0;
+      final NibbleReader nibbles = new NibbleReader(encoded);
+      for (int i = 0; i < numOfDataPoints; i++) {
+        final long value;
+        if (i < 2)
+          value = encoded.getInt();
+        else
+          value = current + (current - previous) + nibbles.getInt();
+        dst[2 * i] = (float) (value / mzFixedPoint);
+        previous = current;
+        current = value;
+      }
+    }
+
+  };
+
+  private static final int TAG_SHIFT = 56;
+  private static final long OFFSET_MASK = (1L << TAG_SHIFT) - 1;
+
+  private static final ThreadLocal<Deflater> deflaters =
+      ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+  private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+  private final int tag;
+  private final String name;
+
+  DataPointsCodec(int tag, String name) {
+    this.tag = tag;
+    this.name = name;
+  }
+
+  /**
+   * Encodes the data points, or returns null if this codec cannot represent them
+   */
+  abstract byte[] encode(DataPoint dataPoints[]);
+
+  /**
+   * Decodes the data points into interleaved m/z and intensity values. The buffer must be
+   * positioned at the first byte of the encoded data.
+   */
+  abstract void decode(ByteBuffer encoded, float dst[], int numOfDataPoints)
+      throws DataFormatException;
+
+  /**
+   * Adds the tag of this codec to the given file offset
+   */
+  long tagOffset(long offset) {
+    if ((offset & ~OFFSET_MASK) != 0)
+      throw new IllegalArgumentException("Data points file offset too large: " + offset);
+    return offset | ((long) tag << TAG_SHIFT);
+  }
+
+  /**
+   * Returns the codec of a tagged offset
+   */
+  static DataPointsCodec fromTaggedOffset(long taggedOffset) {
+    final int tag = (int) (taggedOffset >>> TAG_SHIFT);
+    for (DataPointsCodec codec : values()) {
+      if (codec.tag == tag)
+        return codec;
+    }
+    throw new IllegalArgumentException("Unknown data points codec tag " + tag);
+  }
+
+  /**
+   * Returns the file offset of a tagged offset
+   */
+  static long untagOffset(long taggedOffset) {
+    return taggedOffset & OFFSET_MASK;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  private static void putPlanes(byte planes[], int numOfValues, int index, int value) {
+    planes[index] = (byte) (value >>> 24);
+    planes[numOfValues + index] = (byte) (value >>> 16);
+    planes[2 * numOfValues + index] = (byte) (value >>> 8);
+    planes[3 * numOfValues + index] = (byte) value;
+  }
+
+  private static int getPlanes(byte planes[], int numOfValues, int index) {
+    return ((planes[index] & 0xFF) << 24) | ((planes[numOfValues + index] & 0xFF) << 16)
+        | ((planes[2 * numOfValues + index] & 0xFF) << 8) | (planes[3 * numOfValues + index] & 0xFF);
+  }
+
+  /**
+   * Writes ints in the variable length half-byte encoding of numpress: a head half-byte with the
+   * number of leading zero (0-8) or 0xF (9-15) half-bytes, followed by the remaining half-bytes,
+   * least significant first.
+   */
+  private static class NibbleWriter {
+
+    private static final int MASK = 0xF0000000;
+
+    private byte bytes[];
+    private int numOfNibbles = 0;
+
+    private NibbleWriter(int initialSize) {
+      bytes = new byte[Math.max(initialSize, 16)];
+    }
+
+    private void putInt(int x) {
+      final int init = x & MASK;
+      int leading;
+      if (init == 0) {
+        leading = 8;
+        for (int i = 0; i < 8; i++) {
+          if ((x & (MASK >>> (4 * i))) != 0) {
+            leading = i;
+            break;
+          }
+        }
+        putNibble(leading);
+      } else if (init == MASK) {
+        leading = 7;
+        for (int i = 0; i < 8; i++) {
+          final int m = MASK >>> (4 * i);
+          if ((x & m) != m) {
+            leading = i;
+            break;
+          }
+        }
+        putNibble(leading + 8);
+      } else {
+        leading = 0;
+        putNibble(0);
+      }
+      for (int i = leading; i < 8; i++)
+        putNibble(x >>> (4 * (i - leading)));
+    }
+
+    private void putNibble(int nibble) {
+      final int index = numOfNibbles / 2;
+      if (index == bytes.length)
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      if ((numOfNibbles & 1) == 0)
+        bytes[index] = (byte) ((nibble & 0xF) << 4);
+      else
+        bytes[index] |= (byte) (nibble & 0xF);
+      numOfNibbles++;
+    }
+
+    private int size() {
+      return (numOfNibbles + 1) / 2;
+    }
+
+    private void copyTo(byte dst[], int offset) {
+      System.arraycopy(bytes, 0, dst, offset, size());
+    }
+
+  }
+
+  /**
+   * Reads ints written by NibbleWriter
+   */
+  private static class NibbleReader {
+
+    private static final int MASK = 0xF0000000;
+
+    private final ByteBuffer buffer;
+    private int currentByte;
+    private boolean lowNibbleNext = false;
+
+    private NibbleReader(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    private int getInt() {
+      final int head = getNibble();
+      int result = 0;
+      final int leading;
+      if (head <= 8) {
+        leading = head;
+      } else {
+        leading = head - 8;
+        for (int i = 0; i < leading; i++)
+          result |= MASK >>> (4 * i);
+      }
+      for (int i = leading; i < 8; i++)
+        result |= getNibble() << (4 * (i - leading));
+      return result;
+    }
+
+    private int getNibble() {
+      if (lowNibbleNext) {
+        lowNibbleNext = false;
+        return currentByte & 0xF;
+      }
+      currentByte = buffer.get();
+      lowNibbleNext = true;
+      return (currentByte >>> 4) & 0xF;
+    }
+
+  }
+
+}
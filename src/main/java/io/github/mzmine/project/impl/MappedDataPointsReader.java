@@ -0,0 +1,181 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.project.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Lock-free reader of the temporary data points file of a RawDataFileImpl. The file is
+ * memory-mapped in read-only segments of SEGMENT_SIZE bytes. The written part of a segment is
+ * mapped in steps of MAP_GRANULARITY bytes, and mapped again with a larger size as the file grows,
+ * until the segment has been written completely. Records which lie in the last, not yet mapped
+ * MAP_GRANULARITY bytes of the file, or which cross a segment border, are read by positional
+ * FileChannel reads into a buffer owned by the calling thread. Neither path takes a lock or shares
+ * a buffer between threads, so any number of threads may read while new data points are appended
+ * to the file. A reader may also be limited to a fixed region of a file that does not grow, such as
+ * a stored scans entry of a project file, whose segments are then mapped completely.
+ */
+class MappedDataPointsReader {
+
+  /**
+   * Size of one mapped segment (256 MiB)
+   */
+  static final long SEGMENT_SIZE = 1L << 28;
+
+  /**
+   * Step in which the written part of a segment is mapped (1 MiB)
+   */
+  static final long MAP_GRANULARITY = 1L << 20;
+
+  private final FileChannel channel;
+
+  private final long segmentSize, mapGranularity;
+
+  // Start of the data points in the file, and their length if the file does not grow (or -1)
+  private final long regionStart, regionLength;
+
+  private volatile boolean closed;
+
+  private final ConcurrentMap<Integer, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+
+  private final ThreadLocal<ByteBuffer> threadBuffer =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocate(20000));
+
+  MappedDataPointsReader(FileChannel channel) {
+    this(channel, SEGMENT_SIZE, MAP_GRANULARITY);
+  }
+
+  /**
+   * Reader mapping segments of given size, which must not exceed Integer.MAX_VALUE, in steps of
+   * given granularity, which must divide the segment size.
+   */
+  MappedDataPointsReader(FileChannel channel, long segmentSize, long mapGranularity) {
+    this(channel, 0, -1, segmentSize, mapGranularity);
+  }
+
+  /**
+   * Reader of the given region of a file, which is not written to while it is read. Offsets are
+   * relative to the start of the region.
+   */
+  MappedDataPointsReader(FileChannel channel, long regionStart, long regionLength,
+      long segmentSize) {
+    this(channel, regionStart, regionLength, segmentSize, segmentSize);
+  }
+
+  private MappedDataPointsReader(FileChannel channel, long regionStart, long regionLength,
+      long segmentSize, long mapGranularity) {
+    this.channel = channel;
+    this.regionStart = regionStart;
+    this.regionLength = regionLength;
+    this.segmentSize = segmentSize;
+    this.mapGranularity = mapGranularity;
+  }
+
+  /**
+   * Returns a buffer positioned at the first byte of the requested record, with its limit set to
+   * the end of the record. The returned buffer must only be used by the calling thread and only
+   * until its next call of this method.
+   */
+  ByteBuffer read(long offset, int numOfBytes) throws IOException {
+
+    if (closed)
+      throw new ClosedChannelException();
+
+    final int segmentIndex = (int) (offset / segmentSize);
+    final int segmentOffset = (int) (offset % segmentSize);
+
+    if (segmentOffset + (long) numOfBytes <= segmentSize) {
+      final MappedByteBuffer segment = getSegment(segmentIndex, segmentOffset + numOfBytes);
+      if (segment != null) {
+        ByteBuffer record = segment.duplicate();
+        // JDK 9 breaks compatibility with JRE8: need to cast
+        ((Buffer) record).limit(segmentOffset + numOfBytes);
+        ((Buffer) record).position(segmentOffset);
+        return record;
+      }
+    }
+
+    ByteBuffer buffer = threadBuffer.get();
+    if (buffer.capacity() < numOfBytes) {
+      buffer = ByteBuffer.allocate(numOfBytes * 2);
+      threadBuffer.set(buffer);
+    } else {
+      ((Buffer) buffer).clear();
+    }
+    ((Buffer) buffer).limit(numOfBytes);
+
+    long position = regionStart + offset;
+    while (buffer.hasRemaining()) {
+      final int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new EOFException("Unexpected end of data points file at offset " + position);
+      }
+      position += read;
+    }
+    ((Buffer) buffer).flip();
+    return buffer;
+
+  }
+
+  /**
+   * Returns the mapped segment with given index, mapped at least up to given end (relative to the
+   * segment start), or null if that part of the segment has not been written yet. Mapping beyond
+   * the end of the file is not allowed in read-only mode.
+   */
+  private MappedByteBuffer getSegment(int segmentIndex, int end) throws IOException {
+
+    final MappedByteBuffer segment = segments.get(segmentIndex);
+    if (segment != null && segment.capacity() >= end)
+      return segment;
+
+    final long segmentStart = segmentIndex * segmentSize;
+    final long size = (regionLength >= 0) ? regionLength : channel.size();
+    final long written = Math.min(segmentSize, size - segmentStart);
+    // A region of fixed length does not grow, so its segments are mapped completely at once
+    final long length =
+        (regionLength >= 0) ? written : written / mapGranularity * mapGranularity;
+    if (length < end)
+      return null;
+
+    final MappedByteBuffer mapped =
+        channel.map(FileChannel.MapMode.READ_ONLY, regionStart + segmentStart, length);
+    // Keep the longer mapping if another thread mapped the segment meanwhile
+    return segments.merge(segmentIndex, mapped,
+        (previous, current) -> previous.capacity() >= current.capacity() ? previous : current);
+
+  }
+
+  /**
+   * Drops the mapped segments, so that they can be unmapped before the file is deleted. Reading
+   * afterwards fails.
+   */
+  void close() {
+    closed = true;
+    segments.clear();
+  }
+
+}
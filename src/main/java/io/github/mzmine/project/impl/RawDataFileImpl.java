@@ -18,7 +18,9 @@
 
 package io.github.mzmine.project.impl;
 
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.Buffer;
@@ -31,10 +33,12 @@ import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.NavigableMap;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import com.google.common.collect.Range;
@@ -45,6 +49,8 @@ import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.RawDataFileWriter;
 import io.github.mzmine.datamodel.Scan;
 import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.main.MZmineConfiguration;
+import io.github.mzmine.main.MZmineCore;
 
 /**
  * RawDataFile implementation. It provides storage of data points for scans and mass lists using the
@@ -55,6 +61,17 @@ import io.github.mzmine.datamodel.impl.SimpleDataPoint;
  * removeStoredDataPoints(), the dataPointsFile is not modified, the storage ID is just deleted from
  * the two TreeMaps. When the project is saved, the contents of the dataPointsFile are consolidated
  * - only data points referenced by the TreeMaps are saved (see the RawDataFileSaveHandler class).
+ * 
+ * Writing is append-only and serialized, while reading goes through a MappedDataPointsReader and is
+ * not synchronized, so parallel modules can read data points of the same file concurrently.
+ * Depending on the temporary data compression preference, new data points are encoded by a
+ * DataPointsCodec, whose tag is kept in the highest byte of the offset in dataPointsOffsets.
+ * Recently read data points are kept in the SpectraCache, which all raw data files share. The
+ * cached arrays are shared between threads and never handed out, so they stay read-only.
+ * 
+ * The data points of a raw data file opened from a project may also be read in place from the
+ * stored scans entry of the project file, which is never written to. The entry is copied to a new
+ * temporary file when data points are added, e.g. new mass lists.
  */
 public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
@@ -68,12 +85,22 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   private final Hashtable<Integer, int[]> scanNumbersCache;
 
   private ByteBuffer buffer = ByteBuffer.allocate(20000);
-  private final TreeMap<Integer, Long> dataPointsOffsets;
-  private final TreeMap<Integer, Integer> dataPointsLengths;
+  private final NavigableMap<Integer, Long> dataPointsOffsets;
+  private final NavigableMap<Integer, Integer> dataPointsLengths;
 
   // Temporary file for scan data storage
   private File dataPointsFileName;
   private RandomAccessFile dataPointsFile;
+  private volatile MappedDataPointsReader dataPointsReader;
+
+  // Project file whose scans entry the data points were read from in place, kept open for readers
+  // of the previous data points reader until this file is closed
+  private RandomAccessFile projectFile;
+  private long scansEntryOffset, scansEntryLength;
+  private boolean dataPointsInPlace;
+
+  // Encoding of newly stored data points
+  private final DataPointsCodec dataPointsCodec;
 
   // To store mass lists that have been added but not yet reflected in the GUI
   // by the
@@ -86,6 +113,14 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   private final Hashtable<Integer, StorableScan> scans;
 
   public RawDataFileImpl(String dataFileName) throws IOException {
+    this(dataFileName, getConfiguredCodec());
+  }
+
+  /**
+   * Raw data file storing its data points with the given codec instead of the one set in the
+   * preferences
+   */
+  RawDataFileImpl(String dataFileName, DataPointsCodec dataPointsCodec) throws IOException {
 
     this.dataFileName = dataFileName;
 
@@ -96,11 +131,18 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     dataMaxBasePeakIntensity = new Hashtable<Integer, Double>();
     dataMaxTIC = new Hashtable<Integer, Double>();
     scans = new Hashtable<Integer, StorableScan>();
-    dataPointsOffsets = new TreeMap<Integer, Long>();
-    dataPointsLengths = new TreeMap<Integer, Integer>();
+    dataPointsOffsets = new ConcurrentSkipListMap<Integer, Long>();
+    dataPointsLengths = new ConcurrentSkipListMap<Integer, Integer>();
+
+    this.dataPointsCodec = dataPointsCodec;
 
   }
 
+  private static DataPointsCodec getConfiguredCodec() {
+    final MZmineConfiguration configuration = MZmineCore.getConfiguration();
+    return configuration != null ? configuration.getDataPointsCodec() : DataPointsCodec.NONE;
+  }
+
   @Override
   public RawDataFile clone() throws CloneNotSupportedException {
     return (RawDataFile) super.clone();
@@ -115,7 +157,8 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
   /**
    * Returns the (already opened) data points file. Warning: may return null in case no scans have
-   * been added yet to this RawDataFileImpl instance
+   * been added yet to this RawDataFileImpl instance. If the data points are read in place, this is
+   * the project file, opened read-only.
    */
   public RandomAccessFile getDataPointsFile() {
     return dataPointsFile;
@@ -134,6 +177,7 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     this.dataPointsFileName = dataPointsFileName;
     this.dataPointsFile = new RandomAccessFile(dataPointsFileName, "rw");
+    this.dataPointsReader = new MappedDataPointsReader(dataPointsFile.getChannel());
 
     // Locks the temporary file so it is not removed when another instance
     // of MZmine is starting. Lock will be automatically released when this
@@ -153,6 +197,73 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
   }
 
+  /**
+   * Reads the data points in place from the stored (uncompressed) scans entry of a project file,
+   * which starts at the given offset. The TreeMaps have to describe the data points relative to the
+   * start of the entry. The project file is never written to; the entry is copied to a new data
+   * points file when data points are added.
+   */
+  public synchronized void openScansEntry(File projectFileName, long offset, long length)
+      throws IOException {
+
+    if (this.dataPointsFile != null) {
+      throw new IOException("Cannot open another data points file, because one is already open");
+    }
+
+    this.dataPointsFileName = projectFileName;
+    this.projectFile = new RandomAccessFile(projectFileName, "r");
+    this.dataPointsFile = projectFile;
+    this.scansEntryOffset = offset;
+    this.scansEntryLength = length;
+    this.dataPointsInPlace = true;
+    this.dataPointsReader = new MappedDataPointsReader(projectFile.getChannel(), offset, length,
+        MappedDataPointsReader.SEGMENT_SIZE);
+
+  }
+
+  /**
+   * @return whether the data points are read in place from the scans entry of a project file
+   */
+  public boolean isDataPointsFileInPlace() {
+    return dataPointsInPlace;
+  }
+
+  /**
+   * Creates the data points file before the first data points are stored, or copies the scans
+   * entry the data points are read from in place to a new data points file
+   */
+  private void prepareDataPointsFile() throws IOException {
+
+    if (dataPointsFile == null) {
+      File newFile = RawDataFileImpl.createNewDataPointsFile();
+      openDataPointsFile(newFile);
+      return;
+    }
+
+    if (!dataPointsInPlace)
+      return;
+
+    logger.info("Extracting the data points of " + dataFileName + " from " + dataPointsFileName);
+    final File newFile = RawDataFileImpl.createNewDataPointsFile();
+    try (FileOutputStream os = new FileOutputStream(newFile)) {
+      final FileChannel source = projectFile.getChannel();
+      long copied = 0;
+      while (copied < scansEntryLength) {
+        final long transferred = source.transferTo(scansEntryOffset + copied,
+            scansEntryLength - copied, os.getChannel());
+        if (transferred <= 0)
+          throw new EOFException("Unexpected end of project file " + dataPointsFileName);
+        copied += transferred;
+      }
+    }
+
+    // The offsets stay the same, as the entry starts at offset 0 of the new file
+    dataPointsFile = null;
+    dataPointsInPlace = false;
+    openDataPointsFile(newFile);
+
+  }
+
   /**
    * @see io.github.mzmine.datamodel.RawDataFile#getNumOfScans()
    */
@@ -323,10 +434,7 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
   public synchronized int storeDataPoints(DataPoint dataPoints[]) throws IOException {
 
-    if (dataPointsFile == null) {
-      File newFile = RawDataFileImpl.createNewDataPointsFile();
-      openDataPointsFile(newFile);
-    }
+    prepareDataPointsFile();
 
     final long currentOffset = dataPointsFile.length();
 
@@ -338,6 +446,21 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     final int numOfDataPoints = dataPoints.length;
 
+    if (dataPointsCodec != DataPointsCodec.NONE) {
+      DataPointsCodec codec = dataPointsCodec;
+      byte encoded[] = codec.encode(dataPoints);
+      if (encoded == null) {
+        codec = DataPointsCodec.DEFLATE;
+        encoded = codec.encode(dataPoints);
+      }
+      dataPointsFile.seek(currentOffset);
+      dataPointsFile.writeInt(encoded.length);
+      dataPointsFile.write(encoded);
+      dataPointsLengths.put(currentID, numOfDataPoints);
+      dataPointsOffsets.put(currentID, codec.tagOffset(currentOffset));
+      return currentID;
+    }
+
     // Convert the dataPoints into a byte array. Each float takes 4 bytes,
     // so we get the current float offset by dividing the size of the file
     // by 4
@@ -360,36 +483,91 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     dataPointsFile.seek(currentOffset);
     dataPointsFile.write(buffer.array(), 0, numOfBytes);
 
-    dataPointsOffsets.put(currentID, currentOffset);
+    // The length is published first, so a reader that finds the offset always finds the length
     dataPointsLengths.put(currentID, numOfDataPoints);
+    dataPointsOffsets.put(currentID, currentOffset);
 
     return currentID;
 
   }
 
-  public synchronized DataPoint[] readDataPoints(int ID) throws IOException {
-
-    final Long currentOffset = dataPointsOffsets.get(ID);
-    final Integer numOfDataPoints = dataPointsLengths.get(ID);
-
-    if ((currentOffset == null) || (numOfDataPoints == null)) {
-      throw new IllegalArgumentException("Unknown storage ID " + ID);
+  /**
+   * Stores several arrays of data points with a single write to the temporary file.
+   * 
+   * @return the storage IDs in the order of the given arrays
+   */
+  public synchronized int[] storeDataPoints(DataPoint dataPoints[][]) throws IOException {
+
+    prepareDataPointsFile();
+
+    final long firstOffset = dataPointsFile.length();
+
+    // Encode all arrays before writing, so the record sizes are known
+    final byte encoded[][] = new byte[dataPoints.length][];
+    final DataPointsCodec codecs[] = new DataPointsCodec[dataPoints.length];
+    long numOfBytes = 0;
+    for (int i = 0; i < dataPoints.length; i++) {
+      if (dataPointsCodec != DataPointsCodec.NONE) {
+        codecs[i] = dataPointsCodec;
+        encoded[i] = codecs[i].encode(dataPoints[i]);
+        if (encoded[i] == null) {
+          codecs[i] = DataPointsCodec.DEFLATE;
+          encoded[i] = codecs[i].encode(dataPoints[i]);
+        }
+        numOfBytes += 4 + encoded[i].length;
+      } else {
+        numOfBytes += dataPoints[i].length * 2 * 4;
+      }
     }
 
-    final int numOfBytes = numOfDataPoints * 2 * 4;
+    if (numOfBytes > Integer.MAX_VALUE)
+      throw new IOException("Too many data points to store in one batch");
 
     if (buffer.capacity() < numOfBytes) {
-      buffer = ByteBuffer.allocate(numOfBytes * 2);
+      buffer = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8, numOfBytes * 2));
     } else {
-      // JDK 9 breaks compatibility with JRE8: need to cast
-      // https://stackoverflow.com/questions/48693695/java-nio-buffer-not-loading-clear-method-on-runtime
       ((Buffer) buffer).clear();
     }
 
-    dataPointsFile.seek(currentOffset);
-    dataPointsFile.read(buffer.array(), 0, numOfBytes);
+    final long offsets[] = new long[dataPoints.length];
+    for (int i = 0; i < dataPoints.length; i++) {
+      offsets[i] = firstOffset + buffer.position();
+      if (encoded[i] != null) {
+        buffer.putInt(encoded[i].length);
+        buffer.put(encoded[i]);
+        offsets[i] = codecs[i].tagOffset(offsets[i]);
+      } else {
+        for (DataPoint dp : dataPoints[i]) {
+          buffer.putFloat((float) dp.getMZ());
+          buffer.putFloat((float) dp.getIntensity());
+        }
+      }
+    }
 
-    FloatBuffer floatBuffer = buffer.asFloatBuffer();
+    dataPointsFile.seek(firstOffset);
+    dataPointsFile.write(buffer.array(), 0, (int) numOfBytes);
+
+    int currentID = dataPointsOffsets.isEmpty() ? 1 : dataPointsOffsets.lastKey() + 1;
+    final int ids[] = new int[dataPoints.length];
+    for (int i = 0; i < dataPoints.length; i++, currentID++) {
+      ids[i] = currentID;
+      // The length is published first, so a reader that finds the offset always finds the length
+      dataPointsLengths.put(currentID, dataPoints[i].length);
+      dataPointsOffsets.put(currentID, offsets[i]);
+    }
+
+    return ids;
+
+  }
+
+  /**
+   * Reads the data points stored under given storage ID. This method is not synchronized and may be
+   * called by any number of threads concurrently.
+   */
+  public DataPoint[] readDataPoints(int ID) throws IOException {
+
+    final FloatBuffer floatBuffer = readFloats(ID);
+    final int numOfDataPoints = floatBuffer.remaining() / 2;
 
     DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
 
@@ -403,9 +581,149 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
   }
 
+  /**
+   * Copies the m/z values stored under given storage ID into the given array, without creating any
+   * DataPoint objects. A new array is allocated if dst is null or too short.
+   */
+  public double[] readMzValues(int ID, @Nullable double dst[]) throws IOException {
+    return readValues(ID, dst, 0);
+  }
+
+  /**
+   * Copies the intensity values stored under given storage ID into the given array, without
+   * creating any DataPoint objects. A new array is allocated if dst is null or too short.
+   */
+  public double[] readIntensityValues(int ID, @Nullable double dst[]) throws IOException {
+    return readValues(ID, dst, 1);
+  }
+
+  /**
+   * Copies the intensity values stored under given storage ID into the given float array, which is
+   * the precision they are stored with. A new array is allocated if dst is null or too short.
+   */
+  public float[] readFloatIntensityValues(int ID, @Nullable float dst[]) throws IOException {
+
+    final FloatBuffer floatBuffer = readFloats(ID);
+    final int numOfDataPoints = floatBuffer.remaining() / 2;
+
+    if ((dst == null) || (dst.length < numOfDataPoints))
+      dst = new float[numOfDataPoints];
+
+    for (int i = 0; i < numOfDataPoints; i++) {
+      dst[i] = floatBuffer.get(2 * i + 1);
+    }
+
+    return dst;
+
+  }
+
+  /**
+   * Returns the number of data points stored under given storage ID
+   */
+  public int getNumOfDataPoints(int ID) {
+    final Integer numOfDataPoints = dataPointsLengths.get(ID);
+    if (numOfDataPoints == null) {
+      throw new IllegalArgumentException("Unknown storage ID " + ID);
+    }
+    return numOfDataPoints;
+  }
+
+  private double[] readValues(int ID, @Nullable double dst[], int column) throws IOException {
+
+    final FloatBuffer floatBuffer = readFloats(ID);
+    final int numOfDataPoints = floatBuffer.remaining() / 2;
+
+    if ((dst == null) || (dst.length < numOfDataPoints))
+      dst = new double[numOfDataPoints];
+
+    for (int i = 0; i < numOfDataPoints; i++) {
+      dst[i] = floatBuffer.get(2 * i + column);
+    }
+
+    return dst;
+
+  }
+
+  /**
+   * Returns the interleaved m/z and intensity values stored under given storage ID, from the cache
+   * if possible. The buffer is only valid in the calling thread until its next read.
+   */
+  private FloatBuffer readFloats(int ID) throws IOException {
+
+    final float cachedValues[] = SpectraCache.get(this, ID);
+    if (cachedValues != null) {
+      return FloatBuffer.wrap(cachedValues);
+    }
+
+    final Long taggedOffset = dataPointsOffsets.get(ID);
+    final Integer numOfDataPoints = dataPointsLengths.get(ID);
+    final MappedDataPointsReader reader = dataPointsReader;
+
+    if ((taggedOffset == null) || (numOfDataPoints == null) || (reader == null)) {
+      throw new IllegalArgumentException("Unknown storage ID " + ID);
+    }
+
+    final DataPointsCodec codec = DataPointsCodec.fromTaggedOffset(taggedOffset);
+    final long currentOffset = DataPointsCodec.untagOffset(taggedOffset);
+
+    if (codec == DataPointsCodec.NONE) {
+      final int numOfBytes = numOfDataPoints * 2 * 4;
+
+      final FloatBuffer floatBuffer = reader.read(currentOffset, numOfBytes).asFloatBuffer();
+      if (!SpectraCache.isEnabled()) {
+        return floatBuffer;
+      }
+
+      final float values[] = new float[numOfDataPoints * 2];
+      floatBuffer.get(values);
+      SpectraCache.put(this, ID, values);
+      return FloatBuffer.wrap(values);
+    }
+
+    // The encoded data is decoded straight from the mapped file
+    final int numOfBytes = reader.read(currentOffset, 4).getInt();
+    final float values[] = new float[numOfDataPoints * 2];
+    try {
+      codec.decode(reader.read(currentOffset + 4, numOfBytes), values, numOfDataPoints);
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt data points of storage ID " + ID, e);
+    }
+    SpectraCache.put(this, ID, values);
+    return FloatBuffer.wrap(values);
+
+  }
+
+  /**
+   * Returns the data points stored under given storage ID in the uncompressed format of the data
+   * points file (interleaved big endian floats), which is also the format of saved projects. The
+   * buffer is only valid in the calling thread until its next read.
+   */
+  public ByteBuffer readUncompressedDataPoints(int ID) throws IOException {
+
+    final Long taggedOffset = dataPointsOffsets.get(ID);
+    final Integer numOfDataPoints = dataPointsLengths.get(ID);
+    final MappedDataPointsReader reader = dataPointsReader;
+
+    if ((taggedOffset == null) || (numOfDataPoints == null) || (reader == null)) {
+      throw new IllegalArgumentException("Unknown storage ID " + ID);
+    }
+
+    if (DataPointsCodec.fromTaggedOffset(taggedOffset) == DataPointsCodec.NONE) {
+      return reader.read(taggedOffset, numOfDataPoints * 2 * 4);
+    }
+
+    final FloatBuffer floatBuffer = readFloats(ID);
+    ByteBuffer byteBuffer = ByteBuffer.allocate(floatBuffer.remaining() * 4);
+    byteBuffer.asFloatBuffer().put(floatBuffer);
+    return byteBuffer;
+
+  }
+
   public synchronized void removeStoredDataPoints(int ID) throws IOException {
     dataPointsOffsets.remove(ID);
     dataPointsLengths.remove(ID);
+    // Storage IDs may be reused by storeDataPoints(), so the cached values must go as well
+    SpectraCache.invalidate(this, ID);
   }
 
   @Override
@@ -526,20 +844,35 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     return getScanNumbers(msLevel).length;
   }
 
-  public synchronized TreeMap<Integer, Long> getDataPointsOffsets() {
+  /**
+   * Returns the offsets of the stored data points by storage ID. The highest byte of each offset is
+   * the tag of its DataPointsCodec, which is 0 for uncompressed data points.
+   */
+  public NavigableMap<Integer, Long> getDataPointsOffsets() {
     return dataPointsOffsets;
   }
 
-  public synchronized TreeMap<Integer, Integer> getDataPointsLengths() {
+  public NavigableMap<Integer, Integer> getDataPointsLengths() {
     return dataPointsLengths;
   }
 
   @Override
   public synchronized void close() {
+    SpectraCache.invalidateAll(this);
     try {
       if (dataPointsFileName != null) {
+        // A mapped file cannot be deleted on Windows until the mapping is garbage collected
+        if (dataPointsReader != null)
+          dataPointsReader.close();
+        dataPointsReader = null;
         dataPointsFile.close();
-        dataPointsFileName.delete();
+        if (projectFile != null)
+          projectFile.close();
+        // The project file the data points are read from in place is kept
+        if (!dataPointsInPlace && !dataPointsFileName.delete() && dataPointsFileName.exists()) {
+          logger.warning("Could not delete file " + dataPointsFileName + ", deleting it on exit");
+          dataPointsFileName.deleteOnExit();
+        }
       }
     } catch (IOException e) {
       logger.warning("Could not close file " + dataPointsFileName + ": " + e.toString());
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.project.impl;
+
+import java.util.logging.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import io.github.mzmine.main.MZmineConfiguration;
+import io.github.mzmine.main.MZmineCore;
+
+/**
+ * Decoded data points of all raw data files, kept in memory to avoid reading them from the disk
+ * again. The entries are keyed by their owner, such as a raw data file, and an ID within the owner.
+ * One memory budget, the spectra cache size preference, bounds all entries together, and the least
+ * recently used entries are evicted first, regardless of their file. Cached arrays are shared
+ * between threads, so they must not be modified.
+ * 
+ * Values are float arrays, such as the data points of a RawDataFileImpl, or {@link Entry} objects,
+ * such as the scans converted for MSDK.
+ */
+public class SpectraCache {
+
+  private static final Logger logger = Logger.getLogger(SpectraCache.class.getName());
+
+  private static volatile Cache<Key, Object> cache;
+  private static volatile long maximumSize;
+
+  /**
+   * Cached values other than a float array
+   */
+  public interface Entry {
+
+    /**
+     * @return approximate memory use in bytes
+     */
+    int getWeight();
+  }
+
+  /**
+   * @return the cached values, or null if they are not cached
+   */
+  public static float[] get(Object owner, int id) {
+    final Object values = getCache().getIfPresent(new Key(owner, id));
+    return (values instanceof float[]) ? (float[]) values : null;
+  }
+
+  /**
+   * Caches the values, unless the cache is disabled. The array must not be modified afterwards.
+   */
+  public static void put(Object owner, int id, float values[]) {
+    putValues(owner, id, values);
+  }
+
+  /**
+   * @return the cached entry, or null if it is not cached
+   */
+  public static Entry getEntry(Object owner, int id) {
+    final Object entry = getCache().getIfPresent(new Key(owner, id));
+    return (entry instanceof Entry) ? (Entry) entry : null;
+  }
+
+  /**
+   * Caches the entry, unless the cache is disabled. The entry must not be modified afterwards.
+   */
+  public static void putEntry(Object owner, int id, Entry entry) {
+    putValues(owner, id, entry);
+  }
+
+  private static void putValues(Object owner, int id, Object values) {
+    final Cache<Key, Object> currentCache = getCache();
+    if (maximumSize > 0)
+      currentCache.put(new Key(owner, id), values);
+  }
+
+  /**
+   * @return whether values are cached at all
+   */
+  public static boolean isEnabled() {
+    getCache();
+    return maximumSize > 0;
+  }
+
+  public static void invalidate(Object owner, int id) {
+    getCache().invalidate(new Key(owner, id));
+  }
+
+  /**
+   * Removes all cached values of the owner, e.g. when a raw data file is closed
+   */
+  public static void invalidateAll(Object owner) {
+    getCache().asMap().keySet().removeIf(key -> key.owner == owner);
+  }
+
+  /**
+   * Returns the hit and miss counters of all owners since the cache size was last set
+   */
+  public static CacheStats getStats() {
+    return getCache().stats();
+  }
+
+  /**
+   * Sets the memory budget in bytes of all cached values. A changed budget drops all cached values.
+   * 0 disables the cache.
+   */
+  public static synchronized void setMaximumSize(long bytes) {
+    if ((cache != null) && (maximumSize == bytes))
+      return;
+    if (cache != null)
+      logger.finest("Spectra cache before resizing: " + cache.stats());
+    maximumSize = Math.max(0, bytes);
+    cache = CacheBuilder.newBuilder().maximumWeight(maximumSize)
+        .weigher((Key key, Object values) -> (values instanceof float[])
+            ? ((float[]) values).length * 4
+            : ((Entry) values).getWeight())
+        .recordStats().build();
+  }
+
+  /**
+   * The cache, sized by the preferences when it is used for the first time
+   */
+  private static Cache<Key, Object> getCache() {
+    Cache<Key, Object> currentCache = cache;
+    if (currentCache != null)
+      return currentCache;
+    synchronized (SpectraCache.class) {
+      if (cache == null) {
+        final MZmineConfiguration configuration = MZmineCore.getConfiguration();
+        setMaximumSize(configuration != null ? configuration.getSpectraCacheSize() : 0);
+      }
+      return cache;
+    }
+  }
+
+  private static final class Key {
+
+    private final Object owner;
+    private final int id;
+
+    Key(Object owner, int id) {
+      this.owner = owner;
+      this.id = id;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(owner) + id;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key))
+        return false;
+      final Key other = (Key) obj;
+      return (owner == other.owner) && (id == other.id);
+    }
+  }
+
+}
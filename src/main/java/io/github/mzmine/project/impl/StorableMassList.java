@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.util.logging.Logger;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.MassList;
@@ -73,6 +74,31 @@ public class StorableMassList implements MassList {
     }
   }
 
+  @Override
+  public int getNumberOfDataPoints() {
+    return rawDataFile.getNumOfDataPoints(storageID);
+  }
+
+  @Override
+  public @Nonnull double[] getMzValues(@Nullable double[] dst) {
+    try {
+      return rawDataFile.readMzValues(storageID, dst);
+    } catch (IOException e) {
+      logger.severe("Could not read data from temporary file " + e.toString());
+      return new double[getNumberOfDataPoints()];
+    }
+  }
+
+  @Override
+  public @Nonnull double[] getIntensityValues(@Nullable double[] dst) {
+    try {
+      return rawDataFile.readIntensityValues(storageID, dst);
+    } catch (IOException e) {
+      logger.severe("Could not read data from temporary file " + e.toString());
+      return new double[getNumberOfDataPoints()];
+    }
+  }
+
   public void removeStoredData() {
     try {
       rawDataFile.removeStoredDataPoints(storageID);
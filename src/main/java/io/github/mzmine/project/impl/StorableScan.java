@@ -24,6 +24,7 @@ import java.util.Vector;
 import java.util.logging.Logger;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import com.google.common.collect.Range;
 
@@ -124,6 +125,36 @@ public class StorableScan implements Scan {
 
   }
 
+  @Override
+  public @Nonnull double[] getMzValues(@Nullable double[] dst) {
+    try {
+      return rawDataFile.readMzValues(storageID, dst);
+    } catch (IOException e) {
+      logger.severe("Could not read data from temporary file " + e.toString());
+      return new double[numberOfDataPoints];
+    }
+  }
+
+  @Override
+  public @Nonnull double[] getIntensityValues(@Nullable double[] dst) {
+    try {
+      return rawDataFile.readIntensityValues(storageID, dst);
+    } catch (IOException e) {
+      logger.severe("Could not read data from temporary file " + e.toString());
+      return new double[numberOfDataPoints];
+    }
+  }
+
+  @Override
+  public @Nonnull float[] getFloatIntensityValues(@Nullable float[] dst) {
+    try {
+      return rawDataFile.readFloatIntensityValues(storageID, dst);
+    } catch (IOException e) {
+      logger.severe("Could not read data from temporary file " + e.toString());
+      return new float[numberOfDataPoints];
+    }
+  }
+
   /**
    * @return Returns scan datapoints within a given range
    */
@@ -20,8 +20,14 @@ package io.github.mzmine.taskcontrol.impl;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
 import java.util.logging.Logger;
 
 import io.github.mzmine.gui.Desktop;
@@ -33,10 +39,11 @@ import io.github.mzmine.taskcontrol.Task;
 import io.github.mzmine.taskcontrol.TaskControlListener;
 import io.github.mzmine.taskcontrol.TaskController;
 import io.github.mzmine.taskcontrol.TaskPriority;
-import io.github.mzmine.taskcontrol.TaskStatus;
 
 /**
- * Task controller implementation
+ * Task controller implementation. Tasks are handed to a thread pool as soon as they are added, so
+ * no task waits for the task controller thread, and threads are reused between tasks. The task
+ * controller thread only updates the task progress.
  */
 public class TaskControllerImpl implements TaskController, Runnable {
 
@@ -54,10 +61,37 @@ public class TaskControllerImpl implements TaskController, Runnable {
   private TaskQueue taskQueue;
 
   /**
-   * This vector contains references to all running threads of NORMAL priority. Maximum number of
-   * concurrent threads is specified in the preferences dialog.
+   * Executes tasks of NORMAL priority in the order they were added. Maximum number of concurrent
+   * threads is specified in the preferences dialog.
    */
-  private Vector<WorkerThread> runningThreads;
+  private ThreadPoolExecutor normalPriorityExecutor;
+
+  /**
+   * Executes tasks of HIGH priority immediately, on a new thread if no idle thread is available
+   */
+  private ExecutorService highPriorityExecutor;
+
+  /**
+   * Idle threads are stopped after this time
+   */
+  private static final long THREAD_KEEP_ALIVE_SECONDS = 60;
+
+  /**
+   * Maximum number of concurrent tasks of NORMAL priority
+   */
+  private final IntSupplier numOfThreads;
+
+  public TaskControllerImpl() {
+    this(TaskControllerImpl::getPreferredNumOfThreads);
+  }
+
+  /**
+   * Task controller running at most the supplied number of NORMAL priority tasks at once, instead
+   * of the number set in the preferences
+   */
+  TaskControllerImpl(IntSupplier numOfThreads) {
+    this.numOfThreads = numOfThreads;
+  }
 
   /**
    * Initialize the task controller
@@ -67,7 +101,14 @@ public class TaskControllerImpl implements TaskController, Runnable {
     logger.finest("Starting task controller thread");
     taskQueue = new TaskQueue();
 
-    runningThreads = new Vector<WorkerThread>();
+    // The number of threads is updated from the preferences whenever a task is added
+    final int numOfThreads = Runtime.getRuntime().availableProcessors();
+    normalPriorityExecutor = new ThreadPoolExecutor(numOfThreads, numOfThreads,
+        THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        createThreadFactory("Task worker thread"));
+    normalPriorityExecutor.allowCoreThreadTimeOut(true);
+    highPriorityExecutor =
+        Executors.newCachedThreadPool(createThreadFactory("High priority task worker thread"));
 
     // Create a low-priority thread that will manage the queue and start
     // worker threads for tasks
@@ -119,6 +160,7 @@ public class TaskControllerImpl implements TaskController, Runnable {
       taskQueue.addWrappedTask(newQueueEntry);
       // logger.finest("Added wrapped task for " +
       // task.getTaskDescription());
+      submit(newQueueEntry);
     }
 
     // Wake up the task controller thread
@@ -167,47 +209,6 @@ public class TaskControllerImpl implements TaskController, Runnable {
         continue;
       }
 
-      // Remove already finished threads from runningThreads
-      Iterator<WorkerThread> threadIterator = runningThreads.iterator();
-      while (threadIterator.hasNext()) {
-        WorkerThread thread = threadIterator.next();
-        if (thread.isFinished())
-          threadIterator.remove();
-      }
-
-      // Get a snapshot of the queue
-      WrappedTask[] queueSnapshot = taskQueue.getQueueSnapshot();
-
-      // Obtain the settings of max concurrent threads
-      NumOfThreadsParameter parameter = MZmineCore.getConfiguration().getPreferences()
-          .getParameter(MZminePreferences.numOfThreads);
-      int maxRunningThreads;
-      if (parameter.isAutomatic() || (parameter.getValue() == null))
-        maxRunningThreads = Runtime.getRuntime().availableProcessors();
-      else
-        maxRunningThreads = parameter.getValue();
-
-      // Check all tasks in the queue
-      for (WrappedTask task : queueSnapshot) {
-
-        // Skip assigned and canceled tasks
-        if (task.isAssigned() || (task.getActualTask().getStatus() == TaskStatus.CANCELED))
-          continue;
-
-        // Create a new thread if the task is high-priority or if we
-        // have less then maximum # of threads running
-        if ((task.getPriority() == TaskPriority.HIGH)
-            || (runningThreads.size() < maxRunningThreads)) {
-          WorkerThread newThread = new WorkerThread(task);
-
-          if (task.getPriority() == TaskPriority.NORMAL) {
-            runningThreads.add(newThread);
-          }
-
-          newThread.start();
-        }
-      }
-
       // Refresh the tasks window
       Desktop desktop = MZmineCore.getDesktop();
       if ((desktop != null) && (!(desktop instanceof HeadLessDesktop))) {
@@ -225,6 +226,57 @@ public class TaskControllerImpl implements TaskController, Runnable {
 
   }
 
+  /**
+   * Hands the task to the executor of its priority. High priority tasks start immediately, normal
+   * priority tasks as soon as one of the preferred number of threads is free.
+   */
+  private void submit(WrappedTask task) {
+    if (task.getPriority() == TaskPriority.HIGH) {
+      highPriorityExecutor.execute(new TaskWorker(task));
+    } else {
+      updateNumberOfThreads();
+      normalPriorityExecutor.execute(new TaskWorker(task));
+    }
+  }
+
+  /**
+   * Applies the number of threads from the preferences to the executor of normal priority tasks
+   */
+  private synchronized void updateNumberOfThreads() {
+
+    final int maxRunningThreads = Math.max(1, numOfThreads.getAsInt());
+
+    // The core size must never exceed the maximum size
+    if (maxRunningThreads > normalPriorityExecutor.getMaximumPoolSize()) {
+      normalPriorityExecutor.setMaximumPoolSize(maxRunningThreads);
+      normalPriorityExecutor.setCorePoolSize(maxRunningThreads);
+    } else if (maxRunningThreads < normalPriorityExecutor.getMaximumPoolSize()) {
+      normalPriorityExecutor.setCorePoolSize(maxRunningThreads);
+      normalPriorityExecutor.setMaximumPoolSize(maxRunningThreads);
+    }
+  }
+
+  /**
+   * Obtains the settings of max concurrent threads
+   */
+  private static int getPreferredNumOfThreads() {
+    NumOfThreadsParameter parameter = MZmineCore.getConfiguration().getPreferences()
+        .getParameter(MZminePreferences.numOfThreads);
+    if (parameter.isAutomatic() || (parameter.getValue() == null))
+      return Runtime.getRuntime().availableProcessors();
+    return parameter.getValue();
+  }
+
+  private static ThreadFactory createThreadFactory(String namePrefix) {
+    final AtomicInteger threadNumber = new AtomicInteger(1);
+    return runnable -> {
+      Thread thread = new Thread(runnable, namePrefix + " " + threadNumber.getAndIncrement());
+      thread.setDaemon(false);
+      thread.setPriority(Thread.NORM_PRIORITY);
+      return thread;
+    };
+  }
+
   @Override
   public void setTaskPriority(Task task, TaskPriority priority) {
 
@@ -238,6 +290,11 @@ public class TaskControllerImpl implements TaskController, Runnable {
         logger.finest(
             "Setting priority of task \"" + task.getTaskDescription() + "\" to " + priority);
         wrappedTask.setPriority(priority);
+
+        // A waiting task with raised priority starts immediately. Its entry in the normal
+        // priority queue is skipped later.
+        if ((priority == TaskPriority.HIGH) && !wrappedTask.isAssigned())
+          highPriorityExecutor.execute(new TaskWorker(wrappedTask));
       }
     }
 
@@ -27,28 +27,43 @@ import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.ExceptionUtils;
 
 /**
- * Task controller worker thread, this thread will process one task and then finish
+ * Task controller worker, which processes one task on a thread of the task controller's executors.
+ * The same task may be submitted to more than one executor (e.g. when its priority is raised while
+ * it is waiting), but only the first worker to start will process it.
  */
-class WorkerThread extends Thread {
+class TaskWorker implements Runnable {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
-  private WrappedTask wrappedTask;
-  private boolean finished = false;
+  private final WrappedTask wrappedTask;
 
-  WorkerThread(WrappedTask wrappedTask) {
-    super("Thread executing task " + wrappedTask);
+  TaskWorker(WrappedTask wrappedTask) {
     this.wrappedTask = wrappedTask;
-    wrappedTask.assignTo(this);
   }
 
   /**
    * @see java.lang.Runnable#run()
    */
+  @Override
   public void run() {
 
+    final Thread thread = Thread.currentThread();
+
+    // Another worker has already processed this task
+    if (!wrappedTask.assignTo(thread))
+      return;
+
     Task actualTask = wrappedTask.getActualTask();
 
+    // Skip tasks which were canceled while waiting in the queue
+    if (actualTask.getStatus() == TaskStatus.CANCELED) {
+      wrappedTask.releaseThread();
+      return;
+    }
+
+    final String threadName = thread.getName();
+    thread.setName("Thread executing task " + wrappedTask);
+
     try {
 
       // Log the start (INFO level events go to the Status bar, too)
@@ -99,14 +114,12 @@ class WorkerThread extends Thread {
     }
 
     /*
-     * Mark this thread as finished
+     * The thread is reused for other tasks, so restore its name and priority
      */
-    finished = true;
-
-  }
+    wrappedTask.releaseThread();
+    thread.setName(threadName);
+    thread.setPriority(Thread.NORM_PRIORITY);
 
-  boolean isFinished() {
-    return finished;
   }
 
 }
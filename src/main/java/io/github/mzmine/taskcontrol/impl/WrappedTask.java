@@ -44,7 +44,8 @@ public class WrappedTask {
 
   private Task task;
   private TaskPriority priority;
-  private WorkerThread assignedTo;
+  private boolean assigned = false;
+  private Thread assignedTo;
 
   WrappedTask(Task task, TaskPriority priority) {
     this.task = task;
@@ -54,36 +55,57 @@ public class WrappedTask {
   /**
    * @return Returns the priority.
    */
-  TaskPriority getPriority() {
+  synchronized TaskPriority getPriority() {
     return priority;
   }
 
   /**
    * @param priority The priority to set.
    */
-  void setPriority(TaskPriority priority) {
+  synchronized void setPriority(TaskPriority priority) {
     this.priority = priority;
     if (assignedTo != null) {
-      switch (priority) {
-        case HIGH:
-          assignedTo.setPriority(Thread.MAX_PRIORITY);
-          break;
-        case NORMAL:
-          assignedTo.setPriority(Thread.NORM_PRIORITY);
-          break;
-      }
+      updateThreadPriority();
+    }
+  }
+
+  private void updateThreadPriority() {
+    switch (priority) {
+      case HIGH:
+        assignedTo.setPriority(Thread.MAX_PRIORITY);
+        break;
+      case NORMAL:
+        assignedTo.setPriority(Thread.NORM_PRIORITY);
+        break;
     }
   }
 
   /**
    * @return Returns the assigned.
    */
-  boolean isAssigned() {
-    return assignedTo != null;
+  synchronized boolean isAssigned() {
+    return assigned;
   }
 
-  void assignTo(WorkerThread thread) {
+  /**
+   * Assigns this task to the given thread, unless it has been assigned before
+   *
+   * @return true if the task was assigned to the thread
+   */
+  synchronized boolean assignTo(Thread thread) {
+    if (assigned)
+      return false;
+    assigned = true;
     assignedTo = thread;
+    updateThreadPriority();
+    return true;
+  }
+
+  /**
+   * Called when the task is done, because the thread is reused for other tasks
+   */
+  synchronized void releaseThread() {
+    assignedTo = null;
   }
 
   /**
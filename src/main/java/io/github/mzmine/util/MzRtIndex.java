@@ -0,0 +1,173 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+import javax.annotation.Nonnull;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+/**
+ * Immutable index of items (typically feature list rows) by their m/z and retention time values.
+ * The items are kept in two sorted orders, so that a query by m/z and/or RT range finds the
+ * first candidate by binary search and only visits the items inside the more selective range.
+ * Queries return the matching items in the order of the original list.
+ *
+ * The index is a snapshot of the m/z and RT values at the time of its construction. Feature lists
+ * drop their index whenever a row is added, removed or changes its values, and build a new one on
+ * the next query.
+ */
+public class MzRtIndex<T> {
+
+  private final List<? extends T> items;
+
+  // item positions sorted by m/z and by RT, and the sorted values themselves
+  private final int mzOrder[], rtOrder[];
+  private final double sortedMz[], sortedRt[];
+
+  // m/z and RT values by item position
+  private final double mzValues[], rtValues[];
+
+  public MzRtIndex(@Nonnull List<? extends T> items, @Nonnull ToDoubleFunction<? super T> mzFunction,
+      @Nonnull ToDoubleFunction<? super T> rtFunction) {
+
+    this.items = new ArrayList<>(items);
+
+    final int size = this.items.size();
+    mzValues = new double[size];
+    rtValues = new double[size];
+    for (int i = 0; i < size; i++) {
+      T item = this.items.get(i);
+      mzValues[i] = mzFunction.applyAsDouble(item);
+      rtValues[i] = rtFunction.applyAsDouble(item);
+    }
+
+    mzOrder = createOrder(mzValues);
+    rtOrder = createOrder(rtValues);
+    sortedMz = new double[size];
+    sortedRt = new double[size];
+    for (int i = 0; i < size; i++) {
+      sortedMz[i] = mzValues[mzOrder[i]];
+      sortedRt[i] = rtValues[rtOrder[i]];
+    }
+  }
+
+  public int size() {
+    return items.size();
+  }
+
+  /**
+   * Returns all items whose m/z and RT values lie inside the given ranges, in the order of the
+   * original list. Works for ranges of any number type, e.g. Range&lt;Float&gt; for RT.
+   */
+  public @Nonnull List<T> getItemsInside(@Nonnull Range<? extends Number> mzRange,
+      @Nonnull Range<? extends Number> rtRange) {
+
+    final boolean mzBounded = mzRange.hasLowerBound() || mzRange.hasUpperBound();
+    final boolean rtBounded = rtRange.hasLowerBound() || rtRange.hasUpperBound();
+
+    // Walk the order of the bounded dimension and check the other one for each candidate
+    final int order[];
+    final double sorted[], otherValues[];
+    final Range<? extends Number> range, otherRange;
+    if (mzBounded || !rtBounded) {
+      order = mzOrder;
+      sorted = sortedMz;
+      otherValues = rtValues;
+      range = mzRange;
+      otherRange = rtRange;
+    } else {
+      order = rtOrder;
+      sorted = sortedRt;
+      otherValues = mzValues;
+      range = rtRange;
+      otherRange = mzRange;
+    }
+
+    int start = 0;
+    if (range.hasLowerBound())
+      start = findFirstIndex(sorted, range.lowerEndpoint().doubleValue());
+
+    int positions[] = new int[16];
+    int numOfPositions = 0;
+    for (int i = start; i < sorted.length; i++) {
+      if (range.hasUpperBound()
+          && Double.compare(sorted[i], range.upperEndpoint().doubleValue()) > 0)
+        break;
+      final int position = order[i];
+      if (!contains(range, sorted[i]) || !contains(otherRange, otherValues[position]))
+        continue;
+      if (numOfPositions == positions.length)
+        positions = Arrays.copyOf(positions, numOfPositions * 2);
+      positions[numOfPositions++] = position;
+    }
+
+    Arrays.sort(positions, 0, numOfPositions);
+    List<T> result = new ArrayList<>(numOfPositions);
+    for (int i = 0; i < numOfPositions; i++)
+      result.add(items.get(positions[i]));
+    return result;
+  }
+
+  /**
+   * Same semantics as Range.contains() of a Range&lt;Double&gt; or Range&lt;Float&gt;, including
+   * the ordering of NaN values, but without boxing the value.
+   */
+  private static boolean contains(Range<? extends Number> range, double value) {
+    if (range.hasLowerBound()) {
+      int c = Double.compare(value, range.lowerEndpoint().doubleValue());
+      if (c < 0 || (c == 0 && range.lowerBoundType() == BoundType.OPEN))
+        return false;
+    }
+    if (range.hasUpperBound()) {
+      int c = Double.compare(value, range.upperEndpoint().doubleValue());
+      if (c > 0 || (c == 0 && range.upperBoundType() == BoundType.OPEN))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Binary search for the first index whose value is not smaller than the given value
+   */
+  private static int findFirstIndex(double sorted[], double value) {
+    int low = 0, high = sorted.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (Double.compare(sorted[mid], value) < 0)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  private static int[] createOrder(double values[]) {
+    int order[] = new int[values.length];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+    IntArrays.mergeSort(order, (a, b) -> Double.compare(values[a], values[b]));
+    return order;
+  }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+import io.github.mzmine.gui.preferences.MZminePreferences;
+import io.github.mzmine.gui.preferences.NumOfThreadsParameter;
+import io.github.mzmine.main.MZmineConfiguration;
+import io.github.mzmine.main.MZmineCore;
+
+/**
+ * Runs parallel streams with the number of threads set in the preferences. Parallel streams use the
+ * pool of the thread they are started from, so starting them inside a dedicated
+ * {@link ForkJoinPool} keeps them off the common pool, which is sized by the number of processors.
+ */
+public class ParallelUtils {
+
+  /**
+   * @return the number of threads set in the preferences, or the number of processors if it is set
+   *         to automatic or no configuration is loaded
+   */
+  public static int getNumOfThreads() {
+    final MZmineConfiguration configuration = MZmineCore.getConfiguration();
+    if (configuration == null)
+      return Runtime.getRuntime().availableProcessors();
+    final NumOfThreadsParameter parameter =
+        configuration.getPreferences().getParameter(MZminePreferences.numOfThreads);
+    if (parameter.isAutomatic() || (parameter.getValue() == null))
+      return Runtime.getRuntime().availableProcessors();
+    return Math.max(1, parameter.getValue());
+  }
+
+  /**
+   * Runs the task in a pool with the number of threads set in the preferences
+   *
+   * @see #run(int, Runnable)
+   */
+  public static void run(Runnable task) {
+    run(getNumOfThreads(), task);
+  }
+
+  /**
+   * Runs the task, typically a parallel stream, in a new pool of the given number of threads and
+   * waits for it. Exceptions of the task are rethrown.
+   */
+  public static void run(int numOfThreads, Runnable task) {
+    call(numOfThreads, () -> {
+      task.run();
+      return null;
+    });
+  }
+
+  /**
+   * Runs the task, typically a parallel stream, in the given pool and waits for it. The pool is
+   * left running, so a task may reuse one pool for many short parallel steps. Exceptions of the
+   * task are rethrown.
+   */
+  public static void run(ForkJoinPool pool, Runnable task) {
+    call(pool, () -> {
+      task.run();
+      return null;
+    });
+  }
+
+  /**
+   * Computes the result in a pool with the number of threads set in the preferences
+   *
+   * @see #call(int, Supplier)
+   */
+  public static <T> T call(Supplier<T> task) {
+    return call(getNumOfThreads(), task);
+  }
+
+  /**
+   * Computes the result, typically with a parallel stream, in a new pool of the given number of
+   * threads. Exceptions of the task are rethrown.
+   */
+  public static <T> T call(int numOfThreads, Supplier<T> task) {
+    final ForkJoinPool pool = new ForkJoinPool(Math.max(1, numOfThreads));
+    try {
+      return call(pool, task);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Computes the result, typically with a parallel stream, in the given pool, which is left
+   * running. Exceptions of the task are rethrown.
+   */
+  public static <T> T call(ForkJoinPool pool, Supplier<T> task) {
+    try {
+      return pool.submit(task::get).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a parallel task", e);
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new IllegalStateException(cause);
+    }
+  }
+
+}
@@ -116,15 +116,36 @@ public class ScanUtils {
   public static @Nonnull DataPoint findBasePeak(@Nonnull Scan scan,
       @Nonnull Range<Double> mzRange) {
 
-    DataPoint dataPoints[] = scan.getDataPointsByMass(mzRange);
-    DataPoint basePeak = null;
+    final double mzValues[] = scan.getMzValues(null);
+    final double intensityValues[] = scan.getIntensityValues(null);
+    final int basePeakIndex = findBasePeakIndex(mzValues, intensityValues,
+        scan.getNumberOfDataPoints(), mzRange);
+
+    if (basePeakIndex < 0)
+      return null;
+    return new SimpleDataPoint(mzValues[basePeakIndex], intensityValues[basePeakIndex]);
+  }
 
-    for (DataPoint dp : dataPoints) {
-      if ((basePeak == null) || (dp.getIntensity() > basePeak.getIntensity()))
-        basePeak = dp;
+  /**
+   * Find the index of the base peak in a given m/z range of m/z-sorted data point arrays
+   * 
+   * @param mzValues m/z values sorted in m/z order
+   * @param intensityValues intensity values
+   * @param numOfDataPoints number of data points in the arrays
+   * @param mzRange mz range to search in
+   * @return index of the base peak, or -1 if there is no data point in the m/z range
+   */
+  public static int findBasePeakIndex(@Nonnull double mzValues[], @Nonnull double intensityValues[],
+      int numOfDataPoints, @Nonnull Range<Double> mzRange) {
+
+    final double upperMZ = mzRange.upperEndpoint();
+    int basePeakIndex = -1;
+    for (int i = findFirstIndexByMass(mzValues, numOfDataPoints, mzRange); i < numOfDataPoints
+        && mzValues[i] <= upperMZ; i++) {
+      if ((basePeakIndex < 0) || (intensityValues[i] > intensityValues[basePeakIndex]))
+        basePeakIndex = i;
     }
-
-    return basePeak;
+    return basePeakIndex;
   }
 
   /**
@@ -135,14 +156,53 @@ public class ScanUtils {
    * @return the total ion count of the scan within the mass range.
    */
   public static double calculateTIC(Scan scan, Range<Double> mzRange) {
+    return calculateTIC(scan.getMzValues(null), scan.getIntensityValues(null),
+        scan.getNumberOfDataPoints(), mzRange);
+  }
 
+  /**
+   * Calculate the total ion count of m/z-sorted data point arrays within a given mass range.
+   * 
+   * @param mzValues m/z values sorted in m/z order
+   * @param intensityValues intensity values
+   * @param numOfDataPoints number of data points in the arrays
+   * @param mzRange mass range.
+   * @return the total ion count within the mass range.
+   */
+  public static double calculateTIC(@Nonnull double mzValues[], @Nonnull double intensityValues[],
+      int numOfDataPoints, @Nonnull Range<Double> mzRange) {
+
+    final double upperMZ = mzRange.upperEndpoint();
     double tic = 0.0;
-    for (final DataPoint dataPoint : scan.getDataPointsByMass(mzRange)) {
-      tic += dataPoint.getIntensity();
+    for (int i = findFirstIndexByMass(mzValues, numOfDataPoints, mzRange); i < numOfDataPoints
+        && mzValues[i] <= upperMZ; i++) {
+      tic += intensityValues[i];
     }
     return tic;
   }
 
+  /**
+   * Returns the index of the first m/z value which is not below the lower endpoint of the range
+   * (lower bound binary search), or numOfDataPoints if there is none
+   * 
+   * @param mzValues m/z values sorted in m/z order
+   * @param numOfDataPoints number of data points in the array
+   * @param mzRange mz range to search in
+   */
+  private static int findFirstIndexByMass(double mzValues[], int numOfDataPoints,
+      Range<Double> mzRange) {
+    final double lowerMZ = mzRange.lowerEndpoint();
+    int low = 0, high = numOfDataPoints;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (mzValues[mid] < lowerMZ)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
   /**
    * Selects data points within given m/z range
    * 
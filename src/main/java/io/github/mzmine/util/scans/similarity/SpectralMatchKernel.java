@@ -0,0 +1,343 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ * 
+ * This file is part of MZmine.
+ * 
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.scans.similarity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.util.scans.ScanAlignment;
+
+/**
+ * Aligns two spectra on primitive, reused arrays and computes the weighted cosine on the alignment.
+ * The alignment is the same as {@link ScanAlignment#align(MZTolerance, DataPoint[], DataPoint[])}:
+ * library signals are visited by descending intensity and each one is matched to the most intense
+ * unmatched query signal within the m/z tolerance. Query signals are sorted by m/z so that only the
+ * signals inside the tolerance window are visited. Sums are accumulated in the same order as
+ * {@link io.github.mzmine.util.maths.similarity.Similarity#COSINE} on the aligned list, so the
+ * scores are identical.
+ * 
+ * Unlike {@link ScanAlignment#align(MZTolerance, DataPoint[], DataPoint[])}, the input arrays are
+ * not modified. One instance is kept per thread and reused by all comparisons of that thread.
+ */
+public class SpectralMatchKernel {
+
+  private static final ThreadLocal<SpectralMatchKernel> KERNEL =
+      ThreadLocal.withInitial(SpectralMatchKernel::new);
+
+  // runs up to this length are sorted by insertion sort
+  private static final int INSERTION_SORT_LENGTH = 24;
+
+  // current spectra
+  private DataPoint library[];
+  private DataPoint query[];
+  private int libraryN;
+  private int queryN;
+  private double libraryMZ[] = new double[0];
+  private double libraryIntensity[] = new double[0];
+  private double queryMZ[] = new double[0];
+  private double queryIntensity[] = new double[0];
+
+  // library by descending intensity
+  private int libraryOrder[] = new int[0];
+  // query by descending intensity, by ascending m/z and the intensity rank of each query signal
+  private int queryOrder[] = new int[0];
+  private int queryByMZ[] = new int[0];
+  private double sortedQueryMZ[] = new double[0];
+  private int queryRank[] = new int[0];
+  // query index matched to the library signal at the same position in libraryOrder (or -1)
+  private int matches[] = new int[0];
+  private boolean queryMatched[] = new boolean[0];
+  private int overlap;
+
+  // weighted intensities
+  private double libraryWeighted[] = new double[0];
+  private double queryWeighted[] = new double[0];
+
+  // matched signals and their minimum m/z (by position in libraryOrder)
+  private int matched[] = new int[0];
+  private double minMZ[] = new double[0];
+
+  // merge sort buffer
+  private int sortBuffer[] = new int[0];
+
+  private SpectralMatchKernel() {}
+
+  /**
+   * @return the kernel of the current thread
+   */
+  public static SpectralMatchKernel get() {
+    return KERNEL.get();
+  }
+
+  /**
+   * Aligns library and query. Results are available until the next call on this thread.
+   * 
+   * @param mzTol
+   * @param library
+   * @param query
+   * @return number of matched signals
+   */
+  public int align(MZTolerance mzTol, DataPoint[] library, DataPoint[] query) {
+    this.library = library;
+    this.query = query;
+    libraryN = library.length;
+    queryN = query.length;
+    ensureCapacity(Math.max(libraryN, queryN));
+
+    for (int i = 0; i < libraryN; i++) {
+      libraryMZ[i] = library[i].getMZ();
+      libraryIntensity[i] = library[i].getIntensity();
+      libraryOrder[i] = i;
+    }
+    for (int i = 0; i < queryN; i++) {
+      queryMZ[i] = query[i].getMZ();
+      queryIntensity[i] = query[i].getIntensity();
+      queryOrder[i] = i;
+      queryByMZ[i] = i;
+      queryMatched[i] = false;
+    }
+
+    // same order as a stable sort with ScanAlignment.sorter
+    sort(libraryOrder, libraryN, libraryIntensity, libraryMZ, true);
+    sort(queryOrder, queryN, queryIntensity, queryMZ, true);
+    for (int r = 0; r < queryN; r++)
+      queryRank[queryOrder[r]] = r;
+
+    // query by m/z
+    sort(queryByMZ, queryN, queryMZ, null, false);
+    for (int i = 0; i < queryN; i++)
+      sortedQueryMZ[i] = queryMZ[queryByMZ[i]];
+
+    // match the most intense unmatched query signal within the tolerance
+    overlap = 0;
+    for (int l = 0; l < libraryN; l++) {
+      double mz = libraryMZ[libraryOrder[l]];
+      // same as mzTol.checkWithinTolerance(mz, queryMZ)
+      double tol = mzTol.getMzToleranceForMass(mz);
+      double lower = mz - tol;
+      double upper = mz + tol;
+
+      int best = -1;
+      for (int i = lowerBound(sortedQueryMZ, queryN, lower); i < queryN
+          && sortedQueryMZ[i] <= upper; i++) {
+        int q = queryByMZ[i];
+        if (!queryMatched[q] && (best == -1 || queryRank[q] < queryRank[best]))
+          best = q;
+      }
+      matches[l] = best;
+      if (best != -1) {
+        queryMatched[best] = true;
+        overlap++;
+      }
+    }
+    return overlap;
+  }
+
+  /**
+   * @return number of matched signals of the last alignment
+   */
+  public int getOverlap() {
+    return overlap;
+  }
+
+  /**
+   * Weighted cosine of the last alignment. Weighted values are intensity^weightI * m/z^weightMZ.
+   * 
+   * @param weights
+   * @param removeUnmatched only use matched signals
+   * @return cosine similarity
+   */
+  public double weightedCosine(Weights weights, boolean removeUnmatched) {
+    final double wI = weights.getIntensity();
+    final double wMZ = weights.getMz();
+    for (int i = 0; i < libraryN; i++)
+      libraryWeighted[i] = weight(libraryIntensity[i], libraryMZ[i], wI, wMZ);
+    for (int i = 0; i < queryN; i++)
+      queryWeighted[i] = weight(queryIntensity[i], queryMZ[i], wI, wMZ);
+
+    // same order as the aligned list: library by intensity, then unmatched query by intensity
+    double dot = 0;
+    double normLibrary = 0;
+    double normQuery = 0;
+    for (int l = 0; l < libraryN; l++) {
+      int q = matches[l];
+      if (q == -1 && removeUnmatched)
+        continue;
+      double a = libraryWeighted[libraryOrder[l]];
+      normLibrary += a * a;
+      if (q != -1) {
+        double b = queryWeighted[q];
+        dot += a * b;
+        normQuery += b * b;
+      }
+    }
+    if (!removeUnmatched) {
+      for (int r = 0; r < queryN; r++) {
+        int q = queryOrder[r];
+        if (!queryMatched[q])
+          normQuery += queryWeighted[q] * queryWeighted[q];
+      }
+    }
+    return dot / (Math.sqrt(normLibrary) * Math.sqrt(normQuery));
+  }
+
+  /**
+   * Sum of relative intensity ratios of m/z neighbours among the matched signals, divided by the
+   * overlap (ranges from 0-1)
+   * 
+   * @return relative neighbour factor
+   */
+  public double relativeNeighbourFactor() {
+    // matched library positions sorted by their minimum m/z
+    int n = 0;
+    for (int l = 0; l < libraryN; l++) {
+      int q = matches[l];
+      if (q != -1) {
+        matched[n++] = l;
+        minMZ[l] = Math.min(libraryMZ[libraryOrder[l]], queryMZ[q]);
+      }
+    }
+    sort(matched, n, minMZ, null, false);
+
+    double factor = 0;
+    for (int i = 1; i < n; i++) {
+      int l1 = matched[i - 1];
+      int l2 = matched[i];
+      double ratioLibrary =
+          libraryIntensity[libraryOrder[l2]] / libraryIntensity[libraryOrder[l1]];
+      double ratioQuery = queryIntensity[matches[l2]] / queryIntensity[matches[l1]];
+      factor += Math.min(ratioLibrary, ratioQuery) / Math.max(ratioLibrary, ratioQuery);
+    }
+    return factor / overlap;
+  }
+
+  /**
+   * Matched signals of the last alignment as created by
+   * {@link ScanAlignment#align(MZTolerance, DataPoint[], DataPoint[])} after removing unaligned
+   * signals
+   * 
+   * @return list of aligned data points [library, query]
+   */
+  public List<DataPoint[]> getAlignedDataPoints() {
+    List<DataPoint[]> aligned = new ArrayList<>(overlap);
+    for (int l = 0; l < libraryN; l++) {
+      if (matches[l] != -1)
+        aligned.add(new DataPoint[] {library[libraryOrder[l]], query[matches[l]]});
+    }
+    return aligned;
+  }
+
+  private static double weight(double intensity, double mz, double wI, double wMZ) {
+    // pow(x, 1) == x and pow(x, 0) == 1 exactly
+    double i = wI == 1 ? intensity : Math.pow(intensity, wI);
+    double m = wMZ == 0 ? 1 : Math.pow(mz, wMZ);
+    return i * m;
+  }
+
+  /**
+   * Stable sort of indices by key (and second key for equal keys)
+   * 
+   * @param indices indices into the keys
+   * @param n number of indices to sort
+   * @param key
+   * @param key2 second key or null
+   * @param descending
+   */
+  private void sort(int indices[], int n, double key[], double key2[], boolean descending) {
+    mergeSort(indices, sortBuffer, 0, n, key, key2, descending);
+  }
+
+  private static void mergeSort(int a[], int tmp[], int from, int to, double key[], double key2[],
+      boolean descending) {
+    if (to - from <= INSERTION_SORT_LENGTH) {
+      for (int i = from + 1; i < to; i++) {
+        int v = a[i];
+        int j = i - 1;
+        while (j >= from && compare(a[j], v, key, key2, descending) > 0) {
+          a[j + 1] = a[j];
+          j--;
+        }
+        a[j + 1] = v;
+      }
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    mergeSort(a, tmp, from, mid, key, key2, descending);
+    mergeSort(a, tmp, mid, to, key, key2, descending);
+    if (compare(a[mid - 1], a[mid], key, key2, descending) <= 0)
+      return;
+    System.arraycopy(a, from, tmp, from, to - from);
+    int i = from;
+    int j = mid;
+    for (int k = from; k < to; k++) {
+      if (j >= to || (i < mid && compare(tmp[i], tmp[j], key, key2, descending) <= 0))
+        a[k] = tmp[i++];
+      else
+        a[k] = tmp[j++];
+    }
+  }
+
+  private static int compare(int a, int b, double key[], double key2[], boolean descending) {
+    int c = descending ? Double.compare(key[b], key[a]) : Double.compare(key[a], key[b]);
+    if (c == 0 && key2 != null)
+      c = descending ? Double.compare(key2[b], key2[a]) : Double.compare(key2[a], key2[b]);
+    return c;
+  }
+
+  /**
+   * @return first index with a value >= key
+   */
+  private static int lowerBound(double sorted[], int length, double key) {
+    int low = 0;
+    int high = length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sorted[mid] < key)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  private void ensureCapacity(int n) {
+    if (sortBuffer.length >= n)
+      return;
+    int size = Math.max(n, sortBuffer.length * 2);
+    libraryMZ = new double[size];
+    libraryIntensity = new double[size];
+    queryMZ = new double[size];
+    queryIntensity = new double[size];
+    libraryOrder = new int[size];
+    queryOrder = new int[size];
+    queryByMZ = new int[size];
+    sortedQueryMZ = new double[size];
+    queryRank = new int[size];
+    matches = new int[size];
+    queryMatched = new boolean[size];
+    libraryWeighted = new double[size];
+    queryWeighted = new double[size];
+    matched = new int[size];
+    minMZ = new double[size];
+    sortBuffer = new int[size];
+  }
+
+}
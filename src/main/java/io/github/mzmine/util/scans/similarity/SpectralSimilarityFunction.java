@@ -44,6 +44,8 @@ public abstract class SpectralSimilarityFunction implements MZmineModule {
       new WeightedCosineSpectralSimilarity(), new CompositeCosineSpectralSimilarity()};
 
   /**
+   * The spectra are not modified, so the same library spectrum can be matched by several threads
+   * at once. Spectra passed to the result are copies.
    * 
    * @param parameters
    * @param mzTol
@@ -18,15 +18,13 @@
 
 package io.github.mzmine.util.scans.similarity.impl.cosine;
 
-import java.util.List;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
-import io.github.mzmine.util.maths.similarity.Similarity;
-import io.github.mzmine.util.scans.ScanAlignment;
+import io.github.mzmine.util.scans.similarity.SpectralMatchKernel;
 import io.github.mzmine.util.scans.similarity.SpectralSimilarity;
 import io.github.mzmine.util.scans.similarity.SpectralSimilarityFunction;
 import io.github.mzmine.util.scans.similarity.Weights;
@@ -52,21 +50,16 @@ public class WeightedCosineSpectralSimilarity extends SpectralSimilarityFunction
     boolean removeUnmatched = parameters
         .getParameter(WeightedCosineSpectralSimilarityParameters.removeUnmatched).getValue();
 
-    // align
-    List<DataPoint[]> aligned = alignDataPoints(mzTol, library, query);
-    // removes all signals which were not found in both masslists
-    if (removeUnmatched)
-      aligned = removeUnaligned(aligned);
-    // overlapping within mass tolerance
-    int overlap = calcOverlap(aligned);
+    // align and count overlapping signals within mass tolerance
+    SpectralMatchKernel kernel = SpectralMatchKernel.get();
+    int overlap = kernel.align(mzTol, library, query);
 
     if (overlap >= minMatch) {
-      // weighted cosine
-      double[][] diffArray =
-          ScanAlignment.toIntensityMatrixWeighted(aligned, weights.getIntensity(), weights.getMz());
-      double diffCosine = Similarity.COSINE.calc(diffArray);
+      // weighted cosine (removes all signals which were not found in both masslists)
+      double diffCosine = kernel.weightedCosine(weights, removeUnmatched);
       if (diffCosine >= minCos)
-        return new SpectralSimilarity(getName(), diffCosine, overlap, library, query, aligned);
+        return new SpectralSimilarity(getName(), diffCosine, overlap, library.clone(),
+            query.clone(), kernel.getAlignedDataPoints());
       else
         return null;
     }
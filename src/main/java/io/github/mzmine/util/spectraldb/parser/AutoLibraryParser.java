@@ -20,13 +20,18 @@ package io.github.mzmine.util.spectraldb.parser;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.util.files.FileTypeFilter;
+import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
 
 /**
- * Auto detects library format
+ * Auto detects library format. Libraries are read from their {@link SpectralLibraryCache} if it is
+ * up to date, otherwise the cache is written while the library is parsed, unless caching is
+ * disabled in the preferences.
  * 
  * @author Robin Schmid
  *
@@ -39,9 +44,32 @@ public class AutoLibraryParser extends SpectralDBParser {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
+  // writes the library cache while parsing
+  private SpectralLibraryCache.Writer cacheWriter;
+  private final LibraryEntryProcessor cachingProcessor = new LibraryEntryProcessor() {
+    @Override
+    public void processNextEntries(List<SpectralDBEntry> list, int alreadyProcessed) {
+      writeToCache(list);
+      processor.processNextEntries(list, alreadyProcessed);
+    }
+  };
+
   @Override
   public boolean parse(AbstractTask mainTask, File dataBaseFile)
       throws UnsupportedFormatException, IOException {
+    // compiled library
+    SpectralLibraryCache cache = SpectralLibraryCache.open(dataBaseFile);
+    if (cache != null) {
+      logger.info("Reading spectral library " + dataBaseFile + " from its cache");
+      for (int i = 0; i < cache.getEntryCount(); i++) {
+        if (mainTask.isCanceled())
+          return false;
+        addLibraryEntry(cache.getEntry(i));
+      }
+      finish();
+      return true;
+    }
+
     FileTypeFilter json = new FileTypeFilter("json", "");
     FileTypeFilter msp = new FileTypeFilter("msp", "");
     FileTypeFilter mgf = new FileTypeFilter("mgf", "");
@@ -49,18 +77,23 @@ public class AutoLibraryParser extends SpectralDBParser {
     if (json.accept(dataBaseFile)) {
       // test Gnps and MONA json parser
       SpectralDBParser[] parser =
-          new SpectralDBParser[] {new MonaJsonParser(bufferEntries, processor),
-              new GnpsJsonParser(bufferEntries, processor)};
+          new SpectralDBParser[] {new MonaJsonParser(bufferEntries, cachingProcessor),
+              new GnpsJsonParser(bufferEntries, cachingProcessor)};
       for (SpectralDBParser p : parser) {
         if (mainTask.isCanceled())
           return false;
         try {
+          startCache(dataBaseFile);
           boolean state = p.parse(mainTask, dataBaseFile);
-          if (state)
+          if (state) {
+            finishCache(mainTask);
             return state;
-          else
+          } else {
+            discardCache();
             continue;
+          }
         } catch (Exception ex) {
+          discardCache();
           // do nothing and try next json format
         }
       }
@@ -69,21 +102,31 @@ public class AutoLibraryParser extends SpectralDBParser {
       // msp, jdx or mgf
       if (msp.accept(dataBaseFile)) {
         // load NIST msp format
-        parser = new NistMspParser(bufferEntries, processor);
+        parser = new NistMspParser(bufferEntries, cachingProcessor);
       } else if (jdx.accept(dataBaseFile)) {
         // load jdx format
-        parser = new JdxParser(bufferEntries, processor);
+        parser = new JdxParser(bufferEntries, cachingProcessor);
       } else if (mgf.accept(dataBaseFile)) {
-        parser = new GnpsMgfParser(bufferEntries, processor);
+        parser = new GnpsMgfParser(bufferEntries, cachingProcessor);
       } else {
         throw (new UnsupportedFormatException(
             "Format not supported: " + dataBaseFile.getAbsolutePath()));
       }
 
       // parse the file
-      boolean state = parser.parse(mainTask, dataBaseFile);
-      if (state)
+      startCache(dataBaseFile);
+      boolean state;
+      try {
+        state = parser.parse(mainTask, dataBaseFile);
+      } catch (IOException | RuntimeException e) {
+        discardCache();
+        throw e;
+      }
+      if (state) {
+        finishCache(mainTask);
         return state;
+      }
+      discardCache();
     }
     if (mainTask.isCanceled())
       return false;
@@ -92,4 +135,54 @@ public class AutoLibraryParser extends SpectralDBParser {
           "Format not supported: " + dataBaseFile.getAbsolutePath()));
   }
 
+  private void startCache(File dataBaseFile) {
+    discardCache();
+    if (!SpectralLibraryCache.isEnabled())
+      return;
+    try {
+      cacheWriter = new SpectralLibraryCache.Writer(dataBaseFile);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot create spectral library cache for " + dataBaseFile, e);
+    }
+  }
+
+  private void writeToCache(List<SpectralDBEntry> list) {
+    if (cacheWriter == null)
+      return;
+    try {
+      for (SpectralDBEntry entry : list) {
+        if (!cacheWriter.add(entry)) {
+          logger.info("Spectral library entry values cannot be cached. No cache is created.");
+          discardCache();
+          return;
+        }
+      }
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot write spectral library cache", e);
+      discardCache();
+    }
+  }
+
+  private void finishCache(AbstractTask mainTask) {
+    if (cacheWriter == null)
+      return;
+    if (mainTask.isCanceled()) {
+      discardCache();
+      return;
+    }
+    try {
+      cacheWriter.commit();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot write spectral library cache", e);
+    }
+    cacheWriter = null;
+  }
+
+  private void discardCache() {
+    if (cacheWriter != null) {
+      cacheWriter.discard();
+      cacheWriter = null;
+    }
+  }
+
 }
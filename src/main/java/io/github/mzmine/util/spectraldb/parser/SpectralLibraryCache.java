@@ -0,0 +1,562 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ * 
+ * This file is part of MZmine.
+ * 
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.spectraldb.parser;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.main.MZmineConfiguration;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.util.spectraldb.entry.DBEntryField;
+import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * Compiled, memory-mapped copy of a spectral library. The cache is written while a library is
+ * parsed for the first time and is used instead of the text file as long as size and modification
+ * time of the library file are unchanged.
+ * 
+ * File layout (big endian):
+ * 
+ * <pre>
+ * header:     int magic, int version, int field layout, long library size,
+ *             long library modification time, int entries, int precursor entries,
+ *             int max record length, long data offset
+ * table:      long record offset per entry in library order
+ * precursors: (double precursor m/z, int entry index) per entry with a precursor m/z,
+ *             sorted by precursor m/z
+ * data:       one record per entry in library order:
+ *             int peaks, peaks x (double m/z, double intensity),
+ *             int fields, fields x (byte field, byte type, value)
+ * </pre>
+ * 
+ * Fields are stored by their {@link DBEntryField} ordinal. The field layout is a hash of all field
+ * names in ordinal order, so caches written before fields were added, removed or reordered are
+ * rejected.
+ * 
+ * The cache directory and the maximum size of all caches together are set in the preferences. When
+ * a new cache exceeds the maximum size, the least recently used caches are deleted.
+ */
+public class SpectralLibraryCache {
+
+  private static final Logger logger = Logger.getLogger(SpectralLibraryCache.class.getName());
+
+  public static final File DEFAULT_DIRECTORY =
+      new File(System.getProperty("user.home"), ".mzmine3-library-cache");
+  private static final String CACHE_EXTENSION = ".mzlib";
+
+  private static final int MAGIC = 0x4D5A4C42; // "MZLB"
+  private static final int VERSION = 3;
+  private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8 + 4 + 4 + 4 + 8;
+  private static final int TABLE_ROW_SIZE = 8;
+  private static final int PRECURSOR_ROW_SIZE = 8 + 4;
+
+  // null if caching is disabled
+  private static volatile File directory;
+  private static volatile long maximumSize;
+  private static volatile boolean configured = false;
+
+  // mapped segments overlap by the maximum record length so that no record spans two segments
+  private static final long SEGMENT_SIZE = 1L << 30;
+
+  // value types
+  private static final byte TYPE_STRING = 0;
+  private static final byte TYPE_DOUBLE = 1;
+  private static final byte TYPE_INTEGER = 2;
+  private static final byte TYPE_FLOAT = 3;
+  private static final byte TYPE_LONG = 4;
+  private static final byte TYPE_BOOLEAN = 5;
+
+  private static final DBEntryField FIELDS[] = DBEntryField.values();
+  private static final int FIELD_LAYOUT = Arrays.toString(FIELDS).hashCode();
+
+  private final MappedByteBuffer segments[];
+
+  // record offsets in library order
+  private final long recordOffsets[];
+
+  // (precursor m/z, entry index) rows sorted by precursor m/z
+  private final ByteBuffer precursors;
+  private final int precursorCount;
+
+  private SpectralLibraryCache(MappedByteBuffer segments[], long recordOffsets[],
+      ByteBuffer precursors, int precursorCount) {
+    this.segments = segments;
+    this.recordOffsets = recordOffsets;
+    this.precursors = precursors;
+    this.precursorCount = precursorCount;
+  }
+
+  /**
+   * Sets the directory of all library caches and the maximum size of all caches together in bytes.
+   * 
+   * @param cacheDirectory the directory, or null to disable caching
+   */
+  public static synchronized void setCacheDirectory(@Nullable File cacheDirectory,
+      long maximumBytes) {
+    directory = cacheDirectory;
+    maximumSize = Math.max(0, maximumBytes);
+    configured = true;
+  }
+
+  /**
+   * @return whether libraries are cached at all
+   */
+  public static boolean isEnabled() {
+    return getCacheDirectory() != null;
+  }
+
+  /**
+   * The cache directory, set from the preferences when it is used for the first time
+   * 
+   * @return the directory or null if caching is disabled
+   */
+  @Nullable
+  static File getCacheDirectory() {
+    if (!configured) {
+      synchronized (SpectralLibraryCache.class) {
+        if (!configured) {
+          final MZmineConfiguration configuration = MZmineCore.getConfiguration();
+          if (configuration != null)
+            setCacheDirectory(configuration.getLibraryCacheDirectory(),
+                configuration.getLibraryCacheSize());
+          else
+            setCacheDirectory(null, 0);
+        }
+      }
+    }
+    return directory;
+  }
+
+  /**
+   * @return the cache file for this library, or null if caching is disabled
+   */
+  @Nullable
+  public static File getCacheFile(@Nonnull File library) {
+    final File cacheDirectory = getCacheDirectory();
+    if (cacheDirectory == null)
+      return null;
+    return getCacheFile(cacheDirectory, library);
+  }
+
+  private static File getCacheFile(File cacheDirectory, File library) {
+    String path = library.getAbsolutePath();
+    return new File(cacheDirectory, library.getName() + "-"
+        + Integer.toHexString(path.hashCode()) + CACHE_EXTENSION);
+  }
+
+  /**
+   * Opens the cache of a library file
+   * 
+   * @param library the spectral library file
+   * @return the cache or null if there is no valid cache for the current library file
+   */
+  @Nullable
+  public static SpectralLibraryCache open(@Nonnull File library) {
+    File cacheFile = getCacheFile(library);
+    if (cacheFile == null || !cacheFile.isFile())
+      return null;
+
+    try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "r")) {
+      FileChannel channel = raf.getChannel();
+      long fileSize = channel.size();
+      if (fileSize < HEADER_SIZE)
+        return invalid(cacheFile);
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      channel.read(header, 0);
+      header.flip();
+      if (header.getInt() != MAGIC || header.getInt() != VERSION
+          || header.getInt() != FIELD_LAYOUT)
+        return invalid(cacheFile);
+      // library was changed
+      if (header.getLong() != library.length() || header.getLong() != library.lastModified())
+        return invalid(cacheFile);
+
+      final int entries = header.getInt();
+      final int precursorCount = header.getInt();
+      final int maxRecordLength = header.getInt();
+      final long dataOffset = header.getLong();
+      final long precursorOffset = HEADER_SIZE + (long) entries * TABLE_ROW_SIZE;
+      if (entries < 0 || precursorCount < 0 || precursorCount > entries
+          || dataOffset != precursorOffset + (long) precursorCount * PRECURSOR_ROW_SIZE
+          || dataOffset > fileSize)
+        return invalid(cacheFile);
+
+      // read the table
+      ByteBuffer table = channel.map(MapMode.READ_ONLY, HEADER_SIZE, precursorOffset - HEADER_SIZE);
+      long recordOffsets[] = new long[entries];
+      table.asLongBuffer().get(recordOffsets);
+
+      // the precursor table stays mapped, searches read it directly
+      ByteBuffer precursors =
+          channel.map(MapMode.READ_ONLY, precursorOffset, dataOffset - precursorOffset);
+
+      // map the data
+      int segmentCount = (int) ((fileSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+      MappedByteBuffer segments[] = new MappedByteBuffer[segmentCount];
+      for (int i = 0; i < segmentCount; i++) {
+        long start = i * SEGMENT_SIZE;
+        long length = Math.min(SEGMENT_SIZE + maxRecordLength, fileSize - start);
+        segments[i] = channel.map(MapMode.READ_ONLY, start, length);
+      }
+      // mark as recently used, the least recently used caches are deleted first
+      cacheFile.setLastModified(System.currentTimeMillis());
+      return new SpectralLibraryCache(segments, recordOffsets, precursors, precursorCount);
+    } catch (Exception e) {
+      logger.log(Level.WARNING, "Cannot open spectral library cache " + cacheFile, e);
+      return null;
+    }
+  }
+
+  private static SpectralLibraryCache invalid(File cacheFile) {
+    logger.info("Spectral library cache " + cacheFile + " is outdated");
+    return null;
+  }
+
+  /**
+   * @return number of library entries
+   */
+  public int getEntryCount() {
+    return recordOffsets.length;
+  }
+
+  /**
+   * @return number of library entries with a precursor m/z
+   */
+  public int getPrecursorCount() {
+    return precursorCount;
+  }
+
+  /**
+   * @param position position in the precursor table, sorted by precursor m/z
+   * @return the precursor m/z at this position
+   */
+  public double getPrecursorMZ(int position) {
+    return precursors.getDouble(position * PRECURSOR_ROW_SIZE);
+  }
+
+  /**
+   * @param position position in the precursor table, sorted by precursor m/z
+   * @return the index in library order of the entry at this position
+   */
+  public int getPrecursorEntry(int position) {
+    return precursors.getInt(position * PRECURSOR_ROW_SIZE + 8);
+  }
+
+  /**
+   * @return the first position in the precursor table with a precursor m/z >= mz
+   */
+  public int getPrecursorPosition(double mz) {
+    int low = 0;
+    int high = precursorCount;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (getPrecursorMZ(mid) < mz)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
+  /**
+   * Reads an entry from the cache
+   * 
+   * @param index index in library order
+   * @return the library entry
+   */
+  public SpectralDBEntry getEntry(int index) {
+    long offset = recordOffsets[index];
+    ByteBuffer b = segments[(int) (offset / SEGMENT_SIZE)].duplicate();
+    b.position((int) (offset % SEGMENT_SIZE));
+
+    DataPoint dps[] = new DataPoint[b.getInt()];
+    for (int i = 0; i < dps.length; i++) {
+      double mz = b.getDouble();
+      dps[i] = new SimpleDataPoint(mz, b.getDouble());
+    }
+
+    Map<DBEntryField, Object> fields = new EnumMap<>(DBEntryField.class);
+    int fieldCount = b.getInt();
+    for (int i = 0; i < fieldCount; i++) {
+      DBEntryField field = FIELDS[b.get()];
+      fields.put(field, readValue(b));
+    }
+    return new SpectralDBEntry(fields, dps);
+  }
+
+  private static Object readValue(ByteBuffer b) {
+    byte type = b.get();
+    switch (type) {
+      case TYPE_STRING:
+        byte bytes[] = new byte[b.getInt()];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+      case TYPE_DOUBLE:
+        return b.getDouble();
+      case TYPE_INTEGER:
+        return b.getInt();
+      case TYPE_FLOAT:
+        return b.getFloat();
+      case TYPE_LONG:
+        return b.getLong();
+      case TYPE_BOOLEAN:
+        return b.get() != 0;
+      default:
+        throw new IllegalStateException("Unknown value type " + type + " in library cache");
+    }
+  }
+
+  /**
+   * Writes the cache of a library while it is parsed. Entries are streamed to a temporary data
+   * file; {@link #commit()} adds the offset table and moves the cache into place.
+   */
+  static class Writer {
+
+    private final File library;
+    private final long librarySize;
+    private final long libraryLastModified;
+    private final File cacheDirectory;
+    private final long maximumBytes;
+    private final File cacheFile;
+    private final File dataFile;
+    private final DataOutputStream data;
+
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+
+    private final LongArrayList recordOffsets = new LongArrayList();
+    private final DoubleArrayList precursorMZs = new DoubleArrayList();
+    private final IntArrayList precursorEntries = new IntArrayList();
+    private long dataSize = 0;
+    private int maxRecordLength = 0;
+
+    /**
+     * @throws IOException if caching is disabled or the cache directory cannot be written
+     */
+    Writer(File library) throws IOException {
+      this.library = library;
+      // capture the state before parsing
+      librarySize = library.length();
+      libraryLastModified = library.lastModified();
+      cacheDirectory = getCacheDirectory();
+      maximumBytes = maximumSize;
+      if (cacheDirectory == null)
+        throw new IOException("Spectral library caching is disabled");
+      cacheFile = getCacheFile(cacheDirectory, library);
+      if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs())
+        throw new IOException("Cannot create directory " + cacheDirectory);
+      dataFile = File.createTempFile(library.getName(), ".tmp", cacheDirectory);
+      data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile)));
+    }
+
+    /**
+     * Appends an entry
+     * 
+     * @return false if the entry contains values that cannot be stored
+     */
+    boolean add(SpectralDBEntry entry) throws IOException {
+      recordBytes.reset();
+      DataPoint dps[] = entry.getDataPoints();
+      record.writeInt(dps.length);
+      for (DataPoint dp : dps) {
+        record.writeDouble(dp.getMZ());
+        record.writeDouble(dp.getIntensity());
+      }
+
+      int fieldCount = 0;
+      for (DBEntryField field : FIELDS) {
+        if (entry.getField(field).isPresent())
+          fieldCount++;
+      }
+      record.writeInt(fieldCount);
+      for (DBEntryField field : FIELDS) {
+        Object value = entry.getField(field).orElse(null);
+        if (value == null)
+          continue;
+        record.writeByte(field.ordinal());
+        if (!writeValue(record, value))
+          return false;
+      }
+
+      Double precursorMZ = entry.getPrecursorMZ();
+      if (precursorMZ != null) {
+        precursorMZs.add(precursorMZ.doubleValue());
+        precursorEntries.add(recordOffsets.size());
+      }
+      recordOffsets.add(dataSize);
+      recordBytes.writeTo(data);
+      dataSize += recordBytes.size();
+      maxRecordLength = Math.max(maxRecordLength, recordBytes.size());
+      return true;
+    }
+
+    /**
+     * Writes the tables and moves the cache file into place. A cache larger than the maximum size
+     * is not kept, otherwise the least recently used caches are deleted until all caches fit.
+     */
+    void commit() throws IOException {
+      data.close();
+      final int entries = recordOffsets.size();
+      final int precursorCount = precursorMZs.size();
+      final long dataOffset = HEADER_SIZE + (long) entries * TABLE_ROW_SIZE
+          + (long) precursorCount * PRECURSOR_ROW_SIZE;
+      if (dataOffset + dataSize > maximumBytes) {
+        logger.info("Spectral library cache for " + library + " would exceed the maximum size of "
+            + maximumBytes / (1024 * 1024) + " MB. No cache is created.");
+        dataFile.delete();
+        return;
+      }
+
+      // stable sort, equal precursor m/z stay in library order
+      Integer precursorOrder[] = new Integer[precursorCount];
+      for (int i = 0; i < precursorCount; i++)
+        precursorOrder[i] = i;
+      Arrays.sort(precursorOrder, Comparator.comparingDouble(i -> precursorMZs.getDouble(i)));
+
+      File tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheDirectory);
+      try {
+        try (FileOutputStream fos = new FileOutputStream(tmpFile);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            FileChannel in = FileChannel.open(dataFile.toPath())) {
+          out.writeInt(MAGIC);
+          out.writeInt(VERSION);
+          out.writeInt(FIELD_LAYOUT);
+          out.writeLong(librarySize);
+          out.writeLong(libraryLastModified);
+          out.writeInt(entries);
+          out.writeInt(precursorCount);
+          out.writeInt(maxRecordLength);
+          out.writeLong(dataOffset);
+          for (int i = 0; i < entries; i++)
+            out.writeLong(dataOffset + recordOffsets.getLong(i));
+          for (int i : precursorOrder) {
+            out.writeDouble(precursorMZs.getDouble(i));
+            out.writeInt(precursorEntries.getInt(i));
+          }
+          out.flush();
+
+          // append the records
+          FileChannel outChannel = fos.getChannel();
+          long position = 0;
+          while (position < dataSize)
+            position += in.transferTo(position, dataSize - position, outChannel);
+        }
+        Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        logger.info("Created spectral library cache " + cacheFile + " for " + library);
+      } finally {
+        tmpFile.delete();
+        dataFile.delete();
+      }
+      evict(cacheDirectory, maximumBytes, cacheFile);
+    }
+
+    /**
+     * Deletes the least recently used caches until all caches together fit into the maximum size
+     * 
+     * @param keep the cache that was just written
+     */
+    private static void evict(File cacheDirectory, long maximumBytes, File keep) {
+      File caches[] = cacheDirectory.listFiles((dir, name) -> name.endsWith(CACHE_EXTENSION));
+      if (caches == null)
+        return;
+      long totalSize = 0;
+      for (File cache : caches)
+        totalSize += cache.length();
+      Arrays.sort(caches, Comparator.comparingLong(File::lastModified));
+      for (File cache : caches) {
+        if (totalSize <= maximumBytes)
+          break;
+        if (cache.equals(keep))
+          continue;
+        final long size = cache.length();
+        // a cache that is still mapped cannot be deleted on some systems
+        if (cache.delete()) {
+          totalSize -= size;
+          logger.info("Deleted least recently used spectral library cache " + cache);
+        }
+      }
+    }
+
+    /**
+     * Deletes all temporary files
+     */
+    void discard() {
+      try {
+        data.close();
+      } catch (IOException e) {
+        // ignore
+      }
+      dataFile.delete();
+    }
+
+    private static boolean writeValue(DataOutputStream out, Object value) throws IOException {
+      if (value instanceof String) {
+        byte bytes[] = ((String) value).getBytes(StandardCharsets.UTF_8);
+        out.writeByte(TYPE_STRING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      } else if (value instanceof Double) {
+        out.writeByte(TYPE_DOUBLE);
+        out.writeDouble((Double) value);
+      } else if (value instanceof Integer) {
+        out.writeByte(TYPE_INTEGER);
+        out.writeInt((Integer) value);
+      } else if (value instanceof Float) {
+        out.writeByte(TYPE_FLOAT);
+        out.writeFloat((Float) value);
+      } else if (value instanceof Long) {
+        out.writeByte(TYPE_LONG);
+        out.writeLong((Long) value);
+      } else if (value instanceof Boolean) {
+        out.writeByte(TYPE_BOOLEAN);
+        out.writeBoolean((Boolean) value);
+      } else {
+        return false;
+      }
+      return true;
+    }
+  }
+
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.batchmode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.github.mzmine.datamodel.MZmineProject;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.modules.MZmineModuleCategory;
+import io.github.mzmine.modules.MZmineProcessingModule;
+import io.github.mzmine.modules.dataprocessing.featdet_smoothing.SmoothingModule;
+import io.github.mzmine.modules.impl.MZmineProcessingStepImpl;
+import io.github.mzmine.parameters.Parameter;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.impl.SimpleParameterSet;
+import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesParameter;
+import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesSelection;
+import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesSelectionType;
+import io.github.mzmine.project.impl.MZmineProjectImpl;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.taskcontrol.AbstractTask;
+import io.github.mzmine.taskcontrol.Task;
+import io.github.mzmine.taskcontrol.TaskControlListener;
+import io.github.mzmine.taskcontrol.TaskController;
+import io.github.mzmine.taskcontrol.TaskPriority;
+import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.taskcontrol.impl.TaskQueue;
+import io.github.mzmine.util.ExitCode;
+
+/**
+ * Runs a batch of an import step, two per-file steps and a step joining all files on two raw data
+ * files A and B. The tasks of the steps run on their own threads and can be held or failed by
+ * name ("step1 B", "join"), so the test decides which file is slower.
+ */
+public class BatchTaskTest {
+
+  private static final long TIMEOUT = 10000;
+
+  // Tasks by name, the held tasks and the tasks which fail
+  private static final Map<String, StepTask> tasks = new ConcurrentHashMap<>();
+  private static final Map<String, CountDownLatch> held = new ConcurrentHashMap<>();
+  private static final Set<String> failing = ConcurrentHashMap.newKeySet();
+
+  private RawDataFileImpl fileA, fileB;
+  private MZmineProjectImpl project;
+
+  @Before
+  public void createFiles() throws IOException {
+    tasks.clear();
+    held.clear();
+    failing.clear();
+    fileA = new RawDataFileImpl("A");
+    fileB = new RawDataFileImpl("B");
+    project = new MZmineProjectImpl();
+  }
+
+  @After
+  public void close() {
+    for (CountDownLatch latch : held.values())
+      latch.countDown();
+    fileA.close();
+    fileB.close();
+  }
+
+  @Test
+  public void fileAdvancesWhileOtherFileIsInItsStep() throws InterruptedException {
+    hold("step1 B");
+    final Thread batch = startBatch();
+
+    // A completes both per-file steps while B is still in the first one
+    assertEquals(TaskStatus.FINISHED, awaitFinished("step2 A"));
+    assertFalse(tasks.get("step1 B").done);
+    assertFalse(tasks.containsKey("step2 B"));
+
+    release("step1 B");
+    assertEquals(TaskStatus.FINISHED, awaitFinished("join"));
+    batch.join(TIMEOUT);
+  }
+
+  @Test
+  public void joinStepWaitsForAllFiles() throws InterruptedException {
+    hold("step2 B");
+    final Thread batch = startBatch();
+
+    assertEquals(TaskStatus.FINISHED, awaitFinished("step2 A"));
+    awaitTask("step2 B");
+    Thread.sleep(200);
+    assertFalse(tasks.containsKey("join"));
+
+    release("step2 B");
+    assertEquals(TaskStatus.FINISHED, awaitFinished("join"));
+    assertEquals(List.of(fileA, fileB), tasks.get("join").dataFiles);
+    batch.join(TIMEOUT);
+  }
+
+  @Test
+  public void errorInOneFileStopsTheBatch() throws InterruptedException {
+    hold("step1 A");
+    failing.add("step1 B");
+    final BatchTask batchTask = createBatch();
+    final Thread batch = new Thread(batchTask);
+    batch.start();
+    batch.join(TIMEOUT);
+
+    assertFalse(batch.isAlive());
+    assertEquals(TaskStatus.ERROR, batchTask.getStatus());
+    assertTrue(batchTask.getErrorMessage(), batchTask.getErrorMessage().startsWith("step1 B"));
+    assertEquals(TaskStatus.CANCELED, tasks.get("step1 A").getStatus());
+    assertFalse(tasks.containsKey("step2 A"));
+    assertFalse(tasks.containsKey("step2 B"));
+    assertFalse(tasks.containsKey("join"));
+  }
+
+  private Thread startBatch() {
+    final Thread batch = new Thread(createBatch());
+    batch.start();
+    return batch;
+  }
+
+  private BatchTask createBatch() {
+    final BatchQueue queue = new BatchQueue();
+    queue.add(new MZmineProcessingStepImpl<>(new ImportModule(fileA, fileB),
+        new SimpleParameterSet()));
+    queue.add(new MZmineProcessingStepImpl<>(new FileStepModule("step1"), fileParameters()));
+    queue.add(new MZmineProcessingStepImpl<>(new FileStepModule("step2"), fileParameters()));
+    queue.add(new MZmineProcessingStepImpl<>(new JoinModule(), fileParameters()));
+    assertEquals(3, queue.getPerFileStepsEnd(1));
+
+    final BatchQueueParameter batchQueue = new BatchQueueParameter();
+    batchQueue.setValue(queue);
+    return new BatchTask(project, new SimpleParameterSet(new Parameter<?>[] {batchQueue}),
+        new ThreadTaskController());
+  }
+
+  private static ParameterSet fileParameters() {
+    return new FileParameters().cloneParameterSet();
+  }
+
+  private static void hold(String name) {
+    held.put(name, new CountDownLatch(1));
+  }
+
+  private static void release(String name) {
+    held.get(name).countDown();
+  }
+
+  private static StepTask awaitTask(String name) throws InterruptedException {
+    final long end = System.currentTimeMillis() + TIMEOUT;
+    while (!tasks.containsKey(name) && (System.currentTimeMillis() < end))
+      Thread.sleep(5);
+    final StepTask task = tasks.get(name);
+    assertNotNull(name, task);
+    return task;
+  }
+
+  /**
+   * Waits until the named task is finished, canceled or failed and returns its status
+   */
+  private static TaskStatus awaitFinished(String name) throws InterruptedException {
+    final StepTask task = awaitTask(name);
+    final long end = System.currentTimeMillis() + TIMEOUT;
+    while (!task.done && (System.currentTimeMillis() < end))
+      Thread.sleep(5);
+    return task.getStatus();
+  }
+
+  public static class FileParameters extends SimpleParameterSet {
+
+    public static final RawDataFilesParameter dataFiles = new RawDataFilesParameter(
+        new RawDataFilesSelection(RawDataFilesSelectionType.BATCH_LAST_FILES));
+
+    public FileParameters() {
+      super(new Parameter[] {dataFiles});
+    }
+
+  }
+
+  /**
+   * Runs each task on a new thread as soon as it is added
+   */
+  private static class ThreadTaskController implements TaskController {
+
+    @Override
+    public void addTask(Task task) {
+      new Thread(task).start();
+    }
+
+    @Override
+    public void addTasks(Task[] tasks) {
+      for (Task task : tasks)
+        addTask(task);
+    }
+
+    @Override
+    public void addTask(Task task, TaskPriority priority) {
+      addTask(task);
+    }
+
+    @Override
+    public void addTasks(Task[] tasks, TaskPriority[] priority) {
+      addTasks(tasks);
+    }
+
+    @Override
+    public void setTaskPriority(Task task, TaskPriority priority) {}
+
+    @Override
+    public void addTaskControlListener(TaskControlListener listener) {}
+
+    @Override
+    public TaskQueue getTaskQueue() {
+      return null;
+    }
+
+  }
+
+  /**
+   * Adds the raw data files to the project, like an import module which finished at once
+   */
+  private static class ImportModule implements MZmineProcessingModule {
+
+    private final RawDataFile dataFiles[];
+
+    private ImportModule(RawDataFile... dataFiles) {
+      this.dataFiles = dataFiles;
+    }
+
+    @Override
+    public @Nonnull String getName() {
+      return "Import";
+    }
+
+    @Override
+    public @Nonnull String getDescription() {
+      return getName();
+    }
+
+    @Override
+    @Nonnull
+    public ExitCode runModule(@Nonnull MZmineProject project, @Nonnull ParameterSet parameters,
+        @Nonnull Collection<Task> tasks) {
+      // Not addFile(), which adds the file on the JavaFX thread
+      project.getRawDataFiles().addAll(dataFiles);
+      return ExitCode.OK;
+    }
+
+    @Override
+    public @Nonnull MZmineModuleCategory getModuleCategory() {
+      return MZmineModuleCategory.RAWDATA;
+    }
+
+    @Override
+    public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
+      return SimpleParameterSet.class;
+    }
+
+  }
+
+  /**
+   * A per-file step, creating one task for each selected raw data file
+   */
+  private static class FileStepModule extends SmoothingModule {
+
+    private final String step;
+
+    private FileStepModule(String step) {
+      this.step = step;
+    }
+
+    @Override
+    @Nonnull
+    public ExitCode runModule(@Nonnull MZmineProject project, @Nonnull ParameterSet parameters,
+        @Nonnull Collection<Task> tasks) {
+      for (RawDataFile dataFile : parameters.getParameter(FileParameters.dataFiles).getValue()
+          .getMatchingRawDataFiles())
+        tasks.add(new StepTask(step + " " + dataFile.getName(), List.of(dataFile)));
+      return ExitCode.OK;
+    }
+
+  }
+
+  /**
+   * A step joining all files, like alignment, creating one task for all selected raw data files
+   */
+  private static class JoinModule extends ImportModule {
+
+    @Override
+    public @Nonnull String getName() {
+      return "Join";
+    }
+
+    @Override
+    @Nonnull
+    public ExitCode runModule(@Nonnull MZmineProject project, @Nonnull ParameterSet parameters,
+        @Nonnull Collection<Task> tasks) {
+      tasks.add(new StepTask("join",
+          List.of(parameters.getParameter(FileParameters.dataFiles).getValue()
+              .getMatchingRawDataFiles())));
+      return ExitCode.OK;
+    }
+
+    @Override
+    public @Nonnull MZmineModuleCategory getModuleCategory() {
+      return MZmineModuleCategory.ALIGNMENT;
+    }
+
+    @Override
+    public @Nonnull Class<? extends ParameterSet> getParameterSetClass() {
+      return FileParameters.class;
+    }
+
+  }
+
+  private static class StepTask extends AbstractTask {
+
+    private final String name;
+    private final List<RawDataFile> dataFiles;
+    private volatile boolean done = false;
+
+    private StepTask(String name, List<RawDataFile> dataFiles) {
+      this.name = name;
+      this.dataFiles = dataFiles;
+      tasks.put(name, this);
+    }
+
+    @Override
+    public String getTaskDescription() {
+      return name;
+    }
+
+    @Override
+    public double getFinishedPercentage() {
+      return 0;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (isCanceled())
+          return;
+        setStatus(TaskStatus.PROCESSING);
+
+        final CountDownLatch latch = held.get(name);
+        while ((latch != null) && !latch.await(5, TimeUnit.MILLISECONDS)) {
+          if (isCanceled())
+            return;
+        }
+
+        if (failing.contains(name)) {
+          setErrorMessage("failed");
+          setStatus(TaskStatus.ERROR);
+          return;
+        }
+        setStatus(TaskStatus.FINISHED);
+      } catch (InterruptedException e) {
+        setStatus(TaskStatus.CANCELED);
+      } finally {
+        done = true;
+      }
+    }
+
+  }
+
+}
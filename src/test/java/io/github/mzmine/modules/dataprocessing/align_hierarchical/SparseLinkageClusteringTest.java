@@ -0,0 +1,286 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.align_hierarchical;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.gnf.clustering.DistanceMatrix;
+import org.gnf.clustering.LinkageMode;
+import org.gnf.clustering.Node;
+import org.gnf.clustering.Utils;
+import org.gnf.clustering.sequentialcache.SequentialCacheClustering;
+import org.junit.Test;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Compares the clusters of {@link SparseLinkageClustering} with those of the full distance matrix
+ * clustered by {@link SequentialCacheClustering}, the "Cached" clusterer of the hierarchical
+ * aligner. The distances mimic {@link RowVsRowDistanceProvider#getRankedDistance}: rows of the
+ * same file are at {@link RowVsRowDistanceProvider#SAME_FILE_DISTANCE}, rows outside the
+ * tolerances at {@link RowVsRowDistanceProvider#NOT_CANDIDATE_DISTANCE}.
+ * 
+ * The average linkage of the cached clusterer occasionally weights a merged cluster by a wrong
+ * size, so the average linkage is compared with a plain implementation which recomputes the
+ * linkage from the sizes of the clusters.
+ */
+public class SparseLinkageClusteringTest {
+
+  private static final int NUM_FILES = 5;
+  private static final int NUM_COMPOUNDS = 40;
+  private static final double MAX_DIST = 2.0;
+
+  private static final float SAME_FILE = (float) RowVsRowDistanceProvider.SAME_FILE_DISTANCE;
+  private static final float NOT_CANDIDATE =
+      (float) RowVsRowDistanceProvider.NOT_CANDIDATE_DISTANCE;
+  private static final float LOW_SCORE = (float) RowVsRowDistanceProvider.LOW_SCORE_DISTANCE;
+
+  @Test
+  public void sameClustersAsAverageLinkage() {
+    compareClusters(LinkageMode.AVG);
+  }
+
+  @Test
+  public void sameClustersAsCachedMin() {
+    compareClusters(LinkageMode.MIN);
+  }
+
+  @Test
+  public void sameClustersAsCachedMax() {
+    compareClusters(LinkageMode.MAX);
+  }
+
+  @Test
+  public void unstoredPairsOfTheSameGroup() {
+    final DistanceMatrixSparse distances =
+        new DistanceMatrixSparse(4, NOT_CANDIDATE, new int[] {0, 0, 1, 1}, SAME_FILE);
+    distances.setValue(0, 2, 0.5f);
+    distances.setValue(1, 0, 3f);
+
+    assertEquals(0f, distances.getValue(1, 1), 0f);
+    assertEquals(3f, distances.getValue(0, 1), 0f);
+    assertEquals(0.5f, distances.getValue(2, 0), 0f);
+    assertEquals(NOT_CANDIDATE, distances.getValue(1, 3), 0f);
+    assertEquals(SAME_FILE, distances.getValue(3, 2), 0f);
+
+    // Setting the unstored distance removes the pair
+    distances.setValue(0, 1, SAME_FILE);
+    assertEquals(1, distances.getNumberOfValues());
+    assertEquals(SAME_FILE, distances.getValue(0, 1), 0f);
+  }
+
+  private void compareClusters(LinkageMode linkageMode) {
+
+    for (long seed = 1; seed <= 10; seed++) {
+
+      final Random random = new Random(seed);
+      final int rowFiles[] = createRows(random);
+      final int numRows = rowFiles.length;
+      final float dense[][] = createDistances(random, rowFiles);
+
+      final DistanceMatrixTriangular1D2D cached = new DistanceMatrixTriangular1D2D(numRows);
+      final DistanceMatrixSparse sparse =
+          new DistanceMatrixSparse(numRows, NOT_CANDIDATE, rowFiles, SAME_FILE);
+      for (int x = 0; x < numRows; x++) {
+        IntArrayList columns = new IntArrayList();
+        List<Float> values = new ArrayList<>();
+        for (int y = x; y < numRows; y++) {
+          cached.setValue(x, y, dense[x][y]);
+          if (y > x && dense[x][y] != sparse.getUnstoredValue(x, y)) {
+            columns.add(y);
+            values.add(dense[x][y]);
+          }
+        }
+        float rowValues[] = new float[values.size()];
+        for (int i = 0; i < rowValues.length; i++)
+          rowValues[i] = values.get(i);
+        sparse.setRow(x, columns.toIntArray(), rowValues);
+      }
+
+      // The sparse matrix reads as the full matrix
+      for (int x = 0; x < numRows; x++) {
+        for (int y = 0; y < numRows; y++)
+          assertEquals(dense[x][y], sparse.getValue(x, y), 0f);
+      }
+
+      final DistanceMatrixTriangular1D2D backup = new DistanceMatrixTriangular1D2D(cached);
+      final Node expectedNodes[] = (linkageMode == LinkageMode.AVG) ? clusterAverage(dense)
+          : SequentialCacheClustering.clusterDM(cached, linkageMode, null, numRows);
+      final Node sparseNodes[] = SparseLinkageClustering.clusterDM(sparse, linkageMode, null);
+
+      assertEquals("Seed " + seed + ", " + linkageMode,
+          getValidatedClusters(expectedNodes, numRows, backup),
+          getValidatedClusters(sparseNodes, numRows, sparse));
+    }
+  }
+
+  /**
+   * Average linkage clustering which searches all clusters for the closest pair at each step
+   */
+  private static Node[] clusterAverage(float distances[][]) {
+
+    final int numRows = distances.length;
+    final int numClusters = 2 * numRows - 1;
+    final double linkage[][] = new double[numClusters][numClusters];
+    final int sizes[] = new int[numClusters];
+    final boolean active[] = new boolean[numClusters];
+    for (int x = 0; x < numRows; x++) {
+      sizes[x] = 1;
+      active[x] = true;
+      for (int y = 0; y < numRows; y++)
+        linkage[x][y] = distances[x][y];
+    }
+
+    final Node nodes[] = new Node[numRows - 1];
+    for (int k = 0; k < nodes.length; k++) {
+      final int newCluster = numRows + k;
+      int cluster1 = -1, cluster2 = -1;
+      for (int x = 0; x < newCluster; x++) {
+        for (int y = x + 1; active[x] && y < newCluster; y++) {
+          if (active[y] && (cluster1 < 0 || linkage[x][y] < linkage[cluster1][cluster2])) {
+            cluster1 = x;
+            cluster2 = y;
+          }
+        }
+      }
+
+      nodes[k] = new Node(getNodeReference(cluster1, numRows),
+          getNodeReference(cluster2, numRows), (float) linkage[cluster1][cluster2]);
+      active[cluster1] = false;
+      active[cluster2] = false;
+      active[newCluster] = true;
+      sizes[newCluster] = sizes[cluster1] + sizes[cluster2];
+      for (int other = 0; other < newCluster; other++) {
+        linkage[newCluster][other] = (sizes[cluster1] * linkage[cluster1][other]
+            + sizes[cluster2] * linkage[cluster2][other]) / sizes[newCluster];
+        linkage[other][newCluster] = linkage[newCluster][other];
+      }
+    }
+    return nodes;
+  }
+
+  private static int getNodeReference(int cluster, int numRows) {
+    return (cluster < numRows) ? cluster : -(cluster - numRows + 1);
+  }
+
+  /**
+   * Rows of the compounds, each found in some of the files
+   *
+   * @return The file of each row
+   */
+  private static int[] createRows(Random random) {
+    IntArrayList rowFiles = new IntArrayList();
+    for (int compound = 0; compound < NUM_COMPOUNDS; compound++) {
+      for (int file = 0; file < NUM_FILES; file++) {
+        if (random.nextDouble() < 0.8)
+          rowFiles.add(file);
+      }
+    }
+    return rowFiles.toIntArray();
+  }
+
+  /**
+   * Rows of the same compound are close to each other, rows of neighbouring compounds are partly
+   * inside the tolerances
+   */
+  private static float[][] createDistances(Random random, int rowFiles[]) {
+
+    final int numRows = rowFiles.length;
+    final int rowCompounds[] = new int[numRows];
+    for (int row = 1; row < numRows; row++) {
+      rowCompounds[row] =
+          rowCompounds[row - 1] + ((rowFiles[row] <= rowFiles[row - 1]) ? 1 : 0);
+    }
+
+    final float distances[][] = new float[numRows][numRows];
+    for (int x = 0; x < numRows; x++) {
+      for (int y = x + 1; y < numRows; y++) {
+        final float distance;
+        final int compoundDiff = Math.abs(rowCompounds[x] - rowCompounds[y]);
+        if (rowFiles[x] == rowFiles[y])
+          distance = SAME_FILE;
+        else if (compoundDiff == 0)
+          distance = (float) (random.nextDouble() * MAX_DIST * 0.6);
+        else if (compoundDiff == 1 && random.nextDouble() < 0.5)
+          distance = (random.nextDouble() < 0.3) ? LOW_SCORE
+              : (float) (MAX_DIST * (0.3 + 0.7 * random.nextDouble()));
+        else
+          distance = NOT_CANDIDATE;
+        distances[x][y] = distance;
+        distances[y][x] = distance;
+      }
+    }
+    return distances;
+  }
+
+  /**
+   * The clusters as cut by the hierarchical aligner: the largest subtrees of at most one row per
+   * file whose rows are all closer than the maximum distance
+   */
+  private static Set<List<Integer>> getValidatedClusters(Node nodes[], int numRows,
+      DistanceMatrix distances) {
+    Utils.NodeSort(nodes, numRows - 2, 0, new int[numRows]);
+    Set<List<Integer>> clusters = new HashSet<>();
+    validateClusters(nodes, -nodes.length, distances, clusters);
+    return clusters;
+  }
+
+  private static void validateClusters(Node nodes[], int node, DistanceMatrix distances,
+      Set<List<Integer>> clusters) {
+
+    if (node >= 0) {
+      clusters.add(Arrays.asList(node));
+      return;
+    }
+
+    final List<Integer> leaves = new ArrayList<>();
+    collectLeaves(nodes, node, leaves);
+    float maxDistance = 0f;
+    for (int i = 0; i < leaves.size(); i++) {
+      for (int j = i + 1; j < leaves.size(); j++)
+        maxDistance = Math.max(maxDistance, distances.getValue(leaves.get(i), leaves.get(j)));
+    }
+
+    if (leaves.size() <= NUM_FILES && maxDistance < MAX_DIST) {
+      leaves.sort(null);
+      clusters.add(leaves);
+      return;
+    }
+
+    validateClusters(nodes, nodes[-node - 1].m_nLeft, distances, clusters);
+    validateClusters(nodes, nodes[-node - 1].m_nRight, distances, clusters);
+  }
+
+  private static void collectLeaves(Node nodes[], int node, List<Integer> leaves) {
+    if (node >= 0) {
+      leaves.add(node);
+      return;
+    }
+    collectLeaves(nodes, nodes[-node - 1].m_nLeft, leaves);
+    collectLeaves(nodes, nodes[-node - 1].m_nRight, leaves);
+  }
+
+}
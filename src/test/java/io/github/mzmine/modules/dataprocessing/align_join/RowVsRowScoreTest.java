@@ -0,0 +1,84 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.align_join;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import io.github.mzmine.datamodel.PeakListRow;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+
+/**
+ * Checks that the scores of the sequential (TreeSet) and the parallel (sorted list) join
+ * alignment are in the same order, also for equal scores
+ */
+public class RowVsRowScoreTest {
+
+  @Test
+  public void equalScoresOrderedByRowIndexes() {
+
+    // Rows without peaks are all at m/z 0 and RT 0, so all scores are equal
+    final PeakListRow rows[] = new PeakListRow[5];
+    final PeakListRow alignedRows[] = new PeakListRow[4];
+    for (int i = 0; i < rows.length; i++)
+      rows[i] = new SimplePeakListRow(i + 1);
+    for (int i = 0; i < alignedRows.length; i++)
+      alignedRows[i] = new SimplePeakListRow(i + 1);
+
+    final List<RowVsRowScore> expected = new ArrayList<>();
+    for (int row = 0; row < rows.length; row++) {
+      for (int aligned = 0; aligned < alignedRows.length; aligned++)
+        expected.add(new RowVsRowScore(rows[row], row, alignedRows[aligned], aligned, 1, 1, 1, 1));
+    }
+
+    for (long seed = 0; seed < 5; seed++) {
+      final List<RowVsRowScore> shuffled = new ArrayList<>(expected);
+      Collections.shuffle(shuffled, new Random(seed));
+
+      final List<RowVsRowScore> sorted = new ArrayList<>(shuffled);
+      Collections.sort(sorted);
+      assertEquals(expected, sorted);
+      assertEquals(expected, new ArrayList<>(new TreeSet<>(shuffled)));
+    }
+  }
+
+  @Test
+  public void higherScoresFirst() {
+    final SimplePeakListRow row = new SimplePeakListRow(1);
+    row.setAverageMZ(100.0);
+    final SimplePeakListRow close = new SimplePeakListRow(2);
+    close.setAverageMZ(100.1);
+    final SimplePeakListRow far = new SimplePeakListRow(3);
+    far.setAverageMZ(100.4);
+
+    final RowVsRowScore farScore = new RowVsRowScore(row, 0, far, 0, 0.5, 1, 1, 1);
+    final RowVsRowScore closeScore = new RowVsRowScore(row, 0, close, 1, 0.5, 1, 1, 1);
+    final List<RowVsRowScore> scores = new ArrayList<>(List.of(farScore, closeScore));
+    Collections.sort(scores);
+    assertEquals(List.of(closeScore, farScore), scores);
+  }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.align_ransac;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import io.github.mzmine.parameters.ParameterSet;
+
+/**
+ * Checks that {@link RANSAC} aligns the same points in every run and with any number of threads
+ */
+public class RANSACTest {
+
+  private static final int NUM_POINTS = 400;
+
+  @Test
+  public void sameResultAcrossRunsAndThreads() {
+    for (boolean linear : new boolean[] {false, true}) {
+
+      final boolean expected[] = align(createPoints(), linear, 1);
+
+      // Most of the points on the drift curve are aligned, few of the others
+      int alignedInliers = 0, alignedOutliers = 0;
+      for (int i = 0; i < NUM_POINTS; i++) {
+        if (expected[i] && isInlier(i))
+          alignedInliers++;
+        if (expected[i] && !isInlier(i))
+          alignedOutliers++;
+      }
+      assertTrue("Aligned inliers: " + alignedInliers, alignedInliers > 0.9 * getNumInliers());
+      assertTrue("Aligned outliers: " + alignedOutliers,
+          alignedOutliers < 0.2 * (NUM_POINTS - getNumInliers()));
+
+      for (int numOfThreads : new int[] {1, 2, 3, 8}) {
+        for (int run = 0; run < 2; run++) {
+          assertArrayEquals("Linear " + linear + ", " + numOfThreads + " threads", expected,
+              align(createPoints(), linear, numOfThreads));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return whether each point, in the order they were created, was aligned
+   */
+  private static boolean[] align(List<AlignStructMol> points, boolean linear, int numOfThreads) {
+
+    final ParameterSet parameters = new RansacAlignerParameters().cloneParameterSet();
+    parameters.getParameter(RansacAlignerParameters.Iterations).setValue(300);
+    parameters.getParameter(RansacAlignerParameters.NMinPoints).setValue(0.2);
+    parameters.getParameter(RansacAlignerParameters.Margin).setValue(0.1);
+    parameters.getParameter(RansacAlignerParameters.Linear).setValue(linear);
+
+    // The alignment sorts the list, so the points are shuffled and looked up afterwards
+    final List<AlignStructMol> shuffled = new ArrayList<>(points);
+    Collections.shuffle(shuffled, new Random(numOfThreads));
+    new RANSAC(parameters, numOfThreads).alignment(shuffled);
+
+    final boolean aligned[] = new boolean[points.size()];
+    for (int i = 0; i < aligned.length; i++)
+      aligned[i] = points.get(i).Aligned;
+    return aligned;
+  }
+
+  private static boolean isInlier(int point) {
+    return point % 4 != 0;
+  }
+
+  private static int getNumInliers() {
+    int count = 0;
+    for (int i = 0; i < NUM_POINTS; i++) {
+      if (isInlier(i))
+        count++;
+    }
+    return count;
+  }
+
+  /**
+   * Points along a slightly curved RT drift, and every fourth point at a random RT
+   */
+  private static List<AlignStructMol> createPoints() {
+    final Random random = new Random(7);
+    final List<AlignStructMol> points = new ArrayList<>();
+    for (int i = 0; i < NUM_POINTS; i++) {
+      AlignStructMol point = new AlignStructMol();
+      point.RT = 30.0 * random.nextDouble();
+      if (isInlier(i))
+        point.RT2 = point.RT + 0.2 + 0.01 * point.RT + 0.02 * (random.nextDouble() - 0.5);
+      else
+        point.RT2 = 30.0 * random.nextDouble();
+      points.add(point);
+    }
+    return points;
+  }
+
+}
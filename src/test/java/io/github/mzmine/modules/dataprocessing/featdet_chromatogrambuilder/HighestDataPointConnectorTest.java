@@ -0,0 +1,252 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.featdet_chromatogrambuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.util.DataPointSorter;
+import io.github.mzmine.util.SortingDirection;
+import io.github.mzmine.util.SortingProperty;
+
+/**
+ * Compares the chromatograms of {@link HighestDataPointConnector} with those of the previous
+ * implementation, which compared every m/z peak with every open chromatogram, on a fixed scan set.
+ */
+public class HighestDataPointConnectorTest {
+
+  private static final int NUM_SCANS = 120;
+  private static final double MINIMUM_TIME_SPAN = 0.05;
+  private static final double MINIMUM_HEIGHT = 0.0;
+
+  private static RawDataFile dataFile;
+  private static int scanNumbers[];
+  private static DataPoint scans[][];
+
+  @BeforeClass
+  public static void createScans() throws IOException {
+
+    final Random random = new Random(42);
+    final RawDataFileImpl file = new RawDataFileImpl("connector-test");
+    scanNumbers = new int[NUM_SCANS];
+    scans = new DataPoint[NUM_SCANS][];
+
+    // Traces drifting slightly in m/z, some close to each other, plus noise peaks and duplicates
+    final int numTraces = 150;
+    final double traceMz[] = new double[numTraces];
+    final double traceApex[] = new double[numTraces];
+    for (int t = 0; t < numTraces; t++) {
+      traceMz[t] =
+          (t % 10 == 0 && t > 0) ? traceMz[t - 1] + 0.002 : 100 + 900 * random.nextDouble();
+      traceApex[t] = NUM_SCANS * random.nextDouble();
+    }
+
+    for (int s = 0; s < NUM_SCANS; s++) {
+      final List<DataPoint> dataPoints = new ArrayList<>();
+      for (int t = 0; t < numTraces; t++) {
+        final double intensity =
+            Math.round(1e4 * Math.exp(-0.5 * Math.pow((s - traceApex[t]) / 6.0, 2)));
+        if (intensity < 10)
+          continue;
+        final double mz = traceMz[t] + 0.0005 * random.nextGaussian();
+        dataPoints.add(new SimpleDataPoint(mz, intensity));
+        // Equally intense neighbour, to exercise the tie breaking
+        if (t % 25 == 0)
+          dataPoints.add(new SimpleDataPoint(mz + 0.0008, intensity));
+      }
+      for (int n = 0; n < 200; n++)
+        dataPoints.add(new SimpleDataPoint(100 + 900 * random.nextDouble(),
+            Math.round(5 + 100 * random.nextDouble())));
+      dataPoints.sort((a, b) -> Double.compare(a.getMZ(), b.getMZ()));
+
+      scanNumbers[s] = s + 1;
+      scans[s] = dataPoints.toArray(new DataPoint[0]);
+      file.addScan(new SimpleScan(file, s + 1, 1, 0.01 * s, 0, 0, new int[0], scans[s],
+          MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "", Range.closed(100.0, 1000.0)));
+    }
+    dataFile = file.finishWriting();
+  }
+
+  @Test
+  public void absoluteTolerance() {
+    compare(new MZTolerance(0.001, 0.0));
+  }
+
+  @Test
+  public void ppmTolerance() {
+    compare(new MZTolerance(0.0, 5.0));
+  }
+
+  @Test
+  public void wideTolerance() {
+    compare(new MZTolerance(0.005, 10.0));
+  }
+
+  private static void compare(MZTolerance mzTolerance) {
+
+    final HighestDataPointConnector connector = new HighestDataPointConnector(dataFile,
+        scanNumbers, MINIMUM_TIME_SPAN, MINIMUM_HEIGHT, mzTolerance);
+    final ReferenceConnector reference = new ReferenceConnector(dataFile, scanNumbers,
+        mzTolerance, MINIMUM_TIME_SPAN, MINIMUM_HEIGHT);
+    for (int s = 0; s < NUM_SCANS; s++) {
+      connector.addScan(scanNumbers[s], scans[s].clone());
+      reference.addScan(scanNumbers[s], scans[s].clone());
+    }
+
+    final Chromatogram actual[] = connector.finishChromatograms();
+    final Chromatogram expected[] = reference.finishChromatograms();
+
+    assertTrue(expected.length > 0);
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      for (int scanNumber : scanNumbers) {
+        final DataPoint expectedDp = expected[i].getDataPoint(scanNumber);
+        final DataPoint actualDp = actual[i].getDataPoint(scanNumber);
+        if (expectedDp == null) {
+          assertEquals(null, actualDp);
+        } else {
+          assertEquals(expectedDp.getMZ(), actualDp.getMZ(), 0.0);
+          assertEquals(expectedDp.getIntensity(), actualDp.getIntensity(), 0.0);
+        }
+      }
+      assertEquals(expected[i].getMZ(), actual[i].getMZ(), 0.0);
+      assertEquals(expected[i].getArea(), actual[i].getArea(), 0.0);
+    }
+  }
+
+  /**
+   * The connector as it was before the sorted search: each m/z peak is compared with all open
+   * chromatograms.
+   */
+  static class ReferenceConnector {
+
+    private final RawDataFile dataFile;
+    private final int scanNumbers[];
+    private final MZTolerance mzTolerance;
+    private final double minimumTimeSpan, minimumHeight;
+    private Set<Chromatogram> buildingChromatograms = new LinkedHashSet<Chromatogram>();
+
+    ReferenceConnector(RawDataFile dataFile, int scanNumbers[], MZTolerance mzTolerance,
+        double minimumTimeSpan, double minimumHeight) {
+      this.dataFile = dataFile;
+      this.scanNumbers = scanNumbers;
+      this.mzTolerance = mzTolerance;
+      this.minimumTimeSpan = minimumTimeSpan;
+      this.minimumHeight = minimumHeight;
+    }
+
+    void addScan(int scanNumber, DataPoint mzValues[]) {
+
+      Arrays.sort(mzValues,
+          new DataPointSorter(SortingProperty.Intensity, SortingDirection.Descending));
+
+      Set<Chromatogram> connectedChromatograms = new LinkedHashSet<Chromatogram>();
+
+      for (DataPoint mzPeak : mzValues) {
+
+        Chromatogram bestChromatogram = null;
+        for (Chromatogram testChrom : buildingChromatograms) {
+          DataPoint lastMzPeak = testChrom.getLastMzPeak();
+          Range<Double> toleranceRange = mzTolerance.getToleranceRange(lastMzPeak.getMZ());
+          if (toleranceRange.contains(mzPeak.getMZ())) {
+            if ((bestChromatogram == null) || (testChrom.getLastMzPeak()
+                .getIntensity() > bestChromatogram.getLastMzPeak().getIntensity())) {
+              bestChromatogram = testChrom;
+            }
+          }
+        }
+
+        if (bestChromatogram != null) {
+          if (connectedChromatograms.contains(bestChromatogram)) {
+            continue;
+          }
+        } else {
+          bestChromatogram = new Chromatogram(dataFile, scanNumbers);
+        }
+
+        bestChromatogram.addMzPeak(scanNumber, mzPeak);
+        connectedChromatograms.add(bestChromatogram);
+      }
+
+      for (Chromatogram testChrom : buildingChromatograms) {
+        if (connectedChromatograms.contains(testChrom)) {
+          continue;
+        }
+        if (testChrom.getBuildingSegmentLength() >= minimumTimeSpan) {
+          testChrom.commitBuildingSegment();
+          connectedChromatograms.add(testChrom);
+          continue;
+        }
+        if (testChrom.getNumberOfCommittedSegments() > 0) {
+          testChrom.removeBuildingSegment();
+          connectedChromatograms.add(testChrom);
+          continue;
+        }
+      }
+
+      buildingChromatograms = connectedChromatograms;
+    }
+
+    Chromatogram[] finishChromatograms() {
+
+      Iterator<Chromatogram> chromIterator = buildingChromatograms.iterator();
+      while (chromIterator.hasNext()) {
+        Chromatogram chromatogram = chromIterator.next();
+        if (chromatogram.getBuildingSegmentLength() >= minimumTimeSpan) {
+          chromatogram.commitBuildingSegment();
+          chromatogram.finishChromatogram();
+        } else {
+          if (chromatogram.getNumberOfCommittedSegments() == 0) {
+            chromIterator.remove();
+            continue;
+          } else {
+            chromatogram.removeBuildingSegment();
+            chromatogram.finishChromatogram();
+          }
+        }
+        if (chromatogram.getHeight() < minimumHeight)
+          chromIterator.remove();
+      }
+      return buildingChromatograms.toArray(new Chromatogram[0]);
+    }
+  }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution;
+
+import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.minimumsearch.MinimumSearchPeakDetectorParameters.CHROMATOGRAPHIC_THRESHOLD_LEVEL;
+import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.minimumsearch.MinimumSearchPeakDetectorParameters.MIN_ABSOLUTE_HEIGHT;
+import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.minimumsearch.MinimumSearchPeakDetectorParameters.MIN_RATIO;
+import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.minimumsearch.MinimumSearchPeakDetectorParameters.MIN_RELATIVE_HEIGHT;
+import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.minimumsearch.MinimumSearchPeakDetectorParameters.PEAK_DURATION;
+import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.minimumsearch.MinimumSearchPeakDetectorParameters.SEARCH_RT_RANGE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.Feature;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PeakList;
+import io.github.mzmine.datamodel.PeakListRow;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimpleFeature;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.main.MZmineConfiguration;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.main.impl.MZmineConfigurationImpl;
+import io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.minimumsearch.MinimumSearchPeakDetector;
+import io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.minimumsearch.MinimumSearchPeakDetectorParameters;
+import io.github.mzmine.modules.impl.MZmineProcessingStepImpl;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.project.impl.MZmineProjectImpl;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.util.maths.CenterFunction;
+import io.github.mzmine.util.maths.CenterMeasure;
+
+/**
+ * Resolves a synthetic feature list of chromatograms with several overlapping peaks each, once with
+ * the resolver called for one chromatogram after another and once in parallel, and compares the
+ * resolved feature lists.
+ */
+public class DeconvolutionTaskTest {
+
+  private static final int NUM_SCANS = 300;
+  private static final int NUM_CHROMATOGRAMS = 80;
+
+  private static MZmineConfiguration previousConfiguration;
+  private static RawDataFileImpl file;
+  private static RawDataFile dataFile;
+  private static PeakList chromatograms;
+
+  /**
+   * The same resolver, but called for one chromatogram after another as if it used R
+   */
+  private static class SerialMinimumSearchPeakDetector extends MinimumSearchPeakDetector {
+
+    @Override
+    public boolean isThreadSafe(ParameterSet parameters) {
+      return false;
+    }
+
+  }
+
+  @BeforeClass
+  public static void createChromatograms() throws Exception {
+    // the resolver parameters read the number formats of the configuration
+    final Field field = MZmineCore.class.getDeclaredField("configuration");
+    field.setAccessible(true);
+    previousConfiguration = (MZmineConfiguration) field.get(null);
+    field.set(null, new MZmineConfigurationImpl());
+
+    final Random random = new Random(11);
+    file = new RawDataFileImpl("deconvolution-test");
+
+    // Intensities of each chromatogram: up to three peaks, partly overlapping, on a noisy baseline
+    final double intensities[][] = new double[NUM_CHROMATOGRAMS][NUM_SCANS];
+    for (int c = 0; c < NUM_CHROMATOGRAMS; c++) {
+      final int numPeaks = 1 + random.nextInt(3);
+      for (int p = 0; p < numPeaks; p++) {
+        final double apex = 20 + (NUM_SCANS - 40) * random.nextDouble();
+        final double width = 3 + 5 * random.nextDouble();
+        final double height = 1e3 + 1e5 * random.nextDouble();
+        for (int s = 0; s < NUM_SCANS; s++)
+          intensities[c][s] += height * Math.exp(-0.5 * Math.pow((s - apex) / width, 2));
+      }
+      for (int s = 0; s < NUM_SCANS; s++)
+        intensities[c][s] = Math.round(intensities[c][s] + 10 + 50 * random.nextDouble());
+    }
+
+    final int scanNumbers[] = new int[NUM_SCANS];
+    for (int s = 0; s < NUM_SCANS; s++) {
+      scanNumbers[s] = s + 1;
+      final DataPoint dataPoints[] = new DataPoint[NUM_CHROMATOGRAMS];
+      for (int c = 0; c < NUM_CHROMATOGRAMS; c++)
+        dataPoints[c] = new SimpleDataPoint(mz(c), intensities[c][s]);
+      file.addScan(new SimpleScan(file, s + 1, 1, 0.01 * s, 0, 0, new int[0], dataPoints,
+          MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "", Range.closed(100.0, 1000.0)));
+    }
+    dataFile = file.finishWriting();
+
+    chromatograms = new SimplePeakList("chromatograms", dataFile);
+    for (int c = 0; c < NUM_CHROMATOGRAMS; c++) {
+      final DataPoint dataPoints[] = new DataPoint[NUM_SCANS];
+      int top = 0;
+      for (int s = 0; s < NUM_SCANS; s++) {
+        dataPoints[s] = new SimpleDataPoint(mz(c), intensities[c][s]);
+        if (intensities[c][s] > intensities[c][top])
+          top = s;
+      }
+      final double height = intensities[c][top];
+      final Feature chromatogram = new SimpleFeature(dataFile, mz(c), 0.01 * top, height, 0,
+          scanNumbers, dataPoints, FeatureStatus.DETECTED, top + 1, -1, new int[0],
+          Range.closed(0.0, 0.01 * (NUM_SCANS - 1)), Range.singleton(mz(c)),
+          Range.closed(0.0, height));
+      final PeakListRow row = new SimplePeakListRow(c + 1);
+      row.addPeak(dataFile, chromatogram);
+      chromatograms.addRow(row);
+    }
+  }
+
+  @AfterClass
+  public static void close() throws Exception {
+    file.close();
+    final Field field = MZmineCore.class.getDeclaredField("configuration");
+    field.setAccessible(true);
+    field.set(null, previousConfiguration);
+  }
+
+  @Test
+  public void parallelResolvingMatchesSerial() throws Exception {
+    final PeakList serial = resolve(new SerialMinimumSearchPeakDetector());
+    final PeakList parallel = resolve(new MinimumSearchPeakDetector());
+
+    // Some chromatograms are split into several peaks
+    assertTrue(serial.getNumberOfRows() > NUM_CHROMATOGRAMS);
+    assertEquals(serial.getNumberOfRows(), parallel.getNumberOfRows());
+
+    int previousParentID = 0;
+    for (int r = 0; r < serial.getNumberOfRows(); r++) {
+      final PeakListRow expectedRow = serial.getRow(r);
+      final PeakListRow actualRow = parallel.getRow(r);
+      assertEquals(r + 1, expectedRow.getID());
+      assertEquals(expectedRow.getID(), actualRow.getID());
+
+      final Feature expected = expectedRow.getPeak(dataFile);
+      final Feature actual = actualRow.getPeak(dataFile);
+      assertEquals(expected.getParentChromatogramRowID(), actual.getParentChromatogramRowID());
+      assertFalse(expected.getParentChromatogramRowID() < previousParentID);
+      previousParentID = expected.getParentChromatogramRowID();
+
+      assertArrayEquals(expected.getScanNumbers(), actual.getScanNumbers());
+      assertEquals(expected.getMZ(), actual.getMZ(), 0.0);
+      assertEquals(expected.getRT(), actual.getRT(), 0.0);
+      assertEquals(expected.getHeight(), actual.getHeight(), 0.0);
+      assertEquals(expected.getArea(), actual.getArea(), 0.0);
+      assertEquals(expected.getRepresentativeScanNumber(), actual.getRepresentativeScanNumber());
+    }
+  }
+
+  private static PeakList resolve(PeakResolver resolver) throws Exception {
+    final ParameterSet resolverParameters = new MinimumSearchPeakDetectorParameters();
+    resolverParameters.getParameter(CHROMATOGRAPHIC_THRESHOLD_LEVEL).setValue(0.3);
+    resolverParameters.getParameter(SEARCH_RT_RANGE).setValue(0.05);
+    resolverParameters.getParameter(MIN_RELATIVE_HEIGHT).setValue(0.0);
+    resolverParameters.getParameter(MIN_ABSOLUTE_HEIGHT).setValue(500.0);
+    resolverParameters.getParameter(MIN_RATIO).setValue(1.7);
+    resolverParameters.getParameter(PEAK_DURATION).setValue(Range.closed(0.0, 3.0));
+
+    final ParameterSet parameters = new DeconvolutionParameters();
+    parameters.getParameter(DeconvolutionParameters.SUFFIX).setValue("resolved");
+    parameters.getParameter(DeconvolutionParameters.PEAK_RESOLVER)
+        .setValue(new MZmineProcessingStepImpl<>(resolver, resolverParameters));
+    parameters.getParameter(DeconvolutionParameters.mzRangeMSMS).setValue(false);
+    parameters.getParameter(DeconvolutionParameters.RetentionTimeMSMS).setValue(false);
+
+    final DeconvolutionTask task = new DeconvolutionTask(new MZmineProjectImpl(), chromatograms,
+        parameters, new CenterFunction(CenterMeasure.MEDIAN));
+    return task.resolvePeaks(chromatograms, null);
+  }
+
+  private static double mz(int chromatogram) {
+    return 100.0 + 10.0 * chromatogram;
+  }
+
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.centwave;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.centwave.CentWaveDetectorParameters.PeakIntegrationMethod;
+import io.github.mzmine.util.ParallelUtils;
+
+/**
+ * Checks the building blocks of the CentWave port (FFT, wavelet transform, local maxima and ridge
+ * lines), the peaks found in synthetic chromatograms, and the peak boundaries and areas against
+ * xcms findPeaks.centWave. The xcms reference peaks are generated by reference.R in the test
+ * resources; the comparison is skipped if they have not been generated.
+ */
+public class CentWavePeakPickerTest {
+
+  private static final Range<Double> PEAK_WIDTH = Range.closed(5.0, 20.0);
+
+  // Settings of reference.R, retention times in minutes.
+  private static final Range<Double> XCMS_PEAK_WIDTH = Range.closed(0.06, 0.3);
+  private static final double XCMS_SN_THRESHOLD = 10;
+  private static final double SECONDS_PER_MINUTE = 60.0;
+
+  @Test
+  public void fftMatchesDiscreteFourierTransform() {
+    final Random random = new Random(1);
+    final int n = 64;
+    final double re[] = new double[n], im[] = new double[n];
+    for (int i = 0; i < n; i++) {
+      re[i] = random.nextGaussian();
+      im[i] = random.nextGaussian();
+    }
+    final double fftRe[] = re.clone(), fftIm[] = im.clone();
+    CentWavePeakPicker.fft(fftRe, fftIm, false);
+
+    for (int k = 0; k < n; k++) {
+      double sumRe = 0, sumIm = 0;
+      for (int j = 0; j < n; j++) {
+        final double angle = -2 * Math.PI * j * k / n;
+        sumRe += re[j] * Math.cos(angle) - im[j] * Math.sin(angle);
+        sumIm += re[j] * Math.sin(angle) + im[j] * Math.cos(angle);
+      }
+      assertEquals(sumRe, fftRe[k], 1E-9);
+      assertEquals(sumIm, fftIm[k], 1E-9);
+    }
+
+    // the inverse is not normalized
+    CentWavePeakPicker.fft(fftRe, fftIm, true);
+    for (int i = 0; i < n; i++) {
+      assertEquals(re[i], fftRe[i] / n, 1E-12);
+      assertEquals(im[i], fftIm[i] / n, 1E-12);
+    }
+  }
+
+  @Test
+  public void waveletTransformOfPeak() {
+    final int scales[] = {2, 4, 6, 8};
+
+    // the wavelet has zero mean, so a constant signal has no coefficients
+    final double constant[] = new double[200];
+    Arrays.fill(constant, 1000);
+    for (double coefs[] : CentWavePeakPicker.cwt(constant, scales)) {
+      for (double c : coefs)
+        assertEquals(0, c, 1E-8);
+    }
+
+    // coefficients of a symmetric peak are highest at its apex, on every scale
+    final double peak[] = gaussian(200, 100, 4, 1000);
+    final double coefs[][] = CentWavePeakPicker.cwt(peak, scales);
+    assertEquals(scales.length, coefs.length);
+    for (int s = 0; s < scales.length; s++) {
+      assertEquals(peak.length, coefs[s].length);
+      assertEquals("Scale " + scales[s], 100, argMax(coefs[s]));
+    }
+
+    // linear and shift invariant away from the borders
+    final double shifted[] = gaussian(200, 110, 4, 2000);
+    final double shiftedCoefs[][] = CentWavePeakPicker.cwt(shifted, scales);
+    for (int s = 0; s < scales.length; s++) {
+      for (int i = 60; i < 140; i++)
+        assertEquals(2 * coefs[s][i], shiftedCoefs[s][i + 10], 1E-6);
+    }
+
+    // scales whose wavelet is longer than the extended signal are left out
+    assertEquals(2, CentWavePeakPicker.cwt(new double[40], new int[] {2, 3, 4, 5}).length);
+  }
+
+  @Test
+  public void localMaxima() {
+    final double x[] = {0, 1, 5, 1, 0, 0, 0, 2, 3, 2, 0, 0, 0, 0, 0, 0, 4, 0, 0, 0};
+    final boolean localMax[] = CentWavePeakPicker.localMaximum(x, 5);
+    assertArrayEquals(new int[] {2, 8, 16}, indexes(localMax));
+
+    // of two maxima closer than the window size only the higher one is kept
+    final double close[] = {0, 0, 3, 0, 0, 0, 5, 0, 0, 0, 0, 0, 0, 0, 0};
+    assertArrayEquals(new int[] {6}, indexes(CentWavePeakPicker.localMaximum(close, 5)));
+  }
+
+  @Test
+  public void ridgesFollowMaximaAcrossScales() {
+    final int scales[] = {2, 4, 6};
+    // one peak drifting by one position per scale, and one at a constant position
+    final boolean localMax[][] = maxima(40, new int[][] {{10, 30}, {11, 30}, {12, 30}});
+    final List<int[]> ridges = CentWavePeakPicker.getRidges(localMax, scales);
+    assertEquals(2, ridges.size());
+    assertArrayEquals(new int[] {10, 11, 12}, ridges.get(0));
+    assertArrayEquals(new int[] {30, 30, 30}, ridges.get(1));
+  }
+
+  @Test
+  public void duplicateRidgesFollowGetRidge() {
+    final int scales[] = {2, 4, 6};
+    // the ridges starting at 20 and 24 both reach the maximum at 22
+    final boolean localMax[][] = maxima(40, new int[][] {{5, 22}, {5, 22}, {5, 20, 24}});
+    final List<int[]> ridges = CentWavePeakPicker.getRidges(localMax, scales);
+
+    // The first of the equally long duplicates is kept. As in getRidge, the orphan is the ridge
+    // at the index of the longest duplicate within its group (0) in the list of all ridges, which
+    // is the ridge at 5, not the removed ridge from 24.
+    assertEquals(3, ridges.size());
+    assertArrayEquals(new int[] {5, 5, 5}, ridges.get(0));
+    assertArrayEquals(new int[] {22, 22, 20}, ridges.get(1));
+    assertArrayEquals(new int[] {5, 5}, ridges.get(2));
+  }
+
+  @Test
+  public void separatedPeaks() {
+    // two regions of interest, with no data points in between
+    final Random random = new Random(3);
+    final double scanTime[] = scanTimes(300);
+    final double intensity[] = new double[300];
+    add(intensity, gaussian(300, 80, 3, 1E5));
+    add(intensity, gaussian(300, 200, 4, 5E4));
+    for (int i = 0; i < intensity.length; i++)
+      intensity[i] = (intensity[i] < 1) ? 0 : intensity[i] * (1 + 0.02 * random.nextDouble());
+
+    for (PeakIntegrationMethod method : PeakIntegrationMethod.values()) {
+      final int peaks[][] =
+          CentWavePeakPicker.findPeaks(scanTime, intensity, PEAK_WIDTH, 10, method);
+      assertEquals(method.toString(), 2, peaks.length);
+      Arrays.sort(peaks, (a, b) -> Integer.compare(a[0], b[0]));
+      assertContains(peaks[0], 80, 3);
+      assertContains(peaks[1], 200, 4);
+    }
+  }
+
+  @Test
+  public void noPeaksInNoise() {
+    final double scanTime[] = scanTimes(300);
+    assertEquals(0, CentWavePeakPicker.findPeaks(scanTime, noise(new Random(4), 300), PEAK_WIDTH,
+        10, PeakIntegrationMethod.UseSmoothedData).length);
+    assertEquals(0, CentWavePeakPicker.findPeaks(scanTime, new double[300], PEAK_WIDTH, 10,
+        PeakIntegrationMethod.UseSmoothedData).length);
+
+    // a small peak below the signal to noise threshold
+    final double intensity[] = noise(new Random(5), 300);
+    add(intensity, gaussian(300, 150, 4, 30));
+    assertEquals(0, CentWavePeakPicker.findPeaks(scanTime, intensity, PEAK_WIDTH, 10,
+        PeakIntegrationMethod.UseSmoothedData).length);
+  }
+
+  @Test
+  public void concurrentChromatograms() {
+    final double scanTime[] = scanTimes(300);
+    final double chromatograms[][] = new double[200][];
+    for (int c = 0; c < chromatograms.length; c++) {
+      final Random random = new Random(c);
+      chromatograms[c] = noise(random, 300);
+      for (int p = 0; p < 3; p++)
+        add(chromatograms[c], gaussian(300, 30 + 240 * random.nextDouble(),
+            2 + 3 * random.nextDouble(), 1E3 + 1E5 * random.nextDouble()));
+    }
+
+    final int expected[][][] = new int[chromatograms.length][][];
+    for (int c = 0; c < chromatograms.length; c++)
+      expected[c] = CentWavePeakPicker.findPeaks(scanTime, chromatograms[c], PEAK_WIDTH, 10,
+          PeakIntegrationMethod.UseSmoothedData);
+
+    final int actual[][][] = new int[chromatograms.length][][];
+    ParallelUtils.run(4, () -> IntStream.range(0, chromatograms.length).parallel()
+        .forEach(c -> actual[c] = CentWavePeakPicker.findPeaks(scanTime, chromatograms[c],
+            PEAK_WIDTH, 10, PeakIntegrationMethod.UseSmoothedData)));
+    for (int c = 0; c < chromatograms.length; c++) {
+      assertEquals(expected[c].length, actual[c].length);
+      for (int p = 0; p < expected[c].length; p++)
+        assertArrayEquals(expected[c][p], actual[c][p]);
+    }
+  }
+
+  @Test
+  public void sameAsXcms() throws IOException {
+    for (String name : new String[] {"separated", "coeluting", "gaps"}) {
+      final double chromatogram[][] = readCsv(name + ".csv", false);
+      final double scanTime[] = new double[chromatogram.length];
+      final double intensity[] = new double[chromatogram.length];
+      for (int i = 0; i < chromatogram.length; i++) {
+        scanTime[i] = chromatogram[i][0];
+        intensity[i] = chromatogram[i][1];
+      }
+
+      for (PeakIntegrationMethod method : PeakIntegrationMethod.values()) {
+        // rtmin, rtmax (seconds) and into of each peak
+        final String reference = name + "-integrate" + method.getIndex() + ".csv";
+        final double expected[][] = readCsv(reference, true);
+        assumeTrue("xcms reference " + reference + " not generated, see reference.R",
+            expected != null);
+        Arrays.sort(expected, (a, b) -> Double.compare(a[0], b[0]));
+
+        final int actual[][] = CentWavePeakPicker.findPeaks(scanTime, intensity, XCMS_PEAK_WIDTH,
+            XCMS_SN_THRESHOLD, method);
+        Arrays.sort(actual, (a, b) -> Integer.compare(a[0], b[0]));
+
+        assertEquals(reference, expected.length, actual.length);
+        for (int p = 0; p < expected.length; p++) {
+          final String message = reference + ", peak " + Arrays.toString(expected[p]);
+          assertEquals(message, nearestScan(scanTime, expected[p][0]), actual[p][0]);
+          assertEquals(message, nearestScan(scanTime, expected[p][1]), actual[p][1]);
+          final double area = SECONDS_PER_MINUTE
+              * CentWavePeakPicker.area(scanTime, intensity, actual[p][0], actual[p][1]);
+          assertEquals(message, expected[p][2], area, 1E-6 * expected[p][2]);
+        }
+      }
+    }
+  }
+
+  private static void assertContains(int peak[], int apex, double sigma) {
+    final String message = Arrays.toString(peak);
+    assertTrue(message, peak[0] < apex - sigma && peak[1] > apex + sigma);
+    assertFalse(message, peak[0] < apex - 8 * sigma || peak[1] > apex + 8 * sigma);
+  }
+
+  /**
+   * Index of the scan at the given retention time (seconds).
+   */
+  private static int nearestScan(double scanTime[], double rtSeconds) {
+    int nearest = 0;
+    for (int i = 1; i < scanTime.length; i++) {
+      if (Math.abs(scanTime[i] * SECONDS_PER_MINUTE - rtSeconds) < Math
+          .abs(scanTime[nearest] * SECONDS_PER_MINUTE - rtSeconds))
+        nearest = i;
+    }
+    return nearest;
+  }
+
+  /**
+   * Comma separated values, one row per line. Null if the resource does not exist.
+   */
+  private double[][] readCsv(String resource, boolean header) throws IOException {
+    final InputStream is = getClass().getResourceAsStream(resource);
+    if (is == null)
+      return null;
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+      return reader.lines().skip(header ? 1 : 0).map(String::trim)
+          .filter(line -> !line.isEmpty()).map(line -> Arrays.stream(line.split(","))
+              .map(String::trim).mapToDouble(Double::parseDouble).toArray())
+          .toArray(double[][]::new);
+    }
+  }
+
+  private static double[] scanTimes(int n) {
+    final double scanTime[] = new double[n];
+    for (int i = 0; i < n; i++)
+      scanTime[i] = i * 1.0;
+    return scanTime;
+  }
+
+  private static double[] noise(Random random, int n) {
+    final double intensity[] = new double[n];
+    for (int i = 0; i < n; i++)
+      intensity[i] = 100 + 10 * random.nextDouble();
+    return intensity;
+  }
+
+  private static double[] gaussian(int n, double apex, double sigma, double height) {
+    final double y[] = new double[n];
+    for (int i = 0; i < n; i++)
+      y[i] = height * Math.exp(-0.5 * (i - apex) * (i - apex) / (sigma * sigma));
+    return y;
+  }
+
+  private static void add(double y[], double peak[]) {
+    for (int i = 0; i < y.length; i++)
+      y[i] += peak[i];
+  }
+
+  private static int argMax(double x[]) {
+    int max = 0;
+    for (int i = 1; i < x.length; i++) {
+      if (x[i] > x[max])
+        max = i;
+    }
+    return max;
+  }
+
+  private static int[] indexes(boolean x[]) {
+    return IntStream.range(0, x.length).filter(i -> x[i]).toArray();
+  }
+
+  /**
+   * Local maxima matrix [scale][position] with the given maxima positions for each scale
+   */
+  private static boolean[][] maxima(int length, int positions[][]) {
+    final boolean localMax[][] = new boolean[positions.length][length];
+    for (int s = 0; s < positions.length; s++) {
+      for (int p : positions[s])
+        localMax[s][p] = true;
+    }
+    return localMax;
+  }
+
+}
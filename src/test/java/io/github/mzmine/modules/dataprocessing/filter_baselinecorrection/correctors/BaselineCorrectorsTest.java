@@ -0,0 +1,445 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+package io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.BaselineCorrector;
+import io.github.mzmine.parameters.ParameterSet;
+
+/**
+ * Checks the Java baseline correctors: the banded Whittaker solver against a dense solve, the
+ * moving window filters against naive loops, the baselines recovered from synthetic chromatograms
+ * (known baseline plus Gaussian peaks), and the baselines of chromatogram.csv against the R
+ * packages. The R reference baselines are generated by reference.R in the test resources; the
+ * comparisons are skipped for the references that have not been generated.
+ */
+public class BaselineCorrectorsTest {
+
+  private static final int LENGTH = 500;
+
+  @Test
+  public void whittakerSmoothMatchesDenseSolve() {
+    final Random random = new Random(1);
+    for (int n : new int[] {3, 4, 5, 17, 100}) {
+      final double y[] = new double[n], w[] = new double[n];
+      for (int i = 0; i < n; i++) {
+        y[i] = 100.0 * random.nextDouble();
+        w[i] = random.nextBoolean() ? 0.01 : 0.99;
+      }
+      for (double lambda : new double[] {0.0, 1.0, 1E3, 1E6}) {
+        final double expected[] = denseWhittaker(y, w, lambda);
+        final double actual[] = AsymmetryCorrector.whittakerSmooth(y, w, lambda);
+        for (int i = 0; i < n; i++)
+          assertEquals(expected[i], actual[i], 1E-6 * (1.0 + Math.abs(expected[i])));
+      }
+    }
+  }
+
+  @Test
+  public void movingFiltersMatchNaiveLoops() {
+    final Random random = new Random(2);
+    final double y[] = new double[LENGTH];
+    for (int i = 0; i < LENGTH; i++)
+      y[i] = random.nextInt(20); // ties on purpose
+
+    for (int halfWidth : new int[] {0, 1, 5, 50, LENGTH}) {
+      final double min[] = new double[LENGTH], max[] = new double[LENGTH],
+          mean[] = new double[LENGTH];
+      for (int i = 0; i < LENGTH; i++) {
+        final int from = Math.max(0, i - halfWidth), to = Math.min(LENGTH - 1, i + halfWidth);
+        min[i] = Double.MAX_VALUE;
+        max[i] = -Double.MAX_VALUE;
+        for (int k = from; k <= to; k++) {
+          min[i] = Math.min(min[i], y[k]);
+          max[i] = Math.max(max[i], y[k]);
+          mean[i] += y[k];
+        }
+        mean[i] /= (to - from + 1);
+      }
+      assertArrayEquals(min, BaselineFilters.movingMin(y, halfWidth), 0.0);
+      assertArrayEquals(max, BaselineFilters.movingMax(y, halfWidth), 0.0);
+      assertArrayEquals(mean, BaselineFilters.movingMean(y, halfWidth), 1E-9);
+    }
+  }
+
+  @Test
+  public void median() {
+    final double values[] = {9, 1, 8, 2, 7, 3};
+    final double work[] = new double[values.length];
+    assertEquals(8.0, BaselineFilters.median(values, 0, 2, work), 0.0);
+    assertEquals(5.0, BaselineFilters.median(values, 0, 5, work), 0.0);
+    assertEquals(2.0, BaselineFilters.median(values, 3, 3, work), 0.0);
+    // the input is left untouched
+    assertArrayEquals(new double[] {9, 1, 8, 2, 7, 3}, values, 0.0);
+  }
+
+  @Test
+  public void interpolationThroughSupportPoints() {
+    final int x[] = {2, 5, 9, 10, 15};
+    final double y[] = {1.0, 4.0, 4.0, 0.0, 3.0};
+    final int n = 20;
+
+    final double linear[] = BaselineFilters.interpolate(x, y, x.length, n);
+    for (int k = 0; k < x.length; k++)
+      assertEquals(y[k], linear[x[k]], 1E-12);
+    assertEquals(2.0, linear[3], 1E-12);
+
+    // ends are held constant
+    for (int i = 0; i <= x[0]; i++)
+      assertEquals(y[0], linear[i], 0.0);
+    for (int i = x[x.length - 1]; i < n; i++)
+      assertEquals(y[y.length - 1], linear[i], 0.0);
+
+    // no support points
+    assertArrayEquals(new double[n], BaselineFilters.interpolate(x, y, 0, n), 0.0);
+  }
+
+  @Test
+  public void smoothingSplineDegreesOfFreedom() {
+    final Random random = new Random(4);
+    final int count = 60;
+    final int x[] = new int[count];
+    final double y[] = new double[count];
+    for (int k = 0; k < count; k++) {
+      x[k] = 3 * k + random.nextInt(3);
+      y[k] = 10.0 * Math.sin(x[k] / 20.0) + random.nextGaussian();
+    }
+    final int n = x[count - 1] + 1;
+
+    // all support points kept: interpolation
+    final double interpolating[] = SmoothingSpline.fit(x, y, count, n, count);
+    for (int k = 0; k < count; k++)
+      assertEquals(y[k], interpolating[x[k]], 1E-3);
+
+    // df 2: least squares line (held constant before the first support point)
+    final double line[] = SmoothingSpline.fit(x, y, count, n, 2.0);
+    final double fitted[] = leastSquaresLine(x, y, count, n);
+    for (int i = x[0]; i < n; i++)
+      assertEquals(fitted[i], line[i], 1E-3);
+
+    // generalized cross validation smooths the noise
+    final double smoothed[] = SmoothingSpline.fit(x, y, count, n, 0.0);
+    double noiseError = 0.0, smoothedError = 0.0;
+    for (int k = 0; k < count; k++) {
+      final double expected = 10.0 * Math.sin(x[k] / 20.0);
+      noiseError += (y[k] - expected) * (y[k] - expected);
+      smoothedError += (smoothed[x[k]] - expected) * (smoothed[x[k]] - expected);
+    }
+    assertTrue(smoothedError < 0.5 * noiseError);
+  }
+
+  @Test
+  public void rollingBallFollowsBaseline() {
+    final double baseline[] = baseline();
+    final double chromatogram[] = withPeaks(baseline, 0.0, 30);
+    // the structuring element must be wider than the peaks
+    final double computed[] = RollingBallCorrector.rollingBall(chromatogram, 20, 5);
+    // the local minima next to the peak tails lift the baseline slightly on the rising slope
+    assertBaseline(baseline, computed, 10.0);
+  }
+
+  @Test
+  public void asymmetricLeastSquaresFollowsBaseline() {
+    final double baseline[] = baseline();
+    final double chromatogram[] = withPeaks(baseline, 1.0, 30);
+    final double computed[] = AsymmetryCorrector.asymmetricBaseline(chromatogram, 1E5, 0.001);
+    assertBaseline(baseline, computed, 10.0);
+
+    // short chromatograms are returned unchanged
+    assertArrayEquals(new double[] {1.0, 2.0},
+        AsymmetryCorrector.asymmetricBaseline(new double[] {1.0, 2.0}, 1E5, 0.001), 0.0);
+  }
+
+  @Test
+  public void locMinLoessFollowsBaseline() {
+    // the breaks are equally spaced on the log scale, keep the short first intervals free of peaks
+    final double baseline[] = baseline();
+    final double chromatogram[] = withPeaks(baseline, 1.0, 75);
+    final ParameterSet parameters = new LocMinLoessCorrectorParameters();
+    parameters.getParameter(LocMinLoessCorrectorParameters.BW).setValue(0.2);
+    parameters.getParameter(LocMinLoessCorrectorParameters.BREAKS).setValue(1);
+    parameters.getParameter(LocMinLoessCorrectorParameters.BREAK_WIDTH).setValue(40);
+    parameters.getParameter(LocMinLoessCorrectorParameters.QNTL).setValue(0.5);
+
+    for (String method : LocMinLoessCorrectorParameters.choices) {
+      parameters.getParameter(LocMinLoessCorrectorParameters.METHOD).setValue(method);
+      final double computed[] =
+          new LocMinLoessCorrector().computeBaseline(null, chromatogram, parameters);
+      // the quantile points include the outer peak tails
+      assertBaseline(baseline, computed, 20.0);
+    }
+  }
+
+  @Test
+  public void peakDetectionFollowsBaseline() {
+    final double baseline[] = baseline();
+    final double chromatogram[] = withPeaks(baseline, 1.0, 30);
+    final ParameterSet parameters = new PeakDetectionCorrectorParameters();
+    parameters.getParameter(PeakDetectionCorrectorParameters.LEFT).setValue(10);
+    parameters.getParameter(PeakDetectionCorrectorParameters.RIGHT).setValue(30);
+    parameters.getParameter(PeakDetectionCorrectorParameters.LWIN).setValue(5);
+    parameters.getParameter(PeakDetectionCorrectorParameters.RWIN).setValue(10);
+    parameters.getParameter(PeakDetectionCorrectorParameters.SNMINIMUM).setValue(0.5);
+    parameters.getParameter(PeakDetectionCorrectorParameters.MONO).setValue(0.0);
+    parameters.getParameter(PeakDetectionCorrectorParameters.MULTIPLIER).setValue(5.0);
+
+    final double computed[] =
+        new PeakDetectionCorrector().computeBaseline(null, chromatogram, parameters);
+    assertBaseline(baseline, computed, 15.0);
+  }
+
+  @Test
+  public void rubberBandFollowsBaseline() {
+    // the rubber band lies below a convex baseline
+    final double baseline[] = new double[LENGTH];
+    for (int i = 0; i < LENGTH; i++) {
+      final double x = (i - 250.0) / 250.0;
+      baseline[i] = 50.0 + 100.0 * x * x;
+    }
+    final double chromatogram[] = withPeaks(baseline, 0.0, 30);
+    final ParameterSet parameters = new RubberBandCorrectorParameters();
+    parameters.getParameter(RubberBandCorrectorParameters.NOISE).setValue(0.0);
+    parameters.getParameter(RubberBandCorrectorParameters.AUTO_NOISE).setValue(false);
+    parameters.getParameter(RubberBandCorrectorParameters.DF).setValue(0.0);
+    parameters.getParameter(RubberBandCorrectorParameters.BEND_FACTOR).setValue(0.0);
+
+    for (boolean spline : new boolean[] {false, true}) {
+      parameters.getParameter(RubberBandCorrectorParameters.SPLINE).setValue(spline);
+      final double computed[] =
+          new RubberBandCorrector().computeBaseline(null, chromatogram, parameters);
+      assertBaseline(baseline, computed, 2.0);
+    }
+  }
+
+  @Test
+  public void asymmetryMatchesR() throws IOException {
+    final ParameterSet parameters = new AsymmetryCorrectorParameters();
+    parameters.getParameter(AsymmetryCorrectorParameters.SMOOTHING).setValue(1E5);
+    parameters.getParameter(AsymmetryCorrectorParameters.ASYMMETRY).setValue(0.001);
+    assertMatchesR("asymmetry", new AsymmetryCorrector(), parameters, 0.01);
+  }
+
+  @Test
+  public void rollingBallMatchesR() throws IOException {
+    final ParameterSet parameters = new RollingBallCorrectorParameters();
+    parameters.getParameter(RollingBallCorrectorParameters.MIN_MAX_WIDTH).setValue(20);
+    parameters.getParameter(RollingBallCorrectorParameters.SMOOTHING).setValue(5);
+    assertMatchesR("rollingball", new RollingBallCorrector(), parameters, 0.01);
+  }
+
+  @Test
+  public void peakDetectionMatchesR() throws IOException {
+    final ParameterSet parameters = new PeakDetectionCorrectorParameters();
+    parameters.getParameter(PeakDetectionCorrectorParameters.LEFT).setValue(10);
+    parameters.getParameter(PeakDetectionCorrectorParameters.RIGHT).setValue(30);
+    parameters.getParameter(PeakDetectionCorrectorParameters.LWIN).setValue(5);
+    parameters.getParameter(PeakDetectionCorrectorParameters.RWIN).setValue(10);
+    parameters.getParameter(PeakDetectionCorrectorParameters.SNMINIMUM).setValue(0.5);
+    parameters.getParameter(PeakDetectionCorrectorParameters.MONO).setValue(0.0);
+    parameters.getParameter(PeakDetectionCorrectorParameters.MULTIPLIER).setValue(5.0);
+    assertMatchesR("peakdetection", new PeakDetectionCorrector(), parameters, 0.01);
+  }
+
+  @Test
+  public void rubberBandMatchesR() throws IOException {
+    final ParameterSet parameters = new RubberBandCorrectorParameters();
+    parameters.getParameter(RubberBandCorrectorParameters.NOISE).setValue(0.0);
+    parameters.getParameter(RubberBandCorrectorParameters.AUTO_NOISE).setValue(false);
+    parameters.getParameter(RubberBandCorrectorParameters.BEND_FACTOR).setValue(0.0);
+
+    parameters.getParameter(RubberBandCorrectorParameters.SPLINE).setValue(false);
+    parameters.getParameter(RubberBandCorrectorParameters.DF).setValue(0.0);
+    assertMatchesR("rubberband-linear", new RubberBandCorrector(), parameters, 0.01);
+
+    // smooth.spline drops knots for more than 49 support points
+    parameters.getParameter(RubberBandCorrectorParameters.SPLINE).setValue(true);
+    assertMatchesR("rubberband-gcv", new RubberBandCorrector(), parameters, 1.0);
+    parameters.getParameter(RubberBandCorrectorParameters.DF).setValue(20.0);
+    assertMatchesR("rubberband-df20", new RubberBandCorrector(), parameters, 1.0);
+  }
+
+  @Test
+  public void locMinLoessMatchesR() throws IOException {
+    final ParameterSet parameters = new LocMinLoessCorrectorParameters();
+    parameters.getParameter(LocMinLoessCorrectorParameters.BW).setValue(0.2);
+    parameters.getParameter(LocMinLoessCorrectorParameters.BREAKS).setValue(1);
+    parameters.getParameter(LocMinLoessCorrectorParameters.BREAK_WIDTH).setValue(40);
+    parameters.getParameter(LocMinLoessCorrectorParameters.QNTL).setValue(0.5);
+
+    parameters.getParameter(LocMinLoessCorrectorParameters.METHOD).setValue("approx");
+    assertMatchesR("locminloess-approx", new LocMinLoessCorrector(), parameters, 0.01);
+
+    // R's loess interpolates the local fits computed at the vertices of a k-d tree
+    parameters.getParameter(LocMinLoessCorrectorParameters.METHOD).setValue("loess");
+    assertMatchesR("locminloess-loess", new LocMinLoessCorrector(), parameters, 2.0);
+  }
+
+  /**
+   * Slowly rising and curving baseline.
+   */
+  private static double[] baseline() {
+    final double baseline[] = new double[LENGTH];
+    for (int i = 0; i < LENGTH; i++)
+      baseline[i] = 100.0 + 0.2 * i + 20.0 * Math.sin(i / 80.0);
+    return baseline;
+  }
+
+  /**
+   * Adds Gaussian peaks (sigma 3 scans, heights 500 to 5000) and uniform noise of the given
+   * amplitude.
+   */
+  private static double[] withPeaks(final double baseline[], final double noise,
+      final int firstPeak) {
+    final Random random = new Random(3);
+    final double chromatogram[] = baseline.clone();
+    for (int center = firstPeak; center < LENGTH - 20; center += 60) {
+      final double height = 500.0 + 4500.0 * random.nextDouble();
+      for (int i = 0; i < LENGTH; i++) {
+        final double z = (i - center) / 3.0;
+        chromatogram[i] += height * Math.exp(-0.5 * z * z);
+      }
+    }
+    for (int i = 0; i < LENGTH; i++)
+      chromatogram[i] += noise * random.nextDouble();
+    return chromatogram;
+  }
+
+  /**
+   * Compares the baselines away from the chromatogram ends, where the window based methods are
+   * expected to drift.
+   */
+  private static void assertBaseline(final double expected[], final double actual[],
+      final double tolerance) {
+    assertEquals(expected.length, actual.length);
+    final int margin = 25;
+    double maxError = 0.0;
+    for (int i = margin; i < expected.length - margin; i++)
+      maxError = Math.max(maxError, Math.abs(expected[i] - actual[i]));
+    assertTrue("maximum deviation " + maxError, maxError <= tolerance);
+  }
+
+  /**
+   * Compares the baseline of chromatogram.csv with the R reference baseline [name].csv, over the
+   * whole chromatogram.
+   */
+  private void assertMatchesR(final String name, final BaselineCorrector corrector,
+      final ParameterSet parameters, final double tolerance) throws IOException {
+    final double expected[] = readValues(name + ".csv");
+    assumeTrue("R reference " + name + ".csv not generated, see reference.R", expected != null);
+    final double actual[] = corrector.computeBaseline(null, readValues("chromatogram.csv"),
+        parameters);
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++)
+      assertEquals(name + " at scan " + (i + 1), expected[i], actual[i], tolerance);
+  }
+
+  /**
+   * One value per line, null if the resource does not exist.
+   */
+  private double[] readValues(final String resource) throws IOException {
+    final InputStream is = getClass().getResourceAsStream(resource);
+    if (is == null)
+      return null;
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+      return reader.lines().map(String::trim).filter(line -> !line.isEmpty())
+          .mapToDouble(Double::parseDouble).toArray();
+    }
+  }
+
+  /**
+   * Least squares line through the support points, evaluated at positions 0..n-1.
+   */
+  private static double[] leastSquaresLine(final int x[], final double y[], final int count,
+      final int n) {
+    double sx = 0.0, sy = 0.0, sxx = 0.0, sxy = 0.0;
+    for (int k = 0; k < count; k++) {
+      sx += x[k];
+      sy += y[k];
+      sxx += (double) x[k] * x[k];
+      sxy += x[k] * y[k];
+    }
+    final double slope = (count * sxy - sx * sy) / (count * sxx - sx * sx);
+    final double intercept = (sy - slope * sx) / count;
+    final double line[] = new double[n];
+    for (int i = 0; i < n; i++)
+      line[i] = intercept + slope * i;
+    return line;
+  }
+
+  /**
+   * Solves (W + lambda * D'D) z = W y with a dense matrix and Gaussian elimination.
+   */
+  private static double[] denseWhittaker(final double y[], final double w[],
+      final double lambda) {
+    final int n = y.length;
+    final double a[][] = new double[n][n];
+    for (int k = 0; k + 2 < n; k++) {
+      final double row[] = {1.0, -2.0, 1.0};
+      for (int i = 0; i < 3; i++)
+        for (int j = 0; j < 3; j++)
+          a[k + i][k + j] += lambda * row[i] * row[j];
+    }
+    final double b[] = new double[n];
+    for (int i = 0; i < n; i++) {
+      a[i][i] += w[i];
+      b[i] = w[i] * y[i];
+    }
+
+    for (int col = 0; col < n; col++) {
+      int pivot = col;
+      for (int r = col + 1; r < n; r++)
+        if (Math.abs(a[r][col]) > Math.abs(a[pivot][col]))
+          pivot = r;
+      final double swap[] = a[col];
+      a[col] = a[pivot];
+      a[pivot] = swap;
+      final double t = b[col];
+      b[col] = b[pivot];
+      b[pivot] = t;
+      for (int r = col + 1; r < n; r++) {
+        final double factor = a[r][col] / a[col][col];
+        for (int c = col; c < n; c++)
+          a[r][c] -= factor * a[col][c];
+        b[r] -= factor * b[col];
+      }
+    }
+    final double z[] = new double[n];
+    for (int r = n - 1; r >= 0; r--) {
+      double sum = b[r];
+      for (int c = r + 1; c < n; c++)
+        sum -= a[r][c] * z[c];
+      z[r] = sum / a[r][r];
+    }
+    return z;
+  }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.gapfill_peakfinder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.Feature;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PeakList;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Compares the gaps filled by several threads, which share the units of raw data files and row
+ * ranges of one {@link GapFillingScheduler}, with those filled by a single thread.
+ */
+public class GapFillingSchedulerTest {
+
+  private static final int NUM_FILES = 3;
+  private static final int NUM_SCANS = 100;
+  private static final int NUM_ROWS = 1200;
+  private static final int NUM_THREADS = 8;
+
+  private static final MZTolerance MZ_TOLERANCE = new MZTolerance(0.005, 10);
+  private static final RTTolerance RT_TOLERANCE = new RTTolerance(true, 0.05);
+
+  private static List<RawDataFileImpl> files = new ArrayList<>();
+  private static List<RawDataFile> dataFiles = new ArrayList<>();
+  private static double rowMz[] = new double[NUM_ROWS];
+  private static double rowRt[] = new double[NUM_ROWS];
+
+  @BeforeClass
+  public static void createScans() throws IOException {
+
+    final Random random = new Random(11);
+
+    // One Gaussian trace per row, missing in some of the files
+    final double traceApex[] = new double[NUM_ROWS];
+    for (int r = 0; r < NUM_ROWS; r++) {
+      rowMz[r] = 100 + 900 * random.nextDouble();
+      traceApex[r] = NUM_SCANS * random.nextDouble();
+      rowRt[r] = 0.01 * (traceApex[r] + 2 * random.nextGaussian());
+    }
+
+    for (int f = 0; f < NUM_FILES; f++) {
+      final RawDataFileImpl file = new RawDataFileImpl("scheduler-test-" + f);
+      for (int s = 0; s < NUM_SCANS; s++) {
+        final List<DataPoint> dataPoints = new ArrayList<>();
+        for (int r = f; r < NUM_ROWS; r += 2) {
+          final double intensity =
+              Math.round(1e4 * Math.exp(-0.5 * Math.pow((s - traceApex[r]) / 4.0, 2)));
+          if (intensity < 10)
+            continue;
+          dataPoints.add(new SimpleDataPoint(rowMz[r] + 0.0005 * random.nextGaussian(), intensity));
+        }
+        dataPoints.sort((a, b) -> Double.compare(a.getMZ(), b.getMZ()));
+
+        file.addScan(new SimpleScan(file, s + 1, 1, 0.01 * s, 0, 0, new int[0],
+            dataPoints.toArray(new DataPoint[0]), MassSpectrumType.CENTROIDED,
+            PolarityType.POSITIVE, "", Range.closed(100.0, 1000.0)));
+      }
+      files.add(file);
+      dataFiles.add(file.finishWriting());
+    }
+  }
+
+  @AfterClass
+  public static void close() {
+    for (RawDataFileImpl file : files)
+      file.close();
+  }
+
+  /**
+   * @return feature list of rows with an average m/z and RT, but without features
+   */
+  private static PeakList createPeakList(String name) {
+    final SimplePeakList peakList = new SimplePeakList(name, dataFiles);
+    for (int r = 0; r < NUM_ROWS; r++) {
+      final SimplePeakListRow row = new SimplePeakListRow(r + 1);
+      row.setAverageMZ(rowMz[r]);
+      row.setAverageRT(rowRt[r]);
+      peakList.addRow(row);
+    }
+    return peakList;
+  }
+
+  @Test
+  public void sameGapsAsSingleThread() throws InterruptedException {
+
+    final PeakList peakList = createPeakList("gaps");
+
+    final PeakList expected = createPeakList("single thread");
+    final GapFillingScheduler single =
+        new GapFillingScheduler(peakList, expected, MZ_TOLERANCE, RT_TOLERANCE, 0.2, 1);
+    assertEquals(NUM_FILES, single.getNumberOfUnits());
+    assertEquals(NUM_FILES, single.processUnits(() -> false));
+
+    // More threads than files split the rows of each file into ranges
+    final PeakList actual = createPeakList("threads");
+    final GapFillingScheduler scheduler =
+        new GapFillingScheduler(peakList, actual, MZ_TOLERANCE, RT_TOLERANCE, 0.2, NUM_THREADS);
+    assertEquals(NUM_FILES * 2, scheduler.getNumberOfUnits());
+    final Thread threads[] = new Thread[NUM_THREADS];
+    for (int t = 0; t < NUM_THREADS; t++) {
+      threads[t] = new Thread(() -> scheduler.processUnits(() -> false));
+      threads[t].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    assertEquals(1.0, scheduler.getFinishedPercentage(), 0.0);
+
+    int filled = 0;
+    for (int r = 0; r < NUM_ROWS; r++) {
+      for (RawDataFile dataFile : dataFiles) {
+        final Feature expectedPeak = expected.getRow(r).getPeak(dataFile);
+        final Feature actualPeak = actual.getRow(r).getPeak(dataFile);
+        if (expectedPeak == null) {
+          assertNull(actualPeak);
+          continue;
+        }
+        filled++;
+        assertArrayEquals(expectedPeak.getScanNumbers(), actualPeak.getScanNumbers());
+        assertEquals(expectedPeak.getMZ(), actualPeak.getMZ(), 0.0);
+        assertEquals(expectedPeak.getHeight(), actualPeak.getHeight(), 0.0);
+        assertEquals(expectedPeak.getArea(), actualPeak.getArea(), 0.0);
+      }
+    }
+    assertTrue(filled > 0);
+  }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.gapfill_peakfinder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.Feature;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PeakListRow;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Compares the gaps filled through {@link GapIndex} with those filled by the previous loop, which
+ * offered every scan to every gap, on a fixed scan set.
+ */
+public class GapIndexTest {
+
+  private static final int NUM_SCANS = 200;
+  private static final int NUM_GAPS = 300;
+  private static final double INT_TOLERANCE = 0.2;
+
+  private static RawDataFileImpl file;
+  private static RawDataFile dataFile;
+  private static List<Range<Double>> mzRanges = new ArrayList<>();
+  private static List<Range<Double>> rtRanges = new ArrayList<>();
+
+  @BeforeClass
+  public static void createScans() throws IOException {
+
+    final Random random = new Random(7);
+    file = new RawDataFileImpl("gap-test");
+
+    // Gaussian traces plus noise peaks
+    final int numTraces = 120;
+    final double traceMz[] = new double[numTraces];
+    final double traceApex[] = new double[numTraces];
+    for (int t = 0; t < numTraces; t++) {
+      traceMz[t] = 100 + 900 * random.nextDouble();
+      traceApex[t] = NUM_SCANS * random.nextDouble();
+    }
+
+    for (int s = 0; s < NUM_SCANS; s++) {
+      final List<DataPoint> dataPoints = new ArrayList<>();
+      for (int t = 0; t < numTraces; t++) {
+        final double intensity =
+            Math.round(1e4 * Math.exp(-0.5 * Math.pow((s - traceApex[t]) / 5.0, 2)));
+        if (intensity < 10)
+          continue;
+        dataPoints.add(new SimpleDataPoint(traceMz[t] + 0.0005 * random.nextGaussian(), intensity));
+      }
+      for (int n = 0; n < 300; n++)
+        dataPoints.add(new SimpleDataPoint(100 + 900 * random.nextDouble(),
+            Math.round(5 + 100 * random.nextDouble())));
+      dataPoints.sort((a, b) -> Double.compare(a.getMZ(), b.getMZ()));
+
+      file.addScan(new SimpleScan(file, s + 1, 1, 0.01 * s, 0, 0, new int[0],
+          dataPoints.toArray(new DataPoint[0]), MassSpectrumType.CENTROIDED,
+          PolarityType.POSITIVE, "", Range.closed(100.0, 1000.0)));
+    }
+    dataFile = file.finishWriting();
+
+    // Gaps on the traces, on noise only, overlapping in m/z and RT, and outside of the scans
+    for (int g = 0; g < NUM_GAPS; g++) {
+      final double mz, rt;
+      if (g % 3 == 0) {
+        mz = 100 + 900 * random.nextDouble();
+        rt = 0.01 * (NUM_SCANS + 20) * random.nextDouble() - 0.1;
+      } else {
+        final int t = random.nextInt(numTraces);
+        mz = traceMz[t];
+        rt = 0.01 * (traceApex[t] + 4 * random.nextGaussian());
+      }
+      final double mzTolerance = g % 5 == 0 ? 0.5 : 0.005;
+      final double rtTolerance = 0.02 + 0.1 * random.nextDouble();
+      mzRanges.add(Range.closed(mz - mzTolerance, mz + mzTolerance));
+      rtRanges.add(Range.closed(rt - rtTolerance, rt + rtTolerance));
+    }
+  }
+
+  @AfterClass
+  public static void close() {
+    file.close();
+  }
+
+  @Test
+  public void sameGapsAsPerGapLoop() {
+
+    final List<PeakListRow> expectedRows = new ArrayList<>();
+    final List<Gap> expectedGaps = new ArrayList<>();
+    final List<PeakListRow> actualRows = new ArrayList<>();
+    final List<Gap> actualGaps = new ArrayList<>();
+    for (int g = 0; g < NUM_GAPS; g++) {
+      final PeakListRow expectedRow = new SimplePeakListRow(g + 1);
+      expectedRows.add(expectedRow);
+      expectedGaps.add(
+          new Gap(expectedRow, dataFile, mzRanges.get(g), rtRanges.get(g), INT_TOLERANCE));
+      final PeakListRow actualRow = new SimplePeakListRow(g + 1);
+      actualRows.add(actualRow);
+      actualGaps.add(
+          new Gap(actualRow, dataFile, mzRanges.get(g), rtRanges.get(g), INT_TOLERANCE));
+    }
+
+    // Previous implementation: every scan is offered to every gap
+    for (int scanNumber : dataFile.getScanNumbers(1)) {
+      final Scan scan = dataFile.getScan(scanNumber);
+      for (Gap gap : expectedGaps)
+        gap.offerNextScan(scan);
+    }
+    for (Gap gap : expectedGaps)
+      gap.noMoreOffers();
+
+    final GapIndex gapIndex = new GapIndex(actualGaps);
+    for (int scanNumber : dataFile.getScanNumbers(1))
+      gapIndex.offerNextScan(dataFile.getScan(scanNumber));
+    gapIndex.noMoreOffers();
+
+    int filled = 0;
+    for (int g = 0; g < NUM_GAPS; g++) {
+      final Feature expected = expectedRows.get(g).getPeak(dataFile);
+      final Feature actual = actualRows.get(g).getPeak(dataFile);
+      if (expected == null) {
+        assertNull(actual);
+        continue;
+      }
+      filled++;
+      assertArrayEquals(expected.getScanNumbers(), actual.getScanNumbers());
+      assertEquals(expected.getMZ(), actual.getMZ(), 0.0);
+      assertEquals(expected.getRT(), actual.getRT(), 0.0);
+      assertEquals(expected.getHeight(), actual.getHeight(), 0.0);
+      assertEquals(expected.getArea(), actual.getArea(), 0.0);
+      assertEquals(expected.getRepresentativeScanNumber(), actual.getRepresentativeScanNumber());
+      for (int scanNumber : expected.getScanNumbers()) {
+        final DataPoint expectedDp = expected.getDataPoint(scanNumber);
+        final DataPoint actualDp = actual.getDataPoint(scanNumber);
+        assertEquals(expectedDp.getMZ(), actualDp.getMZ(), 0.0);
+        assertEquals(expectedDp.getIntensity(), actualDp.getIntensity(), 0.0);
+      }
+    }
+    assertTrue(filled > 0);
+  }
+
+}
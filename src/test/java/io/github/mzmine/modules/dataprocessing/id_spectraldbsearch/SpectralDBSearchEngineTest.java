@@ -0,0 +1,541 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.id_spectraldbsearch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import javax.annotation.Nonnull;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Range;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.MassList;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PeakIdentity;
+import io.github.mzmine.datamodel.PeakListRow;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimpleFeature;
+import io.github.mzmine.datamodel.impl.SimpleMassList;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.main.MZmineConfiguration;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.main.impl.MZmineConfigurationImpl;
+import io.github.mzmine.modules.MZmineProcessingStep;
+import io.github.mzmine.modules.dataprocessing.id_spectraldbsearch.sort.SortSpectralDBIdentitiesTask;
+import io.github.mzmine.modules.impl.MZmineProcessingStepImpl;
+import io.github.mzmine.modules.visualization.spectra.simplespectra.datapointprocessing.isotopes.MassListDeisotoper;
+import io.github.mzmine.modules.visualization.spectra.simplespectra.datapointprocessing.isotopes.MassListDeisotoperParameters;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.taskcontrol.AbstractTask;
+import io.github.mzmine.util.ParallelUtils;
+import io.github.mzmine.util.exceptions.MissingMassListException;
+import io.github.mzmine.util.scans.ScanAlignment;
+import io.github.mzmine.util.scans.ScanUtils;
+import io.github.mzmine.util.scans.similarity.SpectralSimilarity;
+import io.github.mzmine.util.scans.similarity.SpectralSimilarityFunction;
+import io.github.mzmine.util.scans.similarity.impl.composite.CompositeCosineSpectralSimilarity;
+import io.github.mzmine.util.scans.similarity.impl.composite.CompositeCosineSpectralSimilarityParameters;
+import io.github.mzmine.util.scans.similarity.impl.cosine.WeightedCosineSpectralSimilarity;
+import io.github.mzmine.util.scans.similarity.impl.cosine.WeightedCosineSpectralSimilarityParameters;
+import io.github.mzmine.util.spectraldb.entry.DBEntryField;
+import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
+import io.github.mzmine.util.spectraldb.entry.SpectralDBPeakIdentity;
+import io.github.mzmine.util.spectraldb.parser.SpectralLibraryCache;
+
+/**
+ * Matches rows with {@link SpectralDBSearchEngine} on several threads and compares the identities
+ * with those of the sequential search which scored every row against every library entry, as
+ * RowsSpectralMatchTask did before the engine. Rows share scans and library spectra are unsorted,
+ * so concurrent rows which modified the spectra would change the results. A search of the
+ * {@link SpectralLibraryCache} of a library must find the same identities as a search of the parsed
+ * library.
+ */
+public class SpectralDBSearchEngineTest {
+
+  private static final String MASS_LIST = "masses";
+  private static final int NUM_ENTRIES = 300;
+  private static final int NUM_ROWS = 120;
+  private static final double ISOTOPE_DISTANCE = 1.003355;
+
+  private static MZmineConfiguration previousConfiguration;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @BeforeClass
+  public static void setConfiguration() throws Exception {
+    // the search parameters read the intensity format of the configuration
+    final Field field = MZmineCore.class.getDeclaredField("configuration");
+    field.setAccessible(true);
+    previousConfiguration = (MZmineConfiguration) field.get(null);
+    field.set(null, new MZmineConfigurationImpl());
+  }
+
+  @AfterClass
+  public static void resetConfiguration() throws Exception {
+    final Field field = MZmineCore.class.getDeclaredField("configuration");
+    field.setAccessible(true);
+    field.set(null, previousConfiguration);
+  }
+
+  @Test
+  public void bestMS2Scan() throws Exception {
+    compareSearches(createParameters(2, false, false, true, false, false));
+  }
+
+  @Test
+  public void allMS2ScansDeisotoped() throws Exception {
+    compareSearches(createParameters(2, true, true, true, false, false));
+  }
+
+  @Test
+  public void allMS2ScansNotCroppedWithRT() throws Exception {
+    compareSearches(createParameters(2, true, false, false, true, false));
+  }
+
+  @Test
+  public void compositeCosine() throws Exception {
+    compareSearches(createParameters(2, true, false, true, false, true));
+  }
+
+  @Test
+  public void ms1Deisotoped() throws Exception {
+    compareSearches(createParameters(1, false, true, true, true, false));
+  }
+
+  @Test
+  public void cachedLibraryMS2() throws Exception {
+    compareCachedSearch(createParameters(2, true, true, true, false, false));
+  }
+
+  @Test
+  public void cachedLibraryMS1() throws Exception {
+    compareCachedSearch(createParameters(1, false, false, true, false, false));
+  }
+
+  private void compareCachedSearch(ParameterSet parameters) throws Exception {
+    final List<SpectralDBEntry> library = createLibrary(new Random(1));
+    final File libraryFile = writeMsp(library);
+    final AbstractTask task = new AbstractTask() {
+      @Override
+      public void run() {}
+
+      @Override
+      public String getTaskDescription() {
+        return "Read library";
+      }
+
+      @Override
+      public double getFinishedPercentage() {
+        return 0;
+      }
+    };
+
+    SpectralLibraryCache.setCacheDirectory(folder.newFolder("cache"), 1L << 30);
+    try {
+      // parsing writes the cache
+      final List<SpectralDBEntry> parsed = LocalSpectralDBSearchTask.parseFile(task, libraryFile);
+      assertEquals(NUM_ENTRIES, parsed.size());
+      final SpectralLibraryCache cache = SpectralLibraryCache.open(libraryFile);
+      assertNotNull(cache);
+
+      final PeakListRow expectedRows[] = createRows(new Random(2), library);
+      final SpectralDBSearchEngine parsedEngine = new SpectralDBSearchEngine(parameters, parsed);
+      for (PeakListRow row : expectedRows)
+        parsedEngine.matchRow(row, null);
+
+      final SpectralDBSearchEngine cachedEngine =
+          LocalSpectralDBSearchTask.createEngine(task, parameters, libraryFile);
+      assertEquals(NUM_ENTRIES, cachedEngine.getEntryCount());
+      final PeakListRow rows[] = createRows(new Random(2), library);
+      ParallelUtils.run(4, () -> Arrays.stream(rows).parallel().forEach(row -> {
+        try {
+          cachedEngine.matchRow(row, null);
+        } catch (MissingMassListException e) {
+          throw new IllegalStateException(e);
+        }
+      }));
+
+      int matches = 0;
+      for (int r = 0; r < rows.length; r++) {
+        final PeakIdentity expected[] = expectedRows[r].getPeakIdentities();
+        final PeakIdentity actual[] = rows[r].getPeakIdentities();
+        assertEquals("Row " + r, expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+          final SpectralDBPeakIdentity e = (SpectralDBPeakIdentity) expected[i];
+          final SpectralDBPeakIdentity a = (SpectralDBPeakIdentity) actual[i];
+          final String message = "Row " + r + ", identity " + i;
+          assertEquals(message, e.getEntry().getField(DBEntryField.NAME),
+              a.getEntry().getField(DBEntryField.NAME));
+          assertArrayEquals(message, e.getEntry().getDataPoints(), a.getEntry().getDataPoints());
+          assertEquals(message, e.getQueryScan().getScanNumber(), a.getQueryScan().getScanNumber());
+          assertEquals(message, e.getSimilarity().getScore(), a.getSimilarity().getScore(), 0d);
+          matches++;
+        }
+      }
+      assertTrue("Matches: " + matches, matches > NUM_ROWS / 2);
+    } finally {
+      SpectralLibraryCache.setCacheDirectory(null, 0);
+    }
+  }
+
+  /**
+   * Writes the library in the NIST msp format
+   */
+  private File writeMsp(List<SpectralDBEntry> library) throws IOException {
+    final File file = folder.newFile("library.msp");
+    try (PrintWriter out = new PrintWriter(file)) {
+      for (SpectralDBEntry entry : library) {
+        out.println("Name: " + entry.getField(DBEntryField.NAME).get());
+        if (entry.getPrecursorMZ() != null)
+          out.println("PrecursorMZ: " + entry.getPrecursorMZ());
+        if (entry.getField(DBEntryField.RT).isPresent())
+          out.println("RT: " + entry.getField(DBEntryField.RT).get());
+        for (DataPoint dp : entry.getDataPoints())
+          out.println(dp.getMZ() + " " + dp.getIntensity());
+        out.println();
+      }
+    }
+    return file;
+  }
+
+  private static void compareSearches(ParameterSet parameters) throws Exception {
+
+    final List<SpectralDBEntry> library = createLibrary(new Random(1));
+    final DataPoint libraryDataPoints[][] = new DataPoint[library.size()][];
+    for (int i = 0; i < libraryDataPoints.length; i++)
+      libraryDataPoints[i] = library.get(i).getDataPoints().clone();
+
+    final PeakListRow expectedRows[] = createRows(new Random(2), library);
+    for (PeakListRow row : expectedRows)
+      matchAllEntries(parameters, library, row);
+
+    final SpectralDBSearchEngine engine = new SpectralDBSearchEngine(parameters, library);
+    for (int run = 0; run < 2; run++) {
+      final PeakListRow rows[] = createRows(new Random(2), library);
+      ParallelUtils.run(4, () -> Arrays.stream(rows).parallel().forEach(row -> {
+        try {
+          engine.matchRow(row, null);
+        } catch (MissingMassListException e) {
+          throw new IllegalStateException(e);
+        }
+      }));
+
+      int matches = 0;
+      for (int r = 0; r < rows.length; r++) {
+        final PeakIdentity expected[] = expectedRows[r].getPeakIdentities();
+        final PeakIdentity actual[] = rows[r].getPeakIdentities();
+        assertEquals("Row " + r, expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+          final SpectralDBPeakIdentity e = (SpectralDBPeakIdentity) expected[i];
+          final SpectralDBPeakIdentity a = (SpectralDBPeakIdentity) actual[i];
+          final String message = "Row " + r + ", identity " + i;
+          assertSame(message, e.getEntry(), a.getEntry());
+          assertEquals(message, e.getQueryScan().getScanNumber(), a.getQueryScan().getScanNumber());
+          assertEquals(message, e.getSimilarity().getScore(), a.getSimilarity().getScore(), 0d);
+          assertEquals(message, e.getSimilarity().getOverlap(), a.getSimilarity().getOverlap());
+          matches++;
+        }
+      }
+      assertTrue("Matches: " + matches, matches > NUM_ROWS / 2);
+    }
+
+    // the library entries are never modified
+    for (int i = 0; i < libraryDataPoints.length; i++)
+      assertArrayEquals(libraryDataPoints[i], library.get(i).getDataPoints());
+  }
+
+  /**
+   * The sequential search of RowsSpectralMatchTask before the engine: every library entry is
+   * prepared and scored for every row
+   */
+  private static void matchAllEntries(ParameterSet parameters, List<SpectralDBEntry> library,
+      PeakListRow row) throws MissingMassListException {
+    final MZTolerance mzToleranceSpectra =
+        parameters.getParameter(LocalSpectralDBSearchParameters.mzTolerance).getValue();
+    final MZTolerance mzTolerancePrecursor =
+        parameters.getParameter(LocalSpectralDBSearchParameters.mzTolerancePrecursor).getValue();
+    final int msLevel = parameters.getParameter(LocalSpectralDBSearchParameters.msLevel).getValue();
+    final double noiseLevel =
+        parameters.getParameter(LocalSpectralDBSearchParameters.noiseLevel).getValue();
+    final boolean useRT =
+        parameters.getParameter(LocalSpectralDBSearchParameters.rtTolerance).getValue();
+    final RTTolerance rtTolerance = parameters
+        .getParameter(LocalSpectralDBSearchParameters.rtTolerance).getEmbeddedParameter()
+        .getValue();
+    final int minMatch =
+        parameters.getParameter(LocalSpectralDBSearchParameters.minMatch).getValue();
+    final MZmineProcessingStep<SpectralSimilarityFunction> simFunction =
+        parameters.getParameter(LocalSpectralDBSearchParameters.similarityFunction).getValue();
+    final boolean removeIsotopes =
+        parameters.getParameter(LocalSpectralDBSearchParameters.deisotoping).getValue();
+    final ParameterSet deisotopeParam = parameters
+        .getParameter(LocalSpectralDBSearchParameters.deisotoping).getEmbeddedParameters();
+    final boolean cropSpectraToOverlap =
+        parameters.getParameter(LocalSpectralDBSearchParameters.cropSpectraToOverlap).getValue();
+
+    final List<Scan> scans = SpectralDBSearchEngine.getScans(row, parameters);
+    final List<DataPoint[]> rowMassLists = new ArrayList<>();
+    for (Scan scan : scans) {
+      DataPoint rowMassList[] =
+          ScanUtils.getFiltered(scan.getMassList(MASS_LIST).getDataPoints(), noiseLevel);
+      if (removeIsotopes)
+        rowMassList = MassListDeisotoper.filterIsotopes(rowMassList, deisotopeParam);
+      rowMassLists.add(rowMassList);
+    }
+
+    for (SpectralDBEntry ident : library) {
+      final Double rt = (Double) ident.getField(DBEntryField.RT).orElse(null);
+      if (useRT && rt != null && !rtTolerance.checkWithinTolerance(rt, row.getAverageRT()))
+        continue;
+      if (msLevel > 1 && (ident.getPrecursorMZ() == null || !mzTolerancePrecursor
+          .checkWithinTolerance(ident.getPrecursorMZ(), row.getAverageMZ())))
+        continue;
+
+      SpectralDBPeakIdentity best = null;
+      for (int i = 0; i < scans.size(); i++) {
+        DataPoint libraryDataPoints[] = ident.getDataPoints();
+        if (removeIsotopes)
+          libraryDataPoints = MassListDeisotoper.filterIsotopes(libraryDataPoints, deisotopeParam);
+        DataPoint query[] = rowMassLists.get(i);
+        if (cropSpectraToOverlap) {
+          DataPoint cropped[][] =
+              ScanAlignment.cropToOverlap(mzToleranceSpectra, libraryDataPoints, query);
+          libraryDataPoints = cropped[0];
+          query = cropped[1];
+        }
+        final SpectralSimilarity sim = simFunction.getModule().getSimilarity(
+            simFunction.getParameterSet(), mzToleranceSpectra, minMatch, libraryDataPoints, query);
+        if (sim != null && (best == null || best.getSimilarity().getScore() < sim.getScore())) {
+          best = new SpectralDBPeakIdentity(scans.get(i), MASS_LIST, ident, sim,
+              SpectralDBSearchEngine.METHOD);
+        }
+      }
+      if (best != null)
+        row.addPeakIdentity(best, false);
+    }
+    SortSpectralDBIdentitiesTask.sortIdentities(row);
+  }
+
+  private static ParameterSet createParameters(int msLevel, boolean allMS2Spectra,
+      boolean deisotoping, boolean crop, boolean useRT, boolean composite) {
+    final ParameterSet parameters = new LocalSpectralDBSearchParameters().cloneParameterSet();
+    parameters.getParameter(LocalSpectralDBSearchParameters.massList).setValue(MASS_LIST);
+    parameters.getParameter(LocalSpectralDBSearchParameters.msLevel).setValue(msLevel);
+    parameters.getParameter(LocalSpectralDBSearchParameters.allMS2Spectra).setValue(allMS2Spectra);
+    parameters.getParameter(LocalSpectralDBSearchParameters.mzTolerancePrecursor)
+        .setValue(new MZTolerance(0.01, 10));
+    parameters.getParameter(LocalSpectralDBSearchParameters.noiseLevel).setValue(50d);
+    parameters.getParameter(LocalSpectralDBSearchParameters.deisotoping).setValue(deisotoping);
+    final ParameterSet deisotopeParam = parameters
+        .getParameter(LocalSpectralDBSearchParameters.deisotoping).getEmbeddedParameters();
+    deisotopeParam.getParameter(MassListDeisotoperParameters.mzTolerance)
+        .setValue(new MZTolerance(0.003, 10));
+    deisotopeParam.getParameter(MassListDeisotoperParameters.monotonicShape).setValue(true);
+    deisotopeParam.getParameter(MassListDeisotoperParameters.maximumCharge).setValue(1);
+    parameters.getParameter(LocalSpectralDBSearchParameters.needsIsotopePattern).setValue(false);
+    parameters.getParameter(LocalSpectralDBSearchParameters.cropSpectraToOverlap).setValue(crop);
+    parameters.getParameter(LocalSpectralDBSearchParameters.mzTolerance)
+        .setValue(new MZTolerance(0.003, 10));
+    parameters.getParameter(LocalSpectralDBSearchParameters.rtTolerance).setValue(useRT);
+    parameters.getParameter(LocalSpectralDBSearchParameters.rtTolerance).getEmbeddedParameter()
+        .setValue(new RTTolerance(true, 0.5));
+    parameters.getParameter(LocalSpectralDBSearchParameters.minMatch).setValue(3);
+
+    final MZmineProcessingStep<SpectralSimilarityFunction> function = composite
+        ? new MZmineProcessingStepImpl<>(new CompositeCosineSpectralSimilarity(),
+            new CompositeCosineSpectralSimilarityParameters())
+        : new MZmineProcessingStepImpl<>(new WeightedCosineSpectralSimilarity(),
+            new WeightedCosineSpectralSimilarityParameters());
+    parameters.getParameter(LocalSpectralDBSearchParameters.similarityFunction).setValue(function);
+    return parameters;
+  }
+
+  /**
+   * Entries of compounds with a few isotope signals, some with precursor m/z close to others, some
+   * without precursor m/z and some with a retention time. The signals are not sorted by m/z.
+   */
+  private static List<SpectralDBEntry> createLibrary(Random random) {
+    final List<SpectralDBEntry> library = new ArrayList<>();
+    double precursorMZ = 0;
+    for (int e = 0; e < NUM_ENTRIES; e++) {
+      final Map<DBEntryField, Object> fields = new HashMap<>();
+      fields.put(DBEntryField.NAME, "compound " + e);
+      precursorMZ = (e % 3 == 1) ? precursorMZ + 0.002 * random.nextDouble()
+          : 150 + 500 * random.nextDouble();
+      if (e % 17 != 5)
+        fields.put(DBEntryField.MZ, precursorMZ);
+      if (e % 4 == 0)
+        fields.put(DBEntryField.RT, 10 * random.nextDouble());
+
+      final List<DataPoint> dataPoints = new ArrayList<>();
+      final int numSignals = 4 + random.nextInt(12);
+      for (int s = 0; s < numSignals; s++) {
+        final double mz = 50 + (precursorMZ - 55) * random.nextDouble();
+        final double intensity = 100 + 1e4 * random.nextDouble();
+        dataPoints.add(new SimpleDataPoint(mz, intensity));
+        if (s % 3 == 0)
+          dataPoints.add(new SimpleDataPoint(mz + ISOTOPE_DISTANCE, 0.3 * intensity));
+      }
+      // signals of equal intensity
+      dataPoints.add(new SimpleDataPoint(precursorMZ, dataPoints.get(0).getIntensity()));
+      Collections.shuffle(dataPoints, random);
+      library.add(new SpectralDBEntry(fields, dataPoints.toArray(new DataPoint[0])));
+    }
+    return library;
+  }
+
+  /**
+   * Rows of some library compounds with a noisy MS1 and up to three MS2 scans. Each scan is shared
+   * by two rows.
+   */
+  private static PeakListRow[] createRows(Random random, List<SpectralDBEntry> library)
+      throws IOException {
+    final ScanFile file = new ScanFile();
+    final PeakListRow rows[] = new PeakListRow[NUM_ROWS];
+    int scanNumber = 1;
+    for (int r = 0; r < rows.length; r += 2) {
+      final SpectralDBEntry entry = library.get(random.nextInt(library.size()));
+      final double mz = entry.getPrecursorMZ() != null ? entry.getPrecursorMZ()
+          : 150 + 500 * random.nextDouble();
+      final double rt = (Double) entry.getField(DBEntryField.RT).orElse(10 * random.nextDouble())
+          + 0.8 * (random.nextDouble() - 0.5);
+
+      final int ms1 = scanNumber++;
+      file.putScan(ms1, 1, rt, 0, createQuery(random, entry));
+      final int ms2[] = new int[1 + random.nextInt(3)];
+      for (int i = 0; i < ms2.length; i++) {
+        ms2[i] = scanNumber++;
+        file.putScan(ms2[i], 2, rt, mz, createQuery(random, entry));
+      }
+
+      for (int i = 0; i < 2; i++) {
+        final double rowMZ = mz + 0.004 * (random.nextDouble() - 0.5);
+        final SimplePeakListRow row = new SimplePeakListRow(r + i + 1);
+        row.addPeak(file, new SimpleFeature(file, rowMZ, rt, 1e5, 1e6, new int[] {ms1},
+            new DataPoint[] {new SimpleDataPoint(rowMZ, 1e5)}, FeatureStatus.DETECTED, ms1,
+            ms2[0], ms2, Range.singleton(rt), Range.singleton(rowMZ), Range.singleton(1e5)));
+        rows[r + i] = row;
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * The library spectrum with shifted m/z, scaled intensities, missing and additional signals
+   */
+  private static DataPoint[] createQuery(Random random, SpectralDBEntry entry) {
+    final List<DataPoint> dataPoints = new ArrayList<>();
+    for (DataPoint dp : entry.getDataPoints()) {
+      if (random.nextDouble() < 0.1)
+        continue;
+      dataPoints.add(new SimpleDataPoint(dp.getMZ() + 0.002 * (random.nextDouble() - 0.5),
+          dp.getIntensity() * (0.5 + random.nextDouble())));
+    }
+    for (int i = random.nextInt(6); i > 0; i--) {
+      dataPoints
+          .add(new SimpleDataPoint(50 + 600 * random.nextDouble(), 2e3 * random.nextDouble()));
+    }
+    return dataPoints.toArray(new DataPoint[0]);
+  }
+
+  /**
+   * A scan with mass lists, which scans of a {@link RawDataFileImpl} only store with a project
+   */
+  private static class MassListScan extends SimpleScan {
+
+    private final List<MassList> massLists = new ArrayList<>();
+
+    MassListScan(RawDataFile dataFile, int scanNumber, int msLevel, double rt, double precursorMZ,
+        DataPoint dataPoints[]) {
+      super(dataFile, scanNumber, msLevel, rt, precursorMZ, 1, new int[0], dataPoints,
+          MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "", Range.closed(50.0, 1000.0));
+      massLists.add(new SimpleMassList(MASS_LIST, this, dataPoints));
+    }
+
+    @Override
+    public synchronized void addMassList(@Nonnull MassList massList) {
+      massLists.add(massList);
+    }
+
+    @Override
+    public @Nonnull MassList[] getMassLists() {
+      return massLists.toArray(new MassList[0]);
+    }
+
+    @Override
+    public MassList getMassList(@Nonnull String name) {
+      for (MassList massList : massLists) {
+        if (massList.getName().equals(name))
+          return massList;
+      }
+      return null;
+    }
+  }
+
+  private static class ScanFile extends RawDataFileImpl {
+
+    private final Map<Integer, Scan> scans = new HashMap<>();
+
+    ScanFile() throws IOException {
+      super("library search.mzML");
+    }
+
+    void putScan(int scanNumber, int msLevel, double rt, double precursorMZ,
+        DataPoint dataPoints[]) {
+      scans.put(scanNumber, new MassListScan(this, scanNumber, msLevel, rt, precursorMZ,
+          dataPoints));
+    }
+
+    @Override
+    public Scan getScan(int scanNumber) {
+      return scans.get(scanNumber);
+    }
+  }
+
+}
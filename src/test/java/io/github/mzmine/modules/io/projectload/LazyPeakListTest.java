@@ -0,0 +1,242 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Hashtable;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Range;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PeakList;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimpleFeature;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.modules.io.projectsave.PeakListBinarySaveHandler;
+import io.github.mzmine.modules.io.projectsave.ProjectSavingTask;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.project.impl.MZmineProjectImpl;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.exceptions.PeakListLoadException;
+
+/**
+ * Opens a feature list saved in a project file and reads its rows, also after the project file was
+ * modified, and saves the project again without loading the rows.
+ */
+public class LazyPeakListTest {
+
+  private static final String ENTRY_NAME = "Peak list #1 lazy.bin";
+  private static final int NUM_ROWS = 20;
+
+  private static RawDataFile dataFile;
+  private static Hashtable<RawDataFile, String> saveIDs = new Hashtable<>();
+  private static Hashtable<String, RawDataFile> openIDs = new Hashtable<>();
+  private static byte saved[];
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @BeforeClass
+  public static void savePeakList() throws IOException {
+    final RawDataFileImpl file = new RawDataFileImpl("lazy.mzML");
+    for (int s = 1; s <= 10; s++) {
+      file.addScan(new SimpleScan(file, s, 1, 0.1 * s, 0, 0, new int[0],
+          new DataPoint[] {new SimpleDataPoint(100 + s, 1000)}, MassSpectrumType.CENTROIDED,
+          PolarityType.POSITIVE, "", Range.closed(100.0, 200.0)));
+    }
+    dataFile = file.finishWriting();
+    saveIDs.put(dataFile, "1");
+    openIDs.put("1", dataFile);
+
+    final SimplePeakList peakList = new SimplePeakList("lazy", dataFile);
+    for (int r = 0; r < NUM_ROWS; r++) {
+      final double mz = 100 + r;
+      final int scanNumbers[] = {3, 4, 5, 6, 7};
+      final DataPoint dataPoints[] = new DataPoint[scanNumbers.length];
+      for (int i = 0; i < dataPoints.length; i++)
+        dataPoints[i] = new SimpleDataPoint(mz, 1000 - 200 * Math.abs(i - 2));
+      final SimplePeakListRow row = new SimplePeakListRow(r + 1);
+      row.addPeak(dataFile, new SimpleFeature(dataFile, mz, 0.5, 1000, 100, scanNumbers,
+          dataPoints, FeatureStatus.DETECTED, 5, -1, null, Range.closed(0.3, 0.7),
+          Range.singleton(mz), Range.closed(600.0, 1000.0)));
+      peakList.addRow(row);
+    }
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new PeakListBinarySaveHandler(bytes, saveIDs).savePeakList(peakList);
+    saved = bytes.toByteArray();
+  }
+
+  @Test
+  public void rowsAreReadOnFirstAccess() throws IOException {
+    final File projectFile = writeProjectFile(saved);
+    final LazyPeakList peakList = open(projectFile);
+
+    assertEquals("lazy", peakList.getName());
+    assertEquals(NUM_ROWS, peakList.getNumberOfRows());
+    assertEquals(100.0, peakList.getRow(0).getAverageMZ(), 0.0);
+  }
+
+  @Test
+  public void modifiedProjectFileFailsEveryAccess() throws IOException {
+    final File projectFile = writeProjectFile(saved);
+    final LazyPeakList peakList = open(projectFile);
+
+    // Saving again replaces the entries the feature list would read
+    writeProjectFile(projectFile, new byte[0]);
+    projectFile.setLastModified(projectFile.lastModified() + 10000);
+
+    assertLoadFails(() -> peakList.getNumberOfRows());
+    // The failure is kept, the feature list does not look empty afterwards
+    assertLoadFails(() -> peakList.getRows());
+    assertLoadFails(() -> peakList.getRowsMZRange());
+    assertEquals("lazy", peakList.getName());
+
+    // Saving the project would save the feature list without its rows
+    assertLoadFails(() -> {
+      try {
+        new PeakListBinarySaveHandler(new ByteArrayOutputStream(), saveIDs).savePeakList(peakList);
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    });
+  }
+
+  @Test
+  public void missingEntryFails() throws IOException {
+    final File projectFile = writeProjectFile(saved);
+    final LazyPeakList peakList;
+    try (ZipFile zipFile = new ZipFile(projectFile);
+        InputStream is = zipFile.getInputStream(zipFile.getEntry(ENTRY_NAME))) {
+      peakList = LazyPeakList.readBinaryHeader(is, projectFile, "Peak list #2 missing.bin",
+          openIDs);
+    }
+    assertLoadFails(() -> peakList.getNumberOfRows());
+  }
+
+  @Test
+  public void unloadedPeakListIsCopiedWhenSaving() throws IOException {
+    final File projectFile = writeProjectFile(saved);
+    final LazyPeakList peakList = open(projectFile);
+
+    // Saving over the project file the rows are read from
+    assertEquals(TaskStatus.FINISHED, saveProject(peakList, projectFile).getStatus());
+
+    assertFalse(peakList.isLoaded());
+    assertArrayEquals(saved, readEntry(projectFile, ENTRY_NAME));
+
+    // The rows are read from the new project file
+    assertEquals(NUM_ROWS, peakList.getNumberOfRows());
+  }
+
+  @Test
+  public void renamedPeakListIsSerialized() throws IOException {
+    final File projectFile = writeProjectFile(saved);
+    final LazyPeakList peakList = open(projectFile);
+    peakList.setName("renamed");
+
+    final File newProjectFile = new File(folder.getRoot(), "renamed.mzmine");
+    assertEquals(TaskStatus.FINISHED, saveProject(peakList, newProjectFile).getStatus());
+
+    assertTrue(peakList.isLoaded());
+    try (ZipFile zipFile = new ZipFile(newProjectFile)) {
+      assertTrue(zipFile.stream()
+          .anyMatch(entry -> entry.getName().startsWith("Peak list #1 renamed.")));
+    }
+    assertEquals(NUM_ROWS, peakList.getNumberOfRows());
+  }
+
+  private static ProjectSavingTask saveProject(PeakList peakList, File projectFile) {
+    final MZmineProjectImpl project = new MZmineProjectImpl();
+    project.getRawDataFiles().add(dataFile);
+    project.getFeatureLists().add(peakList);
+    final ParameterSet parameters = new ProjectLoaderParameters().cloneParameterSet();
+    parameters.getParameter(ProjectLoaderParameters.projectFile).setValue(projectFile);
+    final ProjectSavingTask task = new ProjectSavingTask(project, parameters);
+    task.run();
+    return task;
+  }
+
+  private static byte[] readEntry(File projectFile, String entryName) throws IOException {
+    try (ZipFile zipFile = new ZipFile(projectFile)) {
+      final ZipEntry entry = zipFile.getEntry(entryName);
+      assertNotNull(entryName, entry);
+      try (InputStream is = zipFile.getInputStream(entry)) {
+        return is.readAllBytes();
+      }
+    }
+  }
+
+  private static void assertLoadFails(Runnable access) {
+    try {
+      access.run();
+      fail("Expected a " + PeakListLoadException.class.getSimpleName());
+    } catch (PeakListLoadException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("lazy"));
+    }
+  }
+
+  private LazyPeakList open(File projectFile) throws IOException {
+    try (ZipFile zipFile = new ZipFile(projectFile);
+        InputStream is = zipFile.getInputStream(zipFile.getEntry(ENTRY_NAME))) {
+      return LazyPeakList.readBinaryHeader(is, projectFile, ENTRY_NAME, openIDs);
+    }
+  }
+
+  private File writeProjectFile(byte peakList[]) throws IOException {
+    final File projectFile = folder.newFile("project.mzmine");
+    writeProjectFile(projectFile, peakList);
+    return projectFile;
+  }
+
+  private static void writeProjectFile(File projectFile, byte peakList[]) throws IOException {
+    try (ZipOutputStream zipStream = new ZipOutputStream(new FileOutputStream(projectFile))) {
+      zipStream.putNextEntry(new ZipEntry(ENTRY_NAME));
+      zipStream.write(peakList);
+      zipStream.closeEntry();
+    }
+  }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import io.github.mzmine.modules.io.projectsave.ProjectSavingTask;
+
+/**
+ * Checks the project format of version entries.
+ */
+public class ProjectOpeningTaskTest {
+
+  @Test
+  public void plainVersionIsKept() throws IOException {
+    assertEquals("2.53", ProjectOpeningTask.checkProjectFormat("2.53", "3.0"));
+  }
+
+  @Test
+  public void currentFormatYieldsMZmineVersion() throws IOException {
+    final String version = ProjectSavingTask.PROJECT_FORMAT_PREFIX
+        + ProjectSavingTask.PROJECT_FORMAT_VERSION + ", MZmine 3.0.1";
+    assertEquals("3.0.1", ProjectOpeningTask.checkProjectFormat(version, "3.0"));
+  }
+
+  @Test
+  public void newerFormatIsRefused() {
+    final String version = ProjectSavingTask.PROJECT_FORMAT_PREFIX
+        + (ProjectSavingTask.PROJECT_FORMAT_VERSION + 1) + ", MZmine 4.0";
+    try {
+      ProjectOpeningTask.checkProjectFormat(version, "3.0");
+      fail("A project of a newer format was accepted");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("newer format"));
+    }
+  }
+
+}
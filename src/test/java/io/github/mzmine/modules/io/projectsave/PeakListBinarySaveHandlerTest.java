@@ -0,0 +1,355 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectsave;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Hashtable;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.Feature;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.IsotopePattern;
+import io.github.mzmine.datamodel.IsotopePattern.IsotopePatternStatus;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PeakIdentity;
+import io.github.mzmine.datamodel.PeakInformation;
+import io.github.mzmine.datamodel.PeakList;
+import io.github.mzmine.datamodel.PeakList.PeakListAppliedMethod;
+import io.github.mzmine.datamodel.PeakListRow;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimpleFeature;
+import io.github.mzmine.datamodel.impl.SimpleIsotopePattern;
+import io.github.mzmine.datamodel.impl.SimplePeakIdentity;
+import io.github.mzmine.datamodel.impl.SimplePeakInformation;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import io.github.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.modules.io.projectload.PeakListBinaryOpenHandler;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Saves a feature list with {@link PeakListBinarySaveHandler}, opens it again with
+ * {@link PeakListBinaryOpenHandler} and compares both.
+ */
+public class PeakListBinarySaveHandlerTest {
+
+  private static final int NUM_SCANS = 40;
+  private static final int NUM_ROWS = 60;
+
+  // Strings shared by many rows, which the dictionary stores once
+  private static final String SHARED_COMMENT = "shared comment µg/ml";
+  private static final String SHARED_METHOD = "spectral library search";
+
+  private static RawDataFile dataFiles[];
+  private static SimplePeakList peakList;
+  private static byte saved[];
+  private static PeakList loaded;
+
+  @BeforeClass
+  public static void saveAndOpen() throws IOException {
+
+    final Random random = new Random(7);
+
+    dataFiles = new RawDataFile[2];
+    for (int f = 0; f < dataFiles.length; f++) {
+      final RawDataFileImpl file = new RawDataFileImpl("file " + f + ".mzML");
+      for (int s = 1; s <= NUM_SCANS; s++) {
+        final DataPoint dataPoints[] =
+            {new SimpleDataPoint(100 + s, 1000), new SimpleDataPoint(500 + s, 2000)};
+        file.addScan(new SimpleScan(file, s, 1, 0.1 * s + 0.01 * f, 0, 0, new int[0], dataPoints,
+            MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "",
+            Range.closed(100.0, 1000.0)));
+      }
+      dataFiles[f] = file.finishWriting();
+    }
+
+    peakList = new SimplePeakList("Round trip äöü", dataFiles);
+    peakList.addDescriptionOfAppliedTask(
+        new SimplePeakListAppliedMethod("Chromatogram builder", "<parameter name=\"a\"/>"));
+    peakList.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod("Join aligner", ""));
+
+    for (int r = 0; r < NUM_ROWS; r++) {
+      final SimplePeakListRow row = new SimplePeakListRow(r + 1);
+
+      // null, shared and unique comments
+      if (r % 3 == 1)
+        row.setComment(SHARED_COMMENT);
+      else if (r % 3 == 2)
+        row.setComment("comment of row " + r);
+
+      // rows with no, one or two identities, and the second one preferred
+      for (int i = 0; i < r % 3; i++) {
+        final PeakIdentity identity = new SimplePeakIdentity("compound " + (r / 2) + "-" + i,
+            i == 0 ? "C6H12O6" : null, SHARED_METHOD, "ID" + r, null);
+        row.addPeakIdentity(identity, i == 1);
+      }
+
+      if (r % 4 == 0) {
+        final SimplePeakInformation information = new SimplePeakInformation();
+        information.addProperty("origin", SHARED_METHOD);
+        information.addProperty("row", String.valueOf(r));
+        row.setPeakInformation(information);
+      }
+
+      // every row has a feature in the first file, every second row in both
+      for (int f = 0; f < ((r % 2 == 0) ? 2 : 1); f++)
+        row.addPeak(dataFiles[f], createFeature(random, dataFiles[f], r));
+
+      peakList.addRow(row);
+    }
+
+    final Hashtable<RawDataFile, String> saveIDs = new Hashtable<>();
+    final Hashtable<String, RawDataFile> openIDs = new Hashtable<>();
+    for (int f = 0; f < dataFiles.length; f++) {
+      saveIDs.put(dataFiles[f], "#" + f);
+      openIDs.put("#" + f, dataFiles[f]);
+    }
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new PeakListBinarySaveHandler(bytes, saveIDs).savePeakList(peakList);
+    saved = bytes.toByteArray();
+    loaded = new PeakListBinaryOpenHandler(openIDs).readPeakList(new ByteArrayInputStream(saved));
+  }
+
+  /**
+   * A feature with data point values that are exact in float precision, which the format uses for
+   * data points like the XML format, and one missing data point
+   */
+  private static Feature createFeature(Random random, RawDataFile dataFile, int r) {
+
+    final int first = 1 + random.nextInt(NUM_SCANS - 10);
+    final int scanNumbers[] = new int[5 + random.nextInt(5)];
+    final DataPoint dataPoints[] = new DataPoint[scanNumbers.length];
+    double minRT = Double.POSITIVE_INFINITY, maxRT = Double.NEGATIVE_INFINITY;
+    double minMZ = Double.POSITIVE_INFINITY, maxMZ = Double.NEGATIVE_INFINITY;
+    double minIntensity = Double.POSITIVE_INFINITY, maxIntensity = Double.NEGATIVE_INFINITY;
+    final double mz = (float) (100 + 900 * random.nextDouble());
+    for (int j = 0; j < scanNumbers.length; j++) {
+      scanNumbers[j] = first + j;
+      if (j == 2) {
+        minIntensity = Math.min(minIntensity, 0);
+        continue;
+      }
+      final double dataPointMZ = (float) (mz + 0.001 * random.nextGaussian());
+      final double intensity = (float) (1e5 * random.nextDouble());
+      dataPoints[j] = new SimpleDataPoint(dataPointMZ, intensity);
+      final double rt = dataFile.getScan(scanNumbers[j]).getRetentionTime();
+      minRT = Math.min(minRT, rt);
+      maxRT = Math.max(maxRT, rt);
+      minMZ = Math.min(minMZ, dataPointMZ);
+      maxMZ = Math.max(maxMZ, dataPointMZ);
+      minIntensity = Math.min(minIntensity, intensity);
+      maxIntensity = Math.max(maxIntensity, intensity);
+    }
+
+    final int allMS2Scans[] = (r % 5 == 0) ? new int[] {first + 1, first + 3} : null;
+    final SimpleFeature feature = new SimpleFeature(dataFile, mz, 0.1 * (first + 2),
+        maxIntensity, 1e3 * random.nextDouble(), scanNumbers, dataPoints,
+        FeatureStatus.values()[r % FeatureStatus.values().length], first + 2,
+        allMS2Scans != null ? allMS2Scans[0] : -1, allMS2Scans, Range.closed(minRT, maxRT),
+        Range.closed(minMZ, maxMZ), Range.closed(minIntensity, maxIntensity));
+    feature.setCharge(r % 3);
+    if (r % 7 == 0)
+      feature.setParentChromatogramRowID(1000 + r);
+    if (r % 6 == 0) {
+      feature.setIsotopePattern(new SimpleIsotopePattern(
+          new DataPoint[] {new SimpleDataPoint(mz, 100.0), new SimpleDataPoint(mz + 1.00335, 21.5)},
+          IsotopePatternStatus.DETECTED, "Monoisotopic m/z " + mz));
+    }
+    return feature;
+  }
+
+  @Test
+  public void header() {
+    assertEquals(peakList.getName(), loaded.getName());
+    assertEquals(peakList.getDateCreated(), ((SimplePeakList) loaded).getDateCreated());
+    assertArrayEquals(dataFiles, loaded.getRawDataFiles().toArray());
+
+    final PeakListAppliedMethod expected[] = peakList.getAppliedMethods();
+    final PeakListAppliedMethod actual[] = loaded.getAppliedMethods();
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i].getDescription(), actual[i].getDescription());
+      assertEquals(expected[i].getParameters(), actual[i].getParameters());
+    }
+  }
+
+  @Test
+  public void rows() {
+    assertEquals(NUM_ROWS, loaded.getNumberOfRows());
+    for (int r = 0; r < NUM_ROWS; r++) {
+      final PeakListRow expected = peakList.getRow(r);
+      final PeakListRow actual = loaded.getRow(r);
+      assertEquals(expected.getID(), actual.getID());
+      assertEquals(expected.getComment(), actual.getComment());
+      assertEquals(expected.getNumberOfPeaks(), actual.getNumberOfPeaks());
+
+      final PeakInformation expectedInformation = expected.getPeakInformation();
+      if (expectedInformation == null) {
+        assertNull(actual.getPeakInformation());
+      } else {
+        assertEquals(expectedInformation.getAllProperties(),
+            actual.getPeakInformation().getAllProperties());
+      }
+    }
+  }
+
+  @Test
+  public void identities() {
+    for (int r = 0; r < NUM_ROWS; r++) {
+      final PeakListRow expected = peakList.getRow(r);
+      final PeakListRow actual = loaded.getRow(r);
+      final PeakIdentity expectedIdentities[] = expected.getPeakIdentities();
+      final PeakIdentity actualIdentities[] = actual.getPeakIdentities();
+      assertEquals(expectedIdentities.length, actualIdentities.length);
+      for (int i = 0; i < expectedIdentities.length; i++) {
+        assertEquals(expectedIdentities[i].getAllProperties(),
+            actualIdentities[i].getAllProperties());
+      }
+      if (expected.getPreferredPeakIdentity() == null) {
+        assertNull(actual.getPreferredPeakIdentity());
+      } else {
+        assertEquals(expected.getPreferredPeakIdentity().getAllProperties(),
+            actual.getPreferredPeakIdentity().getAllProperties());
+      }
+    }
+  }
+
+  @Test
+  public void features() {
+    for (int r = 0; r < NUM_ROWS; r++) {
+      for (RawDataFile dataFile : dataFiles) {
+        final Feature expected = peakList.getRow(r).getPeak(dataFile);
+        final Feature actual = loaded.getRow(r).getPeak(dataFile);
+        if (expected == null) {
+          assertNull(actual);
+          continue;
+        }
+        assertNotNull(actual);
+        assertEquals(dataFile, actual.getDataFile());
+        assertEquals(expected.getMZ(), actual.getMZ(), 0.0);
+        assertEquals(expected.getRT(), actual.getRT(), 0.0);
+        assertEquals(expected.getHeight(), actual.getHeight(), 0.0);
+        assertEquals(expected.getArea(), actual.getArea(), 0.0);
+        assertEquals(expected.getFeatureStatus(), actual.getFeatureStatus());
+        assertEquals(expected.getCharge(), actual.getCharge());
+        assertEquals(expected.getParentChromatogramRowID(), actual.getParentChromatogramRowID());
+        assertEquals(expected.getRepresentativeScanNumber(), actual.getRepresentativeScanNumber());
+        assertEquals(expected.getMostIntenseFragmentScanNumber(),
+            actual.getMostIntenseFragmentScanNumber());
+        assertArrayEquals(expected.getAllMS2FragmentScanNumbers(),
+            actual.getAllMS2FragmentScanNumbers());
+        assertEquals(expected.getRawDataPointsRTRange(), actual.getRawDataPointsRTRange());
+        assertEquals(expected.getRawDataPointsMZRange(), actual.getRawDataPointsMZRange());
+        assertEquals(expected.getRawDataPointsIntensityRange(),
+            actual.getRawDataPointsIntensityRange());
+
+        final IsotopePattern expectedPattern = expected.getIsotopePattern();
+        if (expectedPattern == null) {
+          assertNull(actual.getIsotopePattern());
+        } else {
+          final IsotopePattern actualPattern = actual.getIsotopePattern();
+          assertEquals(expectedPattern.getStatus(), actualPattern.getStatus());
+          assertEquals(expectedPattern.getDescription(), actualPattern.getDescription());
+          assertDataPointsEqual(expectedPattern.getDataPoints(), actualPattern.getDataPoints());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void dataPoints() {
+    for (int r = 0; r < NUM_ROWS; r++) {
+      for (RawDataFile dataFile : dataFiles) {
+        final Feature expected = peakList.getRow(r).getPeak(dataFile);
+        if (expected == null)
+          continue;
+        final Feature actual = loaded.getRow(r).getPeak(dataFile);
+        assertArrayEquals(expected.getScanNumbers(), actual.getScanNumbers());
+        final DataPoint expectedDataPoints[] = new DataPoint[expected.getScanNumbers().length];
+        final DataPoint actualDataPoints[] = new DataPoint[expectedDataPoints.length];
+        for (int j = 0; j < expectedDataPoints.length; j++) {
+          expectedDataPoints[j] = expected.getDataPoint(expected.getScanNumbers()[j]);
+          actualDataPoints[j] = actual.getDataPoint(expected.getScanNumbers()[j]);
+        }
+        assertDataPointsEqual(expectedDataPoints, actualDataPoints);
+      }
+    }
+  }
+
+  /**
+   * Each distinct string is written once to the dictionary and restored for every row using it
+   */
+  @Test
+  public void stringDictionary() {
+    assertEquals(1, countOccurrences(saved, SHARED_COMMENT));
+    assertEquals(1, countOccurrences(saved, SHARED_METHOD));
+    assertEquals(1, countOccurrences(saved, FeatureStatus.DETECTED.name()));
+
+    int sharedComments = 0;
+    for (PeakListRow row : loaded.getRows()) {
+      if (SHARED_COMMENT.equals(row.getComment()))
+        sharedComments++;
+    }
+    assertEquals(NUM_ROWS / 3, sharedComments);
+  }
+
+  private static void assertDataPointsEqual(DataPoint expected[], DataPoint actual[]) {
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      if (expected[i] == null) {
+        assertNull(actual[i]);
+      } else {
+        assertEquals(expected[i].getMZ(), actual[i].getMZ(), 0.0);
+        assertEquals(expected[i].getIntensity(), actual[i].getIntensity(), 0.0);
+      }
+    }
+  }
+
+  private static int countOccurrences(byte data[], String value) {
+    final byte pattern[] = value.getBytes(StandardCharsets.UTF_8);
+    int count = 0;
+    search: for (int i = 0; i + pattern.length <= data.length; i++) {
+      for (int j = 0; j < pattern.length; j++) {
+        if (data[i + j] != pattern[j])
+          continue search;
+      }
+      count++;
+    }
+    return count;
+  }
+
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectsave;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.regex.Pattern;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Range;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.gui.preferences.MZminePreferences;
+import io.github.mzmine.main.MZmineConfiguration;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.main.impl.MZmineConfigurationImpl;
+import io.github.mzmine.modules.io.projectload.ProjectLoaderParameters;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.parametertypes.BooleanParameter;
+import io.github.mzmine.project.impl.MZmineProjectImpl;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.project.impl.SpectraCache;
+import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.exceptions.PeakListLoadException;
+
+/**
+ * Saves small projects and checks that the scans are copied from the previously saved or opened
+ * project file, that the project file is replaced at once, that a failed save leaves the previous
+ * project file and no temporary files behind, that feature lists are saved as XML by default and
+ * binary feature lists, if selected, mark the project format, and that the scans are compressed
+ * by default and, if feature lists are loaded on demand, stored to be read in place from the
+ * project file until data points are added.
+ */
+public class ProjectSavingTaskTest {
+
+  private static final String SCANS_ENTRY = "Raw data file #1 save.mzML.scans";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private RawDataFileImpl dataFile;
+
+  @Before
+  public void createDataFile() throws IOException {
+    // The scans are read from the data points file only
+    SpectraCache.setMaximumSize(0);
+    dataFile = new RawDataFileImpl("save.mzML");
+    for (int s = 1; s <= 20; s++) {
+      dataFile.addScan(new SimpleScan(dataFile, s, 1, 0.1 * s, 0, 0, new int[0],
+          new DataPoint[] {new SimpleDataPoint(100 + s, 1000 + s), new SimpleDataPoint(300, s)},
+          MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "", Range.closed(100.0, 500.0)));
+    }
+    dataFile.finishWriting();
+  }
+
+  @After
+  public void close() {
+    dataFile.close();
+  }
+
+  @Test
+  public void scansAreCopiedFromPreviousSave() throws IOException {
+    final File first = new File(folder.getRoot(), "first.mzmine");
+    assertEquals(TaskStatus.FINISHED, save(project(dataFile), first).getStatus());
+    final byte savedScans[] = readEntry(first, SCANS_ENTRY);
+
+    // A save that read the data points file again would save these zeros
+    overwriteDataPoints(dataFile);
+
+    final File second = new File(folder.getRoot(), "second.mzmine");
+    assertEquals(TaskStatus.FINISHED, save(project(dataFile), second).getStatus());
+    assertArrayEquals(savedScans, readEntry(second, SCANS_ENTRY));
+  }
+
+  @Test
+  public void scansAreCopiedFromOpenedProject() throws IOException {
+    final File saved = new File(folder.getRoot(), "saved.mzmine");
+    assertEquals(TaskStatus.FINISHED, save(project(dataFile), saved).getStatus());
+    final byte savedScans[] = readEntry(saved, SCANS_ENTRY);
+
+    // Same as opening the project: the scans entry becomes the data points file
+    final File scansFile = folder.newFile("opened.scans");
+    Files.write(scansFile.toPath(), savedScans);
+    final RawDataFileImpl opened = new RawDataFileImpl("save.mzML");
+    try {
+      opened.openDataPointsFile(scansFile);
+      opened.getDataPointsOffsets().putAll(dataFile.getDataPointsOffsets());
+      opened.getDataPointsLengths().putAll(dataFile.getDataPointsLengths());
+      ProjectSavingTask.registerOpenedScans(opened, saved, SCANS_ENTRY);
+
+      overwriteDataPoints(opened);
+
+      final File second = new File(folder.getRoot(), "second.mzmine");
+      assertEquals(TaskStatus.FINISHED, save(project(opened), second).getStatus());
+      assertArrayEquals(savedScans, readEntry(second, SCANS_ENTRY));
+    } finally {
+      opened.close();
+    }
+  }
+
+  @Test
+  public void scansAreCompressedByDefault() throws IOException {
+    final File saved = new File(folder.getRoot(), "compressed.mzmine");
+    assertEquals(TaskStatus.FINISHED, save(project(dataFile), saved).getStatus());
+    try (ZipFile zipFile = new ZipFile(saved)) {
+      assertEquals(ZipArchiveEntry.DEFLATED, zipFile.getEntry(SCANS_ENTRY).getMethod());
+    }
+  }
+
+  @Test
+  public void storedScansAreReadInPlaceUntilWritten() throws Exception {
+    final File saved = new File(folder.getRoot(), "stored.mzmine");
+    assertEquals(TaskStatus.FINISHED,
+        save(project(dataFile), saved, MZminePreferences.loadPeakListsOnDemand).getStatus());
+    final byte savedProject[] = Files.readAllBytes(saved.toPath());
+
+    final long offset;
+    final long length;
+    try (ZipFile zipFile = new ZipFile(saved)) {
+      final ZipArchiveEntry entry = zipFile.getEntry(SCANS_ENTRY);
+      assertEquals(ZipArchiveEntry.STORED, entry.getMethod());
+      offset = entry.getDataOffset();
+      length = entry.getSize();
+    }
+
+    // Same as opening the project: the scans are read from the project file
+    final RawDataFileImpl opened = new RawDataFileImpl("save.mzML");
+    try {
+      opened.openScansEntry(saved, offset, length);
+      opened.getDataPointsOffsets().putAll(dataFile.getDataPointsOffsets());
+      opened.getDataPointsLengths().putAll(dataFile.getDataPointsLengths());
+      assertTrue(opened.isDataPointsFileInPlace());
+      assertArrayEquals(dataFile.readDataPoints(5), opened.readDataPoints(5));
+
+      // A new mass list extracts the scans and leaves the project file as it is
+      final DataPoint massList[] = {new SimpleDataPoint(150, 10)};
+      final int id = opened.storeDataPoints(massList);
+      assertFalse(opened.isDataPointsFileInPlace());
+      assertArrayEquals(massList, opened.readDataPoints(id));
+      assertArrayEquals(dataFile.readDataPoints(5), opened.readDataPoints(5));
+      assertArrayEquals(savedProject, Files.readAllBytes(saved.toPath()));
+    } finally {
+      opened.close();
+    }
+    assertTrue(saved.exists());
+  }
+
+  @Test
+  public void projectFileIsReplaced() throws IOException {
+    final File projectFile = folder.newFile("replaced.mzmine");
+    Files.write(projectFile.toPath(), "previous".getBytes(StandardCharsets.UTF_8));
+
+    assertEquals(TaskStatus.FINISHED, save(project(dataFile), projectFile).getStatus());
+
+    assertNotNull(readEntry(projectFile, ProjectSavingTask.VERSION_FILENAME));
+    assertNotNull(readEntry(projectFile, SCANS_ENTRY));
+    assertArrayEquals(new String[] {"replaced.mzmine"}, folder.getRoot().list());
+  }
+
+  @Test
+  public void xmlFeatureListsByDefault() throws IOException {
+    final File projectFile = new File(folder.getRoot(), "default.mzmine");
+    final MZmineProjectImpl project = project(dataFile);
+    project.getFeatureLists().add(new SimplePeakList("features", dataFile));
+    assertEquals(TaskStatus.FINISHED, save(project, projectFile).getStatus());
+
+    assertNotNull(readEntry(projectFile, "Peak list #1 features.xml"));
+    final String version = new String(readEntry(projectFile, ProjectSavingTask.VERSION_FILENAME),
+        StandardCharsets.UTF_8);
+    assertFalse(version, version.startsWith(ProjectSavingTask.PROJECT_FORMAT_PREFIX));
+    assertFalse(new MZmineConfigurationImpl().isSaveBinaryPeakLists());
+  }
+
+  @Test
+  public void versionMarksBinaryProjectFormat() throws Exception {
+    final File projectFile = new File(folder.getRoot(), "format.mzmine");
+    final MZmineProjectImpl project = project(dataFile);
+    project.getFeatureLists().add(new SimplePeakList("features", dataFile));
+    assertEquals(TaskStatus.FINISHED,
+        save(project, projectFile, MZminePreferences.binaryPeakLists).getStatus());
+
+    assertNotNull(readEntry(projectFile, "Peak list #1 features.bin"));
+    final String version = new String(readEntry(projectFile, ProjectSavingTask.VERSION_FILENAME),
+        StandardCharsets.UTF_8);
+    assertTrue(version, version.startsWith(
+        ProjectSavingTask.PROJECT_FORMAT_PREFIX + ProjectSavingTask.PROJECT_FORMAT_VERSION + ", "));
+
+    // Older versions read the MZmine version from the start of the entry and refuse the project
+    // when there is none
+    assertFalse(Pattern.compile("^(\\d+)\\.(\\d+)").matcher(version).find());
+  }
+
+  @Test
+  public void failedSaveKeepsPreviousProjectFile() throws IOException {
+    final File projectFile = folder.newFile("failed.mzmine");
+    final byte previous[] = "previous".getBytes(StandardCharsets.UTF_8);
+    Files.write(projectFile.toPath(), previous);
+
+    final MZmineProjectImpl project = project(dataFile);
+    project.getFeatureLists().add(new SimplePeakList("unreadable", dataFile) {
+      @Override
+      public int getNumberOfRows() {
+        throw new PeakListLoadException("Could not load feature list unreadable", null);
+      }
+    });
+
+    final ProjectSavingTask task = save(project, projectFile);
+    assertEquals(TaskStatus.ERROR, task.getStatus());
+    assertTrue(task.getErrorMessage(), task.getErrorMessage().contains("unreadable"));
+
+    assertArrayEquals(previous, Files.readAllBytes(projectFile.toPath()));
+    assertArrayEquals(new String[] {"failed.mzmine"}, folder.getRoot().list());
+  }
+
+  private static MZmineProjectImpl project(RawDataFile dataFile) {
+    final MZmineProjectImpl project = new MZmineProjectImpl();
+    project.getRawDataFiles().add(dataFile);
+    return project;
+  }
+
+  private static ProjectSavingTask save(MZmineProjectImpl project, File projectFile) {
+    final ParameterSet parameters = new ProjectLoaderParameters().cloneParameterSet();
+    parameters.getParameter(ProjectLoaderParameters.projectFile).setValue(projectFile);
+    final ProjectSavingTask task = new ProjectSavingTask(project, parameters);
+    task.run();
+    return task;
+  }
+
+  /**
+   * Saves with a configuration in which the given preference is selected
+   */
+  private static ProjectSavingTask save(MZmineProjectImpl project, File projectFile,
+      BooleanParameter preference) throws Exception {
+    final MZmineConfigurationImpl configuration = new MZmineConfigurationImpl();
+    configuration.getPreferences().getParameter(preference).setValue(true);
+    final Field field = MZmineCore.class.getDeclaredField("configuration");
+    field.setAccessible(true);
+    final MZmineConfiguration previousConfiguration = (MZmineConfiguration) field.get(null);
+    field.set(null, configuration);
+    try {
+      return save(project, projectFile);
+    } finally {
+      field.set(null, previousConfiguration);
+    }
+  }
+
+  private static void overwriteDataPoints(RawDataFileImpl dataFile) throws IOException {
+    final RandomAccessFile dataPointsFile = dataFile.getDataPointsFile();
+    final byte zeros[] = new byte[(int) dataPointsFile.length()];
+    dataPointsFile.seek(0);
+    dataPointsFile.write(zeros);
+    assertEquals(0.0, dataFile.readDataPoints(1)[0].getMZ(), 0.0);
+  }
+
+  private static byte[] readEntry(File projectFile, String entryName) throws IOException {
+    try (ZipFile zipFile = new ZipFile(projectFile)) {
+      final ZipArchiveEntry entry = zipFile.getEntry(entryName);
+      assertNotNull(entryName, entry);
+      try (InputStream is = zipFile.getInputStream(entry)) {
+        return is.readAllBytes();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+package io.github.mzmine.modules.io.rawdataimport.fileformats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.MZmineProject;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.taskcontrol.TaskStatus;
+
+/**
+ * Imports small mzML files with known contents. test.mzML is an indexedmzML file with four
+ * spectra:
+ * <ol>
+ * <li>scan=1: MS1, positive, RT 0.5 min, 64-bit m/z and zlib compressed 32-bit intensities, both
+ * described by referenceableParamGroups</li>
+ * <li>scan=2: MS2 of scan=1 (m/z 200.25, charge 2), negative, RT 45 s, zlib compressed 32-bit m/z
+ * and 64-bit intensities</li>
+ * <li>scan=3: UV spectrum, which is skipped</li>
+ * <li>scan=4: MS1 with a charge array before the m/z and 32-bit integer intensity arrays</li>
+ * </ol>
+ * numpress.mzML has an MS-Numpress compressed m/z array, which is not supported. truncated.mzML
+ * has a zlib compressed intensity array whose stream is cut off, and uv.mzML only the UV spectrum.
+ */
+public class MzMLReadTaskTest {
+
+  private final List<File> files = new ArrayList<>();
+
+  private final List<RawDataFile> imported = new ArrayList<>();
+
+  @After
+  public void cleanUp() {
+    for (RawDataFile dataFile : imported)
+      dataFile.close();
+    for (File file : files)
+      file.delete();
+  }
+
+  @Test
+  public void indexedFile() throws IOException {
+    final File file = copyResource("test.mzML");
+    checkTestFile(importFile(file));
+  }
+
+  @Test
+  public void fileWithoutIndex() throws IOException {
+    // A broken index offset makes the parser collect the spectrum IDs from the spectra
+    final File file = copyResource("test.mzML");
+    final String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    final String withoutIndex = content.replaceAll("<indexListOffset>[0-9]+</indexListOffset>",
+        "<indexListOffset>0</indexListOffset>");
+    Files.write(file.toPath(), withoutIndex.getBytes(StandardCharsets.UTF_8));
+    checkTestFile(importFile(file));
+  }
+
+  @Test
+  public void numpressIsRejected() throws IOException {
+    final File file = copyResource("numpress.mzML");
+    final RawDataFileImpl dataFile = new RawDataFileImpl(file.getName());
+    imported.add(dataFile);
+    final MzMLReadTask task = new MzMLReadTask(project(new ArrayList<>()), file, dataFile);
+    task.run();
+    assertEquals(TaskStatus.ERROR, task.getStatus());
+    assertTrue(task.getErrorMessage(), task.getErrorMessage().contains("MS:1002312"));
+  }
+
+  @Test
+  public void truncatedZlibArrayIsRejected() throws IOException {
+    final RawDataFileImpl dataFile = new RawDataFileImpl("truncated.mzML");
+    imported.add(dataFile);
+    final MzMLReadTask task =
+        new MzMLReadTask(project(new ArrayList<>()), copyResource("truncated.mzML"), dataFile);
+    task.run();
+    assertEquals(TaskStatus.ERROR, task.getStatus());
+    assertTrue(task.getErrorMessage(), task.getErrorMessage().contains("Truncated"));
+  }
+
+  @Test
+  public void fileWithoutMsScans() throws IOException {
+    final RawDataFileImpl dataFile = new RawDataFileImpl("uv.mzML");
+    imported.add(dataFile);
+    final MzMLReadTask task =
+        new MzMLReadTask(project(new ArrayList<>()), copyResource("uv.mzML"), dataFile);
+    task.run();
+    assertEquals(TaskStatus.ERROR, task.getStatus());
+    assertEquals("No scans found", task.getErrorMessage());
+  }
+
+  private void checkTestFile(RawDataFile dataFile) {
+    assertArrayEquals(new int[] {1, 2, 4}, dataFile.getScanNumbers());
+    assertArrayEquals(new int[] {1, 4}, dataFile.getScanNumbers(1));
+    assertArrayEquals(new int[] {2}, dataFile.getScanNumbers(2));
+
+    final Scan ms1 = dataFile.getScan(1);
+    assertEquals(1, ms1.getMSLevel());
+    assertEquals(0.5, ms1.getRetentionTime(), 0.0);
+    assertEquals(PolarityType.POSITIVE, ms1.getPolarity());
+    assertEquals("FTMS + p ESI Full ms [100.00-1000.00]", ms1.getScanDefinition());
+    assertArrayEquals(new int[] {2}, ms1.getFragmentScanNumbers());
+    assertDataPoints(new double[] {100.0, 100.5, 200.25, 300.125},
+        new double[] {10.0, 20.5, 1000.0, 5.0}, ms1.getDataPoints());
+
+    final Scan ms2 = dataFile.getScan(2);
+    assertEquals(2, ms2.getMSLevel());
+    assertEquals(0.75, ms2.getRetentionTime(), 1E-12);
+    assertEquals(PolarityType.NEGATIVE, ms2.getPolarity());
+    assertEquals(200.25, ms2.getPrecursorMZ(), 0.0);
+    assertEquals(2, ms2.getPrecursorCharge());
+    assertDataPoints(new double[] {50.5, 75.25, 150.125}, new double[] {1.5, 2.25, 300.0},
+        ms2.getDataPoints());
+
+    assertNull(dataFile.getScan(3));
+
+    final Scan integerIntensities = dataFile.getScan(4);
+    assertEquals(1.25, integerIntensities.getRetentionTime(), 0.0);
+    assertEquals("controllerType=0 controllerNumber=1 scan=4",
+        integerIntensities.getScanDefinition());
+    assertDataPoints(new double[] {400.0, 500.0}, new double[] {123.0, 456.0},
+        integerIntensities.getDataPoints());
+  }
+
+  private static void assertDataPoints(double mzValues[], double intensityValues[],
+      DataPoint dataPoints[]) {
+    final DataPoint expected[] = new DataPoint[mzValues.length];
+    for (int i = 0; i < expected.length; i++)
+      expected[i] = new SimpleDataPoint(mzValues[i], intensityValues[i]);
+    assertArrayEquals(expected, dataPoints);
+  }
+
+  private RawDataFile importFile(File file) throws IOException {
+    final List<RawDataFile> added = new ArrayList<>();
+    final RawDataFileImpl dataFile = new RawDataFileImpl(file.getName());
+    imported.add(dataFile);
+    final MzMLReadTask task = new MzMLReadTask(project(added), file, dataFile);
+    task.run();
+    assertEquals(task.getErrorMessage(), TaskStatus.FINISHED, task.getStatus());
+    assertEquals(1, added.size());
+    assertNotNull(added.get(0));
+    return added.get(0);
+  }
+
+  /**
+   * Project which only collects the imported files (the real one needs the JavaFX thread)
+   */
+  private static MZmineProject project(List<RawDataFile> added) {
+    return (MZmineProject) Proxy.newProxyInstance(MZmineProject.class.getClassLoader(),
+        new Class<?>[] {MZmineProject.class}, (proxy, method, args) -> {
+          if (method.getName().equals("addFile"))
+            added.add((RawDataFile) args[0]);
+          return null;
+        });
+  }
+
+  private File copyResource(String name) throws IOException {
+    final File file = File.createTempFile("mzmine", ".mzML");
+    files.add(file);
+    try (InputStream in = getClass().getResourceAsStream(name)) {
+      assertNotNull(name, in);
+      Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    return file;
+  }
+
+}
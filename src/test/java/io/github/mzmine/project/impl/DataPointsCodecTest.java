@@ -0,0 +1,241 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+package io.github.mzmine.project.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+
+/**
+ * Round trips of the data points codecs, directly and through the temporary data points file of
+ * RawDataFileImpl.
+ */
+public class DataPointsCodecTest {
+
+  @Before
+  public void disableCache() {
+    // Every read must decode the stored record
+    SpectraCache.setMaximumSize(0);
+  }
+
+  @Test
+  public void noneAndDeflateAreExact() throws DataFormatException {
+    final Random random = new Random(1);
+    for (DataPointsCodec codec : new DataPointsCodec[] {DataPointsCodec.NONE,
+        DataPointsCodec.DEFLATE}) {
+      for (int n : new int[] {0, 1, 2, 3, 100, 5000}) {
+        final DataPoint dataPoints[] = profileSpectrum(random, n);
+        assertArrayEquals(toFloats(dataPoints), roundTrip(codec, dataPoints), 0f);
+      }
+    }
+
+    // deflate keeps the bits of any float value, in any order
+    final DataPoint special[] = {new SimpleDataPoint(500.0, Double.NaN),
+        new SimpleDataPoint(100.0, -0.0), new SimpleDataPoint(Double.POSITIVE_INFINITY, -5.0),
+        new SimpleDataPoint(-1.0, Double.MIN_VALUE), new SimpleDataPoint(Float.MAX_VALUE, 1E30)};
+    final float expected[] = toFloats(special);
+    final float decoded[] = roundTrip(DataPointsCodec.DEFLATE, special);
+    for (int i = 0; i < expected.length; i++)
+      assertEquals(Float.floatToRawIntBits(expected[i]), Float.floatToRawIntBits(decoded[i]));
+  }
+
+  @Test
+  public void numpressErrorBounds() throws DataFormatException {
+    final Random random = new Random(2);
+    for (int n : new int[] {1, 2, 3, 100, 5000}) {
+      for (boolean centroid : new boolean[] {false, true}) {
+        final DataPoint dataPoints[] =
+            centroid ? centroidSpectrum(random, n) : profileSpectrum(random, n);
+        final float decoded[] = roundTrip(DataPointsCodec.NUMPRESS, dataPoints);
+        for (int i = 0; i < n; i++) {
+          // m/z: at least float precision, as stored by NONE
+          final double mz = dataPoints[i].getMZ();
+          assertEquals(mz, decoded[2 * i], Math.ulp((float) mz));
+          // intensity: 16 bit logarithm of intensity + 1, relative error below 0.1 %
+          final double intensity = dataPoints[i].getIntensity();
+          assertEquals(intensity, decoded[2 * i + 1], 1E-3 * (intensity + 1));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void numpressRejectsUnsupportedValues() {
+    assertNull(DataPointsCodec.NUMPRESS.encode(
+        new DataPoint[] {new SimpleDataPoint(100.0, 1.0), new SimpleDataPoint(101.0, -1.0)}));
+    assertNull(DataPointsCodec.NUMPRESS
+        .encode(new DataPoint[] {new SimpleDataPoint(Double.NaN, 1.0)}));
+    assertNull(DataPointsCodec.NUMPRESS
+        .encode(new DataPoint[] {new SimpleDataPoint(100.0, Double.POSITIVE_INFINITY)}));
+    assertNotNull(DataPointsCodec.NUMPRESS.encode(new DataPoint[0]));
+  }
+
+  @Test
+  public void truncatedDeflateRecord() {
+    final DataPoint dataPoints[] = profileSpectrum(new Random(3), 1000);
+    final byte encoded[] = DataPointsCodec.DEFLATE.encode(dataPoints);
+    try {
+      DataPointsCodec.DEFLATE.decode(ByteBuffer.wrap(Arrays.copyOf(encoded, encoded.length / 2)),
+          new float[2000], 1000);
+      fail("Truncated record decoded");
+    } catch (DataFormatException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void taggedOffsets() {
+    final long offset = 123456789012L;
+    for (DataPointsCodec codec : DataPointsCodec.values()) {
+      final long tagged = codec.tagOffset(offset);
+      assertEquals(codec, DataPointsCodec.fromTaggedOffset(tagged));
+      assertEquals(offset, DataPointsCodec.untagOffset(tagged));
+    }
+    // uncompressed records, e.g. of loaded projects, have plain offsets
+    assertEquals(offset, DataPointsCodec.NONE.tagOffset(offset));
+    assertEquals(DataPointsCodec.NONE, DataPointsCodec.fromTaggedOffset(offset));
+
+    try {
+      DataPointsCodec.DEFLATE.tagOffset(1L << 56);
+      fail("Offset overlapping the tag accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      DataPointsCodec.fromTaggedOffset(100L << 56);
+      fail("Unknown tag accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void storedRecordsKeepTheirCodec() throws IOException {
+    final Random random = new Random(4);
+    for (DataPointsCodec codec : DataPointsCodec.values()) {
+      final RawDataFileImpl dataFile = new RawDataFileImpl("test", codec);
+      try {
+        final DataPoint single[] = profileSpectrum(random, 500);
+        final DataPoint batch[][] = {centroidSpectrum(random, 50), new DataPoint[0],
+            profileSpectrum(random, 2000)};
+        // negative intensities cannot be stored by NUMPRESS, DEFLATE is used instead
+        final DataPoint negative[] =
+            {new SimpleDataPoint(100.0, 5.0), new SimpleDataPoint(200.0, -5.0)};
+
+        final int singleId = dataFile.storeDataPoints(single);
+        final int batchIds[] = dataFile.storeDataPoints(batch);
+        final int negativeId = dataFile.storeDataPoints(negative);
+
+        assertStored(dataFile, singleId, codec, single);
+        for (int i = 0; i < batch.length; i++)
+          assertStored(dataFile, batchIds[i], codec, batch[i]);
+        assertStored(dataFile, negativeId,
+            codec == DataPointsCodec.NUMPRESS ? DataPointsCodec.DEFLATE : codec, negative);
+      } finally {
+        dataFile.close();
+      }
+    }
+  }
+
+  private static void assertStored(RawDataFileImpl dataFile, int id, DataPointsCodec codec,
+      DataPoint dataPoints[]) throws IOException {
+    assertEquals(codec,
+        DataPointsCodec.fromTaggedOffset(dataFile.getDataPointsOffsets().get(id)));
+    assertEquals(dataPoints.length, dataFile.getNumOfDataPoints(id));
+
+    final DataPoint read[] = dataFile.readDataPoints(id);
+    final float expected[] = toFloats(dataPoints);
+    final float uncompressed[] = new float[dataPoints.length * 2];
+    dataFile.readUncompressedDataPoints(id).asFloatBuffer().get(uncompressed);
+    for (int i = 0; i < dataPoints.length; i++) {
+      if (codec == DataPointsCodec.NUMPRESS) {
+        assertEquals(expected[2 * i], read[i].getMZ(), Math.ulp(expected[2 * i]));
+        assertEquals(expected[2 * i + 1], read[i].getIntensity(),
+            1E-3 * (expected[2 * i + 1] + 1));
+      } else {
+        assertEquals(expected[2 * i], read[i].getMZ(), 0.0);
+        assertEquals(expected[2 * i + 1], read[i].getIntensity(), 0.0);
+      }
+      // the uncompressed format (as in saved projects) holds the decoded values
+      assertEquals(read[i].getMZ(), uncompressed[2 * i], 0.0);
+      assertEquals(read[i].getIntensity(), uncompressed[2 * i + 1], 0.0);
+    }
+  }
+
+  private static float[] roundTrip(DataPointsCodec codec, DataPoint dataPoints[])
+      throws DataFormatException {
+    final byte encoded[] = codec.encode(dataPoints);
+    assertNotNull(encoded);
+    final float decoded[] = new float[dataPoints.length * 2];
+    codec.decode(ByteBuffer.wrap(encoded), decoded, dataPoints.length);
+    return decoded;
+  }
+
+  private static float[] toFloats(DataPoint dataPoints[]) {
+    final float values[] = new float[dataPoints.length * 2];
+    for (int i = 0; i < dataPoints.length; i++) {
+      values[2 * i] = (float) dataPoints[i].getMZ();
+      values[2 * i + 1] = (float) dataPoints[i].getIntensity();
+    }
+    return values;
+  }
+
+  /**
+   * Evenly spaced m/z values with jitter, intensities with zeros and a wide dynamic range
+   */
+  private static DataPoint[] profileSpectrum(Random random, int n) {
+    final DataPoint dataPoints[] = new DataPoint[n];
+    double mz = 100.0 + random.nextDouble();
+    for (int i = 0; i < n; i++) {
+      mz += 0.002 + random.nextDouble() * 1E-5;
+      final double intensity =
+          random.nextInt(4) == 0 ? 0.0 : Math.pow(10.0, random.nextDouble() * 8.0);
+      dataPoints[i] = new SimpleDataPoint(mz, intensity);
+    }
+    return dataPoints;
+  }
+
+  /**
+   * Irregularly spaced m/z values up to 2000
+   */
+  private static DataPoint[] centroidSpectrum(Random random, int n) {
+    final DataPoint dataPoints[] = new DataPoint[n];
+    double mz = 50.0;
+    for (int i = 0; i < n; i++) {
+      mz += random.nextDouble() * 1900.0 / n;
+      dataPoints[i] = new SimpleDataPoint(mz, random.nextDouble() * 1E6);
+    }
+    return dataPoints;
+  }
+
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+package io.github.mzmine.project.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+
+/**
+ * Reads data points from many threads at once while new data points are appended, and checks every
+ * value read. The scaling with the number of threads depends on the machine and is not asserted.
+ * Also checks that the written part of a segment is mapped, that a region of a file is read in
+ * place, and that closing drops the mappings.
+ */
+public class MappedDataPointsReaderTest {
+
+  private static final int THREADS = 8;
+
+  private File file;
+
+  @Before
+  public void disableCache() {
+    // Every read must go through the reader
+    SpectraCache.setMaximumSize(0);
+  }
+
+  @After
+  public void deleteFile() {
+    if (file != null)
+      file.delete();
+  }
+
+  @Test
+  public void concurrentReadsWhileAppending() throws Exception {
+    file = File.createTempFile("mzmine", ".test");
+    final long segmentSize = 4096;
+    final long fileSize = 64 * segmentSize;
+    final AtomicLong written = new AtomicLong();
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      final MappedDataPointsReader reader =
+          new MappedDataPointsReader(raf.getChannel(), segmentSize, 512);
+
+      final ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+      try {
+        final List<Future<?>> futures = new ArrayList<>();
+        futures.add(executor.submit(() -> {
+          // Appends records of random length, some of them crossing segment borders
+          final Random random = new Random(0);
+          while (written.get() < fileSize) {
+            final long start = written.get();
+            final byte record[] = new byte[1 + random.nextInt(1000)];
+            for (int i = 0; i < record.length; i++)
+              record[i] = expectedByte(start + i);
+            raf.getChannel().write(ByteBuffer.wrap(record), start);
+            written.set(start + record.length);
+          }
+          return null;
+        }));
+
+        for (int t = 0; t < THREADS; t++) {
+          final int seed = t + 1;
+          futures.add(executor.submit((Callable<Void>) () -> {
+            final Random random = new Random(seed);
+            long checked = 0;
+            while (written.get() < fileSize || checked < 1000) {
+              final long available = written.get();
+              if (available == 0)
+                continue;
+              final long offset = (long) (random.nextDouble() * available);
+              final int length = (int) Math.min(available - offset, 1 + random.nextInt(2000));
+              final ByteBuffer buffer = reader.read(offset, length);
+              assertEquals(length, buffer.remaining());
+              for (int i = 0; i < length; i++)
+                assertEquals(expectedByte(offset + i), buffer.get());
+              checked++;
+            }
+            return null;
+          }));
+        }
+
+        for (Future<?> future : futures)
+          future.get();
+      } finally {
+        executor.shutdown();
+      }
+
+      // Once the whole file is written, reads within a segment come from the mapped segments
+      final ByteBuffer mapped = reader.read(segmentSize + 10, 100);
+      assertTrue(mapped.isDirect());
+      final ByteBuffer crossing = reader.read(segmentSize - 10, 100);
+      assertFalse(crossing.isDirect());
+      for (int i = 0; i < 100; i++)
+        assertEquals(expectedByte(segmentSize - 10 + i), crossing.get());
+    }
+  }
+
+  @Test
+  public void writtenPartOfSegmentIsMapped() throws IOException {
+    file = File.createTempFile("mzmine", ".test");
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      final MappedDataPointsReader reader =
+          new MappedDataPointsReader(raf.getChannel(), 4096, 512);
+
+      // Only the first 512 bytes are mapped, the rest is read from the channel
+      write(raf, 0, 1000);
+      assertRead(reader, 10, 100, true);
+      assertRead(reader, 600, 100, false);
+
+      // The mapping grows with the file, up to 2560 bytes
+      write(raf, 1000, 3000);
+      assertRead(reader, 10, 100, true);
+      assertRead(reader, 600, 100, true);
+      assertRead(reader, 2400, 100, true);
+      assertRead(reader, 2600, 100, false);
+
+      // Complete segments are mapped entirely
+      write(raf, 3000, 9000);
+      assertRead(reader, 4000, 96, true);
+      assertRead(reader, 4096 + 4000, 96, true);
+      assertRead(reader, 4000, 200, false);
+    }
+  }
+
+  @Test
+  public void regionIsMappedCompletely() throws IOException {
+    file = File.createTempFile("mzmine", ".test");
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      write(raf, 0, 20000);
+      final MappedDataPointsReader reader =
+          new MappedDataPointsReader(raf.getChannel(), 1000, 9000, 4096);
+
+      // Offsets are relative to the start of the region, whose segments are mapped at once
+      assertRegionRead(reader, 1000, 10, 100, true);
+      assertRegionRead(reader, 1000, 8200, 800, true);
+      assertRegionRead(reader, 1000, 4000, 200, false);
+    }
+  }
+
+  @Test
+  public void closeDropsMappedSegments() throws IOException {
+    file = File.createTempFile("mzmine", ".test");
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      final MappedDataPointsReader reader =
+          new MappedDataPointsReader(raf.getChannel(), 4096, 512);
+      write(raf, 0, 8192);
+      assertRead(reader, 10, 100, true);
+
+      reader.close();
+      assertThrows(ClosedChannelException.class, () -> reader.read(10, 100));
+    }
+  }
+
+  @Test
+  public void closeDeletesDataPointsFile() throws IOException {
+    file = File.createTempFile("mzmine", ".scans");
+    final RawDataFileImpl dataFile = new RawDataFileImpl("test");
+    dataFile.openDataPointsFile(file);
+    final int id = dataFile.storeDataPoints(spectrum(0, 100));
+    assertArrayEquals(spectrum(0, 100), dataFile.readDataPoints(id));
+
+    dataFile.close();
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void concurrentDataPointsReads() throws Exception {
+    final RawDataFileImpl dataFile = new RawDataFileImpl("test");
+    try {
+      final int numOfSpectra = 500;
+      final List<Integer> ids = new ArrayList<>();
+      final Random random = new Random(0);
+      for (int s = 0; s < numOfSpectra; s++)
+        ids.add(dataFile.storeDataPoints(spectrum(s, 1 + random.nextInt(2000))));
+      final AtomicInteger stored = new AtomicInteger(numOfSpectra);
+      final AtomicBoolean writing = new AtomicBoolean(true);
+
+      final ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+      try {
+        final List<Future<?>> futures = new ArrayList<>();
+        futures.add(executor.submit((Callable<Void>) () -> {
+          // Keeps appending spectra while the others read
+          try {
+            for (int s = numOfSpectra; s < 2 * numOfSpectra; s++) {
+              final int id = dataFile.storeDataPoints(spectrum(s, 1 + random.nextInt(2000)));
+              assertEquals(s + 1, id);
+              stored.set(s + 1);
+            }
+          } finally {
+            writing.set(false);
+          }
+          return null;
+        }));
+
+        for (int t = 0; t < THREADS; t++) {
+          final int seed = t + 1;
+          futures.add(executor.submit((Callable<Void>) () -> {
+            final Random threadRandom = new Random(seed);
+            double mzValues[] = null, intensityValues[] = null;
+            for (int i = 0; writing.get() || i < 2000; i++) {
+              final int id = 1 + threadRandom.nextInt(stored.get());
+              final int length = dataFile.getNumOfDataPoints(id);
+              final DataPoint expected[] = spectrum(id - 1, length);
+
+              final DataPoint read[] = dataFile.readDataPoints(id);
+              assertEquals(length, read.length);
+              mzValues = dataFile.readMzValues(id, mzValues);
+              intensityValues = dataFile.readIntensityValues(id, intensityValues);
+              for (int k = 0; k < length; k++) {
+                assertEquals(expected[k].getMZ(), read[k].getMZ(), 0.0);
+                assertEquals(expected[k].getIntensity(), read[k].getIntensity(), 0.0);
+                assertEquals(expected[k].getMZ(), mzValues[k], 0.0);
+                assertEquals(expected[k].getIntensity(), intensityValues[k], 0.0);
+              }
+            }
+            return null;
+          }));
+        }
+
+        for (Future<?> future : futures)
+          future.get();
+      } finally {
+        executor.shutdown();
+      }
+
+      assertArrayEquals(spectrum(0, dataFile.getNumOfDataPoints(1)), dataFile.readDataPoints(1));
+    } finally {
+      dataFile.close();
+    }
+  }
+
+  private static void write(RandomAccessFile raf, long from, long to) throws IOException {
+    final byte bytes[] = new byte[(int) (to - from)];
+    for (int i = 0; i < bytes.length; i++)
+      bytes[i] = expectedByte(from + i);
+    raf.getChannel().write(ByteBuffer.wrap(bytes), from);
+  }
+
+  /**
+   * Reads a record and checks its content and whether it comes from a mapped segment.
+   */
+  private static void assertRead(MappedDataPointsReader reader, long offset, int length,
+      boolean mapped) throws IOException {
+    final ByteBuffer buffer = reader.read(offset, length);
+    assertEquals(mapped, buffer.isDirect());
+    assertEquals(length, buffer.remaining());
+    for (int i = 0; i < length; i++)
+      assertEquals(expectedByte(offset + i), buffer.get());
+  }
+
+  private static void assertRegionRead(MappedDataPointsReader reader, long regionStart,
+      long offset, int length, boolean mapped) throws IOException {
+    final ByteBuffer buffer = reader.read(offset, length);
+    assertEquals(mapped, buffer.isDirect());
+    assertEquals(length, buffer.remaining());
+    for (int i = 0; i < length; i++)
+      assertEquals(expectedByte(regionStart + offset + i), buffer.get());
+  }
+
+  private static byte expectedByte(long position) {
+    return (byte) (position * 31 + (position >>> 8) * 7);
+  }
+
+  /**
+   * Data points of the given spectrum, exactly representable as floats.
+   */
+  private static DataPoint[] spectrum(int spectrum, int length) {
+    final DataPoint dataPoints[] = new DataPoint[length];
+    for (int i = 0; i < length; i++)
+      dataPoints[i] = new SimpleDataPoint(100.0 + spectrum + i * 0.125, spectrum * 1000.0 + i);
+    return dataPoints;
+  }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+package io.github.mzmine.project.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.management.ThreadMXBean;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+
+/**
+ * Checks the primitive m/z and intensity accessors of RawDataFileImpl against readDataPoints(), and
+ * that they do not allocate per data point when the destination arrays are reused.
+ */
+public class RawDataFileImplTest {
+
+  private static final int DATA_POINTS = 10000;
+
+  private RawDataFileImpl dataFile;
+
+  private int id;
+
+  @Before
+  public void storeDataPoints() throws IOException {
+    SpectraCache.setMaximumSize(0);
+    dataFile = new RawDataFileImpl("test");
+    final DataPoint dataPoints[] = new DataPoint[DATA_POINTS];
+    for (int i = 0; i < DATA_POINTS; i++)
+      dataPoints[i] = new SimpleDataPoint(100.0 + i * 0.0625, i % 97 * 10.5);
+    id = dataFile.storeDataPoints(dataPoints);
+  }
+
+  @After
+  public void close() {
+    dataFile.close();
+  }
+
+  @Test
+  public void primitiveValuesMatchDataPoints() throws IOException {
+    final DataPoint dataPoints[] = dataFile.readDataPoints(id);
+    final double mzValues[] = dataFile.readMzValues(id, null);
+    final double intensityValues[] = dataFile.readIntensityValues(id, null);
+    final float floatIntensities[] = dataFile.readFloatIntensityValues(id, null);
+    assertEquals(DATA_POINTS, dataFile.getNumOfDataPoints(id));
+    assertEquals(DATA_POINTS, mzValues.length);
+    for (int i = 0; i < DATA_POINTS; i++) {
+      assertEquals(dataPoints[i].getMZ(), mzValues[i], 0.0);
+      assertEquals(dataPoints[i].getIntensity(), intensityValues[i], 0.0);
+      assertEquals(dataPoints[i].getIntensity(), floatIntensities[i], 0.0);
+    }
+
+    // longer arrays are reused, shorter ones replaced
+    final double longer[] = new double[DATA_POINTS + 5];
+    assertTrue(longer == dataFile.readMzValues(id, longer));
+    assertArrayEquals(mzValues, Arrays.copyOf(longer, DATA_POINTS), 0.0);
+    assertEquals(DATA_POINTS, dataFile.readMzValues(id, new double[10]).length);
+  }
+
+  @Test
+  public void reusedArraysDoNotAllocatePerDataPoint() throws IOException {
+    final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    assumeTrue(bean instanceof ThreadMXBean);
+    final ThreadMXBean threadBean = (ThreadMXBean) bean;
+    assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+    threadBean.setThreadAllocatedMemoryEnabled(true);
+    final long thread = Thread.currentThread().getId();
+
+    final int reads = 200;
+    double mzValues[] = dataFile.readMzValues(id, null);
+    double intensityValues[] = dataFile.readIntensityValues(id, null);
+    dataFile.readDataPoints(id);
+
+    long before = threadBean.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < reads; i++) {
+      mzValues = dataFile.readMzValues(id, mzValues);
+      intensityValues = dataFile.readIntensityValues(id, intensityValues);
+    }
+    final long primitive = threadBean.getThreadAllocatedBytes(thread) - before;
+
+    before = threadBean.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < reads; i++)
+      dataFile.readDataPoints(id);
+    final long objects = threadBean.getThreadAllocatedBytes(thread) - before;
+
+    // a few small buffer objects per read, against one object per data point
+    assertTrue("Allocated " + primitive + " bytes", primitive < reads * 1024L);
+    assertTrue("Allocated " + objects + " bytes", objects > reads * DATA_POINTS * 16L);
+  }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.project.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+
+public class SpectraCacheTest {
+
+  private static final int VALUES = 1000;
+
+  @After
+  public void disableCache() {
+    SpectraCache.setMaximumSize(0);
+  }
+
+  @Test
+  public void ownersShareOneBudget() {
+    // Room for four arrays of all owners together
+    SpectraCache.setMaximumSize(4 * VALUES * 4);
+    final Object owners[] = {new Object(), new Object()};
+    for (Object owner : owners) {
+      for (int id = 0; id < 4; id++)
+        SpectraCache.put(owner, id, new float[VALUES]);
+    }
+
+    int cached = 0;
+    for (Object owner : owners) {
+      for (int id = 0; id < 4; id++) {
+        if (SpectraCache.get(owner, id) != null)
+          cached++;
+      }
+    }
+    assertTrue("Cached: " + cached, cached > 0 && cached <= 4);
+  }
+
+  @Test
+  public void entriesCountAgainstTheSameBudget() {
+    SpectraCache.setMaximumSize(1024 * 1024);
+    final Object owner = new Object(), converter = new Object();
+    final SpectraCache.Entry entry = () -> VALUES * 4;
+    SpectraCache.putEntry(converter, 1, entry);
+    assertTrue(entry == SpectraCache.getEntry(converter, 1));
+    // An entry is not returned as an array of the same owner and ID
+    assertNull(SpectraCache.get(converter, 1));
+
+    // Room for eight arrays or entries of the same weight together
+    SpectraCache.setMaximumSize(8 * VALUES * 4);
+    for (int id = 0; id < 8; id++)
+      SpectraCache.putEntry(converter, id, entry);
+    for (int id = 0; id < 8; id++)
+      SpectraCache.put(owner, id, new float[VALUES]);
+    int cached = 0;
+    for (int id = 0; id < 8; id++) {
+      if (SpectraCache.getEntry(converter, id) != null)
+        cached++;
+      if (SpectraCache.get(owner, id) != null)
+        cached++;
+    }
+    assertTrue("Cached: " + cached, cached > 0 && cached <= 8);
+  }
+
+  @Test
+  public void invalidateOneOwner() {
+    SpectraCache.setMaximumSize(1024 * 1024);
+    final Object owner = new Object(), other = new Object();
+    SpectraCache.put(owner, 1, new float[10]);
+    SpectraCache.put(owner, 2, new float[10]);
+    SpectraCache.put(other, 1, new float[10]);
+
+    SpectraCache.invalidate(owner, 2);
+    assertNotNull(SpectraCache.get(owner, 1));
+    assertNull(SpectraCache.get(owner, 2));
+
+    SpectraCache.invalidateAll(owner);
+    assertNull(SpectraCache.get(owner, 1));
+    assertNotNull(SpectraCache.get(other, 1));
+  }
+
+  @Test
+  public void disabledWithZeroBudget() {
+    SpectraCache.setMaximumSize(0);
+    assertFalse(SpectraCache.isEnabled());
+    SpectraCache.put(this, 1, new float[10]);
+    assertNull(SpectraCache.get(this, 1));
+  }
+
+  @Test
+  public void rawDataFilesReadThroughTheCache() throws IOException {
+    SpectraCache.setMaximumSize(1024 * 1024);
+    final RawDataFile files[] = {createFile("a.mzML", 100), createFile("b.mzML", 200)};
+
+    for (int pass = 0; pass < 2; pass++) {
+      for (RawDataFile file : files) {
+        final double offset = file.getName().equals("a.mzML") ? 100 : 200;
+        for (int s = 1; s <= 5; s++) {
+          final DataPoint dataPoints[] = file.getScan(s).getDataPoints();
+          assertEquals(2, dataPoints.length);
+          assertEquals(offset + s, dataPoints[0].getMZ(), 0.0);
+          assertArrayEquals(new double[] {offset + s, offset + s + 0.5},
+              file.getScan(s).getMzValues(null), 0.0);
+        }
+      }
+    }
+    assertTrue(SpectraCache.getStats().hitCount() > 0);
+
+    // Closing a file drops its cached values only
+    final long misses = SpectraCache.getStats().missCount();
+    files[0].close();
+    files[1].getScan(1).getDataPoints();
+    assertEquals(misses, SpectraCache.getStats().missCount());
+  }
+
+  private static RawDataFile createFile(String name, double offset) throws IOException {
+    final RawDataFileImpl file = new RawDataFileImpl(name);
+    for (int s = 1; s <= 5; s++) {
+      final DataPoint dataPoints[] = {new SimpleDataPoint(offset + s, 1000),
+          new SimpleDataPoint(offset + s + 0.5, 500)};
+      file.addScan(new SimpleScan(file, s, 1, 0.1 * s, 0, 0, new int[0], dataPoints,
+          MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "", Range.closed(0.0, 1000.0)));
+    }
+    return file.finishWriting();
+  }
+
+}
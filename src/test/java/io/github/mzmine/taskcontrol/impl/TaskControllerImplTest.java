@@ -0,0 +1,192 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.taskcontrol.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.github.mzmine.taskcontrol.AbstractTask;
+import io.github.mzmine.taskcontrol.TaskPriority;
+import io.github.mzmine.taskcontrol.TaskStatus;
+
+/**
+ * Checks that the task controller starts tasks when they are added, runs at most the preferred
+ * number of NORMAL priority tasks at once, and runs each task at most once.
+ */
+public class TaskControllerImplTest {
+
+  private static final int NUM_OF_THREADS = 2;
+
+  private static final long TIMEOUT_SECONDS = 10;
+
+  // Number of tasks running now and at most
+  private final AtomicInteger running = new AtomicInteger();
+  private final AtomicInteger maxRunning = new AtomicInteger();
+
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  private TaskControllerImpl taskController;
+
+  @Before
+  public void startTaskController() {
+    taskController = new TaskControllerImpl(() -> NUM_OF_THREADS);
+    taskController.initModule();
+  }
+
+  @After
+  public void releaseTasks() {
+    release.countDown();
+  }
+
+  @Test
+  public void normalTaskStartsOnSubmit() throws InterruptedException {
+    // The task controller thread updates the progress every 300 ms. Tasks must not wait for it.
+    final long start = System.nanoTime();
+    for (int i = 0; i < 10; i++) {
+      final CountingTask task = new CountingTask(null);
+      taskController.addTask(task);
+      assertTrue(task.finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+    final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("10 tasks took " + elapsed + " ms", elapsed < 1500);
+  }
+
+  @Test
+  public void numberOfThreadsIsLimited() throws InterruptedException {
+    final List<CountingTask> tasks = new ArrayList<>();
+    for (int i = 0; i < 3 * NUM_OF_THREADS; i++) {
+      final CountingTask task = new CountingTask(release);
+      tasks.add(task);
+      taskController.addTask(task);
+    }
+
+    for (int i = 0; i < NUM_OF_THREADS; i++)
+      assertTrue(tasks.get(i).started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    Thread.sleep(200);
+    assertEquals(NUM_OF_THREADS, running.get());
+
+    release.countDown();
+    for (CountingTask task : tasks)
+      assertTrue(task.finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(NUM_OF_THREADS, maxRunning.get());
+  }
+
+  @Test
+  public void raisedTaskRunsOnce() throws InterruptedException {
+    final CountDownLatch releaseRaised = new CountDownLatch(1);
+    final CountingTask raised = new CountingTask(releaseRaised);
+    fillThreads();
+    taskController.addTask(raised);
+
+    // The raised task does not wait for a free thread
+    taskController.setTaskPriority(raised, TaskPriority.HIGH);
+    assertTrue(raised.started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    // Its waiting entry is skipped while it is running, before the task added after it runs
+    release.countDown();
+    final CountingTask next = new CountingTask(null);
+    taskController.addTask(next);
+    assertTrue(next.finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    releaseRaised.countDown();
+    assertTrue(raised.finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(1, raised.runs.get());
+  }
+
+  @Test
+  public void canceledWaitingTaskIsSkipped() throws InterruptedException {
+    final CountingTask canceled = new CountingTask(null);
+    fillThreads();
+    taskController.addTask(canceled);
+    canceled.cancel();
+
+    release.countDown();
+    final CountingTask next = new CountingTask(null);
+    taskController.addTask(next);
+    assertTrue(next.finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(0, canceled.runs.get());
+    assertEquals(TaskStatus.CANCELED, canceled.getStatus());
+  }
+
+  /**
+   * Occupies all threads for NORMAL priority tasks until the tasks are released
+   */
+  private void fillThreads() throws InterruptedException {
+    for (int i = 0; i < NUM_OF_THREADS; i++) {
+      final CountingTask task = new CountingTask(release);
+      taskController.addTask(task);
+      assertTrue(task.started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+  }
+
+  private class CountingTask extends AbstractTask {
+
+    private final CountDownLatch release;
+    private final AtomicInteger runs = new AtomicInteger();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    /**
+     * @param release the task runs until this latch is released, or finishes at once if null
+     */
+    private CountingTask(CountDownLatch release) {
+      this.release = release;
+    }
+
+    @Override
+    public String getTaskDescription() {
+      return "Counting task";
+    }
+
+    @Override
+    public double getFinishedPercentage() {
+      return 0;
+    }
+
+    @Override
+    public void run() {
+      runs.incrementAndGet();
+      setStatus(TaskStatus.PROCESSING);
+      final int nowRunning = running.incrementAndGet();
+      maxRunning.accumulateAndGet(nowRunning, Math::max);
+      started.countDown();
+      try {
+        if (release != null)
+          release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        setStatus(TaskStatus.FINISHED);
+      } catch (InterruptedException e) {
+        setStatus(TaskStatus.CANCELED);
+      } finally {
+        running.decrementAndGet();
+        finished.countDown();
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+package io.github.mzmine.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+
+import io.github.mzmine.datamodel.PeakListRow;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Compares the range queries of MzRtIndex with a linear scan over all items, as the feature lists
+ * did before the index was added.
+ */
+public class MzRtIndexTest {
+
+  private static class Item {
+    final double mz, rt;
+
+    Item(double mz, double rt) {
+      this.mz = mz;
+      this.rt = rt;
+    }
+  }
+
+  @Test
+  public void queriesMatchLinearScan() {
+    final Random random = new Random(1);
+    final List<Item> items = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      // rounded values produce ties and values on the range bounds
+      final double mz = Math.rint(random.nextDouble() * 1000.0) / 10.0;
+      final double rt =
+          random.nextInt(20) == 0 ? Double.NaN : Math.rint(random.nextDouble() * 300.0) / 10.0;
+      items.add(new Item(mz, rt));
+    }
+    final MzRtIndex<Item> index = new MzRtIndex<>(items, item -> item.mz, item -> item.rt);
+    assertEquals(items.size(), index.size());
+
+    for (int query = 0; query < 2000; query++) {
+      final Range<Double> mzRange = randomRange(random, 100.0, 5.0);
+      final Range<Double> rtRange = randomRange(random, 30.0, 2.0);
+      final List<Item> expected = items.stream()
+          .filter(item -> mzRange.contains(item.mz) && rtRange.contains(item.rt))
+          .collect(Collectors.toList());
+      assertEquals(expected, index.getItemsInside(mzRange, rtRange));
+    }
+
+    // float ranges, as used for RT by the modular feature lists
+    final Range<Float> rtRange = Range.closed(10f, 12.5f);
+    final List<Item> expected = items.stream()
+        .filter(item -> rtRange.contains((float) item.rt)).collect(Collectors.toList());
+    assertEquals(expected, index.getItemsInside(Range.all(), rtRange));
+  }
+
+  @Test
+  public void emptyIndex() {
+    final MzRtIndex<Item> index =
+        new MzRtIndex<>(new ArrayList<Item>(), item -> item.mz, item -> item.rt);
+    assertEquals(0, index.getItemsInside(Range.closed(0.0, 10.0), Range.all()).size());
+    assertEquals(0, index.getItemsInside(Range.all(), Range.all()).size());
+  }
+
+  @Test
+  public void featureListFollowsRowChanges() throws IOException {
+    final SimplePeakList peakList = new SimplePeakList("test", new RawDataFileImpl("test"));
+    final SimplePeakListRow rows[] = new SimplePeakListRow[10];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = new SimplePeakListRow(i + 1);
+      rows[i].setAverageMZ(100.0 + i);
+      rows[i].setAverageRT(1.0 + i);
+      peakList.addRow(rows[i]);
+    }
+
+    final Range<Double> mzRange = Range.closed(102.0, 104.0);
+    assertArrayEquals(new PeakListRow[] {rows[2], rows[3], rows[4]},
+        peakList.getRowsInsideMZRange(mzRange));
+    assertArrayEquals(new PeakListRow[] {rows[3], rows[4]},
+        peakList.getRowsInsideScanAndMZRange(Range.atLeast(4.0), mzRange));
+
+    // a changed row value is seen by the next query
+    rows[9].setAverageMZ(103.5);
+    assertArrayEquals(new PeakListRow[] {rows[2], rows[3], rows[4], rows[9]},
+        peakList.getRowsInsideMZRange(mzRange));
+    rows[3].setAverageRT(20.0);
+    assertArrayEquals(new PeakListRow[] {rows[3], rows[9]},
+        peakList.getRowsInsideScanRange(Range.closed(10.0, 20.0)));
+
+    // so are added and removed rows
+    final SimplePeakListRow added = new SimplePeakListRow(11);
+    added.setAverageMZ(102.5);
+    added.setAverageRT(5.0);
+    peakList.addRow(added);
+    peakList.removeRow(rows[2]);
+    assertArrayEquals(new PeakListRow[] {rows[3], rows[4], rows[9], added},
+        peakList.getRowsInsideMZRange(mzRange));
+  }
+
+  /**
+   * Closed, open, half-bounded or unbounded range inside [0, max]
+   */
+  private static Range<Double> randomRange(Random random, double max, double maxWidth) {
+    final double lower = Math.rint(random.nextDouble() * max * 10.0) / 10.0;
+    final double upper = lower + Math.rint(random.nextDouble() * maxWidth * 10.0) / 10.0;
+    final BoundType lowerType = random.nextBoolean() ? BoundType.CLOSED : BoundType.OPEN;
+    final BoundType upperType = random.nextBoolean() ? BoundType.CLOSED : BoundType.OPEN;
+    switch (random.nextInt(8)) {
+      case 0:
+        return Range.all();
+      case 1:
+        return Range.downTo(lower, lowerType);
+      case 2:
+        return Range.upTo(upper, upperType);
+      default:
+        if (lower == upper && (lowerType == BoundType.OPEN || upperType == BoundType.OPEN))
+          return Range.closed(lower, upper);
+        return Range.range(lower, lowerType, upper, upperType);
+    }
+  }
+
+}
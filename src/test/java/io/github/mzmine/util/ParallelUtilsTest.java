@@ -0,0 +1,93 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class ParallelUtilsTest {
+
+  @Test
+  public void parallelStreamRunsInThePool() {
+    final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    final int sum = ParallelUtils.call(3, () -> IntStream.range(0, 10000).parallel().map(i -> {
+      threads.add(Thread.currentThread());
+      return i % 7;
+    }).sum());
+
+    assertEquals(IntStream.range(0, 10000).map(i -> i % 7).sum(), sum);
+    assertTrue(threads.size() <= 3);
+    for (Thread thread : threads) {
+      // Every element is processed by a worker of the dedicated pool, never the common pool
+      assertTrue(thread instanceof ForkJoinWorkerThread);
+      assertFalse(((ForkJoinWorkerThread) thread).getPool() == ForkJoinPool.commonPool());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void exceptionsAreRethrown() {
+    ParallelUtils.run(2, () -> IntStream.range(0, 100).parallel().forEach(i -> {
+      if (i == 42)
+        throw new IllegalArgumentException("test");
+    }));
+  }
+
+  @Test
+  public void givenPoolIsReused() {
+    final ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      for (int run = 0; run < 3; run++) {
+        final Set<ForkJoinPool> pools = ConcurrentHashMap.newKeySet();
+        ParallelUtils.run(pool, () -> IntStream.range(0, 1000).parallel()
+            .forEach(i -> pools.add(((ForkJoinWorkerThread) Thread.currentThread()).getPool())));
+        assertEquals(Set.of(pool), pools);
+        assertFalse(pool.isShutdown());
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void exceptionsAreRethrownFromGivenPool() {
+    final ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      ParallelUtils.call(pool, () -> {
+        throw new IllegalArgumentException("test");
+      });
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void defaultsToProcessorsWithoutConfiguration() {
+    assertEquals(Runtime.getRuntime().availableProcessors(), ParallelUtils.getNumOfThreads());
+  }
+
+}
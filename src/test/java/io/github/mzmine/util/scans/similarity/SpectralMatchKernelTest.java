@@ -0,0 +1,251 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+package io.github.mzmine.util.scans.similarity;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+import org.junit.Test;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.util.maths.similarity.Similarity;
+import io.github.mzmine.util.scans.ScanAlignment;
+import io.github.mzmine.util.scans.similarity.impl.composite.CompositeCosineSpectralSimilarity;
+import io.github.mzmine.util.scans.similarity.impl.composite.CompositeCosineSpectralSimilarityParameters;
+import io.github.mzmine.util.scans.similarity.impl.cosine.WeightedCosineSpectralSimilarity;
+import io.github.mzmine.util.scans.similarity.impl.cosine.WeightedCosineSpectralSimilarityParameters;
+
+/**
+ * Compares the weighted and composite cosine similarities, which are computed by
+ * SpectralMatchKernel, with the previous implementations on top of
+ * {@link ScanAlignment#align(MZTolerance, DataPoint[], DataPoint[])}. Scores must be bit-identical.
+ */
+public class SpectralMatchKernelTest {
+
+  private static final int PAIRS = 20000;
+
+  private static final double MIN_COSINE = 0.1;
+
+  private static final MZTolerance TOLERANCES[] =
+      {new MZTolerance(0.005, 10.0), new MZTolerance(0.02, 0.0), new MZTolerance(0.0, 50.0)};
+
+  @Test
+  public void weightedCosineIsBitIdentical() {
+    final WeightedCosineSpectralSimilarity function = new WeightedCosineSpectralSimilarity();
+    final ParameterSet parameters = new WeightedCosineSpectralSimilarityParameters();
+    parameters.getParameter(WeightedCosineSpectralSimilarityParameters.minCosine)
+        .setValue(MIN_COSINE);
+
+    final Random random = new Random(1);
+    for (int pair = 0; pair < PAIRS; pair++) {
+      final Weights weights = Weights.VALUES[pair % Weights.VALUES.length];
+      final boolean removeUnmatched = random.nextBoolean();
+      final MZTolerance mzTol = TOLERANCES[random.nextInt(TOLERANCES.length)];
+      parameters.getParameter(WeightedCosineSpectralSimilarityParameters.weight).setValue(weights);
+      parameters.getParameter(WeightedCosineSpectralSimilarityParameters.removeUnmatched)
+          .setValue(removeUnmatched);
+
+      final DataPoint library[] = randomSpectrum(random);
+      final DataPoint query[] = randomQuery(random, library);
+      final DataPoint libraryCopy[] = library.clone(), queryCopy[] = query.clone();
+
+      final SpectralSimilarity expected =
+          previousWeightedCosine(weights, removeUnmatched, MIN_COSINE, mzTol, library, query);
+      final SpectralSimilarity actual =
+          function.getSimilarity(parameters, mzTol, 0, library, query);
+      assertSame(expected, actual);
+
+      // the spectra are not modified
+      assertArrayEquals(libraryCopy, library);
+      assertArrayEquals(queryCopy, query);
+    }
+  }
+
+  @Test
+  public void compositeCosineIsBitIdentical() {
+    final CompositeCosineSpectralSimilarity function = new CompositeCosineSpectralSimilarity();
+    final ParameterSet parameters = new CompositeCosineSpectralSimilarityParameters();
+    parameters.getParameter(CompositeCosineSpectralSimilarityParameters.minCosine)
+        .setValue(MIN_COSINE);
+
+    final Random random = new Random(2);
+    for (int pair = 0; pair < PAIRS; pair++) {
+      final Weights weights = Weights.VALUES[pair % Weights.VALUES.length];
+      final boolean removeUnmatched = random.nextBoolean();
+      final MZTolerance mzTol = TOLERANCES[random.nextInt(TOLERANCES.length)];
+      parameters.getParameter(CompositeCosineSpectralSimilarityParameters.weight)
+          .setValue(weights);
+      parameters.getParameter(CompositeCosineSpectralSimilarityParameters.removeUnmatched)
+          .setValue(removeUnmatched);
+
+      final DataPoint library[] = randomSpectrum(random);
+      final DataPoint query[] = randomQuery(random, library);
+
+      final SpectralSimilarity expected =
+          previousCompositeCosine(weights, removeUnmatched, MIN_COSINE, mzTol, library, query);
+      final SpectralSimilarity actual =
+          function.getSimilarity(parameters, mzTol, 1, library, query);
+      assertSame(expected, actual);
+    }
+  }
+
+  private static void assertSame(SpectralSimilarity expected, SpectralSimilarity actual) {
+    if (expected == null) {
+      assertEquals(null, actual);
+      return;
+    }
+    assertNotNull(actual);
+    // bit-identical, including NaN
+    assertEquals(Double.doubleToLongBits(expected.getScore()),
+        Double.doubleToLongBits(actual.getScore()));
+    assertEquals(expected.getOverlap(), actual.getOverlap());
+    assertArrayEquals(expected.getLibrary(), actual.getLibrary());
+    assertArrayEquals(expected.getQuery(), actual.getQuery());
+    assertEquals(expected.getAlignedDataPoints().length, actual.getAlignedDataPoints().length);
+    for (int i = 0; i < expected.getAlignedDataPoints().length; i++)
+      assertArrayEquals(expected.getAlignedDataPoints()[i], actual.getAlignedDataPoints()[i]);
+  }
+
+  /**
+   * 1 to 200 signals. Intensities are rounded to produce ties.
+   */
+  static DataPoint[] randomSpectrum(Random random) {
+    final int n = 1 + random.nextInt(random.nextBoolean() ? 30 : 200);
+    final DataPoint spectrum[] = new DataPoint[n];
+    for (int i = 0; i < n; i++) {
+      final double mz = 50.0 + random.nextDouble() * 950.0;
+      final double intensity = random.nextBoolean() ? Math.rint(random.nextDouble() * 10.0) + 1.0
+          : random.nextDouble() * 1E6;
+      spectrum[i] = new SimpleDataPoint(mz, intensity);
+    }
+    return spectrum;
+  }
+
+  /**
+   * Shifted copies of some library signals, some of them doubled within the tolerance, plus noise
+   * signals, in random order.
+   */
+  static DataPoint[] randomQuery(Random random, DataPoint library[]) {
+    final DataPoint noise[] = randomSpectrum(random);
+    final DataPoint query[] = new DataPoint[2 * library.length + noise.length];
+    int n = 0;
+    for (DataPoint dp : library) {
+      if (random.nextInt(4) == 0)
+        continue;
+      final double intensity = random.nextBoolean() ? dp.getIntensity()
+          : dp.getIntensity() * (0.5 + random.nextDouble());
+      query[n++] = new SimpleDataPoint(dp.getMZ() + (random.nextDouble() - 0.5) * 0.02, intensity);
+      if (random.nextInt(5) == 0)
+        query[n++] = new SimpleDataPoint(dp.getMZ() + (random.nextDouble() - 0.5) * 0.01,
+            intensity * random.nextDouble());
+    }
+    for (int i = 0; i < noise.length && random.nextBoolean(); i++)
+      query[n++] = noise[i];
+    final DataPoint result[] = Arrays.copyOf(query, n);
+    for (int i = n - 1; i > 0; i--) {
+      final int j = random.nextInt(i + 1);
+      final DataPoint swap = result[i];
+      result[i] = result[j];
+      result[j] = swap;
+    }
+    return result;
+  }
+
+  /**
+   * WeightedCosineSpectralSimilarity before SpectralMatchKernel
+   */
+  static SpectralSimilarity previousWeightedCosine(Weights weights,
+      boolean removeUnmatched, double minCos, MZTolerance mzTol, DataPoint library[],
+      DataPoint query[]) {
+    // ScanAlignment.align sorts the spectra in place
+    library = library.clone();
+    query = query.clone();
+    List<DataPoint[]> aligned = ScanAlignment.align(mzTol, library, query);
+    if (removeUnmatched)
+      aligned = ScanAlignment.removeUnaligned(aligned);
+    int overlap = calcOverlap(aligned);
+
+    double[][] diffArray =
+        ScanAlignment.toIntensityMatrixWeighted(aligned, weights.getIntensity(), weights.getMz());
+    double diffCosine = Similarity.COSINE.calc(diffArray);
+    if (!(diffCosine >= minCos))
+      return null;
+    return new SpectralSimilarity("", diffCosine, overlap, library, query, aligned);
+  }
+
+  /**
+   * CompositeCosineSpectralSimilarity before SpectralMatchKernel
+   */
+  private static SpectralSimilarity previousCompositeCosine(Weights weights,
+      boolean removeUnmatched, double minCos, MZTolerance mzTol, DataPoint library[],
+      DataPoint query[]) {
+    library = library.clone();
+    query = query.clone();
+    List<DataPoint[]> aligned = ScanAlignment.align(mzTol, library, query);
+    if (removeUnmatched)
+      aligned = ScanAlignment.removeUnaligned(aligned);
+
+    int queryN = query.length;
+    int overlap = calcOverlap(aligned);
+    if (overlap < 1)
+      return null;
+
+    double relativeFactor = calcRelativeNeighbourFactor(aligned);
+    double[][] diffArray =
+        ScanAlignment.toIntensityMatrixWeighted(aligned, weights.getIntensity(), weights.getMz());
+    double diffCosine = Similarity.COSINE.calc(diffArray);
+    double composite = (queryN * diffCosine + overlap * relativeFactor) / (queryN + overlap);
+    if (!(composite >= minCos))
+      return null;
+    return new SpectralSimilarity("", composite, overlap, library, query, aligned);
+  }
+
+  private static int calcOverlap(List<DataPoint[]> aligned) {
+    return (int) aligned.stream().filter(dp -> dp[0] != null && dp[1] != null).count();
+  }
+
+  private static double calcRelativeNeighbourFactor(List<DataPoint[]> aligned) {
+    List<DataPoint[]> filtered = ScanAlignment.removeUnaligned(aligned);
+    filtered.sort((a, b) -> Double.compare(getMinMZ(a), getMinMZ(b)));
+
+    int overlap = calcOverlap(aligned);
+    double factor = 0;
+    for (int i = 1; i < filtered.size(); i++) {
+      DataPoint[] match1 = filtered.get(i - 1);
+      DataPoint[] match2 = filtered.get(i);
+      double ratioLibrary = match2[0].getIntensity() / match1[0].getIntensity();
+      double ratioQuery = match2[1].getIntensity() / match1[1].getIntensity();
+      factor += Math.min(ratioLibrary, ratioQuery) / Math.max(ratioLibrary, ratioQuery);
+    }
+    return factor / (overlap);
+  }
+
+  private static double getMinMZ(DataPoint[] dp) {
+    return Arrays.stream(dp).filter(Objects::nonNull).mapToDouble(DataPoint::getMZ).min().orElse(0);
+  }
+
+}
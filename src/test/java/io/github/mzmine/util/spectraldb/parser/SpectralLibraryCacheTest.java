@@ -0,0 +1,182 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.spectraldb.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.util.spectraldb.entry.DBEntryField;
+import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
+
+public class SpectralLibraryCacheTest {
+
+  private static final double PRECURSORS[] = {300.1, 150.2, 0, 450.3, 150.2, 200.4};
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @After
+  public void disableCache() {
+    SpectralLibraryCache.setCacheDirectory(null, 0);
+  }
+
+  @Test
+  public void entriesAndPrecursorTable() throws IOException {
+    SpectralLibraryCache.setCacheDirectory(folder.newFolder("cache"), 1L << 30);
+    final File library = writeLibrary("library.msp", "library");
+    final List<SpectralDBEntry> entries = createEntries();
+    writeCache(library, entries);
+
+    final SpectralLibraryCache cache = SpectralLibraryCache.open(library);
+    assertNotNull(cache);
+    assertEquals(entries.size(), cache.getEntryCount());
+    for (int i = 0; i < entries.size(); i++) {
+      final SpectralDBEntry entry = cache.getEntry(i);
+      assertEquals(entries.get(i).getField(DBEntryField.NAME), entry.getField(DBEntryField.NAME));
+      assertEquals(entries.get(i).getPrecursorMZ(), entry.getPrecursorMZ());
+      assertEquals(entries.get(i).getField(DBEntryField.CHARGE),
+          entry.getField(DBEntryField.CHARGE));
+      assertArrayEquals(entries.get(i).getDataPoints(), entry.getDataPoints());
+    }
+
+    // sorted by precursor m/z, entries without precursor m/z are left out, equal precursor m/z in
+    // library order
+    final int expectedOrder[] = {1, 4, 5, 0, 3};
+    assertEquals(expectedOrder.length, cache.getPrecursorCount());
+    for (int p = 0; p < expectedOrder.length; p++) {
+      assertEquals(expectedOrder[p], cache.getPrecursorEntry(p));
+      assertEquals(PRECURSORS[expectedOrder[p]], cache.getPrecursorMZ(p), 0d);
+    }
+    assertEquals(0, cache.getPrecursorPosition(100));
+    assertEquals(0, cache.getPrecursorPosition(150.2));
+    assertEquals(2, cache.getPrecursorPosition(Math.nextUp(150.2)));
+    assertEquals(5, cache.getPrecursorPosition(500));
+  }
+
+  @Test
+  public void changedLibraryIsNotRead() throws IOException {
+    SpectralLibraryCache.setCacheDirectory(folder.newFolder("cache"), 1L << 30);
+    final File library = writeLibrary("library.msp", "library");
+    writeCache(library, createEntries());
+    assertNotNull(SpectralLibraryCache.open(library));
+
+    writeLibrary("library.msp", "changed library");
+    assertNull(SpectralLibraryCache.open(library));
+  }
+
+  @Test
+  public void disabledCache() throws IOException {
+    final File directory = folder.newFolder("cache");
+    SpectralLibraryCache.setCacheDirectory(directory, 1L << 30);
+    final File library = writeLibrary("library.msp", "library");
+    writeCache(library, createEntries());
+
+    SpectralLibraryCache.setCacheDirectory(null, 0);
+    assertFalse(SpectralLibraryCache.isEnabled());
+    assertNull(SpectralLibraryCache.getCacheFile(library));
+    assertNull(SpectralLibraryCache.open(library));
+    try {
+      new SpectralLibraryCache.Writer(library);
+      throw new AssertionError("No cache is written when caching is disabled");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void leastRecentlyUsedCachesAreDeleted() throws IOException {
+    final File directory = folder.newFolder("cache");
+    final File libraries[] = new File[3];
+    for (int i = 0; i < libraries.length; i++)
+      libraries[i] = writeLibrary("library" + i + ".msp", "library " + i);
+
+    SpectralLibraryCache.setCacheDirectory(directory, 1L << 30);
+    writeCache(libraries[0], createEntries());
+    writeCache(libraries[1], createEntries());
+    final long cacheSize = SpectralLibraryCache.getCacheFile(libraries[0]).length();
+    // the first cache was used more recently than the second
+    SpectralLibraryCache.getCacheFile(libraries[0]).setLastModified(1000000000000L);
+    SpectralLibraryCache.getCacheFile(libraries[1]).setLastModified(900000000000L);
+    assertNotNull(SpectralLibraryCache.open(libraries[0]));
+
+    // room for two caches
+    SpectralLibraryCache.setCacheDirectory(directory, 2 * cacheSize + cacheSize / 2);
+    writeCache(libraries[2], createEntries());
+    assertTrue(SpectralLibraryCache.getCacheFile(libraries[0]).isFile());
+    assertFalse(SpectralLibraryCache.getCacheFile(libraries[1]).isFile());
+    assertTrue(SpectralLibraryCache.getCacheFile(libraries[2]).isFile());
+
+    // a cache larger than the maximum size is not kept
+    SpectralLibraryCache.setCacheDirectory(directory, cacheSize / 2);
+    writeCache(libraries[1], createEntries());
+    assertFalse(SpectralLibraryCache.getCacheFile(libraries[1]).isFile());
+    assertEquals(2, directory.listFiles().length);
+  }
+
+  private File writeLibrary(String name, String content) throws IOException {
+    final File library = new File(folder.getRoot(), name);
+    try (FileWriter writer = new FileWriter(library)) {
+      writer.write(content);
+    }
+    return library;
+  }
+
+  private static void writeCache(File library, List<SpectralDBEntry> entries) throws IOException {
+    final SpectralLibraryCache.Writer writer = new SpectralLibraryCache.Writer(library);
+    for (SpectralDBEntry entry : entries)
+      assertTrue(writer.add(entry));
+    writer.commit();
+  }
+
+  private static List<SpectralDBEntry> createEntries() {
+    final List<SpectralDBEntry> entries = new ArrayList<>();
+    for (int e = 0; e < PRECURSORS.length; e++) {
+      final Map<DBEntryField, Object> fields = new EnumMap<>(DBEntryField.class);
+      fields.put(DBEntryField.NAME, "compound " + e);
+      if (PRECURSORS[e] > 0)
+        fields.put(DBEntryField.MZ, PRECURSORS[e]);
+      fields.put(DBEntryField.CHARGE, e % 2 + 1);
+      final DataPoint dps[] = new DataPoint[e + 1];
+      for (int i = 0; i < dps.length; i++)
+        dps[i] = new SimpleDataPoint(50.5 + 10 * i, 1000.25 * (e + 1));
+      entries.add(new SpectralDBEntry(fields, dps));
+    }
+    return entries;
+  }
+
+}